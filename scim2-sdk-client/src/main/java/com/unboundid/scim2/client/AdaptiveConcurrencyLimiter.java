@@ -0,0 +1,287 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Limits the number of concurrent requests to a service provider and adapts
+ * the limit to the load the service provider can sustain, using additive
+ * increase and multiplicative decrease (AIMD).
+ * <p>
+ * Every request acquires a permit before it is sent and releases it with the
+ * outcome of the request. Each successful request increases the limit by
+ * {@code 1 / limit}, which raises the limit by about one per round trip
+ * while the limiter is in use, and each request rejected by an overloaded
+ * service provider or failing to reach it multiplies the limit by the
+ * backoff ratio. Requests that cannot acquire a permit wait in the order
+ * they were made. Jobs that send many requests, such as bulk provisioning,
+ * thereby settle at the concurrency the service provider sustains instead of
+ * overloading it further.
+ * <p>
+ * To enable the limiter, set it with
+ * {@link ScimService#setConcurrencyLimiter(AdaptiveConcurrencyLimiter)}, or
+ * set it as the {@link #PROPERTY} property of the WebTarget used by request
+ * builders. A limiter may be shared by several services to the same service
+ * provider.
+ */
+public final class AdaptiveConcurrencyLimiter
+{
+  /**
+   * The name of the WebTarget configuration property holding the limiter
+   * used by request builders.
+   */
+  public static final String PROPERTY =
+      AdaptiveConcurrencyLimiter.class.getName();
+
+  /**
+   * The default initial limit.
+   */
+  public static final int DEFAULT_INITIAL_LIMIT = 10;
+
+  /**
+   * The default maximum limit.
+   */
+  public static final int DEFAULT_MAX_LIMIT = 200;
+
+  /**
+   * The default ratio the limit is multiplied with when the service provider
+   * is overloaded.
+   */
+  public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final ArrayDeque<CompletableFuture<Void>> waiters =
+      new ArrayDeque<CompletableFuture<Void>>();
+  private double limit;
+  private int inFlight;
+
+  /**
+   * Create a new limiter with the default settings.
+   */
+  public AdaptiveConcurrencyLimiter()
+  {
+    this(DEFAULT_INITIAL_LIMIT, 1, DEFAULT_MAX_LIMIT, DEFAULT_BACKOFF_RATIO);
+  }
+
+  /**
+   * Create a new limiter.
+   *
+   * @param initialLimit The initial number of concurrent requests.
+   * @param minLimit The minimum number of concurrent requests.
+   * @param maxLimit The maximum number of concurrent requests.
+   * @param backoffRatio The ratio between {@code 0} and {@code 1} that the
+   *                     limit is multiplied with when the service provider
+   *                     is overloaded.
+   */
+  public AdaptiveConcurrencyLimiter(final int initialLimit,
+                                    final int minLimit,
+                                    final int maxLimit,
+                                    final double backoffRatio)
+  {
+    if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit)
+    {
+      throw new IllegalArgumentException(
+          "Limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+    }
+    if (backoffRatio <= 0 || backoffRatio >= 1)
+    {
+      throw new IllegalArgumentException(
+          "backoffRatio must be between 0 and 1");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * Acquire a permit to send a request, waiting until one is available.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public void acquire() throws InterruptedException
+  {
+    CompletableFuture<Void> permit = acquireAsync();
+    try
+    {
+      permit.get();
+    }
+    catch (InterruptedException e)
+    {
+      if (!permit.cancel(false))
+      {
+        // The permit was granted concurrently.
+        onIgnore();
+      }
+      throw e;
+    }
+    catch (ExecutionException e)
+    {
+      // Permits are never completed exceptionally.
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Acquire a permit to send a request asynchronously. Cancelling the
+   * returned future before it completes gives up waiting for the permit.
+   *
+   * @return A future that completes when the permit has been acquired.
+   */
+  public CompletableFuture<Void> acquireAsync()
+  {
+    CompletableFuture<Void> permit = new CompletableFuture<Void>();
+    synchronized (this)
+    {
+      while (!waiters.isEmpty() && waiters.peek().isDone())
+      {
+        // Discard cancelled permits.
+        waiters.poll();
+      }
+      if (waiters.isEmpty() && inFlight < getPermits())
+      {
+        inFlight++;
+        permit.complete(null);
+      }
+      else
+      {
+        waiters.add(permit);
+      }
+    }
+    return permit;
+  }
+
+  /**
+   * Release a permit after a successful request, which includes any
+   * response from a service provider that is not overloaded.
+   */
+  public void onSuccess()
+  {
+    synchronized (this)
+    {
+      // Only grow the limit while it is actually being used.
+      if (inFlight * 2 >= limit)
+      {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+    }
+    release();
+  }
+
+  /**
+   * Release a permit after a request that was rejected because the service
+   * provider is overloaded, or that failed to reach it.
+   */
+  public void onDropped()
+  {
+    synchronized (this)
+    {
+      limit = Math.max(minLimit, limit * backoffRatio);
+    }
+    release();
+  }
+
+  /**
+   * Release a permit without adjusting the limit, for example when the
+   * request was cancelled before it completed.
+   */
+  public void onIgnore()
+  {
+    release();
+  }
+
+  /**
+   * Retrieves the current limit.
+   *
+   * @return The current number of concurrent requests allowed.
+   */
+  public synchronized int getLimit()
+  {
+    return getPermits();
+  }
+
+  /**
+   * Retrieves the number of acquired permits.
+   *
+   * @return The number of acquired permits.
+   */
+  public synchronized int getInFlight()
+  {
+    return inFlight;
+  }
+
+  /**
+   * Retrieves the number of requests waiting for a permit.
+   *
+   * @return The number of requests waiting for a permit.
+   */
+  public synchronized int getWaiting()
+  {
+    return waiters.size();
+  }
+
+  /**
+   * Retrieves the number of permits allowed by the current limit. The lock
+   * must be held.
+   *
+   * @return The number of permits.
+   */
+  private int getPermits()
+  {
+    return (int) limit;
+  }
+
+  /**
+   * Release a permit and grant permits to waiting requests.
+   */
+  private void release()
+  {
+    List<CompletableFuture<Void>> granted =
+        new ArrayList<CompletableFuture<Void>>();
+    synchronized (this)
+    {
+      inFlight--;
+      while (inFlight < getPermits() && !waiters.isEmpty())
+      {
+        CompletableFuture<Void> permit = waiters.poll();
+        if (!permit.isDone())
+        {
+          inFlight++;
+          granted.add(permit);
+        }
+      }
+    }
+    // Complete the permits without holding the lock, since completing them
+    // sends their requests.
+    for (CompletableFuture<Void> permit : granted)
+    {
+      if (!permit.complete(null))
+      {
+        // The permit was cancelled concurrently.
+        release();
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.messages.ListResponse;
+import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.types.ResourceTypeResource;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.types.ServiceProviderConfigResource;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interface providing a way to create, retrieve, update and delete
+ * SCIM resources asynchronously. Each method is the asynchronous counterpart
+ * of the {@link ScimInterface} method of the same name without the
+ * {@code Async} suffix. Instead of throwing a ScimException, the returned
+ * futures complete exceptionally with the ScimException the synchronous
+ * method would have thrown.
+ */
+public interface AsyncScimInterface
+{
+  /**
+   * Retrieve the service provider configuration.
+   *
+   * @return A future for the service provider configuration.
+   */
+  CompletableFuture<ServiceProviderConfigResource>
+      getServiceProviderConfigAsync();
+
+  /**
+   * Retrieve the resource types supported by the service provider.
+   *
+   * @return A future for the list of resource types supported by the service
+   *         provider.
+   */
+  CompletableFuture<ListResponse<ResourceTypeResource>>
+      getResourceTypesAsync();
+
+  /**
+   * Retrieve a known resource type supported by the service provider.
+   *
+   * @param name The name of the resource type.
+   * @return A future for the resource type with the provided name.
+   */
+  CompletableFuture<ResourceTypeResource> getResourceTypeAsync(String name);
+
+  /**
+   * Retrieve the schemas supported by the service provider.
+   *
+   * @return A future for the list of schemas supported by the service
+   *         provider.
+   */
+  CompletableFuture<ListResponse<SchemaResource>> getSchemasAsync();
+
+  /**
+   * Retrieve a known schema supported by the service provider.
+   *
+   * @param id The schema URN.
+   * @return A future for the schema with the provided URN.
+   */
+  CompletableFuture<SchemaResource> getSchemaAsync(String id);
+
+  /**
+   * Create the provided new SCIM resource at the service provider.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param resource The new resource to create.
+   * @param <T> The Java type of the resource.
+   * @return A future for the successfully created SCIM resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> createAsync(
+      String endpoint, T resource);
+
+  /**
+   * Retrieve a known SCIM resource from the service provider.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param id The resource identifier (for example the value of the
+   *           "{@code id}" attribute).
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return A future for the successfully retrieved SCIM resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> retrieveAsync(
+      String endpoint, String id, Class<T> cls);
+
+  /**
+   * Retrieve a known SCIM resource from the service provider.
+   *
+   * @param resource The resource to retrieve.
+   * @param <T> The Java type of the resource.
+   * @return A future for the successfully retrieved SCIM resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> retrieveAsync(T resource);
+
+  /**
+   * Modify a SCIM resource by replacing the resource's attributes at the
+   * service provider.
+   *
+   * @param resource The previously retrieved and revised resource.
+   * @param <T> The Java type of the resource.
+   * @return A future for the successfully replaced SCIM resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> replaceAsync(T resource);
+
+  /**
+   * Modify a SCIM resource by updating one or more attributes using a
+   * sequence of operations to "{@code add}", "{@code remove}", or
+   * "{@code replace}" values.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param id The resource identifier (for example the value of the
+   *           "{@code id}" attribute).
+   * @param patchRequest the patch request to use for the update.
+   * @param clazz the class of the SCIM resource.
+   * @param <T> The Java type of the resource.
+   * @return A future for the modified resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> modifyAsync(String endpoint,
+      String id, PatchRequest patchRequest, Class<T> clazz);
+
+  /**
+   * Modify a SCIM resource by updating one or more attributes using a
+   * sequence of operations to "{@code add}", "{@code remove}", or
+   * "{@code replace}" values.
+   *
+   * @param resource The resource to modify.
+   * @param patchRequest the patch request to use for the update.
+   * @param <T> The Java type of the resource.
+   * @return A future for the modified resource.
+   */
+  <T extends ScimResource> CompletableFuture<T> modifyAsync(
+      T resource, PatchRequest patchRequest);
+
+  /**
+   * Delete a SCIM resource at the service provider.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param id The resource identifier (for example the value of the
+   *           "{@code id}" attribute).
+   * @return A future that completes when the resource is deleted.
+   */
+  CompletableFuture<Void> deleteAsync(String endpoint, String id);
+
+  /**
+   * Delete a SCIM resource at the service provider.
+   *
+   * @param resource The resource to delete.
+   * @param <T> The Java type of the resource.
+   * @return A future that completes when the resource is deleted.
+   */
+  <T extends ScimResource> CompletableFuture<Void> deleteAsync(T resource);
+
+  /**
+   * Search for SCIM resources matching the SCIM filter provided.
+   *
+   * @param endpoint a SCIM resource type endpoint.
+   * @param filter a SCIM filter string.
+   * @param clazz the class representing the type of the SCIM resource.
+   * @param <T> The SCIM resource type to return a list of.
+   * @return A future for the list of ScimResource objects matching the
+   *         provided filter.
+   */
+  <T extends ScimResource> CompletableFuture<ListResponse<T>> searchAsync(
+      String endpoint, String filter, Class<T> clazz);
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.ListResponse;
+import com.unboundid.scim2.common.types.ServiceProviderConfigResource;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Retrieves resources by their IDs by coalescing the IDs into chunks of
+ * {@code id eq "..." or id eq "..."} filters. Each chunk contains at most
+ * the maximum number of results the service provider returns for a filter
+ * and its URL encoded filter is at most the maximum filter length, so the
+ * request URL stays within common URL length limits. The chunks are searched
+ * concurrently with bounded parallelism.
+ * <p>
+ * If the service provider does not support filtering, or a search returns
+ * fewer resources than its totalResults, the affected resources are
+ * retrieved individually instead.
+ *
+ * @param <T> The type of resources to retrieve.
+ */
+final class BatchRetriever<T extends ScimResource>
+{
+  /**
+   * The default maximum length of the URL encoded filter of each chunk.
+   */
+  static final int DEFAULT_MAX_FILTER_LENGTH = 2048;
+
+  /**
+   * The default maximum number of chunks retrieved concurrently.
+   */
+  static final int DEFAULT_PARALLELISM = 4;
+
+  /**
+   * The number of IDs per chunk if the service provider does not advertise
+   * the maximum number of results.
+   */
+  private static final int DEFAULT_MAX_RESULTS = 100;
+
+  /**
+   * The URL encoded length of the separator between filter components.
+   */
+  private static final int OR_LENGTH = encodedLength(" or ");
+
+  /**
+   * The URL encoded length of the parentheses around a combined filter.
+   */
+  private static final int PARENTHESES_LENGTH = encodedLength("()");
+
+  /**
+   * A chunk of IDs to retrieve.
+   */
+  private static final class Chunk
+  {
+    private final List<String> ids;
+    private final boolean search;
+
+    /**
+     * Create a new chunk.
+     *
+     * @param ids The IDs to retrieve.
+     * @param search {@code true} to retrieve the IDs with a search or
+     *               {@code false} to retrieve a single ID directly.
+     */
+    private Chunk(final List<String> ids, final boolean search)
+    {
+      this.ids = ids;
+      this.search = search;
+    }
+  }
+
+  private final ScimService service;
+  private final String endpoint;
+  private final Class<T> cls;
+  private final Set<String> ids;
+  private final int maxFilterLength;
+  private final int parallelism;
+  private final Queue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+  private final ConcurrentMap<String, T> found =
+      new ConcurrentHashMap<String, T>();
+  private volatile boolean failed;
+
+  /**
+   * Create a new batch retriever.
+   *
+   * @param service The SCIM service.
+   * @param endpoint The resource type endpoint name.
+   * @param ids The IDs of the resources to retrieve.
+   * @param maxFilterLength The maximum length of the URL encoded filter of
+   *                        each chunk.
+   * @param parallelism The maximum number of chunks retrieved concurrently.
+   * @param cls The Java class object used to determine the type to return.
+   */
+  BatchRetriever(final ScimService service, final String endpoint,
+                 final Collection<String> ids, final int maxFilterLength,
+                 final int parallelism, final Class<T> cls)
+  {
+    if (maxFilterLength < 1)
+    {
+      throw new IllegalArgumentException(
+          "maxFilterLength must be at least 1");
+    }
+    if (parallelism < 1)
+    {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    this.service = service;
+    this.endpoint = endpoint;
+    this.ids = new LinkedHashSet<String>(ids);
+    this.maxFilterLength = maxFilterLength;
+    this.parallelism = parallelism;
+    this.cls = cls;
+  }
+
+  /**
+   * Retrieve the resources.
+   *
+   * @return A future for the results, which completes exceptionally with a
+   * ScimException if an error occurred.
+   */
+  CompletableFuture<RetrieveAllResults<T>> retrieve()
+  {
+    if (ids.isEmpty())
+    {
+      return CompletableFuture.completedFuture(buildResults());
+    }
+    return service.getServiceProviderConfigAsync().thenCompose(
+        new Function<ServiceProviderConfigResource,
+            CompletionStage<RetrieveAllResults<T>>>()
+        {
+          public CompletionStage<RetrieveAllResults<T>> apply(
+              final ServiceProviderConfigResource config)
+          {
+            if (config.getFilter() == null ||
+                !config.getFilter().isSupported())
+            {
+              addIndividualChunks(ids);
+            }
+            else
+            {
+              int maxResults = config.getFilter().getMaxResults();
+              addSearchChunks(maxResults > 0 ?
+                  maxResults : DEFAULT_MAX_RESULTS);
+            }
+            return runLanes();
+          }
+        });
+  }
+
+  /**
+   * Divide the IDs into search chunks.
+   *
+   * @param maxResults The maximum number of IDs per chunk.
+   */
+  private void addSearchChunks(final int maxResults)
+  {
+    List<String> chunk = new ArrayList<String>();
+    int length = PARENTHESES_LENGTH;
+    for (String id : ids)
+    {
+      int idLength = encodedLength(idFilter(id).toString());
+      if (!chunk.isEmpty() && (chunk.size() >= maxResults ||
+          length + OR_LENGTH + idLength > maxFilterLength))
+      {
+        chunks.add(new Chunk(chunk, true));
+        chunk = new ArrayList<String>();
+        length = PARENTHESES_LENGTH;
+      }
+      length += (chunk.isEmpty() ? 0 : OR_LENGTH) + idLength;
+      chunk.add(id);
+    }
+    chunks.add(new Chunk(chunk, true));
+  }
+
+  /**
+   * Add chunks that retrieve each of the provided IDs individually.
+   *
+   * @param individualIds The IDs to retrieve individually.
+   */
+  private void addIndividualChunks(final Collection<String> individualIds)
+  {
+    for (String id : individualIds)
+    {
+      List<String> chunk = new ArrayList<String>(1);
+      chunk.add(id);
+      chunks.add(new Chunk(chunk, false));
+    }
+  }
+
+  /**
+   * Retrieve the chunks with up to the configured number of concurrent
+   * requests.
+   *
+   * @return A future for the results.
+   */
+  private CompletableFuture<RetrieveAllResults<T>> runLanes()
+  {
+    CompletableFuture<?>[] lanes = new CompletableFuture<?>[parallelism];
+    for (int i = 0; i < lanes.length; i++)
+    {
+      lanes[i] = nextChunk();
+    }
+    return CompletableFuture.allOf(lanes).thenApply(
+        new Function<Void, RetrieveAllResults<T>>()
+        {
+          public RetrieveAllResults<T> apply(final Void result)
+          {
+            return buildResults();
+          }
+        });
+  }
+
+  /**
+   * Retrieve the next chunk and then the chunks after it, until there are no
+   * more chunks or a request failed.
+   *
+   * @return A future that completes when there are no more chunks.
+   */
+  private CompletableFuture<Void> nextChunk()
+  {
+    Chunk chunk = failed ? null : chunks.poll();
+    if (chunk == null)
+    {
+      return CompletableFuture.completedFuture(null);
+    }
+    CompletableFuture<Void> request = chunk.search ?
+        search(chunk) : retrieveIndividually(chunk.ids.get(0));
+    return request.whenComplete(new BiConsumer<Void, Throwable>()
+    {
+      public void accept(final Void result, final Throwable throwable)
+      {
+        if (throwable != null)
+        {
+          failed = true;
+        }
+      }
+    }).thenCompose(new Function<Void, CompletionStage<Void>>()
+    {
+      public CompletionStage<Void> apply(final Void result)
+      {
+        return nextChunk();
+      }
+    });
+  }
+
+  /**
+   * Retrieve the resources of a chunk with a search.
+   *
+   * @param chunk The chunk to retrieve.
+   * @return A future that completes when the resources were retrieved.
+   */
+  private CompletableFuture<Void> search(final Chunk chunk)
+  {
+    Filter filter;
+    if (chunk.ids.size() == 1)
+    {
+      filter = idFilter(chunk.ids.get(0));
+    }
+    else
+    {
+      List<Filter> components = new ArrayList<Filter>(chunk.ids.size());
+      for (String id : chunk.ids)
+      {
+        components.add(idFilter(id));
+      }
+      filter = Filter.or(components);
+    }
+    return service.searchRequest(endpoint).filter(filter.toString()).
+        invokeAsync(cls).thenAccept(new Consumer<ListResponse<T>>()
+        {
+          public void accept(final ListResponse<T> response)
+          {
+            for (T resource : response.getResources())
+            {
+              if (resource.getId() != null && ids.contains(resource.getId()))
+              {
+                found.put(resource.getId(), resource);
+              }
+            }
+            if (response.getTotalResults() > response.getResources().size())
+            {
+              // The service provider did not return all matching resources.
+              List<String> remaining = new ArrayList<String>();
+              for (String id : chunk.ids)
+              {
+                if (!found.containsKey(id))
+                {
+                  remaining.add(id);
+                }
+              }
+              addIndividualChunks(remaining);
+            }
+          }
+        });
+  }
+
+  /**
+   * Retrieve a single resource by its ID.
+   *
+   * @param id The ID of the resource.
+   * @return A future that completes when the resource was retrieved or was
+   * not found.
+   */
+  private CompletableFuture<Void> retrieveIndividually(final String id)
+  {
+    return service.retrieveAsync(endpoint, id, cls).handle(
+        new BiFunction<T, Throwable, Void>()
+        {
+          public Void apply(final T resource, final Throwable throwable)
+          {
+            if (throwable == null)
+            {
+              found.put(id, resource);
+              return null;
+            }
+            Throwable cause = throwable instanceof CompletionException &&
+                throwable.getCause() != null ?
+                throwable.getCause() : throwable;
+            if (cause instanceof ResourceNotFoundException)
+            {
+              return null;
+            }
+            throw throwable instanceof CompletionException ?
+                (CompletionException) throwable :
+                new CompletionException(throwable);
+          }
+        });
+  }
+
+  /**
+   * Build the results in the order the IDs were requested.
+   *
+   * @return The results.
+   */
+  private RetrieveAllResults<T> buildResults()
+  {
+    Map<String, T> resources = new LinkedHashMap<String, T>();
+    Set<String> missingIds = new LinkedHashSet<String>();
+    for (String id : ids)
+    {
+      T resource = found.get(id);
+      if (resource == null)
+      {
+        missingIds.add(id);
+      }
+      else
+      {
+        resources.put(id, resource);
+      }
+    }
+    return new RetrieveAllResults<T>(resources, missingIds);
+  }
+
+  /**
+   * Create a filter that matches the resource with the provided ID.
+   *
+   * @param id The ID of the resource.
+   * @return The filter.
+   */
+  private static Filter idFilter(final String id)
+  {
+    return Filter.eq(Path.root().attribute("id"), TextNode.valueOf(id));
+  }
+
+  /**
+   * Retrieves the length of a string once it is URL encoded.
+   *
+   * @param value The string to encode.
+   * @return The length of the URL encoded string.
+   */
+  private static int encodedLength(final String value)
+  {
+    try
+    {
+      // Spaces are encoded as %20 in query parameters.
+      String encoded = URLEncoder.encode(value, "UTF-8");
+      int length = encoded.length();
+      for (int i = 0; i < encoded.length(); i++)
+      {
+        if (encoded.charAt(i) == '+')
+        {
+          length += 2;
+        }
+      }
+      return length;
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * A cache of service provider discovery metadata, such as the service
+ * provider configuration, resource types and schemas, whose entries expire
+ * after a time-to-live. Expired entries are refreshed by a single request
+ * that all concurrent callers share, and the loader may revalidate the
+ * expired value with the service provider instead of retrieving it again.
+ */
+final class DiscoveryCache
+{
+  /**
+   * The default time-to-live of cached metadata in milliseconds.
+   */
+  static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * Loads a value into the cache.
+   *
+   * @param <V> The type of the value.
+   */
+  interface Loader<V>
+  {
+    /**
+     * Load the value.
+     *
+     * @param expired The expired value to revalidate or {@code null} if the
+     *                value was not cached.
+     * @return A future for the loaded value.
+     */
+    CompletableFuture<V> load(V expired);
+  }
+
+  /**
+   * A cached value.
+   */
+  private static final class Entry
+  {
+    private Object value;
+    private long expiresAt;
+    private CompletableFuture<Object> refresh;
+  }
+
+  private final ConcurrentMap<String, Entry> entries =
+      new ConcurrentHashMap<String, Entry>();
+  private volatile long ttlMillis = DEFAULT_TTL_MILLIS;
+
+  /**
+   * Sets the time-to-live of cached values. Values that are already cached
+   * expire according to the previous time-to-live.
+   *
+   * @param ttlMillis The time-to-live in milliseconds. Values are not reused
+   *                  if it is {@code 0}, but concurrent callers still share
+   *                  a single request.
+   */
+  void setTtlMillis(final long ttlMillis)
+  {
+    if (ttlMillis < 0)
+    {
+      throw new IllegalArgumentException("ttl must not be negative");
+    }
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Retrieve a value from the cache, loading it if it is not cached or has
+   * expired. If another caller is already loading the value, its result is
+   * shared.
+   *
+   * @param key The key of the value.
+   * @param loader The loader of the value.
+   * @param <V> The type of the value.
+   * @return A future for the value.
+   */
+  @SuppressWarnings("unchecked")
+  <V> CompletableFuture<V> get(final String key, final Loader<V> loader)
+  {
+    final Entry entry = getEntry(key);
+    final CompletableFuture<Object> refresh;
+    final V expired;
+    synchronized (entry)
+    {
+      if (entry.value != null && System.currentTimeMillis() < entry.expiresAt)
+      {
+        return CompletableFuture.completedFuture((V) entry.value);
+      }
+      if (entry.refresh != null)
+      {
+        return share((CompletableFuture<V>) (CompletableFuture<?>)
+            entry.refresh);
+      }
+      refresh = new CompletableFuture<Object>();
+      entry.refresh = refresh;
+      expired = (V) entry.value;
+    }
+
+    CompletableFuture<V> load;
+    try
+    {
+      load = loader.load(expired);
+    }
+    catch (RuntimeException e)
+    {
+      load = new CompletableFuture<V>();
+      load.completeExceptionally(e);
+    }
+    load.whenComplete(new BiConsumer<V, Throwable>()
+    {
+      public void accept(final V value, final Throwable throwable)
+      {
+        synchronized (entry)
+        {
+          entry.refresh = null;
+          if (throwable == null)
+          {
+            entry.value = value;
+            entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+          }
+        }
+        if (throwable == null)
+        {
+          refresh.complete(value);
+        }
+        else
+        {
+          refresh.completeExceptionally(throwable);
+        }
+      }
+    });
+    return share((CompletableFuture<V>) (CompletableFuture<?>) refresh);
+  }
+
+  /**
+   * Cache a value that was retrieved as part of another value, for example a
+   * resource type in the list of all resource types.
+   *
+   * @param key The key of the value.
+   * @param value The value to cache.
+   */
+  void put(final String key, final Object value)
+  {
+    Entry entry = getEntry(key);
+    synchronized (entry)
+    {
+      entry.value = value;
+      entry.expiresAt = System.currentTimeMillis() + ttlMillis;
+    }
+  }
+
+  /**
+   * Remove all cached values.
+   */
+  void invalidate()
+  {
+    entries.clear();
+  }
+
+  /**
+   * Retrieve the entry for a key, creating it if necessary.
+   *
+   * @param key The key of the entry.
+   * @return The entry.
+   */
+  private Entry getEntry(final String key)
+  {
+    Entry entry = entries.get(key);
+    if (entry == null)
+    {
+      Entry newEntry = new Entry();
+      entry = entries.putIfAbsent(key, newEntry);
+      if (entry == null)
+      {
+        entry = newEntry;
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Retrieves a future for the result of a shared request, so that callers
+   * cancelling their future do not affect the other callers.
+   *
+   * @param future The future of the shared request.
+   * @param <V> The type of the value.
+   * @return A future that completes with the shared request.
+   */
+  private static <V> CompletableFuture<V> share(
+      final CompletableFuture<V> future)
+  {
+    return future.thenApply(Function.<V>identity());
+  }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.messages.ListResponse;
+import com.unboundid.scim2.common.utils.ApiConstants;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of retrieved resources that revalidates cached
+ * resources with the service provider before using them. Resources are
+ * keyed by their location and stored together with their version, taken
+ * from the ETag response header or else the meta.version attribute.
+ * <p>
+ * When a cached resource is retrieved again, the request is sent with an
+ * If-None-Match header. If the service provider responds with
+ * {@code 304 Not Modified}, the cached resource is returned as if it had
+ * been retrieved in full. Requests that already specify If-None-Match are
+ * passed through unchanged. Creating, replacing, modifying or deleting a
+ * resource through the same client invalidates its cache entry, as does a
+ * {@code 404 Not Found} response. Only the least recently used entries are
+ * evicted when the cache is full.
+ * <p>
+ * Only retrievals of a single resource by its location, that is a path of
+ * an endpoint and an ID below the base URI of the service provider, are
+ * cached. Searches, retrievals of a whole endpoint such as
+ * ServiceProviderConfig, and responses that are a ListResponse are passed
+ * through without buffering the response.
+ * <p>
+ * To enable the cache, provide it when creating the {@link ScimService}.
+ */
+public final class ResourceCache
+    implements ClientRequestFilter, ClientResponseFilter
+{
+  /**
+   * The default maximum number of cached resources.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  /**
+   * The name of the WebTarget configuration property holding the base URI
+   * of the service provider, which the {@link ScimService} sets.
+   */
+  static final String BASE_URI_PROPERTY =
+      ResourceCache.class.getName() + ".baseUri";
+
+  /**
+   * The request property holding the entry a request is revalidating.
+   */
+  private static final String ENTRY_PROPERTY =
+      ResourceCache.class.getName() + ".entry";
+
+  /**
+   * A cached resource.
+   */
+  private static final class CachedResource
+  {
+    private final String uri;
+    private final String version;
+    private final String contentType;
+    private final byte[] body;
+
+    /**
+     * Create a new cached resource.
+     *
+     * @param uri The URI of the request, including query parameters.
+     * @param version The version of the resource.
+     * @param contentType The content type of the response.
+     * @param body The response body.
+     */
+    private CachedResource(final String uri, final String version,
+                           final String contentType, final byte[] body)
+    {
+      this.uri = uri;
+      this.version = version;
+      this.contentType = contentType;
+      this.body = body;
+    }
+  }
+
+  private final Map<String, CachedResource> entries;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong revalidationCount = new AtomicLong();
+
+  /**
+   * Create a new resource cache with the default maximum number of entries.
+   */
+  public ResourceCache()
+  {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Create a new resource cache.
+   *
+   * @param maxEntries The maximum number of cached resources.
+   */
+  public ResourceCache(final int maxEntries)
+  {
+    if (maxEntries < 1)
+    {
+      throw new IllegalArgumentException("maxEntries must be at least 1");
+    }
+    this.entries =
+        new LinkedHashMap<String, CachedResource>(16, 0.75f, true)
+        {
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, CachedResource> eldest)
+          {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Retrieves the number of retrievals answered from the cache after the
+   * service provider confirmed the cached resource is current.
+   *
+   * @return The number of cache hits.
+   */
+  public long getHitCount()
+  {
+    return hitCount.get();
+  }
+
+  /**
+   * Retrieves the number of retrievals of a single resource where the
+   * service provider returned the full resource, because it was not cached
+   * or has changed.
+   *
+   * @return The number of cache misses.
+   */
+  public long getMissCount()
+  {
+    return missCount.get();
+  }
+
+  /**
+   * Retrieves the number of conditional retrievals sent to revalidate a
+   * cached resource.
+   *
+   * @return The number of revalidations.
+   */
+  public long getRevalidationCount()
+  {
+    return revalidationCount.get();
+  }
+
+  /**
+   * Retrieves the number of cached resources.
+   *
+   * @return The number of cached resources.
+   */
+  public int size()
+  {
+    synchronized (entries)
+    {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Remove the resource at the provided location from the cache.
+   *
+   * @param location The location of the resource.
+   */
+  public void invalidate(final URI location)
+  {
+    synchronized (entries)
+    {
+      entries.remove(getLocation(location));
+    }
+  }
+
+  /**
+   * Remove all resources from the cache.
+   */
+  public void clear()
+  {
+    synchronized (entries)
+    {
+      entries.clear();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void filter(final ClientRequestContext requestContext)
+  {
+    URI uri = requestContext.getUri();
+    if (!HttpMethod.GET.equals(requestContext.getMethod()))
+    {
+      invalidate(uri);
+      return;
+    }
+    if (requestContext.getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH))
+    {
+      return;
+    }
+    CachedResource entry;
+    synchronized (entries)
+    {
+      entry = entries.get(getLocation(uri));
+    }
+    // A request for different attributes returns a different representation.
+    if (entry != null && entry.uri.equals(uri.toString()))
+    {
+      requestContext.getHeaders().putSingle(
+          HttpHeaders.IF_NONE_MATCH, entry.version);
+      requestContext.setProperty(ENTRY_PROPERTY, entry);
+      revalidationCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void filter(final ClientRequestContext requestContext,
+                     final ClientResponseContext responseContext)
+      throws IOException
+  {
+    URI uri = requestContext.getUri();
+    if (!HttpMethod.GET.equals(requestContext.getMethod()))
+    {
+      // A retrieval may have been cached while the request was in progress.
+      invalidate(uri);
+      if (responseContext.getLocation() != null)
+      {
+        invalidate(responseContext.getLocation());
+      }
+      return;
+    }
+
+    CachedResource entry =
+        (CachedResource) requestContext.getProperty(ENTRY_PROPERTY);
+    if (entry == null &&
+        requestContext.getHeaders().containsKey(HttpHeaders.IF_NONE_MATCH))
+    {
+      return;
+    }
+    if (entry != null && responseContext.getStatus() ==
+        Response.Status.NOT_MODIFIED.getStatusCode())
+    {
+      responseContext.setStatus(Response.Status.OK.getStatusCode());
+      responseContext.getHeaders().putSingle(
+          HttpHeaders.CONTENT_TYPE, entry.contentType);
+      responseContext.getHeaders().putSingle(
+          HttpHeaders.CONTENT_LENGTH, String.valueOf(entry.body.length));
+      responseContext.setEntityStream(new ByteArrayInputStream(entry.body));
+      hitCount.incrementAndGet();
+      return;
+    }
+    if (responseContext.getStatus() ==
+        Response.Status.NOT_FOUND.getStatusCode())
+    {
+      invalidate(uri);
+      return;
+    }
+    if (responseContext.getStatus() != Response.Status.OK.getStatusCode() ||
+        !responseContext.hasEntity() || !isResourceRetrieval(requestContext))
+    {
+      return;
+    }
+
+    missCount.incrementAndGet();
+    byte[] body = readFully(responseContext.getEntityStream());
+    responseContext.setEntityStream(new ByteArrayInputStream(body));
+    JsonNode node = parse(body);
+    String version = null;
+    if (node != null && !isListResponse(node))
+    {
+      version = responseContext.getHeaderString(HttpHeaders.ETAG);
+      if (version == null)
+      {
+        version = node.path("meta").path("version").textValue();
+      }
+    }
+    synchronized (entries)
+    {
+      if (version == null)
+      {
+        entries.remove(getLocation(uri));
+      }
+      else
+      {
+        entries.put(getLocation(uri), new CachedResource(uri.toString(),
+            version, responseContext.getHeaderString(HttpHeaders.CONTENT_TYPE),
+            body));
+      }
+    }
+  }
+
+  /**
+   * Whether a request retrieves a single resource, which is the only kind
+   * of request that is cached. The path of the request must consist of an
+   * endpoint and an ID below the base URI of the service provider, and the
+   * request must not have a filter.
+   *
+   * @param requestContext The request context.
+   * @return {@code true} if the request retrieves a single resource or
+   *         {@code false} otherwise.
+   */
+  private static boolean isResourceRetrieval(
+      final ClientRequestContext requestContext)
+  {
+    Object baseUri =
+        requestContext.getConfiguration().getProperty(BASE_URI_PROPERTY);
+    if (baseUri == null)
+    {
+      return false;
+    }
+    URI uri = requestContext.getUri();
+    String query = uri.getRawQuery();
+    if (query != null)
+    {
+      for (String parameter : query.split("&"))
+      {
+        if (parameter.equals(ApiConstants.QUERY_PARAMETER_FILTER) ||
+            parameter.startsWith(ApiConstants.QUERY_PARAMETER_FILTER + "="))
+        {
+          return false;
+        }
+      }
+    }
+    String basePath = URI.create(baseUri.toString()).getRawPath();
+    if (basePath == null)
+    {
+      basePath = "";
+    }
+    if (!basePath.endsWith("/"))
+    {
+      basePath += "/";
+    }
+    String path = uri.getRawPath();
+    if (path == null || !path.startsWith(basePath))
+    {
+      return false;
+    }
+    String[] segments = path.substring(basePath.length()).split("/");
+    return segments.length == 2 && !segments[0].isEmpty() &&
+        !segments[1].isEmpty() &&
+        !segments[1].equals(ApiConstants.SEARCH_WITH_POST_PATH_EXTENSION);
+  }
+
+  /**
+   * Whether a JSON object is a ListResponse.
+   *
+   * @param node The JSON object.
+   * @return {@code true} if the object is a ListResponse or {@code false}
+   *         otherwise.
+   */
+  private static boolean isListResponse(final JsonNode node)
+  {
+    String listResponseUrn = SchemaUtils.getSchemaUrn(ListResponse.class);
+    for (JsonNode schema : node.path("schemas"))
+    {
+      if (listResponseUrn.equalsIgnoreCase(schema.textValue()))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Retrieves the cache key of a URI, which is the URI without any query
+   * parameters.
+   *
+   * @param uri The URI.
+   * @return The cache key.
+   */
+  private static String getLocation(final URI uri)
+  {
+    String location = uri.toString();
+    int query = location.indexOf('?');
+    return query < 0 ? location : location.substring(0, query);
+  }
+
+  /**
+   * Parse a response body.
+   *
+   * @param body The JSON encoded response body.
+   * @return The parsed body or {@code null} if the body is not valid JSON.
+   */
+  private static JsonNode parse(final byte[] body)
+  {
+    try
+    {
+      return JsonUtils.getObjectReader().readTree(
+          new ByteArrayInputStream(body));
+    }
+    catch (IOException e)
+    {
+      Debug.debugException(e);
+      return null;
+    }
+  }
+
+  /**
+   * Read all bytes of a stream and close it.
+   *
+   * @param inputStream The stream to read.
+   * @return The bytes read.
+   * @throws IOException If the stream could not be read.
+   */
+  private static byte[] readFully(final InputStream inputStream)
+      throws IOException
+  {
+    try
+    {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1)
+      {
+        outputStream.write(buffer, 0, read);
+      }
+      return outputStream.toByteArray();
+    }
+    finally
+    {
+      inputStream.close();
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.unboundid.scim2.common.ScimResource;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The results of retrieving resources by their IDs.
+ *
+ * @param <T> The type of resources retrieved.
+ * @see ScimService#retrieveAll(String, java.util.Collection, Class)
+ */
+public final class RetrieveAllResults<T extends ScimResource>
+{
+  private final Map<String, T> resources;
+  private final Set<String> missingIds;
+
+  /**
+   * Create new results.
+   *
+   * @param resources The resources that were found keyed by ID.
+   * @param missingIds The IDs of the resources that were not found.
+   */
+  RetrieveAllResults(final Map<String, T> resources,
+                     final Set<String> missingIds)
+  {
+    this.resources = Collections.unmodifiableMap(resources);
+    this.missingIds = Collections.unmodifiableSet(missingIds);
+  }
+
+  /**
+   * Retrieves the resources that were found keyed by ID, in the order the IDs
+   * were requested.
+   *
+   * @return The resources that were found.
+   */
+  public Map<String, T> getResources()
+  {
+    return resources;
+  }
+
+  /**
+   * Retrieves the IDs of the resources that were not found, in the order they
+   * were requested.
+   *
+   * @return The IDs of the resources that were not found.
+   */
+  public Set<String> getMissingIds()
+  {
+    return missingIds;
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.unboundid.scim2.common.utils.Debug;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for retrying requests that the service provider rejected because
+ * it is overloaded, that is with a {@code 429 Too Many Requests} or
+ * {@code 503 Service Unavailable} response, or that failed to reach the
+ * service provider at all.
+ * <p>
+ * Retries are delayed with exponential backoff and full jitter: the n-th
+ * retry waits a random time between zero and the initial delay doubled n
+ * times, capped at the maximum delay. If the response includes a
+ * {@code Retry-After} header, the retry waits at least that long, and is not
+ * attempted at all if the service provider asks to wait longer than the
+ * maximum delay.
+ * <p>
+ * Only requests that are safe to repeat are retried: GET, PUT and DELETE
+ * requests, searches using POST, and PATCH requests with an If-Match header.
+ * Creating a resource or an unconditional modification is never retried,
+ * since the service provider may have processed the first attempt.
+ * <p>
+ * To enable retries, set the policy with
+ * {@link ScimService#setRetryPolicy(RetryPolicy)}, or set it as the
+ * {@link #PROPERTY} property of the WebTarget used by request builders.
+ */
+public final class RetryPolicy
+{
+  /**
+   * The name of the WebTarget configuration property holding the retry
+   * policy used by request builders.
+   */
+  public static final String PROPERTY = RetryPolicy.class.getName();
+
+  /**
+   * A policy that does not retry requests.
+   */
+  public static final RetryPolicy NONE =
+      new RetryPolicy(0, 0, 0, TimeUnit.MILLISECONDS);
+
+  /**
+   * The default maximum number of retries of a request.
+   */
+  public static final int DEFAULT_MAX_RETRIES = 3;
+
+  /**
+   * The default delay before the first retry in milliseconds.
+   */
+  public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+
+  /**
+   * The default maximum delay before a retry in milliseconds.
+   */
+  public static final long DEFAULT_MAX_DELAY_MILLIS =
+      TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * The HTTP status code of responses to requests that were rate limited.
+   */
+  private static final int TOO_MANY_REQUESTS = 429;
+
+  /**
+   * The HTTP status code of responses from an unavailable service provider.
+   */
+  private static final int SERVICE_UNAVAILABLE = 503;
+
+  private final int maxRetries;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+
+  /**
+   * Create a new retry policy with the default settings.
+   */
+  public RetryPolicy()
+  {
+    this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_DELAY_MILLIS,
+        DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create a new retry policy.
+   *
+   * @param maxRetries The maximum number of times a request is retried.
+   * @param initialDelay The maximum delay before the first retry.
+   * @param maxDelay The maximum delay before any retry, including the delay
+   *                 requested by the service provider.
+   * @param unit The unit of the delays.
+   */
+  public RetryPolicy(final int maxRetries, final long initialDelay,
+                     final long maxDelay, final TimeUnit unit)
+  {
+    if (maxRetries < 0)
+    {
+      throw new IllegalArgumentException("maxRetries must not be negative");
+    }
+    if (initialDelay < 0 || maxDelay < initialDelay)
+    {
+      throw new IllegalArgumentException(
+          "initialDelay must not be negative or greater than maxDelay");
+    }
+    this.maxRetries = maxRetries;
+    this.initialDelayMillis = unit.toMillis(initialDelay);
+    this.maxDelayMillis = unit.toMillis(maxDelay);
+  }
+
+  /**
+   * Retrieves the maximum number of times a request is retried.
+   *
+   * @return The maximum number of times a request is retried.
+   */
+  public int getMaxRetries()
+  {
+    return maxRetries;
+  }
+
+  /**
+   * Retrieves the maximum delay before the first retry.
+   *
+   * @return The maximum delay before the first retry in milliseconds.
+   */
+  public long getInitialDelayMillis()
+  {
+    return initialDelayMillis;
+  }
+
+  /**
+   * Retrieves the maximum delay before any retry.
+   *
+   * @return The maximum delay before any retry in milliseconds.
+   */
+  public long getMaxDelayMillis()
+  {
+    return maxDelayMillis;
+  }
+
+  /**
+   * Whether a response status indicates that the service provider is
+   * overloaded and the request may be retried later.
+   *
+   * @param status The HTTP status code of the response.
+   * @return {@code true} if the service provider is overloaded or
+   *         {@code false} otherwise.
+   */
+  public boolean isOverloaded(final int status)
+  {
+    return status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE;
+  }
+
+  /**
+   * Retrieves how long to wait before retrying a request.
+   *
+   * @param retries The number of times the request was already retried.
+   * @param retryAfterMillis The delay requested by the service provider in
+   *                         milliseconds or {@code null} if it did not
+   *                         request a delay.
+   * @return The delay in milliseconds or {@code -1} if the request should
+   *         not be retried.
+   */
+  public long getDelayMillis(final int retries, final Long retryAfterMillis)
+  {
+    if (retries >= maxRetries ||
+        (retryAfterMillis != null && retryAfterMillis > maxDelayMillis))
+    {
+      return -1;
+    }
+    // Doubling more than 62 times overflows, long before reaching any
+    // sensible maximum delay.
+    long ceiling = initialDelayMillis << Math.min(retries, 62);
+    if (ceiling < initialDelayMillis || ceiling > maxDelayMillis)
+    {
+      ceiling = maxDelayMillis;
+    }
+    long delay = (long) (ThreadLocalRandom.current().nextDouble() * ceiling);
+    return retryAfterMillis == null ? delay : Math.max(delay, retryAfterMillis);
+  }
+
+  /**
+   * Parse the value of a Retry-After header, which is either a number of
+   * seconds or an HTTP date.
+   *
+   * @param value The value of the header or {@code null}.
+   * @return The delay requested in milliseconds or {@code null} if the value
+   *         is {@code null} or invalid.
+   */
+  public static Long parseRetryAfter(final String value)
+  {
+    if (value == null)
+    {
+      return null;
+    }
+    String trimmed = value.trim();
+    try
+    {
+      long seconds = Long.parseLong(trimmed);
+      return seconds < 0 ? null : TimeUnit.SECONDS.toMillis(seconds);
+    }
+    catch (NumberFormatException e)
+    {
+      // Not a number of seconds, so try an HTTP date.
+      Debug.debugException(e);
+    }
+    try
+    {
+      long date = ZonedDateTime.parse(trimmed,
+          DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+      return Math.max(0, date - System.currentTimeMillis());
+    }
+    catch (DateTimeParseException e)
+    {
+      Debug.debugException(e);
+      return null;
+    }
+  }
+}
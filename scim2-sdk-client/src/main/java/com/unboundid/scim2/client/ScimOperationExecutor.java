@@ -0,0 +1,657 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.messages.PatchRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Executes a stream of SCIM operations against a service provider with a
+ * bounded number of concurrent requests, for example to provision a large
+ * number of resources at a service provider that does not support bulk
+ * requests.
+ * <p>
+ * At most {@code maxInFlight} operations are sent to the service provider at
+ * a time. Operations with the same key, which for the provided operations is
+ * the ID of the resource they modify, are executed one at a time in the order
+ * they were submitted, so a modification of a resource never overtakes an
+ * earlier one. At most {@code maxPending} operations are accepted before they
+ * complete; once the limit is reached, {@link #submit(Operation)} blocks the
+ * producer until an operation completes.
+ * <p>
+ * The result of every operation, including any failure, is collected and can
+ * be retrieved with {@link #awaitCompletion()}. A failed operation does not
+ * prevent later operations with the same key from being executed. Cancelling
+ * the future of an operation that has not yet started prevents it from being
+ * sent.
+ */
+public final class ScimOperationExecutor
+{
+  /**
+   * The default maximum number of operations sent concurrently.
+   */
+  public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+  /**
+   * The default maximum number of operations accepted before they complete.
+   */
+  public static final int DEFAULT_MAX_PENDING = 100;
+
+  /**
+   * A SCIM operation to execute.
+   *
+   * @param <T> The type of the operation's result.
+   */
+  public abstract static class Operation<T>
+  {
+    private final String key;
+
+    /**
+     * Create a new operation.
+     *
+     * @param key The key of operations that must be executed in order or
+     *            {@code null} if the operation may be executed concurrently
+     *            with any other operation.
+     */
+    protected Operation(final String key)
+    {
+      this.key = key;
+    }
+
+    /**
+     * Retrieves the key of operations that must be executed in order.
+     *
+     * @return The key of operations that must be executed in order or
+     *         {@code null} if the operation may be executed concurrently
+     *         with any other operation.
+     */
+    public String getKey()
+    {
+      return key;
+    }
+
+    /**
+     * Execute the operation.
+     *
+     * @param scimInterface The SCIM interface to execute the operation with.
+     * @return A future for the result of the operation.
+     */
+    protected abstract CompletableFuture<T> execute(
+        AsyncScimInterface scimInterface);
+
+    /**
+     * Create an operation that creates a new resource. The new resource does
+     * not have an ID yet, so the operation is not ordered with respect to
+     * other operations.
+     *
+     * @param endpoint The resource endpoint such as: "{@code Users}" or
+     *                 "{@code Groups}".
+     * @param resource The new resource to create.
+     * @param <T> The Java type of the resource.
+     * @return The operation.
+     */
+    public static <T extends ScimResource> Operation<T> create(
+        final String endpoint, final T resource)
+    {
+      return new Operation<T>(null)
+      {
+        @Override
+        protected CompletableFuture<T> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.createAsync(endpoint, resource);
+        }
+      };
+    }
+
+    /**
+     * Create an operation that replaces an existing resource.
+     *
+     * @param resource The previously retrieved resource to replace.
+     * @param <T> The Java type of the resource.
+     * @return The operation.
+     */
+    public static <T extends ScimResource> Operation<T> replace(
+        final T resource)
+    {
+      return new Operation<T>(resource.getId())
+      {
+        @Override
+        protected CompletableFuture<T> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.replaceAsync(resource);
+        }
+      };
+    }
+
+    /**
+     * Create an operation that modifies an existing resource.
+     *
+     * @param endpoint The resource endpoint such as: "{@code Users}" or
+     *                 "{@code Groups}".
+     * @param id The ID of the resource to modify.
+     * @param patchRequest The patch request to apply.
+     * @param cls The Java class object used to determine the type to return.
+     * @param <T> The Java type of the resource.
+     * @return The operation.
+     */
+    public static <T extends ScimResource> Operation<T> modify(
+        final String endpoint, final String id,
+        final PatchRequest patchRequest, final Class<T> cls)
+    {
+      return new Operation<T>(id)
+      {
+        @Override
+        protected CompletableFuture<T> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.modifyAsync(endpoint, id, patchRequest, cls);
+        }
+      };
+    }
+
+    /**
+     * Create an operation that modifies an existing resource.
+     *
+     * @param resource The previously retrieved resource to modify.
+     * @param patchRequest The patch request to apply.
+     * @param <T> The Java type of the resource.
+     * @return The operation.
+     */
+    public static <T extends ScimResource> Operation<T> modify(
+        final T resource, final PatchRequest patchRequest)
+    {
+      return new Operation<T>(resource.getId())
+      {
+        @Override
+        protected CompletableFuture<T> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.modifyAsync(resource, patchRequest);
+        }
+      };
+    }
+
+    /**
+     * Create an operation that deletes an existing resource.
+     *
+     * @param endpoint The resource endpoint such as: "{@code Users}" or
+     *                 "{@code Groups}".
+     * @param id The ID of the resource to delete.
+     * @return The operation.
+     */
+    public static Operation<Void> delete(final String endpoint,
+                                         final String id)
+    {
+      return new Operation<Void>(id)
+      {
+        @Override
+        protected CompletableFuture<Void> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.deleteAsync(endpoint, id);
+        }
+      };
+    }
+
+    /**
+     * Create an operation that deletes an existing resource.
+     *
+     * @param resource The previously retrieved resource to delete.
+     * @param <T> The Java type of the resource.
+     * @return The operation.
+     */
+    public static <T extends ScimResource> Operation<Void> delete(
+        final T resource)
+    {
+      return new Operation<Void>(resource.getId())
+      {
+        @Override
+        protected CompletableFuture<Void> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          return scimInterface.deleteAsync(resource);
+        }
+      };
+    }
+  }
+
+  /**
+   * The result of an operation.
+   *
+   * @param <T> The type of the operation's result.
+   */
+  public static final class Result<T>
+  {
+    private final Operation<T> operation;
+    private final T value;
+    private final Throwable exception;
+
+    /**
+     * Create a new result.
+     *
+     * @param operation The operation.
+     * @param value The result of the operation.
+     * @param exception The failure of the operation.
+     */
+    private Result(final Operation<T> operation, final T value,
+                   final Throwable exception)
+    {
+      this.operation = operation;
+      this.value = value;
+      this.exception = exception;
+    }
+
+    /**
+     * Retrieves the operation.
+     *
+     * @return The operation.
+     */
+    public Operation<T> getOperation()
+    {
+      return operation;
+    }
+
+    /**
+     * Retrieves the result of the operation.
+     *
+     * @return The result of the operation or {@code null} if it failed.
+     */
+    public T getValue()
+    {
+      return value;
+    }
+
+    /**
+     * Retrieves the failure of the operation.
+     *
+     * @return The exception the operation failed with, typically a
+     *         {@link com.unboundid.scim2.common.exceptions.ScimException}, or
+     *         {@code null} if it was successful.
+     */
+    public Throwable getException()
+    {
+      return exception;
+    }
+
+    /**
+     * Whether the operation was successful.
+     *
+     * @return {@code true} if the operation was successful or {@code false}
+     *         if it failed.
+     */
+    public boolean isSuccessful()
+    {
+      return exception == null;
+    }
+  }
+
+  /**
+   * An operation submitted for execution.
+   *
+   * @param <T> The type of the operation's result.
+   */
+  private static final class Task<T>
+  {
+    private final Operation<T> operation;
+    private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+    /**
+     * Create a new task.
+     *
+     * @param operation The operation to execute.
+     */
+    private Task(final Operation<T> operation)
+    {
+      this.operation = operation;
+    }
+  }
+
+  private final AsyncScimInterface scimInterface;
+  private final int maxInFlight;
+  private final int maxPending;
+  private final Object lock = new Object();
+  private final ArrayDeque<Task<?>> ready = new ArrayDeque<Task<?>>();
+  // The operations waiting for an earlier operation with the same key. A key
+  // is present while an operation with that key is ready or executing.
+  private final Map<String, ArrayDeque<Task<?>>> waiting =
+      new HashMap<String, ArrayDeque<Task<?>>>();
+  private final List<Result<?>> results = new ArrayList<Result<?>>();
+  private int inFlight;
+  private int pending;
+
+  /**
+   * Create a new operation executor with the default limits.
+   *
+   * @param scimInterface The SCIM interface to execute operations with.
+   */
+  public ScimOperationExecutor(final AsyncScimInterface scimInterface)
+  {
+    this(scimInterface, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_PENDING);
+  }
+
+  /**
+   * Create a new operation executor.
+   *
+   * @param scimInterface The SCIM interface to execute operations with.
+   * @param maxInFlight The maximum number of operations sent to the service
+   *                    provider concurrently.
+   * @param maxPending The maximum number of operations accepted before they
+   *                   complete, including those that are executing. It must
+   *                   be at least {@code maxInFlight}.
+   */
+  public ScimOperationExecutor(final AsyncScimInterface scimInterface,
+                               final int maxInFlight, final int maxPending)
+  {
+    if (maxInFlight < 1)
+    {
+      throw new IllegalArgumentException("maxInFlight must be at least 1");
+    }
+    if (maxPending < maxInFlight)
+    {
+      throw new IllegalArgumentException(
+          "maxPending must be at least maxInFlight");
+    }
+    this.scimInterface = scimInterface;
+    this.maxInFlight = maxInFlight;
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Submit an operation for execution, blocking while the maximum number of
+   * pending operations has been reached.
+   *
+   * @param operation The operation to execute.
+   * @param <T> The type of the operation's result.
+   * @return A future for the result of the operation.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public <T> CompletableFuture<T> submit(final Operation<T> operation)
+      throws InterruptedException
+  {
+    CompletableFuture<T> future;
+    synchronized (lock)
+    {
+      while (pending >= maxPending)
+      {
+        lock.wait();
+      }
+      future = enqueue(operation);
+    }
+    dispatch();
+    return future;
+  }
+
+  /**
+   * Submit an operation for execution, waiting at most the provided time
+   * while the maximum number of pending operations has been reached.
+   *
+   * @param operation The operation to execute.
+   * @param timeout The maximum time to wait.
+   * @param unit The unit of the timeout.
+   * @param <T> The type of the operation's result.
+   * @return A future for the result of the operation or {@code null} if the
+   *         operation was not accepted before the timeout elapsed.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public <T> CompletableFuture<T> submit(final Operation<T> operation,
+                                         final long timeout,
+                                         final TimeUnit unit)
+      throws InterruptedException
+  {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    CompletableFuture<T> future;
+    synchronized (lock)
+    {
+      while (pending >= maxPending)
+      {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+        {
+          return null;
+        }
+        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+      }
+      future = enqueue(operation);
+    }
+    dispatch();
+    return future;
+  }
+
+  /**
+   * Wait until all submitted operations have completed.
+   *
+   * @return The results of all operations submitted so far, in the order
+   *         they completed.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public List<Result<?>> awaitCompletion() throws InterruptedException
+  {
+    synchronized (lock)
+    {
+      while (pending > 0)
+      {
+        lock.wait();
+      }
+      return Collections.unmodifiableList(new ArrayList<Result<?>>(results));
+    }
+  }
+
+  /**
+   * Retrieves the results of the operations that have completed so far.
+   *
+   * @return The results of the completed operations, in the order they
+   *         completed.
+   */
+  public List<Result<?>> getResults()
+  {
+    synchronized (lock)
+    {
+      return Collections.unmodifiableList(new ArrayList<Result<?>>(results));
+    }
+  }
+
+  /**
+   * Retrieves the failed operations that have completed so far.
+   *
+   * @return The results of the failed operations, in the order they
+   *         completed.
+   */
+  public List<Result<?>> getFailures()
+  {
+    List<Result<?>> failures = new ArrayList<Result<?>>();
+    synchronized (lock)
+    {
+      for (Result<?> result : results)
+      {
+        if (!result.isSuccessful())
+        {
+          failures.add(result);
+        }
+      }
+    }
+    return Collections.unmodifiableList(failures);
+  }
+
+  /**
+   * Retrieves the number of operations that have been submitted but have
+   * not completed.
+   *
+   * @return The number of pending operations.
+   */
+  public int getPendingCount()
+  {
+    synchronized (lock)
+    {
+      return pending;
+    }
+  }
+
+  /**
+   * Retrieves the number of operations currently sent to the service
+   * provider.
+   *
+   * @return The number of executing operations.
+   */
+  public int getInFlightCount()
+  {
+    synchronized (lock)
+    {
+      return inFlight;
+    }
+  }
+
+  /**
+   * Accept an operation for execution. The lock must be held and
+   * {@link #dispatch()} must be called after releasing it.
+   *
+   * @param operation The operation to execute.
+   * @param <T> The type of the operation's result.
+   * @return A future for the result of the operation.
+   */
+  private <T> CompletableFuture<T> enqueue(final Operation<T> operation)
+  {
+    Task<T> task = new Task<T>(operation);
+    pending++;
+    String key = operation.getKey();
+    if (key != null)
+    {
+      ArrayDeque<Task<?>> queue = waiting.get(key);
+      if (queue != null)
+      {
+        queue.add(task);
+        return task.future;
+      }
+      waiting.put(key, new ArrayDeque<Task<?>>());
+    }
+    ready.add(task);
+    return task.future;
+  }
+
+  /**
+   * Start as many ready operations as the in-flight limit allows.
+   */
+  private void dispatch()
+  {
+    List<Task<?>> started = new ArrayList<Task<?>>();
+    synchronized (lock)
+    {
+      while (inFlight < maxInFlight && !ready.isEmpty())
+      {
+        started.add(ready.poll());
+        inFlight++;
+      }
+    }
+    for (Task<?> task : started)
+    {
+      start(task);
+    }
+  }
+
+  /**
+   * Start executing an operation.
+   *
+   * @param task The operation to execute.
+   * @param <T> The type of the operation's result.
+   */
+  private <T> void start(final Task<T> task)
+  {
+    CompletableFuture<T> future;
+    if (task.future.isCancelled())
+    {
+      future = new CompletableFuture<T>();
+      future.completeExceptionally(new CancellationException());
+    }
+    else
+    {
+      try
+      {
+        future = task.operation.execute(scimInterface);
+      }
+      catch (RuntimeException e)
+      {
+        future = new CompletableFuture<T>();
+        future.completeExceptionally(e);
+      }
+    }
+    future.whenComplete(new BiConsumer<T, Throwable>()
+    {
+      public void accept(final T value, final Throwable throwable)
+      {
+        complete(task, value, throwable instanceof CompletionException &&
+            throwable.getCause() != null ? throwable.getCause() : throwable);
+      }
+    });
+  }
+
+  /**
+   * Record the completion of an operation and start the operations that
+   * were waiting for it.
+   *
+   * @param task The completed operation.
+   * @param value The result of the operation.
+   * @param throwable The failure of the operation.
+   * @param <T> The type of the operation's result.
+   */
+  private <T> void complete(final Task<T> task, final T value,
+                            final Throwable throwable)
+  {
+    synchronized (lock)
+    {
+      inFlight--;
+      pending--;
+      results.add(new Result<T>(task.operation, value, throwable));
+      String key = task.operation.getKey();
+      if (key != null)
+      {
+        Task<?> next = waiting.get(key).poll();
+        if (next == null)
+        {
+          waiting.remove(key);
+        }
+        else
+        {
+          ready.add(next);
+        }
+      }
+      lock.notifyAll();
+    }
+    if (throwable == null)
+    {
+      task.future.complete(value);
+    }
+    else
+    {
+      task.future.completeExceptionally(throwable);
+    }
+    dispatch();
+  }
+}
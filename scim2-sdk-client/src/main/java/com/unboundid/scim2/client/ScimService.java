@@ -18,6 +18,7 @@
 package com.unboundid.scim2.client;
 
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import com.unboundid.scim2.client.requests.BulkRequestBuilder;
 import com.unboundid.scim2.client.requests.CreateRequestBuilder;
 import com.unboundid.scim2.client.requests.DeleteRequestBuilder;
 import com.unboundid.scim2.client.requests.ModifyRequestBuilder;
@@ -25,10 +26,12 @@ import com.unboundid.scim2.client.requests.ReplaceRequestBuilder;
 import com.unboundid.scim2.client.requests.RetrieveRequestBuilder;
 import com.unboundid.scim2.client.requests.SearchRequestBuilder;
 import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.NotModifiedException;
 import com.unboundid.scim2.common.exceptions.ScimException;
 import com.unboundid.scim2.common.messages.ListResponse;
 import com.unboundid.scim2.common.messages.PatchOperation;
 import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.types.BulkConfig;
 import com.unboundid.scim2.common.types.Meta;
 import com.unboundid.scim2.common.types.ResourceTypeResource;
 import com.unboundid.scim2.common.types.SchemaResource;
@@ -38,7 +41,14 @@ import com.unboundid.scim2.common.utils.JsonUtils;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import java.net.URI;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
+import static com.unboundid.scim2.common.utils.ApiConstants.BULK_ENDPOINT;
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
 import static com.unboundid.scim2.common.utils.ApiConstants.ME_ENDPOINT;
 import static com.unboundid.scim2.common.utils.ApiConstants.
@@ -51,7 +61,7 @@ import static com.unboundid.scim2.common.utils.ApiConstants.
  * The main entry point to the client API used to access a SCIM 2 service
  * provider.
  */
-public class ScimService implements ScimInterface
+public class ScimService implements ScimInterface, AsyncScimInterface
 {
   /**
    * The authenticated subject alias.
@@ -65,7 +75,8 @@ public class ScimService implements ScimInterface
       MediaType.valueOf(MEDIA_TYPE_SCIM);
 
   private final WebTarget baseTarget;
-  private volatile ServiceProviderConfigResource serviceProviderConfig;
+  private final ResourceCache resourceCache;
+  private final DiscoveryCache discoveryCache = new DiscoveryCache();
 
   /**
    * Create a new client instance to the SCIM 2 service provider at the
@@ -77,13 +88,124 @@ public class ScimService implements ScimInterface
    */
   public ScimService(final WebTarget baseTarget)
   {
-    this.baseTarget = baseTarget.register(
+    this(baseTarget, null);
+  }
+
+  /**
+   * Create a new client instance to the SCIM 2 service provider at the
+   * provided WebTarget that caches retrieved resources and revalidates them
+   * with conditional requests. The path of the WebTarget should be the base
+   * URI SCIM 2 service (ie. http://host/scim/v2).
+   *
+   * @param baseTarget The web target for the base URI of the SCIM 2 service
+   *                   provider.
+   * @param resourceCache The cache of retrieved resources or {@code null} to
+   *                      not cache resources.
+   */
+  public ScimService(final WebTarget baseTarget,
+                     final ResourceCache resourceCache)
+  {
+    WebTarget target = baseTarget.register(
         new JacksonJaxbJsonProvider(JsonUtils.createObjectMapper(),
             JacksonJaxbJsonProvider.DEFAULT_ANNOTATIONS));
+    if(resourceCache != null)
+    {
+      target = target.register(resourceCache).property(
+          ResourceCache.BASE_URI_PROPERTY, baseTarget.getUri().toString());
+    }
+    this.baseTarget = target;
+    this.resourceCache = resourceCache;
+  }
+
+  /**
+   * Retrieves the cache of retrieved resources.
+   *
+   * @return The cache of retrieved resources or {@code null} if resources
+   *         are not cached.
+   */
+  public ResourceCache getResourceCache()
+  {
+    return resourceCache;
+  }
+
+  /**
+   * Sets how long discovery metadata, that is the service provider
+   * configuration, resource types and schemas, is cached before it is
+   * refreshed. Expired metadata is revalidated with a conditional request if
+   * it has a version. The default is five minutes.
+   *
+   * @param ttl The time-to-live of cached discovery metadata. Metadata is
+   *            retrieved on every call if it is {@code 0}.
+   * @param unit The unit of the time-to-live.
+   */
+  public void setDiscoveryCacheTtl(final long ttl, final TimeUnit unit)
+  {
+    discoveryCache.setTtlMillis(unit.toMillis(ttl));
+  }
+
+  /**
+   * Remove all cached discovery metadata so that it is retrieved again when
+   * it is next requested.
+   */
+  public void invalidateDiscoveryCache()
+  {
+    discoveryCache.invalidate();
+  }
+
+  /**
+   * Sets the policy for retrying requests that the service provider rejected
+   * because it is overloaded or that failed to reach it. Requests are not
+   * retried by default. The policy applies to requests built after it is
+   * set.
+   *
+   * @param retryPolicy The retry policy or {@code null} to not retry
+   *                    requests.
+   */
+  public void setRetryPolicy(final RetryPolicy retryPolicy)
+  {
+    baseTarget.property(RetryPolicy.PROPERTY, retryPolicy);
+  }
+
+  /**
+   * Retrieves the policy for retrying requests.
+   *
+   * @return The retry policy or {@code null} if requests are not retried.
+   */
+  public RetryPolicy getRetryPolicy()
+  {
+    return (RetryPolicy) baseTarget.getConfiguration().getProperty(
+        RetryPolicy.PROPERTY);
+  }
+
+  /**
+   * Sets the limiter of concurrent requests to the service provider, which
+   * adapts the limit to the load the service provider can sustain. Requests
+   * are not limited by default. The limiter applies to requests built after
+   * it is set.
+   *
+   * @param limiter The concurrency limiter or {@code null} to not limit
+   *                concurrent requests.
+   */
+  public void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter limiter)
+  {
+    baseTarget.property(AdaptiveConcurrencyLimiter.PROPERTY, limiter);
+  }
+
+  /**
+   * Retrieves the limiter of concurrent requests to the service provider.
+   *
+   * @return The concurrency limiter or {@code null} if concurrent requests
+   *         are not limited.
+   */
+  public AdaptiveConcurrencyLimiter getConcurrencyLimiter()
+  {
+    return (AdaptiveConcurrencyLimiter) baseTarget.getConfiguration().
+        getProperty(AdaptiveConcurrencyLimiter.PROPERTY);
   }
 
   /**
-   * Retrieve the service provider configuration.
+   * Retrieve the service provider configuration. The configuration is cached
+   * as described in {@link #setDiscoveryCacheTtl(long, TimeUnit)}.
    *
    * @return the service provider configuration.
    * @throws ScimException if an error occurs.
@@ -91,17 +213,13 @@ public class ScimService implements ScimInterface
   public ServiceProviderConfigResource getServiceProviderConfig()
       throws ScimException
   {
-    if(serviceProviderConfig == null)
-    {
-      serviceProviderConfig = retrieve(
-          baseTarget.path(SERVICE_PROVIDER_CONFIG_ENDPOINT).getUri(),
-          ServiceProviderConfigResource.class);
-    }
-    return serviceProviderConfig;
+    return join(getServiceProviderConfigAsync());
   }
 
   /**
-   * Retrieve the resource types supported by the service provider.
+   * Retrieve the resource types supported by the service provider. The
+   * resource types are cached as described in
+   * {@link #setDiscoveryCacheTtl(long, TimeUnit)}.
    *
    * @return The list of resource types supported by the service provider.
    * @throws ScimException if an error occurs.
@@ -109,12 +227,13 @@ public class ScimService implements ScimInterface
   public ListResponse<ResourceTypeResource> getResourceTypes()
       throws ScimException
   {
-    return searchRequest(RESOURCE_TYPES_ENDPOINT).
-        invoke(ResourceTypeResource.class);
+    return join(getResourceTypesAsync());
   }
 
   /**
-   * Retrieve a known resource type supported by the service provider.
+   * Retrieve a known resource type supported by the service provider. The
+   * resource type is cached as described in
+   * {@link #setDiscoveryCacheTtl(long, TimeUnit)}.
    *
    * @param name The name of the resource type.
    * @return The resource type with the provided name.
@@ -123,11 +242,12 @@ public class ScimService implements ScimInterface
   public ResourceTypeResource getResourceType(final String name)
       throws ScimException
   {
-    return retrieve(RESOURCE_TYPES_ENDPOINT, name, ResourceTypeResource.class);
+    return join(getResourceTypeAsync(name));
   }
 
   /**
-   * Retrieve the schemas supported by the service provider.
+   * Retrieve the schemas supported by the service provider. The schemas are
+   * cached as described in {@link #setDiscoveryCacheTtl(long, TimeUnit)}.
    *
    * @return The list of schemas supported by the service provider.
    * @throws ScimException if an error occurs.
@@ -135,11 +255,12 @@ public class ScimService implements ScimInterface
   public ListResponse<SchemaResource> getSchemas()
       throws ScimException
   {
-    return searchRequest(SCHEMAS_ENDPOINT).invoke(SchemaResource.class);
+    return join(getSchemasAsync());
   }
 
   /**
-   * Retrieve a known schema supported by the service provider.
+   * Retrieve a known schema supported by the service provider. The schema is
+   * cached as described in {@link #setDiscoveryCacheTtl(long, TimeUnit)}.
    *
    * @param id The schema URN.
    * @return The resource type with the provided URN.
@@ -148,7 +269,7 @@ public class ScimService implements ScimInterface
   public SchemaResource getSchema(final String id)
       throws ScimException
   {
-    return retrieve(SCHEMAS_ENDPOINT, id, SchemaResource.class);
+    return join(getSchemaAsync(id));
   }
 
   /**
@@ -218,6 +339,82 @@ public class ScimService implements ScimInterface
     return builder.invoke();
   }
 
+  /**
+   * Retrieve known SCIM resources from the service provider by their IDs.
+   * Instead of one request per resource, the IDs are coalesced into
+   * {@code id eq "..." or id eq "..."} search filters, each matching at most
+   * the maximum number of results advertised in the service provider's
+   * filter configuration and short enough to send in a URL. The searches are
+   * sent concurrently.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param ids The resource identifiers.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return The retrieved resources keyed by ID and the IDs of the resources
+   *         that were not found.
+   * @throws ScimException if an error occurs.
+   */
+  public <T extends ScimResource> RetrieveAllResults<T> retrieveAll(
+      final String endpoint, final Collection<String> ids,
+      final Class<T> cls) throws ScimException
+  {
+    return join(retrieveAllAsync(endpoint, ids, cls));
+  }
+
+  /**
+   * Retrieve known SCIM resources from the service provider by their IDs
+   * asynchronously.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param ids The resource identifiers.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return A future for the retrieved resources keyed by ID and the IDs of
+   *         the resources that were not found, which completes exceptionally
+   *         with a ScimException if an error occurs.
+   * @see #retrieveAll(String, Collection, Class)
+   */
+  public <T extends ScimResource> CompletableFuture<RetrieveAllResults<T>>
+      retrieveAllAsync(final String endpoint, final Collection<String> ids,
+                       final Class<T> cls)
+  {
+    return retrieveAllAsync(endpoint, ids,
+        BatchRetriever.DEFAULT_MAX_FILTER_LENGTH,
+        BatchRetriever.DEFAULT_PARALLELISM, cls);
+  }
+
+  /**
+   * Retrieve known SCIM resources from the service provider by their IDs
+   * asynchronously.
+   *
+   * @param endpoint The resource endpoint such as: "{@code Users}" or
+   *                 "{@code Groups}" as defined by the associated resource
+   *                 type.
+   * @param ids The resource identifiers.
+   * @param maxFilterLength The maximum length of the URL encoded filter of
+   *                        each search.
+   * @param parallelism The maximum number of concurrent searches.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return A future for the retrieved resources keyed by ID and the IDs of
+   *         the resources that were not found, which completes exceptionally
+   *         with a ScimException if an error occurs.
+   * @see #retrieveAll(String, Collection, Class)
+   */
+  public <T extends ScimResource> CompletableFuture<RetrieveAllResults<T>>
+      retrieveAllAsync(final String endpoint, final Collection<String> ids,
+                       final int maxFilterLength, final int parallelism,
+                       final Class<T> cls)
+  {
+    return new BatchRetriever<T>(this, endpoint, ids, maxFilterLength,
+        parallelism, cls).retrieve();
+  }
+
   /**
    * Modify a SCIM resource by replacing the resource's attributes at the
    * service provider. If the service provider supports resource versioning,
@@ -353,6 +550,36 @@ public class ScimService implements ScimInterface
     return new SearchRequestBuilder(baseTarget.path(endpoint));
   }
 
+  /**
+   * Build a request to perform several operations with bulk requests. The
+   * operations are split into as many bulk requests as needed to respect the
+   * maximum number of operations and maximum payload size advertised by the
+   * service provider configuration.
+   *
+   * @return The request builder that may be used to add operations, to
+   * specify additional request parameters and to invoke the request.
+   * @throws ScimException If the service provider configuration could not be
+   * retrieved.
+   */
+  public BulkRequestBuilder bulkRequest() throws ScimException
+  {
+    BulkRequestBuilder builder =
+        new BulkRequestBuilder(baseTarget.path(BULK_ENDPOINT));
+    BulkConfig bulkConfig = getServiceProviderConfig().getBulk();
+    if(bulkConfig != null && bulkConfig.isSupported())
+    {
+      if(bulkConfig.getMaxOperations() > 0)
+      {
+        builder.maxOperations(bulkConfig.getMaxOperations());
+      }
+      if(bulkConfig.getMaxPayloadSize() > 0)
+      {
+        builder.maxPayloadSize(bulkConfig.getMaxPayloadSize());
+      }
+    }
+    return builder;
+  }
+
   /**
    * Build a request to modify a SCIM resource by replacing the resource's
    * attributes at the service provider.
@@ -547,6 +774,41 @@ public class ScimService implements ScimInterface
     return baseTarget.path(relativePath.getRawPath());
   }
 
+  /**
+   * Wait for an asynchronous operation to complete and throw the exception
+   * the equivalent synchronous operation would have thrown if it failed.
+   *
+   * @param future The future for the result of the operation.
+   * @param <R> The type of the result.
+   * @return The result of the operation.
+   * @throws ScimException if the operation failed with a ScimException.
+   */
+  private static <R> R join(final CompletableFuture<R> future)
+      throws ScimException
+  {
+    try
+    {
+      return future.join();
+    }
+    catch (CompletionException e)
+    {
+      Throwable cause = e.getCause();
+      if (cause instanceof ScimException)
+      {
+        throw (ScimException) cause;
+      }
+      if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error)
+      {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
   /**
    * Get the meta.location attribute value of the SCIM resource.
    *
@@ -575,4 +837,283 @@ public class ScimService implements ScimInterface
   {
     return searchRequest(endpoint).filter(filter).invoke(clazz);
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<ServiceProviderConfigResource>
+      getServiceProviderConfigAsync()
+  {
+    return discoveryCache.get(SERVICE_PROVIDER_CONFIG_ENDPOINT,
+        discoveryLoader(baseTarget.path(SERVICE_PROVIDER_CONFIG_ENDPOINT),
+            ServiceProviderConfigResource.class));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<ListResponse<ResourceTypeResource>>
+      getResourceTypesAsync()
+  {
+    return discoveryCache.get(RESOURCE_TYPES_ENDPOINT,
+        new DiscoveryCache.Loader<ListResponse<ResourceTypeResource>>()
+        {
+          public CompletableFuture<ListResponse<ResourceTypeResource>> load(
+              final ListResponse<ResourceTypeResource> expired)
+          {
+            return searchRequest(RESOURCE_TYPES_ENDPOINT).
+                invokeAsync(ResourceTypeResource.class).thenApply(
+                new Function<ListResponse<ResourceTypeResource>,
+                    ListResponse<ResourceTypeResource>>()
+                {
+                  public ListResponse<ResourceTypeResource> apply(
+                      final ListResponse<ResourceTypeResource> resourceTypes)
+                  {
+                    // Resource types may be retrieved by ID or name.
+                    for(ResourceTypeResource resourceType : resourceTypes)
+                    {
+                      discoveryCache.put(discoveryKey(RESOURCE_TYPES_ENDPOINT,
+                          resourceType.getId()), resourceType);
+                      discoveryCache.put(discoveryKey(RESOURCE_TYPES_ENDPOINT,
+                          resourceType.getName()), resourceType);
+                    }
+                    return resourceTypes;
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<ResourceTypeResource> getResourceTypeAsync(
+      final String name)
+  {
+    return discoveryCache.get(discoveryKey(RESOURCE_TYPES_ENDPOINT, name),
+        discoveryLoader(baseTarget.path(RESOURCE_TYPES_ENDPOINT).path(name),
+            ResourceTypeResource.class));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<ListResponse<SchemaResource>> getSchemasAsync()
+  {
+    return discoveryCache.get(SCHEMAS_ENDPOINT,
+        new DiscoveryCache.Loader<ListResponse<SchemaResource>>()
+        {
+          public CompletableFuture<ListResponse<SchemaResource>> load(
+              final ListResponse<SchemaResource> expired)
+          {
+            return searchRequest(SCHEMAS_ENDPOINT).
+                invokeAsync(SchemaResource.class).thenApply(
+                new Function<ListResponse<SchemaResource>,
+                    ListResponse<SchemaResource>>()
+                {
+                  public ListResponse<SchemaResource> apply(
+                      final ListResponse<SchemaResource> schemas)
+                  {
+                    for(SchemaResource schema : schemas)
+                    {
+                      discoveryCache.put(
+                          discoveryKey(SCHEMAS_ENDPOINT, schema.getId()),
+                          schema);
+                    }
+                    return schemas;
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<SchemaResource> getSchemaAsync(final String id)
+  {
+    return discoveryCache.get(discoveryKey(SCHEMAS_ENDPOINT, id),
+        discoveryLoader(baseTarget.path(SCHEMAS_ENDPOINT).path(id),
+            SchemaResource.class));
+  }
+
+  /**
+   * Retrieves the discovery cache key of a resource.
+   *
+   * @param endpoint The discovery endpoint.
+   * @param id The ID or name of the resource.
+   * @return The discovery cache key.
+   */
+  private static String discoveryKey(final String endpoint, final String id)
+  {
+    return endpoint + "/" + id;
+  }
+
+  /**
+   * Create a loader for a discovery resource that revalidates an expired
+   * resource with a conditional request if it has a version.
+   *
+   * @param target The WebTarget of the resource.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return The loader.
+   */
+  private <T extends ScimResource> DiscoveryCache.Loader<T> discoveryLoader(
+      final WebTarget target, final Class<T> cls)
+  {
+    return new DiscoveryCache.Loader<T>()
+    {
+      public CompletableFuture<T> load(final T expired)
+      {
+        RetrieveRequestBuilder.Typed request =
+            new RetrieveRequestBuilder.Typed(target);
+        if(expired == null || expired.getMeta() == null ||
+            expired.getMeta().getVersion() == null)
+        {
+          return request.invokeAsync(cls);
+        }
+        return request.ifNoneMatch(expired.getMeta().getVersion()).
+            invokeAsync(cls).handle(new BiFunction<T, Throwable, T>()
+            {
+              public T apply(final T resource, final Throwable throwable)
+              {
+                if(throwable == null)
+                {
+                  return resource;
+                }
+                Throwable cause = throwable instanceof CompletionException &&
+                    throwable.getCause() != null ?
+                    throwable.getCause() : throwable;
+                if(cause instanceof NotModifiedException)
+                {
+                  return expired;
+                }
+                throw throwable instanceof CompletionException ?
+                    (CompletionException) throwable :
+                    new CompletionException(throwable);
+              }
+            });
+      }
+    };
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> createAsync(
+      final String endpoint, final T resource)
+  {
+    return createRequest(endpoint, resource).invokeAsync();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> retrieveAsync(
+      final String endpoint, final String id, final Class<T> cls)
+  {
+    return retrieveRequest(endpoint, id).invokeAsync(cls);
+  }
+
+  /**
+   * Retrieve a known SCIM resource from the service provider
+   * asynchronously.
+   *
+   * @param url The URL of the resource to retrieve.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The Java type of the resource.
+   * @return A future for the successfully retrieved SCIM resource.
+   */
+  public <T extends ScimResource> CompletableFuture<T> retrieveAsync(
+      final URI url, final Class<T> cls)
+  {
+    return retrieveRequest(url).invokeAsync(cls);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> retrieveAsync(
+      final T resource)
+  {
+    return retrieveRequest(resource).invokeAsync();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> replaceAsync(
+      final T resource)
+  {
+    return replaceRequest(resource).invokeAsync();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> modifyAsync(
+      final String endpoint, final String id,
+      final PatchRequest patchRequest, final Class<T> clazz)
+  {
+    ModifyRequestBuilder.Typed requestBuilder = modifyRequest(endpoint, id);
+    for(PatchOperation op : patchRequest.getOperations())
+    {
+      requestBuilder.addOperation(op);
+    }
+    return requestBuilder.invokeAsync(clazz);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<T> modifyAsync(
+      final T resource, final PatchRequest patchRequest)
+  {
+    ModifyRequestBuilder.Generic<T> requestBuilder = modifyRequest(resource);
+    for(PatchOperation op : patchRequest.getOperations())
+    {
+      requestBuilder.addOperation(op);
+    }
+    return requestBuilder.invokeAsync();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public CompletableFuture<Void> deleteAsync(final String endpoint,
+                                             final String id)
+  {
+    return new DeleteRequestBuilder(
+        baseTarget.path(endpoint).path(id)).invokeAsync();
+  }
+
+  /**
+   * Delete a SCIM resource at the service provider asynchronously.
+   *
+   * @param url The URL of the resource to delete.
+   * @return A future that completes when the resource is deleted.
+   */
+  public CompletableFuture<Void> deleteAsync(final URI url)
+  {
+    return new DeleteRequestBuilder(resolveWebTarget(url)).invokeAsync();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<Void> deleteAsync(
+      final T resource)
+  {
+    return deleteAsync(checkAndGetLocation(resource));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public <T extends ScimResource> CompletableFuture<ListResponse<T>>
+      searchAsync(final String endpoint, final String filter,
+                  final Class<T> clazz)
+  {
+    return searchRequest(endpoint).filter(filter).invokeAsync(clazz);
+  }
 }
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client.requests;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.messages.BulkOperation;
+import com.unboundid.scim2.common.messages.BulkOperationResult;
+import com.unboundid.scim2.common.messages.BulkRequest;
+import com.unboundid.scim2.common.messages.BulkResponse;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A builder for SCIM bulk requests. The operations are split into as many
+ * bulk requests as needed to respect the maximum number of operations and the
+ * maximum payload size of the service provider, and the results of all
+ * requests are combined into a single bulk response in the order the
+ * requests were split. Within a request, results are in the order returned by
+ * the service provider, which need not be the order of the operations.
+ * <p>
+ * Operations may reference resources created by earlier operations with
+ * their bulkId. References within the same bulk request are resolved by the
+ * service provider. References to resources created by an earlier bulk
+ * request are resolved by the client, which sends the bulk request only after
+ * the one it depends on completed. Up to
+ * {@link #maxConcurrentRequests(int)} independent bulk requests are sent
+ * concurrently.
+ */
+public final class BulkRequestBuilder
+    extends RequestBuilder<BulkRequestBuilder>
+{
+  /**
+   * The default maximum number of bulk requests sent concurrently.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+
+  private final List<BulkOperation> operations =
+      new ArrayList<BulkOperation>();
+  private Integer failOnErrors;
+  private int maxOperations = Integer.MAX_VALUE;
+  private int maxPayloadSize = Integer.MAX_VALUE;
+  private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+
+  /**
+   * A bulk request to send with the operations it contains.
+   */
+  private static final class Batch
+  {
+    private final List<BulkOperation> operations =
+        new ArrayList<BulkOperation>();
+    private final Set<Integer> dependencies = new LinkedHashSet<Integer>();
+    private int payloadSize;
+  }
+
+  /**
+   * Create a new SCIM bulk request builder that will POST the bulk requests
+   * to the given web target.
+   *
+   * @param target The WebTarget of the bulk endpoint.
+   */
+  public BulkRequestBuilder(final WebTarget target)
+  {
+    super(target);
+  }
+
+  /**
+   * Add operations to the bulk request.
+   *
+   * @param operations The operations to add.
+   * @return This builder.
+   */
+  public BulkRequestBuilder operation(final BulkOperation... operations)
+  {
+    return operations(Arrays.asList(operations));
+  }
+
+  /**
+   * Add operations to the bulk request.
+   *
+   * @param operations The operations to add.
+   * @return This builder.
+   */
+  public BulkRequestBuilder operations(
+      final Collection<BulkOperation> operations)
+  {
+    this.operations.addAll(operations);
+    return this;
+  }
+
+  /**
+   * Stop processing operations after the specified number of operations
+   * failed. When more than one bulk request is sent concurrently, requests
+   * already sent when the limit is reached may still fail operations.
+   *
+   * @param failOnErrors The number of failed operations to accept.
+   * @return This builder.
+   */
+  public BulkRequestBuilder failOnErrors(final int failOnErrors)
+  {
+    if (failOnErrors < 1)
+    {
+      throw new IllegalArgumentException("failOnErrors must be at least 1");
+    }
+    this.failOnErrors = failOnErrors;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of operations in a single bulk request, which is
+   * usually advertised by the service provider configuration.
+   *
+   * @param maxOperations The maximum number of operations.
+   * @return This builder.
+   */
+  public BulkRequestBuilder maxOperations(final int maxOperations)
+  {
+    if (maxOperations < 1)
+    {
+      throw new IllegalArgumentException("maxOperations must be at least 1");
+    }
+    this.maxOperations = maxOperations;
+    return this;
+  }
+
+  /**
+   * Sets the maximum payload size in bytes of a single bulk request, which is
+   * usually advertised by the service provider configuration. An operation
+   * that exceeds the limit on its own is sent in a bulk request by itself.
+   *
+   * @param maxPayloadSize The maximum payload size in bytes.
+   * @return This builder.
+   */
+  public BulkRequestBuilder maxPayloadSize(final int maxPayloadSize)
+  {
+    if (maxPayloadSize < 1)
+    {
+      throw new IllegalArgumentException("maxPayloadSize must be at least 1");
+    }
+    this.maxPayloadSize = maxPayloadSize;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of bulk requests sent concurrently. The default
+   * is {@link #DEFAULT_MAX_CONCURRENT_REQUESTS}.
+   *
+   * @param maxConcurrentRequests The maximum number of bulk requests sent
+   *                              concurrently.
+   * @return This builder.
+   */
+  public BulkRequestBuilder maxConcurrentRequests(
+      final int maxConcurrentRequests)
+  {
+    if (maxConcurrentRequests < 1)
+    {
+      throw new IllegalArgumentException(
+          "maxConcurrentRequests must be at least 1");
+    }
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    return this;
+  }
+
+  /**
+   * Invoke the SCIM bulk request.
+   *
+   * @return The results of the processed operations.
+   * @throws ScimException If a bulk request failed.
+   */
+  public BulkResponse invoke() throws ScimException
+  {
+    try
+    {
+      return invokeAsync().join();
+    }
+    catch (CompletionException e)
+    {
+      if (e.getCause() instanceof ScimException)
+      {
+        throw (ScimException) e.getCause();
+      }
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Invoke the SCIM bulk request asynchronously.
+   *
+   * @return A future for the results of the processed operations, which
+   *         completes exceptionally with a ScimException if a bulk request
+   *         failed.
+   */
+  public CompletableFuture<BulkResponse> invokeAsync()
+  {
+    final List<Batch> batches;
+    try
+    {
+      batches = split();
+    }
+    catch (JsonProcessingException e)
+    {
+      CompletableFuture<BulkResponse> failed =
+          new CompletableFuture<BulkResponse>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+
+    final WebTarget builtTarget = buildTarget();
+    final Map<String, String> ids = new ConcurrentHashMap<String, String>();
+    final AtomicInteger errors = new AtomicInteger();
+    final List<CompletableFuture<List<BulkOperationResult>>> futures =
+        new ArrayList<CompletableFuture<List<BulkOperationResult>>>();
+    for (int i = 0; i < batches.size(); i++)
+    {
+      final Batch batch = batches.get(i);
+      List<CompletableFuture<?>> prerequisites =
+          new ArrayList<CompletableFuture<?>>();
+      for (Integer dependency : batch.dependencies)
+      {
+        prerequisites.add(futures.get(dependency));
+      }
+      if (i >= maxConcurrentRequests)
+      {
+        prerequisites.add(futures.get(i - maxConcurrentRequests));
+      }
+      futures.add(CompletableFuture.allOf(prerequisites.toArray(
+          new CompletableFuture<?>[prerequisites.size()])).thenCompose(
+          new Function<Void, CompletableFuture<List<BulkOperationResult>>>()
+          {
+            public CompletableFuture<List<BulkOperationResult>> apply(
+                final Void ignored)
+            {
+              return send(builtTarget, batch, ids, errors);
+            }
+          }));
+    }
+
+    return CompletableFuture.allOf(futures.toArray(
+        new CompletableFuture<?>[futures.size()])).thenApply(
+        new Function<Void, BulkResponse>()
+        {
+          public BulkResponse apply(final Void ignored)
+          {
+            List<BulkOperationResult> results =
+                new ArrayList<BulkOperationResult>();
+            for (CompletableFuture<List<BulkOperationResult>> future : futures)
+            {
+              results.addAll(future.join());
+            }
+            return new BulkResponse(results);
+          }
+        });
+  }
+
+  /**
+   * Send a single bulk request once all the bulk requests it depends on
+   * completed.
+   *
+   * @param builtTarget The built WebTarget of the bulk endpoint.
+   * @param batch The operations to send.
+   * @param ids The IDs of the resources created so far by their bulkId.
+   * @param errors The number of failed operations so far.
+   * @return A future for the results of the operations.
+   */
+  private CompletableFuture<List<BulkOperationResult>> send(
+      final WebTarget builtTarget, final Batch batch,
+      final Map<String, String> ids, final AtomicInteger errors)
+  {
+    Integer remainingErrors = null;
+    if (failOnErrors != null)
+    {
+      remainingErrors = failOnErrors - errors.get();
+      if (remainingErrors <= 0)
+      {
+        return CompletableFuture.completedFuture(
+            Collections.<BulkOperationResult>emptyList());
+      }
+    }
+
+    List<BulkOperation> resolved =
+        new ArrayList<BulkOperation>(batch.operations.size());
+    for (BulkOperation operation : batch.operations)
+    {
+      resolved.add(operation.resolveBulkIdReferences(ids));
+    }
+    BulkRequest request = new BulkRequest(remainingErrors, resolved);
+    return sendAsync(buildRequest(builtTarget).async(), HttpMethod.POST,
+        Entity.entity(request, getContentType()),
+        entityHandler(BulkResponse.class)).thenApply(
+        new Function<BulkResponse, List<BulkOperationResult>>()
+        {
+          public List<BulkOperationResult> apply(final BulkResponse response)
+          {
+            for (BulkOperationResult result : response)
+            {
+              if (!result.isSuccessful())
+              {
+                errors.incrementAndGet();
+              }
+              else if (result.getBulkId() != null && result.getId() != null)
+              {
+                ids.put(result.getBulkId(), result.getId());
+              }
+            }
+            return response.getOperations();
+          }
+        });
+  }
+
+  /**
+   * Split the operations into bulk requests that respect the maximum number
+   * of operations and payload size, and determine which earlier bulk
+   * requests create the resources referenced by each bulk request.
+   *
+   * @return The bulk requests to send.
+   * @throws JsonProcessingException If an operation could not be serialized.
+   */
+  private List<Batch> split() throws JsonProcessingException
+  {
+    // The payload of an empty request; each operation adds its own size and
+    // a separating comma.
+    int emptySize = JsonUtils.getObjectWriter().writeValueAsBytes(
+        new BulkRequest(failOnErrors,
+            Collections.<BulkOperation>emptyList())).length;
+    List<Batch> batches = new ArrayList<Batch>();
+    Map<String, Integer> bulkIdBatches = new HashMap<String, Integer>();
+    Batch batch = null;
+    for (BulkOperation operation : operations)
+    {
+      int size = JsonUtils.getObjectWriter().writeValueAsBytes(
+          operation).length;
+      if (batch == null || batch.operations.size() >= maxOperations ||
+          batch.payloadSize + size + 1 > maxPayloadSize)
+      {
+        batch = new Batch();
+        batch.payloadSize = emptySize - 1;
+        batches.add(batch);
+      }
+      batch.operations.add(operation);
+      batch.payloadSize += size + 1;
+
+      for (String reference : operation.getBulkIdReferences())
+      {
+        Integer dependency = bulkIdBatches.get(reference);
+        if (dependency != null && dependency != batches.size() - 1)
+        {
+          batch.dependencies.add(dependency);
+        }
+      }
+      if (operation.getBulkId() != null)
+      {
+        bulkIdBatches.put(operation.getBulkId(), batches.size() - 1);
+      }
+    }
+    return batches;
+  }
+}
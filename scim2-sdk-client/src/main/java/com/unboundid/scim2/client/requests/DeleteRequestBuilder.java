@@ -19,10 +19,12 @@ package com.unboundid.scim2.client.requests;
 
 import com.unboundid.scim2.common.exceptions.ScimException;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A builder for SCIM delete requests.
@@ -75,7 +77,7 @@ public class DeleteRequestBuilder extends RequestBuilder<DeleteRequestBuilder>
    */
   public void invoke() throws ScimException
   {
-    Response response = buildRequest().delete();
+    Response response = send(buildRequest(), HttpMethod.DELETE, null);
     try
     {
       if(response.getStatusInfo().getFamily() !=
@@ -90,4 +92,28 @@ public class DeleteRequestBuilder extends RequestBuilder<DeleteRequestBuilder>
       response.close();
     }
   }
+
+  /**
+   * Invoke the SCIM delete request asynchronously.
+   *
+   * @return A future that completes when the resource is deleted, or
+   *         completes exceptionally with a ScimException if an error
+   *         occurred.
+   */
+  public CompletableFuture<Void> invokeAsync()
+  {
+    return sendAsync(buildRequest().async(), HttpMethod.DELETE, null,
+        new ResponseHandler<Void>()
+        {
+          public Void handle(final Response response) throws ScimException
+          {
+            if(response.getStatusInfo().getFamily() !=
+                Response.Status.Family.SUCCESSFUL)
+            {
+              throw toScimException(response);
+            }
+            return null;
+          }
+        });
+  }
 }
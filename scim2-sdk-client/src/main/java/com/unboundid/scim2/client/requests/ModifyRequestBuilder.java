@@ -29,11 +29,11 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.Response;
 
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A builder for SCIM modify requests.
@@ -76,6 +76,15 @@ public abstract class ModifyRequestBuilder<T extends ModifyRequestBuilder<T>>
     return request;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean isIdempotent(final String method)
+  {
+    return version != null || super.isIdempotent(method);
+  }
+
   /**
    * A builder for SCIM modify requests for where the returned resource POJO
    * type will be the same as the original.
@@ -133,23 +142,37 @@ public abstract class ModifyRequestBuilder<T extends ModifyRequestBuilder<T>>
     public <C> C invoke(final Class<C> cls) throws ScimException
     {
       PatchRequest patchRequest = new PatchRequest(operations);
-      Response response = buildRequest().method("PATCH",
-          Entity.entity(patchRequest, getContentType()));
-      try
-      {
-        if (response.getStatusInfo().getFamily() ==
-            Response.Status.Family.SUCCESSFUL)
-        {
-          return response.readEntity(cls);
-        } else
-        {
-          throw toScimException(response);
-        }
-      }
-      finally
-      {
-        response.close();
-      }
+      return readEntity(send(buildRequest(), "PATCH",
+          Entity.entity(patchRequest, getContentType())), cls);
+    }
+
+    /**
+     * Invoke the SCIM modify request asynchronously.
+     *
+     * @return A future for the successfully modified SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> invokeAsync()
+    {
+      return invokeAsync((Class<T>) resource.getClass());
+    }
+
+    /**
+     * Invoke the SCIM modify request asynchronously.
+     *
+     * @param <C> The type of object to return.
+     * @param cls The Java class object used to determine the type to return.
+     * @return A future for the successfully modified SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    public <C> CompletableFuture<C> invokeAsync(final Class<C> cls)
+    {
+      PatchRequest patchRequest = new PatchRequest(operations);
+      return sendAsync(buildRequest().async(), "PATCH",
+          Entity.entity(patchRequest, getContentType()), entityHandler(cls));
     }
   }
 
@@ -194,24 +217,24 @@ public abstract class ModifyRequestBuilder<T extends ModifyRequestBuilder<T>>
     public <T> T invoke(final Class<T> cls) throws ScimException
     {
       PatchRequest patchRequest = new PatchRequest(operations);
-      Response response = buildRequest().method("PATCH",
-          Entity.entity(patchRequest, getContentType()));
-      try
-      {
-        if(response.getStatusInfo().getFamily() ==
-            Response.Status.Family.SUCCESSFUL)
-        {
-          return response.readEntity(cls);
-        }
-        else
-        {
-          throw toScimException(response);
-        }
-      }
-      finally
-      {
-        response.close();
-      }
+      return readEntity(send(buildRequest(), "PATCH",
+          Entity.entity(patchRequest, getContentType())), cls);
+    }
+
+    /**
+     * Invoke the SCIM modify request asynchronously.
+     *
+     * @param <T> The type of object to return.
+     * @param cls The Java class object used to determine the type to return.
+     * @return A future for the successfully modified SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    public <T> CompletableFuture<T> invokeAsync(final Class<T> cls)
+    {
+      PatchRequest patchRequest = new PatchRequest(operations);
+      return sendAsync(buildRequest().async(), "PATCH",
+          Entity.entity(patchRequest, getContentType()), entityHandler(cls));
     }
   }
 
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client.requests;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The results of a search that pages through all matching resources
+ * automatically. Pages are requested with the startIndex and count
+ * parameters, and while the caller consumes a page the following pages are
+ * already requested in the background, up to the configured prefetch depth.
+ * <p>
+ * Paging stops after the last result indicated by totalResults, or when the
+ * service provider returns an empty page. A service provider may return
+ * fewer results than requested per page even when more results remain. When
+ * that happens, the pages already requested from the wrong start index are
+ * cancelled and paging continues after the last result received, using the
+ * smaller page size for the remaining pages. If the response does not
+ * include totalResults, a short page is treated as the last page.
+ * <p>
+ * The results may only be iterated once and by a single thread. If a page
+ * could not be retrieved, the iterator throws a
+ * {@link java.util.concurrent.CompletionException} whose cause is the
+ * ScimException the synchronous search would have thrown. Close the results
+ * to cancel any outstanding requests when they are not consumed completely,
+ * for example by using a try-with-resources statement. The request builder
+ * should not be modified while the results are being consumed.
+ *
+ * @param <T> The type of objects returned.
+ */
+public final class PagedSearchResults<T> implements Iterable<T>, Closeable
+{
+  /**
+   * The default number of results requested per page.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  /**
+   * The default number of pages requested beyond the page being consumed.
+   */
+  public static final int DEFAULT_PREFETCH_PAGES = 1;
+
+  private final SearchRequestBuilder requestBuilder;
+  private final boolean post;
+  private final int prefetchPages;
+  private final Class<T> cls;
+  private final Deque<SearchResultPage<T>> pending =
+      new ArrayDeque<SearchResultPage<T>>();
+  private int pageSize;
+  private int nextStartIndex;
+  private Integer totalResults;
+  private Iterator<T> current;
+  private boolean done;
+  private boolean iterated;
+  private int pagesRequested;
+
+  /**
+   * Create new paged search results. No requests are sent until the results
+   * are iterated.
+   *
+   * @param requestBuilder The search request builder.
+   * @param post {@code true} to send the requests using POST or
+   *             {@code false} to send the requests using GET.
+   * @param startIndex The 1-based index of the first result.
+   * @param pageSize The number of results to request per page.
+   * @param prefetchPages The number of pages to request in the background
+   *                      beyond the page being consumed.
+   * @param cls The Java class object used to determine the type to return.
+   */
+  PagedSearchResults(final SearchRequestBuilder requestBuilder,
+                     final boolean post, final int startIndex,
+                     final int pageSize, final int prefetchPages,
+                     final Class<T> cls)
+  {
+    if (pageSize < 1)
+    {
+      throw new IllegalArgumentException("pageSize must be at least 1");
+    }
+    if (prefetchPages < 0)
+    {
+      throw new IllegalArgumentException("prefetchPages must not be negative");
+    }
+    this.requestBuilder = requestBuilder;
+    this.post = post;
+    this.nextStartIndex = startIndex < 1 ? 1 : startIndex;
+    this.pageSize = pageSize;
+    this.prefetchPages = prefetchPages;
+    this.cls = cls;
+  }
+
+  /**
+   * Retrieves an iterator over the search results. This method may only be
+   * called once.
+   *
+   * @return An iterator over the search results.
+   * @throws IllegalStateException If the results were already iterated.
+   */
+  public Iterator<T> iterator()
+  {
+    if (iterated)
+    {
+      throw new IllegalStateException(
+          "Paged search results may only be iterated once");
+    }
+    iterated = true;
+    return new Iterator<T>()
+    {
+      public boolean hasNext()
+      {
+        return advance();
+      }
+
+      public T next()
+      {
+        if (!advance())
+        {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+
+      public void remove()
+      {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  /**
+   * Retrieves a sequential stream over the search results. Closing the
+   * stream closes these results. This method may only be called once.
+   *
+   * @return A stream over the search results.
+   * @throws IllegalStateException If the results were already iterated.
+   */
+  public Stream<T> stream()
+  {
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+        iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false).
+        onClose(new Runnable()
+        {
+          public void run()
+          {
+            close();
+          }
+        });
+  }
+
+  /**
+   * Retrieves the totalResults returned by the service provider.
+   *
+   * @return The totalResults returned by the service provider or
+   *         {@code null} if no page was received yet or the service provider
+   *         did not return it.
+   */
+  public Integer getTotalResults()
+  {
+    return totalResults;
+  }
+
+  /**
+   * Retrieves the number of page requests sent, including requests that were
+   * cancelled.
+   *
+   * @return The number of page requests sent.
+   */
+  public int getPagesRequested()
+  {
+    return pagesRequested;
+  }
+
+  /**
+   * Stop paging and cancel all outstanding page requests. Results that were
+   * already received may still be iterated.
+   */
+  public void close()
+  {
+    done = true;
+    cancelPending();
+  }
+
+  /**
+   * Make sure a result is available from the current page, waiting for the
+   * next page if necessary.
+   *
+   * @return {@code true} if a result is available or {@code false} if there
+   *         are no more results.
+   */
+  private boolean advance()
+  {
+    while (current == null || !current.hasNext())
+    {
+      if (done)
+      {
+        return false;
+      }
+      requestPages();
+      SearchResultPage<T> page = pending.poll();
+      if (page == null)
+      {
+        done = true;
+        return false;
+      }
+      try
+      {
+        page.future.join();
+      }
+      catch (RuntimeException e)
+      {
+        close();
+        throw e;
+      }
+      receivePage(page);
+      // Request the following pages while the caller consumes this one.
+      requestPages();
+      current = page.resources.iterator();
+    }
+    return true;
+  }
+
+  /**
+   * Update the paging state with a page that was received.
+   *
+   * @param page The page that was received.
+   */
+  private void receivePage(final SearchResultPage<T> page)
+  {
+    if (page.totalResults != null)
+    {
+      totalResults = page.totalResults;
+    }
+    int received = page.resources.size();
+    int endIndex = page.startIndex + received;
+    if (received == 0 || (totalResults != null && endIndex > totalResults))
+    {
+      close();
+    }
+    else if (received < page.count)
+    {
+      if (totalResults == null)
+      {
+        close();
+      }
+      else
+      {
+        // The service provider limits the page size. Pages already requested
+        // start at the wrong index.
+        cancelPending();
+        pageSize = received;
+        nextStartIndex = endIndex;
+      }
+    }
+  }
+
+  /**
+   * Request pages until the prefetch depth is reached or all results have
+   * been requested.
+   */
+  private void requestPages()
+  {
+    while (!done && pending.size() <= prefetchPages &&
+        (totalResults == null || nextStartIndex <= totalResults))
+    {
+      SearchResultPage<T> page =
+          new SearchResultPage<T>(nextStartIndex, pageSize);
+      page.request(requestBuilder, post, cls);
+      pending.add(page);
+      pagesRequested++;
+      nextStartIndex += pageSize;
+    }
+  }
+
+  /**
+   * Cancel all outstanding page requests.
+   */
+  private void cancelPending()
+  {
+    for (SearchResultPage<T> page : pending)
+    {
+      page.future.cancel(true);
+    }
+    pending.clear();
+  }
+}
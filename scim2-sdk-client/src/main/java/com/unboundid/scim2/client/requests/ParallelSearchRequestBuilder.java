@@ -0,0 +1,517 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client.requests;
+
+import com.unboundid.scim2.client.RetryPolicy;
+import com.unboundid.scim2.client.SearchResultHandler;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.messages.ListResponse;
+
+import javax.ws.rs.ProcessingException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A builder for searches that retrieve all search results by requesting
+ * windows of results concurrently, for example to export all resources.
+ * <p>
+ * The first window is requested on its own to learn the totalResults. The
+ * remaining results are then divided into windows of the page size, which
+ * are requested with the startIndex and count parameters with bounded
+ * parallelism. If the service provider returns fewer results per page than
+ * requested, the windows are sized to the number of results it returned for
+ * the first window. A window that fails because of a server error, a
+ * {@code 429} response or a communication error is requested again after a
+ * delay determined by the retry policy, which waits at least as long as the
+ * Retry-After header of the response requests.
+ * <p>
+ * The search result handler is only called from the thread that invokes the
+ * search. The totalResults and startIndex are handled first, followed by the
+ * resources either in the order of the search results, in which case at most
+ * twice the parallelism of windows are held in memory, or in the order the
+ * windows are received.
+ */
+public final class ParallelSearchRequestBuilder
+{
+  /**
+   * The default number of results requested per window.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  /**
+   * The default number of windows requested concurrently.
+   */
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  /**
+   * The default number of times a failed window is requested again.
+   */
+  public static final int DEFAULT_MAX_RETRIES = 2;
+
+  private final SearchRequestBuilder requestBuilder;
+  private final int startIndex;
+  private int pageSize = DEFAULT_PAGE_SIZE;
+  private int parallelism = DEFAULT_PARALLELISM;
+  private RetryPolicy retryPolicy = new RetryPolicy(DEFAULT_MAX_RETRIES,
+      RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS,
+      RetryPolicy.DEFAULT_MAX_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+  private boolean ordered = true;
+  private boolean post;
+
+  /**
+   * Create a new parallel search request builder.
+   *
+   * @param requestBuilder The search request builder that determines the
+   *                       filter, sorting and attributes of the search.
+   * @param startIndex The 1-based index of the first result.
+   */
+  ParallelSearchRequestBuilder(final SearchRequestBuilder requestBuilder,
+                               final int startIndex)
+  {
+    this.requestBuilder = requestBuilder;
+    this.startIndex = startIndex < 1 ? 1 : startIndex;
+  }
+
+  /**
+   * Sets the number of results requested per window. The default is
+   * {@link #DEFAULT_PAGE_SIZE}.
+   *
+   * @param pageSize The number of results requested per window.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder pageSize(final int pageSize)
+  {
+    if (pageSize < 1)
+    {
+      throw new IllegalArgumentException("pageSize must be at least 1");
+    }
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of windows requested concurrently. The default
+   * is {@link #DEFAULT_PARALLELISM}.
+   *
+   * @param parallelism The maximum number of windows requested
+   *                    concurrently.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder parallelism(final int parallelism)
+  {
+    if (parallelism < 1)
+    {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    this.parallelism = parallelism;
+    return this;
+  }
+
+  /**
+   * Sets the number of times a failed window is requested again before the
+   * search fails. The default is {@link #DEFAULT_MAX_RETRIES}. The delays
+   * of the current retry policy are kept.
+   *
+   * @param maxRetries The number of times a failed window is requested
+   *                   again.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder maxRetries(final int maxRetries)
+  {
+    this.retryPolicy = new RetryPolicy(maxRetries,
+        retryPolicy.getInitialDelayMillis(), retryPolicy.getMaxDelayMillis(),
+        TimeUnit.MILLISECONDS);
+    return this;
+  }
+
+  /**
+   * Sets the policy that determines how many times and after what delay a
+   * failed window is requested again. The default policy retries
+   * {@link #DEFAULT_MAX_RETRIES} times with the default delays of
+   * {@link RetryPolicy}.
+   *
+   * @param retryPolicy The retry policy for failed windows.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder retryPolicy(
+      final RetryPolicy retryPolicy)
+  {
+    if (retryPolicy == null)
+    {
+      throw new IllegalArgumentException("retryPolicy must not be null");
+    }
+    this.retryPolicy = retryPolicy;
+    return this;
+  }
+
+  /**
+   * Sets whether resources are handled in the order of the search results or
+   * in the order the windows are received. The default is ordered.
+   *
+   * @param ordered {@code true} to handle resources in the order of the
+   *                search results or {@code false} to handle them as soon
+   *                as they are received.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder ordered(final boolean ordered)
+  {
+    this.ordered = ordered;
+    return this;
+  }
+
+  /**
+   * Sets whether the windows are requested using POST instead of GET. The
+   * default is GET.
+   *
+   * @param post {@code true} to send the requests using POST or
+   *             {@code false} to send the requests using GET.
+   * @return This builder.
+   */
+  public ParallelSearchRequestBuilder usePost(final boolean post)
+  {
+    this.post = post;
+    return this;
+  }
+
+  /**
+   * Invoke the search and collect all results.
+   *
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The ListResponse containing all search results.
+   * @throws ScimException If an error occurred.
+   */
+  public <T> ListResponse<T> invoke(final Class<T> cls)
+      throws ScimException
+  {
+    ListResponseBuilder<T> listResponseBuilder = new ListResponseBuilder<T>();
+    invoke(listResponseBuilder, cls);
+    return listResponseBuilder.build();
+  }
+
+  /**
+   * Invoke the search. Outstanding requests are cancelled if the search
+   * result handler stops processing or an error occurs.
+   *
+   * @param <T> The type of objects to return.
+   * @param resultHandler The search result handler that should be used to
+   *                      process the resources.
+   * @param cls The Java class object used to determine the type to return.
+   * @throws ScimException If an error occurred.
+   */
+  public <T> void invoke(final SearchResultHandler<T> resultHandler,
+                         final Class<T> cls)
+      throws ScimException
+  {
+    new Search<T>(resultHandler, cls).run();
+  }
+
+  /**
+   * The state of a parallel search.
+   *
+   * @param <T> The type of objects returned.
+   */
+  private final class Search<T>
+  {
+    private final SearchResultHandler<T> resultHandler;
+    private final Class<T> cls;
+    private final PriorityQueue<SearchResultPage<T>> queued =
+        new PriorityQueue<SearchResultPage<T>>(11,
+            new Comparator<SearchResultPage<T>>()
+            {
+              public int compare(final SearchResultPage<T> o1,
+                                 final SearchResultPage<T> o2)
+              {
+                return o1.startIndex < o2.startIndex ? -1 :
+                    (o1.startIndex == o2.startIndex ? 0 : 1);
+              }
+            });
+    private final List<SearchResultPage<T>> inFlight =
+        new ArrayList<SearchResultPage<T>>();
+    private final PriorityQueue<SearchResultPage<T>> delayed =
+        new PriorityQueue<SearchResultPage<T>>(11,
+            new Comparator<SearchResultPage<T>>()
+            {
+              public int compare(final SearchResultPage<T> o1,
+                                 final SearchResultPage<T> o2)
+              {
+                // Compare the difference since nanoTime values may overflow.
+                long difference = o1.retryAtNanos - o2.retryAtNanos;
+                return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+              }
+            });
+    private final BlockingQueue<SearchResultPage<T>> completed =
+        new LinkedBlockingQueue<SearchResultPage<T>>();
+    private final TreeMap<Integer, SearchResultPage<T>> received =
+        new TreeMap<Integer, SearchResultPage<T>>();
+    private Integer totalResults;
+    private int nextStartIndex = startIndex;
+    private boolean stopped;
+
+    /**
+     * Create a new parallel search.
+     *
+     * @param resultHandler The search result handler.
+     * @param cls The Java class object used to determine the type to return.
+     */
+    private Search(final SearchResultHandler<T> resultHandler,
+                   final Class<T> cls)
+    {
+      this.resultHandler = resultHandler;
+      this.cls = cls;
+    }
+
+    /**
+     * Run the search until all windows were handled.
+     *
+     * @throws ScimException If an error occurred.
+     */
+    private void run() throws ScimException
+    {
+      queued.add(new SearchResultPage<T>(startIndex, pageSize));
+      try
+      {
+        while (!stopped && (!queued.isEmpty() || !inFlight.isEmpty() ||
+            !delayed.isEmpty()))
+        {
+          requeueDelayed();
+          dispatch();
+          SearchResultPage<T> page = awaitCompleted();
+          if (page == null)
+          {
+            continue;
+          }
+          inFlight.remove(page);
+          Throwable failure = getFailure(page);
+          if (failure == null)
+          {
+            receive(page);
+            continue;
+          }
+          long delay = isRetryable(failure) ? retryPolicy.getDelayMillis(
+              page.attempts - 1, page.retryAfterMillis) : -1;
+          if (delay < 0)
+          {
+            throw failure;
+          }
+          page.retryAtNanos =
+              System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+          delayed.add(page);
+        }
+      }
+      catch (InterruptedException e)
+      {
+        Thread.currentThread().interrupt();
+        throw new ProcessingException(
+            "Interrupted while waiting for search results", e);
+      }
+      catch (ScimException e)
+      {
+        throw e;
+      }
+      catch (RuntimeException e)
+      {
+        throw e;
+      }
+      catch (Error e)
+      {
+        throw e;
+      }
+      catch (Throwable t)
+      {
+        throw new ProcessingException(t);
+      }
+      finally
+      {
+        for (SearchResultPage<T> page : inFlight)
+        {
+          page.future.cancel(true);
+        }
+      }
+    }
+
+    /**
+     * Queue the failed windows whose retry delay has elapsed to be requested
+     * again.
+     */
+    private void requeueDelayed()
+    {
+      long now = System.nanoTime();
+      while (!delayed.isEmpty() && delayed.peek().retryAtNanos - now <= 0)
+      {
+        queued.add(delayed.poll());
+      }
+    }
+
+    /**
+     * Wait for a window request to complete, or until the retry delay of a
+     * failed window has elapsed.
+     *
+     * @return The window whose request completed or {@code null} if the
+     *         retry delay of a failed window elapsed first.
+     * @throws InterruptedException If the thread was interrupted while
+     *                              waiting.
+     */
+    private SearchResultPage<T> awaitCompleted() throws InterruptedException
+    {
+      if (delayed.isEmpty())
+      {
+        return completed.take();
+      }
+      return completed.poll(delayed.peek().retryAtNanos - System.nanoTime(),
+          TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Request queued windows up to the parallelism. Until the totalResults
+     * is known, only the first window is requested.
+     */
+    private void dispatch()
+    {
+      while (!queued.isEmpty() &&
+          inFlight.size() < (totalResults == null ? 1 : parallelism) &&
+          (!ordered || inFlight.size() + received.size() < 2 * parallelism ||
+              queued.peek().startIndex == nextStartIndex))
+      {
+        final SearchResultPage<T> page = queued.poll();
+        inFlight.add(page);
+        page.request(requestBuilder, post, cls).whenComplete(
+            new BiConsumer<Void, Throwable>()
+            {
+              public void accept(final Void result, final Throwable throwable)
+              {
+                completed.add(page);
+              }
+            });
+      }
+    }
+
+    /**
+     * Handle a window that was received successfully.
+     *
+     * @param page The window that was received.
+     */
+    private void receive(final SearchResultPage<T> page)
+    {
+      int size = page.resources.size();
+      if (totalResults == null)
+      {
+        totalResults = page.totalResults == null ?
+            page.startIndex + size - 1 : page.totalResults;
+        resultHandler.totalResults(totalResults);
+        resultHandler.startIndex(startIndex);
+        // Size the windows to the page size of the service provider.
+        int windowSize = size > 0 && size < pageSize ? size : pageSize;
+        for (int i = page.startIndex + size; size > 0 && i <= totalResults;
+             i += windowSize)
+        {
+          queued.add(new SearchResultPage<T>(i, windowSize));
+        }
+      }
+      else if (size > 0 && size < page.count &&
+          page.startIndex + size <= totalResults)
+      {
+        // The rest of a short window is requested on its own.
+        queued.add(new SearchResultPage<T>(page.startIndex + size,
+            page.count - size));
+      }
+
+      if (!ordered)
+      {
+        handle(page);
+        return;
+      }
+      received.put(page.startIndex, page);
+      SearchResultPage<T> next;
+      while (!stopped && (next = received.remove(nextStartIndex)) != null)
+      {
+        handle(next);
+        int nextSize = next.resources.size();
+        nextStartIndex += nextSize > 0 && nextSize < next.count ?
+            nextSize : next.count;
+      }
+    }
+
+    /**
+     * Pass the resources of a window to the search result handler.
+     *
+     * @param page The window whose resources to handle.
+     */
+    private void handle(final SearchResultPage<T> page)
+    {
+      for (T resource : page.resources)
+      {
+        if (!resultHandler.resource(resource))
+        {
+          stopped = true;
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Retrieves the reason a window request failed.
+   *
+   * @param page The window whose request completed.
+   * @return The reason the request failed or {@code null} if it succeeded.
+   */
+  private static Throwable getFailure(final SearchResultPage<?> page)
+  {
+    try
+    {
+      page.future.join();
+      return null;
+    }
+    catch (CompletionException e)
+    {
+      return e.getCause() == null ? e : e.getCause();
+    }
+    catch (RuntimeException e)
+    {
+      return e;
+    }
+  }
+
+  /**
+   * Whether a failed window request should be retried. Client errors other
+   * than {@code 429 Too Many Requests} are not retried since they would fail
+   * again, and the retry policy determines whether and when other failures
+   * are retried.
+   *
+   * @param failure The reason the request failed.
+   * @return {@code true} if the request should be retried.
+   */
+  private static boolean isRetryable(final Throwable failure)
+  {
+    if (failure instanceof ScimException)
+    {
+      Integer status = ((ScimException) failure).getScimError().getStatus();
+      return status == null || status >= 500 || status == 429;
+    }
+    return true;
+  }
+}
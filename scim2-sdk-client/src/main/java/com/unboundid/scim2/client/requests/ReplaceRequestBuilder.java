@@ -20,11 +20,12 @@ package com.unboundid.scim2.client.requests;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A builder for SCIM replace requests.
@@ -95,23 +96,35 @@ public final class ReplaceRequestBuilder<T extends ScimResource>
    */
   public <C> C invoke(final Class<C> cls) throws ScimException
   {
-    Response response = buildRequest().put(
-        Entity.entity(resource, getContentType()));
-    try
-    {
-      if(response.getStatusInfo().getFamily() ==
-          Response.Status.Family.SUCCESSFUL)
-      {
-        return response.readEntity(cls);
-      }
-      else
-      {
-        throw toScimException(response);
-      }
-    }
-    finally
-    {
-      response.close();
-    }
+    return readEntity(send(buildRequest(), HttpMethod.PUT,
+        Entity.entity(resource, getContentType())), cls);
+  }
+
+  /**
+   * Invoke the SCIM replace request asynchronously.
+   *
+   * @return A future for the successfully replaced SCIM resource, which
+   *         completes exceptionally with a ScimException if an error
+   *         occurred.
+   */
+  @SuppressWarnings("unchecked")
+  public CompletableFuture<T> invokeAsync()
+  {
+    return invokeAsync((Class<T>) resource.getClass());
+  }
+
+  /**
+   * Invoke the SCIM replace request asynchronously.
+   *
+   * @param <C> The type of object to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future for the successfully replaced SCIM resource, which
+   *         completes exceptionally with a ScimException if an error
+   *         occurred.
+   */
+  public <C> CompletableFuture<C> invokeAsync(final Class<C> cls)
+  {
+    return sendAsync(buildRequest().async(), HttpMethod.PUT,
+        Entity.entity(resource, getContentType()), entityHandler(cls));
   }
 }
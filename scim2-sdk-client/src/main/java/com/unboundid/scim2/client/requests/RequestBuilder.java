@@ -17,15 +17,23 @@
 
 package com.unboundid.scim2.client.requests;
 
+import com.unboundid.scim2.client.AdaptiveConcurrencyLimiter;
+import com.unboundid.scim2.client.RetryPolicy;
 import com.unboundid.scim2.client.ScimServiceException;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
 import com.unboundid.scim2.common.messages.ErrorResponse;
+import com.unboundid.scim2.common.utils.Debug;
 import com.unboundid.scim2.common.utils.StaticUtils;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedHashMap;
 import javax.ws.rs.core.MultivaluedMap;
@@ -33,6 +41,15 @@ import javax.ws.rs.core.Response;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
 
@@ -41,10 +58,270 @@ import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
  */
 public class RequestBuilder<T extends RequestBuilder>
 {
+  /**
+   * Handles the response to a request.
+   *
+   * @param <R> The type of the result of the request.
+   */
+  interface ResponseHandler<R>
+  {
+    /**
+     * Handle the response to a request. The response is closed afterwards.
+     *
+     * @param response The JAX-RS response.
+     * @return The result of the request.
+     * @throws ScimException If the response is an error.
+     */
+    R handle(Response response) throws ScimException;
+  }
+
+  /**
+   * The outcome of a request, used to adjust the concurrency limit.
+   */
+  private enum Outcome
+  {
+    /**
+     * The service provider responded and was not overloaded.
+     */
+    SUCCESS,
+
+    /**
+     * The service provider was overloaded or could not be reached.
+     */
+    DROPPED,
+
+    /**
+     * The request was cancelled or could not be sent.
+     */
+    IGNORED
+  }
+
+  /**
+   * Holds the scheduler of asynchronous retries, which is only created when
+   * a request is first retried.
+   */
+  private static final class RetrySchedulerHolder
+  {
+    private static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+          public Thread newThread(final Runnable runnable)
+          {
+            Thread thread = new Thread(runnable, "SCIM Client Retry");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * A request that is sent asynchronously, and possibly several times.
+   *
+   * @param <R> The type of the result of the request.
+   */
+  private final class AsyncRequest<R> implements InvocationCallback<Response>
+  {
+    private final AsyncInvoker invoker;
+    private final String method;
+    private final Entity<?> entity;
+    private final ResponseHandler<R> handler;
+    private final RetryPolicy retryPolicy = getRetryPolicy();
+    private final AdaptiveConcurrencyLimiter limiter =
+        getConcurrencyLimiter();
+    private final boolean idempotent;
+    private final CompletableFuture<R> result = new CompletableFuture<R>();
+    private final AtomicBoolean holdingPermit = new AtomicBoolean();
+    // The permit being waited for or the request being sent.
+    private volatile Future<?> pending;
+    private volatile int retries;
+
+    /**
+     * Create a new asynchronous request.
+     *
+     * @param invoker The asynchronous invoker of the request.
+     * @param method The HTTP method.
+     * @param entity The request entity or {@code null} if there is none.
+     * @param handler The response handler.
+     */
+    private AsyncRequest(final AsyncInvoker invoker, final String method,
+                         final Entity<?> entity,
+                         final ResponseHandler<R> handler)
+    {
+      this.invoker = invoker;
+      this.method = method;
+      this.entity = entity;
+      this.handler = handler;
+      this.idempotent = isIdempotent(method);
+      result.whenComplete(new BiConsumer<R, Throwable>()
+      {
+        public void accept(final R value, final Throwable throwable)
+        {
+          Future<?> current = pending;
+          if (result.isCancelled() && current != null)
+          {
+            current.cancel(true);
+            releasePermit(Outcome.IGNORED);
+          }
+        }
+      });
+    }
+
+    /**
+     * Send the request once a permit is available.
+     */
+    private void send()
+    {
+      if (limiter == null)
+      {
+        invoke();
+        return;
+      }
+      CompletableFuture<Void> permit = limiter.acquireAsync();
+      pending = permit;
+      permit.thenRun(new Runnable()
+      {
+        public void run()
+        {
+          holdingPermit.set(true);
+          if (result.isDone())
+          {
+            releasePermit(Outcome.IGNORED);
+          }
+          else
+          {
+            invoke();
+          }
+        }
+      });
+    }
+
+    /**
+     * Send the request.
+     */
+    private void invoke()
+    {
+      try
+      {
+        pending = entity == null ? invoker.method(method, this) :
+            invoker.method(method, entity, this);
+      }
+      catch (RuntimeException e)
+      {
+        releasePermit(Outcome.IGNORED);
+        result.completeExceptionally(e);
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void completed(final Response response)
+    {
+      try
+      {
+        if (retryPolicy.isOverloaded(response.getStatus()))
+        {
+          releasePermit(Outcome.DROPPED);
+          if (retry(RetryPolicy.parseRetryAfter(
+              response.getHeaderString(HttpHeaders.RETRY_AFTER))))
+          {
+            return;
+          }
+        }
+        else
+        {
+          releasePermit(Outcome.SUCCESS);
+        }
+        result.complete(handler.handle(response));
+      }
+      catch (ScimException e)
+      {
+        result.completeExceptionally(e);
+      }
+      catch (RuntimeException e)
+      {
+        result.completeExceptionally(e);
+      }
+      finally
+      {
+        response.close();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void failed(final Throwable throwable)
+    {
+      if (result.isDone())
+      {
+        releasePermit(Outcome.IGNORED);
+        return;
+      }
+      releasePermit(Outcome.DROPPED);
+      if (!(throwable instanceof ProcessingException) || !retry(null))
+      {
+        result.completeExceptionally(throwable);
+      }
+    }
+
+    /**
+     * Schedule the request to be sent again if the retry policy allows it.
+     *
+     * @param retryAfterMillis The delay requested by the service provider in
+     *                         milliseconds or {@code null} if it did not
+     *                         request a delay.
+     * @return {@code true} if the request will be sent again or
+     *         {@code false} otherwise.
+     */
+    private boolean retry(final Long retryAfterMillis)
+    {
+      long delay = idempotent ?
+          retryPolicy.getDelayMillis(retries, retryAfterMillis) : -1;
+      if (delay < 0 || result.isDone())
+      {
+        return false;
+      }
+      retries++;
+      try
+      {
+        RetrySchedulerHolder.SCHEDULER.schedule(new Runnable()
+        {
+          public void run()
+          {
+            if (!result.isDone())
+            {
+              send();
+            }
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      }
+      catch (RejectedExecutionException e)
+      {
+        Debug.debugException(e);
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Release the permit of the current attempt, if it is still held.
+     *
+     * @param outcome The outcome of the attempt.
+     */
+    private void releasePermit(final Outcome outcome)
+    {
+      if (limiter != null && holdingPermit.compareAndSet(true, false))
+      {
+        release(limiter, outcome);
+      }
+    }
+  }
+
   /**
    * The web target to send the request.
    */
-  private WebTarget target;
+  private final WebTarget target;
 
   /**
    * Arbitrary request headers.
@@ -187,6 +464,250 @@ public class RequestBuilder<T extends RequestBuilder>
     }
   }
 
+  /**
+   * Read the entity of a successful JAX-RS response or convert an error
+   * response to a ScimException.
+   *
+   * @param response The JAX-RS response, which is closed afterwards.
+   * @param cls The Java class object used to determine the type to return.
+   * @param <C> The type of object to return.
+   * @return The entity of the response.
+   * @throws ScimException If the response is an error.
+   */
+  static <C> C readEntity(final Response response, final Class<C> cls)
+      throws ScimException
+  {
+    try
+    {
+      if(response.getStatusInfo().getFamily() ==
+          Response.Status.Family.SUCCESSFUL)
+      {
+        return response.readEntity(cls);
+      }
+      else
+      {
+        throw toScimException(response);
+      }
+    }
+    finally
+    {
+      response.close();
+    }
+  }
+
+  /**
+   * Retrieves a response handler that reads the entity of successful
+   * responses with {@link #readEntity(Response, Class)}.
+   *
+   * @param cls The Java class object used to determine the type to return.
+   * @param <C> The type of object to return.
+   * @return The response handler.
+   */
+  static <C> ResponseHandler<C> entityHandler(final Class<C> cls)
+  {
+    return new ResponseHandler<C>()
+    {
+      public C handle(final Response response) throws ScimException
+      {
+        return readEntity(response, cls);
+      }
+    };
+  }
+
+  /**
+   * Send a request synchronously. If a concurrency limiter or retry policy
+   * is configured on the WebTarget, the request waits for a permit from the
+   * limiter and is retried according to the policy.
+   *
+   * @param request The request to send.
+   * @param method The HTTP method.
+   * @param entity The request entity or {@code null} if there is none.
+   * @return The response, which may be an error response.
+   * @throws ProcessingException If the request could not be sent or the
+   *                             thread was interrupted while waiting.
+   */
+  Response send(final Invocation.Builder request, final String method,
+                final Entity<?> entity)
+  {
+    RetryPolicy retryPolicy = getRetryPolicy();
+    AdaptiveConcurrencyLimiter limiter = getConcurrencyLimiter();
+    boolean idempotent = isIdempotent(method);
+    for (int retries = 0; ; retries++)
+    {
+      if (limiter != null)
+      {
+        try
+        {
+          limiter.acquire();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new ProcessingException(e);
+        }
+      }
+
+      Response response;
+      try
+      {
+        response = entity == null ? request.method(method) :
+            request.method(method, entity);
+      }
+      catch (ProcessingException e)
+      {
+        release(limiter, Outcome.DROPPED);
+        long delay = idempotent ?
+            retryPolicy.getDelayMillis(retries, null) : -1;
+        if (delay < 0)
+        {
+          throw e;
+        }
+        sleep(delay);
+        continue;
+      }
+      catch (RuntimeException e)
+      {
+        release(limiter, Outcome.IGNORED);
+        throw e;
+      }
+
+      if (!retryPolicy.isOverloaded(response.getStatus()))
+      {
+        release(limiter, Outcome.SUCCESS);
+        return response;
+      }
+      release(limiter, Outcome.DROPPED);
+      long delay = idempotent ? retryPolicy.getDelayMillis(retries,
+          RetryPolicy.parseRetryAfter(
+              response.getHeaderString(HttpHeaders.RETRY_AFTER))) : -1;
+      if (delay < 0)
+      {
+        return response;
+      }
+      response.close();
+      sleep(delay);
+    }
+  }
+
+  /**
+   * Send a request asynchronously. The response is handled on the thread
+   * that completes the request, which is managed by the JAX-RS client, and
+   * errors are converted exactly like for synchronous requests. Concurrency
+   * limits and retries apply like for synchronous requests, but without
+   * blocking the caller.
+   * Cancelling the returned future cancels the request.
+   *
+   * @param invoker The asynchronous invoker of the request.
+   * @param method The HTTP method.
+   * @param entity The request entity or {@code null} if there is none.
+   * @param handler The response handler.
+   * @param <R> The type of the result of the request.
+   * @return A future for the result of the request, which completes
+   * exceptionally with a ScimException if the response is an error and with
+   * a ProcessingException if the request could not be sent or the response
+   * could not be read.
+   */
+  <R> CompletableFuture<R> sendAsync(
+      final AsyncInvoker invoker, final String method,
+      final Entity<?> entity, final ResponseHandler<R> handler)
+  {
+    AsyncRequest<R> request =
+        new AsyncRequest<R>(invoker, method, entity, handler);
+    request.send();
+    return request.result;
+  }
+
+  /**
+   * Whether a request may be sent again if the service provider did not
+   * respond or was overloaded, without risking that it is processed twice.
+   * GET, PUT and DELETE requests are idempotent, as are PATCH requests with
+   * an If-Match header since only the first of them can match.
+   *
+   * @param method The HTTP method of the request.
+   * @return {@code true} if the request may be retried or {@code false}
+   *         otherwise.
+   */
+  boolean isIdempotent(final String method)
+  {
+    return HttpMethod.GET.equals(method) || HttpMethod.PUT.equals(method) ||
+        HttpMethod.DELETE.equals(method) || ("PATCH".equals(method) &&
+        headers.containsKey(HttpHeaders.IF_MATCH));
+  }
+
+  /**
+   * Retrieves the retry policy configured on the WebTarget.
+   *
+   * @return The retry policy, which is {@link RetryPolicy#NONE} if none is
+   *         configured.
+   */
+  private RetryPolicy getRetryPolicy()
+  {
+    Object retryPolicy =
+        target.getConfiguration().getProperty(RetryPolicy.PROPERTY);
+    return retryPolicy instanceof RetryPolicy ?
+        (RetryPolicy) retryPolicy : RetryPolicy.NONE;
+  }
+
+  /**
+   * Retrieves the concurrency limiter configured on the WebTarget.
+   *
+   * @return The concurrency limiter or {@code null} if none is configured.
+   */
+  private AdaptiveConcurrencyLimiter getConcurrencyLimiter()
+  {
+    Object limiter = target.getConfiguration().getProperty(
+        AdaptiveConcurrencyLimiter.PROPERTY);
+    return limiter instanceof AdaptiveConcurrencyLimiter ?
+        (AdaptiveConcurrencyLimiter) limiter : null;
+  }
+
+  /**
+   * Release a permit of a concurrency limiter.
+   *
+   * @param limiter The concurrency limiter or {@code null} if none is
+   *                configured.
+   * @param outcome The outcome of the request.
+   */
+  private static void release(final AdaptiveConcurrencyLimiter limiter,
+                              final Outcome outcome)
+  {
+    if (limiter == null)
+    {
+      return;
+    }
+    switch (outcome)
+    {
+      case SUCCESS:
+        limiter.onSuccess();
+        break;
+      case DROPPED:
+        limiter.onDropped();
+        break;
+      default:
+        limiter.onIgnore();
+        break;
+    }
+  }
+
+  /**
+   * Wait before retrying a request.
+   *
+   * @param millis The time to wait in milliseconds.
+   * @throws ProcessingException If the thread was interrupted while waiting.
+   */
+  private static void sleep(final long millis)
+  {
+    try
+    {
+      Thread.sleep(millis);
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+      throw new ProcessingException(e);
+    }
+  }
+
   /**
    * Returns the unbuilt WebTarget for the request. In most cases,
    * {@link #buildTarget()} should be used instead.
@@ -199,18 +720,20 @@ public class RequestBuilder<T extends RequestBuilder>
   }
 
   /**
-   * Build the WebTarget for the request.
+   * Build the WebTarget for the request. The unbuilt WebTarget is left
+   * unchanged so the request may be built more than once.
    *
    * @return The WebTarget for the request.
    */
   WebTarget buildTarget()
   {
+    WebTarget builtTarget = target;
     for(Map.Entry<String, List<Object>> queryParam : queryParams.entrySet())
     {
-      target = target.queryParam(queryParam.getKey(),
-                                 queryParam.getValue().toArray());
+      builtTarget = builtTarget.queryParam(queryParam.getKey(),
+                                           queryParam.getValue().toArray());
     }
-    return target;
+    return builtTarget;
   }
 
   /**
@@ -232,15 +755,28 @@ public class RequestBuilder<T extends RequestBuilder>
   {
     return accept;
   }
+
   /**
    * Build the Invocation.Builder for the request.
    *
    * @return The Invocation.Builder for the request.
    */
   Invocation.Builder buildRequest()
+  {
+    return buildRequest(buildTarget());
+  }
+
+  /**
+   * Build the Invocation.Builder for the request using the provided
+   * WebTarget.
+   *
+   * @param builtTarget The built WebTarget for the request.
+   * @return The Invocation.Builder for the request.
+   */
+  Invocation.Builder buildRequest(final WebTarget builtTarget)
   {
     Invocation.Builder builder =
-        buildTarget().request(accept.toArray(new String[accept.size()]));
+        builtTarget.request(accept.toArray(new String[accept.size()]));
     for(Map.Entry<String, List<Object>> header : headers.entrySet())
     {
       builder = builder.header(header.getKey(),
@@ -20,10 +20,11 @@ package com.unboundid.scim2.client.requests;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.ScimException;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A builder for SCIM retrieve requests.
@@ -120,23 +121,35 @@ public abstract class RetrieveRequestBuilder
      */
     public <C> C invoke(final Class<C> cls) throws ScimException
     {
-      Response response = buildRequest().get();
-      try
-      {
-        if(response.getStatusInfo().getFamily() ==
-            Response.Status.Family.SUCCESSFUL)
-        {
-          return response.readEntity(cls);
-        }
-        else
-        {
-          throw toScimException(response);
-        }
-      }
-      finally
-      {
-        response.close();
-      }
+      return readEntity(send(buildRequest(), HttpMethod.GET, null), cls);
+    }
+
+    /**
+     * Invoke the SCIM retrieve request asynchronously.
+     *
+     * @return A future for the successfully retrieved SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<T> invokeAsync()
+    {
+      return invokeAsync((Class<T>) resource.getClass());
+    }
+
+    /**
+     * Invoke the SCIM retrieve request asynchronously.
+     *
+     * @param <C> The type of object to return.
+     * @param cls The Java class object used to determine the type to return.
+     * @return A future for the successfully retrieved SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    public <C> CompletableFuture<C> invokeAsync(final Class<C> cls)
+    {
+      return sendAsync(buildRequest().async(), HttpMethod.GET,
+          null, entityHandler(cls));
     }
   }
 
@@ -181,23 +194,22 @@ public abstract class RetrieveRequestBuilder
      */
     public <T> T invoke(final Class<T> cls) throws ScimException
     {
-      Response response = buildRequest().get();
-      try
-      {
-        if(response.getStatusInfo().getFamily() ==
-            Response.Status.Family.SUCCESSFUL)
-        {
-          return response.readEntity(cls);
-        }
-        else
-        {
-          throw toScimException(response);
-        }
-      }
-      finally
-      {
-        response.close();
-      }
+      return readEntity(send(buildRequest(), HttpMethod.GET, null), cls);
+    }
+
+    /**
+     * Invoke the SCIM retrieve request asynchronously.
+     *
+     * @param <T> The type of object to return.
+     * @param cls The Java class object used to determine the type to return.
+     * @return A future for the successfully retrieved SCIM resource, which
+     *         completes exceptionally with a ScimException if an error
+     *         occurred.
+     */
+    public <T> CompletableFuture<T> invokeAsync(final Class<T> cls)
+    {
+      return sendAsync(buildRequest().async(), HttpMethod.GET,
+          null, entityHandler(cls));
     }
   }
 }
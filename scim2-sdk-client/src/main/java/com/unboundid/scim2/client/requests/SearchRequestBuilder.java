@@ -20,6 +20,7 @@ package com.unboundid.scim2.client.requests;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.client.RetryPolicy;
 import com.unboundid.scim2.client.ScimService;
 import com.unboundid.scim2.client.SearchResultHandler;
 import com.unboundid.scim2.common.ScimResource;
@@ -32,10 +33,12 @@ import com.unboundid.scim2.common.utils.JsonUtils;
 import com.unboundid.scim2.common.utils.SchemaUtils;
 import com.unboundid.scim2.common.utils.StaticUtils;
 
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.ResponseProcessingException;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
@@ -43,6 +46,8 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_FILTER;
 import static com.unboundid.scim2.common.utils.ApiConstants.QUERY_PARAMETER_PAGE_SIZE;
@@ -115,11 +120,37 @@ public final class SearchRequestBuilder
     return this;
   }
 
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Searches are queries even when sent using POST, so they may always be
+   * retried.
+   */
+  @Override
+  boolean isIdempotent(final String method)
+  {
+    return true;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   WebTarget buildTarget()
+  {
+    return buildTarget(startIndex, count);
+  }
+
+  /**
+   * Build the WebTarget for the request with the provided pagination.
+   *
+   * @param startIndex the 1-based index of the first query result or
+   *                   {@code null} to not request pagination.
+   * @param count the desired maximum number of query results per page or
+   *              {@code null} to not request pagination.
+   * @return The WebTarget for the request.
+   */
+  private WebTarget buildTarget(final Integer startIndex, final Integer count)
   {
     WebTarget target = super.buildTarget();
     if(filter != null)
@@ -204,6 +235,164 @@ public final class SearchRequestBuilder
     invoke(true, resultHandler, cls);
   }
 
+  /**
+   * Invoke the SCIM retrieve request using GET asynchronously.
+   *
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future for the ListResponse containing the search results,
+   *         which completes exceptionally with a ScimException if an error
+   *         occurred.
+   */
+  public <T> CompletableFuture<ListResponse<T>> invokeAsync(
+      final Class<T> cls)
+  {
+    return invokeAsync(false, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using GET asynchronously. The search
+   * result handler is called on the thread that completes the request, which
+   * is managed by the JAX-RS client.
+   *
+   * @param <T> The type of objects to return.
+   * @param resultHandler The search result handler that should be used to
+   *                      process the resources.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future that completes when the search results have been
+   *         processed, or completes exceptionally with a ScimException if an
+   *         error occurred.
+   */
+  public <T> CompletableFuture<Void> invokeAsync(
+      final SearchResultHandler<T> resultHandler, final Class<T> cls)
+  {
+    return invokeAsync(false, resultHandler, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using POST asynchronously.
+   *
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future for the ListResponse containing the search results,
+   *         which completes exceptionally with a ScimException if an error
+   *         occurred.
+   */
+  public <T extends ScimResource> CompletableFuture<ListResponse<T>>
+      invokePostAsync(final Class<T> cls)
+  {
+    return invokeAsync(true, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using POST asynchronously. The search
+   * result handler is called on the thread that completes the request, which
+   * is managed by the JAX-RS client.
+   *
+   * @param <T> The type of objects to return.
+   * @param resultHandler The search result handler that should be used to
+   *                      process the resources.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future that completes when the search results have been
+   *         processed, or completes exceptionally with a ScimException if an
+   *         error occurred.
+   */
+  public <T> CompletableFuture<Void> invokePostAsync(
+      final SearchResultHandler<T> resultHandler, final Class<T> cls)
+  {
+    return invokeAsync(true, resultHandler, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using GET and page through all search
+   * results with the default page size and prefetch depth. Pagination starts
+   * at the start index requested with {@link #page(int, int)}, if any.
+   *
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The search results, which should be closed if they are not
+   *         consumed completely.
+   * @see PagedSearchResults
+   */
+  public <T> PagedSearchResults<T> invokePaged(final Class<T> cls)
+  {
+    return invokePaged(PagedSearchResults.DEFAULT_PAGE_SIZE,
+        PagedSearchResults.DEFAULT_PREFETCH_PAGES, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using GET and page through all search
+   * results. Pagination starts at the start index requested with
+   * {@link #page(int, int)}, if any.
+   *
+   * @param <T> The type of objects to return.
+   * @param pageSize The number of results to request per page.
+   * @param prefetchPages The number of pages to request in the background
+   *                      beyond the page being consumed.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The search results, which should be closed if they are not
+   *         consumed completely.
+   * @see PagedSearchResults
+   */
+  public <T> PagedSearchResults<T> invokePaged(
+      final int pageSize, final int prefetchPages, final Class<T> cls)
+  {
+    return new PagedSearchResults<T>(this, false,
+        startIndex == null ? 1 : startIndex, pageSize, prefetchPages, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using POST and page through all search
+   * results with the default page size and prefetch depth. Pagination starts
+   * at the start index requested with {@link #page(int, int)}, if any.
+   *
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The search results, which should be closed if they are not
+   *         consumed completely.
+   * @see PagedSearchResults
+   */
+  public <T> PagedSearchResults<T> invokePostPaged(final Class<T> cls)
+  {
+    return invokePostPaged(PagedSearchResults.DEFAULT_PAGE_SIZE,
+        PagedSearchResults.DEFAULT_PREFETCH_PAGES, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request using POST and page through all search
+   * results. Pagination starts at the start index requested with
+   * {@link #page(int, int)}, if any.
+   *
+   * @param <T> The type of objects to return.
+   * @param pageSize The number of results to request per page.
+   * @param prefetchPages The number of pages to request in the background
+   *                      beyond the page being consumed.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The search results, which should be closed if they are not
+   *         consumed completely.
+   * @see PagedSearchResults
+   */
+  public <T> PagedSearchResults<T> invokePostPaged(
+      final int pageSize, final int prefetchPages, final Class<T> cls)
+  {
+    return new PagedSearchResults<T>(this, true,
+        startIndex == null ? 1 : startIndex, pageSize, prefetchPages, cls);
+  }
+
+  /**
+   * Create a builder for retrieving all search results by requesting windows
+   * of results concurrently. Pagination starts at the start index requested
+   * with {@link #page(int, int)}, if any.
+   *
+   * @return The parallel search request builder.
+   * @see ParallelSearchRequestBuilder
+   */
+  public ParallelSearchRequestBuilder parallel()
+  {
+    return new ParallelSearchRequestBuilder(this,
+        startIndex == null ? 1 : startIndex);
+  }
+
   /**
    * Invoke the SCIM retrieve request.
    *
@@ -223,41 +412,189 @@ public final class SearchRequestBuilder
     Response response;
     if(post)
     {
-      Set<String> attributeSet = null;
-      Set<String> excludedAttributeSet = null;
-      if(attributes != null && attributes.size() > 0)
-      {
-        if(!excluded)
+      response = send(buildPostRequest(), HttpMethod.POST,
+          Entity.entity(buildSearchRequest(startIndex, count),
+              getContentType()));
+    }
+    else
+    {
+      response = send(buildRequest(), HttpMethod.GET, null);
+    }
+    readResponse(response, resultHandler, cls);
+  }
+
+  /**
+   * Invoke the SCIM retrieve request asynchronously and collect the results
+   * in a ListResponse.
+   *
+   * @param post {@code true} to send the request using POST or {@code false}
+   *             to send the request using GET.
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future for the ListResponse containing the search results.
+   */
+  private <T> CompletableFuture<ListResponse<T>> invokeAsync(
+      final boolean post, final Class<T> cls)
+  {
+    final ListResponseBuilder<T> listResponseBuilder =
+        new ListResponseBuilder<T>();
+    return invokeAsync(post, listResponseBuilder, cls).thenApply(
+        new Function<Void, ListResponse<T>>()
         {
-          attributeSet = attributes;
-        }
-        else
+          public ListResponse<T> apply(final Void result)
+          {
+            return listResponseBuilder.build();
+          }
+        });
+  }
+
+  /**
+   * Invoke the SCIM retrieve request asynchronously.
+   *
+   * @param post {@code true} to send the request using POST or {@code false}
+   *             to send the request using GET.
+   * @param <T> The type of objects to return.
+   * @param resultHandler The search result handler that should be used to
+   *                      process the resources.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future that completes when the search results have been
+   *         processed.
+   */
+  private <T> CompletableFuture<Void> invokeAsync(
+      final boolean post, final SearchResultHandler<T> resultHandler,
+      final Class<T> cls)
+  {
+    return sendSearchAsync(post, startIndex, count,
+        new ResponseHandler<Void>()
         {
-          excludedAttributeSet = attributes;
-        }
-      }
+          public Void handle(final Response response) throws ScimException
+          {
+            readResponse(response, resultHandler, cls);
+            return null;
+          }
+        });
+  }
 
-      SearchRequest searchRequest = new SearchRequest(attributeSet,
-          excludedAttributeSet, filter, sortBy, sortOrder, startIndex, count);
+  /**
+   * Request a page of results asynchronously. The delay requested by the
+   * Retry-After header of the response, if any, is recorded in the page.
+   *
+   * @param post {@code true} to send the request using POST or {@code false}
+   *             to send the request using GET.
+   * @param page The page to request, which collects the resources.
+   * @param <T> The type of objects to return.
+   * @param cls The Java class object used to determine the type to return.
+   * @return A future that completes when the search results have been
+   *         processed.
+   */
+  <T> CompletableFuture<Void> requestPage(
+      final boolean post, final SearchResultPage<T> page, final Class<T> cls)
+  {
+    return sendSearchAsync(post, page.startIndex, page.count,
+        new ResponseHandler<Void>()
+        {
+          public Void handle(final Response response) throws ScimException
+          {
+            page.retryAfterMillis = RetryPolicy.parseRetryAfter(
+                response.getHeaderString(HttpHeaders.RETRY_AFTER));
+            readResponse(response, page, cls);
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Send the SCIM retrieve request asynchronously.
+   *
+   * @param post {@code true} to send the request using POST or {@code false}
+   *             to send the request using GET.
+   * @param startIndex the 1-based index of the first query result or
+   *                   {@code null} to not request pagination.
+   * @param count the desired maximum number of query results per page or
+   *              {@code null} to not request pagination.
+   * @param responseHandler The response handler.
+   * @return A future that completes when the response has been handled.
+   */
+  private CompletableFuture<Void> sendSearchAsync(
+      final boolean post, final Integer startIndex, final Integer count,
+      final ResponseHandler<Void> responseHandler)
+  {
+    if(post)
+    {
+      return sendAsync(buildPostRequest().async(), HttpMethod.POST,
+          Entity.entity(buildSearchRequest(startIndex, count),
+              getContentType()),
+          responseHandler);
+    }
+    return sendAsync(buildRequest(buildTarget(startIndex, count)).async(),
+        HttpMethod.GET, null, responseHandler);
+  }
 
-      Invocation.Builder builder = target().
-          path(ApiConstants.SEARCH_WITH_POST_PATH_EXTENSION).
-          request(ScimService.MEDIA_TYPE_SCIM_TYPE,
-                  MediaType.APPLICATION_JSON_TYPE);
-      for (Map.Entry<String, List<Object>> header : headers.entrySet())
+  /**
+   * Build the search request to send using POST.
+   *
+   * @param startIndex the 1-based index of the first query result or
+   *                   {@code null} to not request pagination.
+   * @param count the desired maximum number of query results per page or
+   *              {@code null} to not request pagination.
+   * @return The search request.
+   */
+  private SearchRequest buildSearchRequest(final Integer startIndex,
+                                           final Integer count)
+  {
+    Set<String> attributeSet = null;
+    Set<String> excludedAttributeSet = null;
+    if(attributes != null && attributes.size() > 0)
+    {
+      if(!excluded)
+      {
+        attributeSet = attributes;
+      }
+      else
       {
-        builder = builder.header(header.getKey(),
-                                 StaticUtils.listToString(header.getValue(),
-                                                          ", "));
+        excludedAttributeSet = attributes;
       }
-      response = builder.post(Entity.entity(searchRequest,
-                                            getContentType()));
     }
-    else
+
+    return new SearchRequest(attributeSet, excludedAttributeSet, filter,
+        sortBy, sortOrder, startIndex, count);
+  }
+
+  /**
+   * Build the Invocation.Builder for the request using POST.
+   *
+   * @return The Invocation.Builder for the request using POST.
+   */
+  private Invocation.Builder buildPostRequest()
+  {
+    Invocation.Builder builder = target().
+        path(ApiConstants.SEARCH_WITH_POST_PATH_EXTENSION).
+        request(ScimService.MEDIA_TYPE_SCIM_TYPE,
+                MediaType.APPLICATION_JSON_TYPE);
+    for (Map.Entry<String, List<Object>> header : headers.entrySet())
     {
-      response = buildRequest().get();
+      builder = builder.header(header.getKey(),
+                               StaticUtils.listToString(header.getValue(),
+                                                        ", "));
     }
+    return builder;
+  }
 
+  /**
+   * Process the response to the SCIM retrieve request.
+   *
+   * @param response The JAX-RS response, which is closed afterwards.
+   * @param <T> The type of objects to return.
+   * @param resultHandler The search result handler that should be used to
+   *                      process the resources.
+   * @param cls The Java class object used to determine the type to return.
+   * @throws ScimException If an error occurred.
+   */
+  private <T> void readResponse(
+      final Response response, final SearchResultHandler<T> resultHandler,
+      final Class<T> cls)
+      throws ScimException
+  {
     try
     {
       if (response.getStatusInfo().getFamily() ==
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.client.requests;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.client.SearchResultHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A page of search results requested with the startIndex and count
+ * parameters, which collects the resources of the response.
+ *
+ * @param <T> The type of objects returned.
+ */
+final class SearchResultPage<T> implements SearchResultHandler<T>
+{
+  /**
+   * The 1-based index of the first result of the page.
+   */
+  final int startIndex;
+
+  /**
+   * The number of results requested.
+   */
+  final int count;
+
+  /**
+   * The resources received.
+   */
+  final List<T> resources = new ArrayList<T>();
+
+  /**
+   * The totalResults received or {@code null} if none was received.
+   */
+  Integer totalResults;
+
+  /**
+   * The future for the request of the page.
+   */
+  CompletableFuture<Void> future;
+
+  /**
+   * The number of times the page was requested.
+   */
+  int attempts;
+
+  /**
+   * The delay requested by the Retry-After header of the last response in
+   * milliseconds or {@code null} if none was requested.
+   */
+  Long retryAfterMillis;
+
+  /**
+   * When to request the page again, in the time of
+   * {@link System#nanoTime()}, after the request failed.
+   */
+  long retryAtNanos;
+
+  /**
+   * Create a new page.
+   *
+   * @param startIndex The 1-based index of the first result of the page.
+   * @param count The number of results requested.
+   */
+  SearchResultPage(final int startIndex, final int count)
+  {
+    this.startIndex = startIndex;
+    this.count = count;
+  }
+
+  /**
+   * Request the page asynchronously.
+   *
+   * @param requestBuilder The search request builder.
+   * @param post {@code true} to send the request using POST or
+   *             {@code false} to send the request using GET.
+   * @param cls The Java class object used to determine the type to return.
+   * @return The future for the request of the page.
+   */
+  CompletableFuture<Void> request(final SearchRequestBuilder requestBuilder,
+                                  final boolean post, final Class<T> cls)
+  {
+    resources.clear();
+    totalResults = null;
+    retryAfterMillis = null;
+    attempts++;
+    future = requestBuilder.requestPage(post, this, cls);
+    return future;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void startIndex(final int startIndex)
+  {
+    // The requested start index is used to compute the next page.
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void itemsPerPage(final int itemsPerPage)
+  {
+    // The number of resources received is used instead.
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void totalResults(final int totalResults)
+  {
+    this.totalResults = totalResults;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public boolean resource(final T scimResource)
+  {
+    resources.add(scimResource);
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void extension(final String urn,
+                        final ObjectNode extensionObjectNode)
+  {
+    // Extensions are not collected.
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+
+/**
+ * This enumeration defines the set of HTTP methods that may be used for
+ * SCIM 2 bulk operations.
+ */
+public enum BulkOpType
+{
+  /**
+   * The POST method, which creates a resource.
+   */
+  POST("POST"),
+
+
+  /**
+   * The PUT method, which replaces a resource.
+   */
+  PUT("PUT"),
+
+
+  /**
+   * The PATCH method, which modifies a resource.
+   */
+  PATCH("PATCH"),
+
+
+  /**
+   * The DELETE method, which deletes a resource.
+   */
+  DELETE("DELETE");
+
+
+  /**
+   * The upper case HTTP method name for this operation type.
+   */
+  private String stringValue;
+
+
+  /**
+   * Creates a new operation type with the provided string value.
+   *
+   * @param stringValue The upper case HTTP method name for this operation
+   *                    type.
+   */
+  BulkOpType(final String stringValue)
+  {
+    this.stringValue = stringValue;
+  }
+
+
+  /**
+   * Retrieves the upper case HTTP method name for this operation type.
+   *
+   * @return The upper case HTTP method name for this operation type.
+   */
+  @JsonValue
+  public String getStringValue()
+  {
+    return stringValue;
+  }
+
+
+  /**
+   * Retrieves the operation type with the provided HTTP method name.
+   *
+   * @param stringValue The HTTP method name, which is not case sensitive.
+   * @return The operation type with the provided HTTP method name.
+   * @throws IllegalArgumentException If the HTTP method is not supported for
+   * bulk operations.
+   */
+  @JsonCreator
+  public static BulkOpType fromString(final String stringValue)
+      throws IllegalArgumentException
+  {
+    for(BulkOpType type : BulkOpType.values())
+    {
+      if(type.getStringValue().equalsIgnoreCase(stringValue))
+      {
+        return type;
+      }
+    }
+
+    throw new IllegalArgumentException(
+        "Unsupported bulk operation method: " + stringValue);
+  }
+
+
+  /**
+   * Retrieves a string representation of this operation type.
+   *
+   * @return A string representation of this operation type.
+   */
+  public String toString()
+  {
+    return getStringValue();
+  }
+}
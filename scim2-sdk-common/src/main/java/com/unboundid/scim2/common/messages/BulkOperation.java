@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An individual operation of a SCIM 2 bulk request.
+ */
+@JsonPropertyOrder({ "method", "bulkId", "version", "path", "data" })
+public final class BulkOperation
+{
+  /**
+   * The prefix of values that reference the resource created by another
+   * operation of the same bulk request, which is followed by its bulkId.
+   */
+  public static final String BULK_ID_REFERENCE_PREFIX = "bulkId:";
+
+  @JsonProperty(value = "method", required = true)
+  private final BulkOpType method;
+
+  @JsonProperty("bulkId")
+  private final String bulkId;
+
+  @JsonProperty("version")
+  private final String version;
+
+  @JsonProperty(value = "path", required = true)
+  private final String path;
+
+  @JsonProperty("data")
+  private final JsonNode data;
+
+  /**
+   * Create a new bulk operation.
+   *
+   * @param method The HTTP method of the operation.
+   * @param bulkId The transient identifier of a resource created by this
+   *               operation or {@code null}.
+   * @param version The version of the resource the operation applies to or
+   *                {@code null} to apply the operation unconditionally.
+   * @param path The resource's relative path to the service provider's base
+   *             URI, for example "/Users" or "/Users/2819c223".
+   * @param data The resource data as it would appear in a single request or
+   *             {@code null} if there is none.
+   */
+  @JsonCreator
+  public BulkOperation(
+      @JsonProperty(value = "method", required = true)
+      final BulkOpType method,
+      @JsonProperty("bulkId") final String bulkId,
+      @JsonProperty("version") final String version,
+      @JsonProperty(value = "path", required = true) final String path,
+      @JsonProperty("data") final JsonNode data)
+  {
+    if(method == null)
+    {
+      throw new NullPointerException("method must not be null");
+    }
+    if(path == null)
+    {
+      throw new NullPointerException("path must not be null");
+    }
+    this.method = method;
+    this.bulkId = bulkId;
+    this.version = version;
+    this.path = path;
+    // Jackson binds missing JSON node properties to null nodes.
+    this.data = data == null || data.isNull() ? null : data;
+  }
+
+  /**
+   * Retrieves the HTTP method of the operation.
+   *
+   * @return The HTTP method of the operation.
+   */
+  public BulkOpType getMethod()
+  {
+    return method;
+  }
+
+  /**
+   * Retrieves the transient identifier of a resource created by this
+   * operation, which other operations of the same bulk request may reference
+   * by prefixing it with {@link #BULK_ID_REFERENCE_PREFIX}.
+   *
+   * @return The transient identifier or {@code null} if there is none.
+   */
+  public String getBulkId()
+  {
+    return bulkId;
+  }
+
+  /**
+   * Retrieves the version of the resource the operation applies to.
+   *
+   * @return The version of the resource or {@code null} if the operation
+   * applies unconditionally.
+   */
+  public String getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Retrieves the resource's relative path to the service provider's base
+   * URI.
+   *
+   * @return The resource's relative path to the service provider's base URI.
+   */
+  public String getPath()
+  {
+    return path;
+  }
+
+  /**
+   * Retrieves the resource data as it would appear in a single request.
+   *
+   * @return The resource data or {@code null} if there is none.
+   */
+  public JsonNode getData()
+  {
+    return data;
+  }
+
+  /**
+   * Retrieves the resource data as it would appear in a single request as
+   * a Java object.
+   *
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The generic type parameter of the Java class used to determine
+   *            the type to return.
+   * @return The resource data or {@code null} if there is none.
+   * @throws JsonProcessingException If the data could not be bound to the
+   * type specified by the Java class object.
+   */
+  public <T> T getData(final Class<T> cls) throws JsonProcessingException
+  {
+    return data == null ? null : JsonUtils.nodeToValue(data, cls);
+  }
+
+  /**
+   * Retrieves the bulkIds of the resources this operation references in its
+   * path or in the string values of its data.
+   *
+   * @return The referenced bulkIds in the order they appear.
+   */
+  @JsonIgnore
+  public Set<String> getBulkIdReferences()
+  {
+    Set<String> references = new LinkedHashSet<String>();
+    for(String segment : path.split("/"))
+    {
+      addReference(segment, references);
+    }
+    if(data != null)
+    {
+      collectReferences(data, references);
+    }
+    return references;
+  }
+
+  /**
+   * Create a copy of this operation with references to resources created by
+   * other operations replaced by the IDs of the resources.
+   *
+   * @param ids The IDs of the created resources by bulkId. References to
+   *            bulkIds that are not included are left unchanged.
+   * @return This operation if it contains no resolvable references or a new
+   * operation with the references replaced.
+   */
+  public BulkOperation resolveBulkIdReferences(final Map<String, String> ids)
+  {
+    Set<String> references = getBulkIdReferences();
+    references.retainAll(ids.keySet());
+    if(references.isEmpty())
+    {
+      return this;
+    }
+
+    StringBuilder resolvedPath = new StringBuilder();
+    String[] segments = path.split("/", -1);
+    for(int i = 0; i < segments.length; i++)
+    {
+      if(i > 0)
+      {
+        resolvedPath.append('/');
+      }
+      resolvedPath.append(resolveReference(segments[i], ids));
+    }
+    JsonNode resolvedData = data;
+    if(data != null && data.isContainerNode())
+    {
+      resolvedData = data.deepCopy();
+      resolveReferences(resolvedData, ids);
+    }
+    return new BulkOperation(method, bulkId, version, resolvedPath.toString(),
+        resolvedData);
+  }
+
+  /**
+   * Create a new operation that creates a resource.
+   *
+   * @param path The path of the endpoint to create the resource at, for
+   *             example "/Users".
+   * @param bulkId The transient identifier of the created resource, which
+   *               other operations may reference.
+   * @param resource The resource to create.
+   * @return The new bulk operation.
+   */
+  public static BulkOperation post(final String path, final String bulkId,
+                                   final Object resource)
+  {
+    if(bulkId == null)
+    {
+      throw new NullPointerException("bulkId must not be null");
+    }
+    return new BulkOperation(BulkOpType.POST, bulkId, null, path,
+        JsonUtils.valueToNode(resource));
+  }
+
+  /**
+   * Create a new operation that replaces a resource.
+   *
+   * @param path The path of the resource, for example "/Users/2819c223".
+   * @param resource The resource to replace the existing resource with.
+   * @param version The version the existing resource must have or
+   *                {@code null} to replace it unconditionally.
+   * @return The new bulk operation.
+   */
+  public static BulkOperation put(final String path, final Object resource,
+                                  final String version)
+  {
+    return new BulkOperation(BulkOpType.PUT, null, version, path,
+        JsonUtils.valueToNode(resource));
+  }
+
+  /**
+   * Create a new operation that modifies a resource.
+   *
+   * @param path The path of the resource, for example "/Users/2819c223".
+   * @param patchRequest The modifications to make.
+   * @param version The version the existing resource must have or
+   *                {@code null} to modify it unconditionally.
+   * @return The new bulk operation.
+   */
+  public static BulkOperation patch(final String path,
+                                    final PatchRequest patchRequest,
+                                    final String version)
+  {
+    return new BulkOperation(BulkOpType.PATCH, null, version, path,
+        JsonUtils.valueToNode(patchRequest));
+  }
+
+  /**
+   * Create a new operation that deletes a resource.
+   *
+   * @param path The path of the resource, for example "/Users/2819c223".
+   * @param version The version the existing resource must have or
+   *                {@code null} to delete it unconditionally.
+   * @return The new bulk operation.
+   */
+  public static BulkOperation delete(final String path, final String version)
+  {
+    return new BulkOperation(BulkOpType.DELETE, null, version, path, null);
+  }
+
+  /**
+   * Add the bulkId referenced by a value to a set of references.
+   *
+   * @param value The value that may be a reference.
+   * @param references The set to add the referenced bulkId to.
+   */
+  private static void addReference(final String value,
+                                   final Set<String> references)
+  {
+    if(value.startsWith(BULK_ID_REFERENCE_PREFIX))
+    {
+      references.add(value.substring(BULK_ID_REFERENCE_PREFIX.length()));
+    }
+  }
+
+  /**
+   * Collect the bulkIds referenced by string values of a JSON node.
+   *
+   * @param node The JSON node.
+   * @param references The set to add the referenced bulkIds to.
+   */
+  private static void collectReferences(final JsonNode node,
+                                        final Set<String> references)
+  {
+    if(node.isTextual())
+    {
+      addReference(node.textValue(), references);
+      return;
+    }
+    for(JsonNode child : node)
+    {
+      collectReferences(child, references);
+    }
+  }
+
+  /**
+   * Replace the references to created resources in the string values of a
+   * JSON node.
+   *
+   * @param node The JSON object or array node, which is modified in place.
+   * @param ids The IDs of the created resources by bulkId.
+   */
+  private static void resolveReferences(final JsonNode node,
+                                        final Map<String, String> ids)
+  {
+    if(node.isObject())
+    {
+      ObjectNode objectNode = (ObjectNode) node;
+      Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+      while(fields.hasNext())
+      {
+        Map.Entry<String, JsonNode> field = fields.next();
+        if(field.getValue().isTextual())
+        {
+          // The entries may be copies so the value is set on the node.
+          objectNode.set(field.getKey(), TextNode.valueOf(
+              resolveReference(field.getValue().textValue(), ids)));
+        }
+        else
+        {
+          resolveReferences(field.getValue(), ids);
+        }
+      }
+    }
+    else if(node.isArray())
+    {
+      ArrayNode array = (ArrayNode) node;
+      for(int i = 0; i < array.size(); i++)
+      {
+        if(array.get(i).isTextual())
+        {
+          array.set(i, TextNode.valueOf(
+              resolveReference(array.get(i).textValue(), ids)));
+        }
+        else
+        {
+          resolveReferences(array.get(i), ids);
+        }
+      }
+    }
+  }
+
+  /**
+   * Replace a reference to a created resource with the ID of the resource.
+   *
+   * @param value The value that may be a reference.
+   * @param ids The IDs of the created resources by bulkId.
+   * @return The ID of the referenced resource or the value if it is not a
+   * reference to a created resource.
+   */
+  private static String resolveReference(final String value,
+                                         final Map<String, String> ids)
+  {
+    if(value.startsWith(BULK_ID_REFERENCE_PREFIX))
+    {
+      String id = ids.get(value.substring(BULK_ID_REFERENCE_PREFIX.length()));
+      if(id != null)
+      {
+        return id;
+      }
+    }
+    return value;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+
+    BulkOperation that = (BulkOperation) o;
+
+    if (method != that.method)
+    {
+      return false;
+    }
+    if (bulkId != null ? !bulkId.equals(that.bulkId) : that.bulkId != null)
+    {
+      return false;
+    }
+    if (version != null ? !version.equals(that.version) :
+        that.version != null)
+    {
+      return false;
+    }
+    if (!path.equals(that.path))
+    {
+      return false;
+    }
+    if (data != null ? !data.equals(that.data) : that.data != null)
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    int result = method.hashCode();
+    result = 31 * result + (bulkId != null ? bulkId.hashCode() : 0);
+    result = 31 * result + (version != null ? version.hashCode() : 0);
+    result = 31 * result + path.hashCode();
+    result = 31 * result + (data != null ? data.hashCode() : 0);
+    return result;
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+/**
+ * The result of an individual operation of a SCIM 2 bulk request.
+ */
+@JsonPropertyOrder({ "location", "method", "bulkId", "version", "status",
+    "response" })
+public final class BulkOperationResult
+{
+  @JsonProperty("location")
+  private final String location;
+
+  @JsonProperty(value = "method", required = true)
+  private final BulkOpType method;
+
+  @JsonProperty("bulkId")
+  private final String bulkId;
+
+  @JsonProperty("version")
+  private final String version;
+
+  @JsonProperty(value = "status", required = true)
+  private final String status;
+
+  @JsonProperty("response")
+  private final JsonNode response;
+
+  /**
+   * Create a new bulk operation result.
+   *
+   * @param location The location of the resource the operation applied to
+   *                 or {@code null} if the operation failed.
+   * @param method The HTTP method of the operation.
+   * @param bulkId The transient identifier of the operation or {@code null}.
+   * @param version The version of the resource after the operation or
+   *                {@code null}.
+   * @param status The HTTP status code of the operation.
+   * @param response The response body of the operation, which is an error
+   *                 response if the operation failed, or {@code null}.
+   */
+  @JsonCreator
+  public BulkOperationResult(
+      @JsonProperty("location") final String location,
+      @JsonProperty(value = "method", required = true)
+      final BulkOpType method,
+      @JsonProperty("bulkId") final String bulkId,
+      @JsonProperty("version") final String version,
+      @JsonProperty(value = "status", required = true) final String status,
+      @JsonProperty("response") final JsonNode response)
+  {
+    this.location = location;
+    this.method = method;
+    this.bulkId = bulkId;
+    this.version = version;
+    this.status = status;
+    // Jackson binds missing JSON node properties to null nodes.
+    this.response = response == null || response.isNull() ? null : response;
+  }
+
+  /**
+   * Create a new bulk operation result.
+   *
+   * @param location The location of the resource the operation applied to
+   *                 or {@code null} if the operation failed.
+   * @param method The HTTP method of the operation.
+   * @param bulkId The transient identifier of the operation or {@code null}.
+   * @param version The version of the resource after the operation or
+   *                {@code null}.
+   * @param status The HTTP status code of the operation.
+   * @param response The response body of the operation, which is an error
+   *                 response if the operation failed, or {@code null}.
+   */
+  public BulkOperationResult(final String location, final BulkOpType method,
+                             final String bulkId, final String version,
+                             final int status, final JsonNode response)
+  {
+    this(location, method, bulkId, version, String.valueOf(status),
+        response);
+  }
+
+  /**
+   * Create a new result for a failed bulk operation.
+   *
+   * @param operation The operation that failed.
+   * @param errorResponse The error response describing the failure.
+   * @return The new bulk operation result.
+   */
+  public static BulkOperationResult error(final BulkOperation operation,
+                                          final ErrorResponse errorResponse)
+  {
+    return new BulkOperationResult(null, operation.getMethod(),
+        operation.getBulkId(), null, errorResponse.getStatus(),
+        JsonUtils.valueToNode(errorResponse));
+  }
+
+  /**
+   * Retrieves the location of the resource the operation applied to.
+   *
+   * @return The location of the resource or {@code null} if the operation
+   * failed.
+   */
+  public String getLocation()
+  {
+    return location;
+  }
+
+  /**
+   * Retrieves the ID of the resource the operation applied to, which is the
+   * last path segment of its location.
+   *
+   * @return The ID of the resource or {@code null} if the location is not
+   * available.
+   */
+  @JsonIgnore
+  public String getId()
+  {
+    if(location == null)
+    {
+      return null;
+    }
+    String trimmed = location.endsWith("/") ?
+        location.substring(0, location.length() - 1) : location;
+    return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+  }
+
+  /**
+   * Retrieves the HTTP method of the operation.
+   *
+   * @return The HTTP method of the operation.
+   */
+  public BulkOpType getMethod()
+  {
+    return method;
+  }
+
+  /**
+   * Retrieves the transient identifier of the operation.
+   *
+   * @return The transient identifier or {@code null} if there is none.
+   */
+  public String getBulkId()
+  {
+    return bulkId;
+  }
+
+  /**
+   * Retrieves the version of the resource after the operation.
+   *
+   * @return The version of the resource or {@code null} if not available.
+   */
+  public String getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * Retrieves the HTTP status code of the operation.
+   *
+   * @return The HTTP status code of the operation.
+   */
+  public String getStatus()
+  {
+    return status;
+  }
+
+  /**
+   * Retrieves the HTTP status code of the operation as an integer.
+   *
+   * @return The HTTP status code of the operation or {@code 0} if it is not
+   * a number.
+   */
+  @JsonIgnore
+  public int getStatusCode()
+  {
+    try
+    {
+      return Integer.parseInt(status.trim());
+    }
+    catch (NumberFormatException e)
+    {
+      return 0;
+    }
+  }
+
+  /**
+   * Whether the operation completed successfully.
+   *
+   * @return {@code true} if the HTTP status code of the operation indicates
+   * success or {@code false} otherwise.
+   */
+  @JsonIgnore
+  public boolean isSuccessful()
+  {
+    int statusCode = getStatusCode();
+    return statusCode >= 200 && statusCode < 300;
+  }
+
+  /**
+   * Retrieves the response body of the operation.
+   *
+   * @return The response body or {@code null} if there is none.
+   */
+  public JsonNode getResponse()
+  {
+    return response;
+  }
+
+  /**
+   * Retrieves the response body of the operation as a Java object.
+   *
+   * @param cls The Java class object used to determine the type to return.
+   * @param <T> The generic type parameter of the Java class used to determine
+   *            the type to return.
+   * @return The response body or {@code null} if there is none.
+   * @throws JsonProcessingException If the response body could not be bound
+   * to the type specified by the Java class object.
+   */
+  public <T> T getResponse(final Class<T> cls) throws JsonProcessingException
+  {
+    return response == null ? null : JsonUtils.nodeToValue(response, cls);
+  }
+
+  /**
+   * Retrieves the error response of a failed operation.
+   *
+   * @return The error response or {@code null} if the operation was
+   * successful or the service provider did not return an error response.
+   * @throws JsonProcessingException If the response body is not a valid
+   * error response.
+   */
+  @JsonIgnore
+  public ErrorResponse getErrorResponse() throws JsonProcessingException
+  {
+    return isSuccessful() ? null : getResponse(ErrorResponse.class);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+
+    BulkOperationResult that = (BulkOperationResult) o;
+
+    if (location != null ? !location.equals(that.location) :
+        that.location != null)
+    {
+      return false;
+    }
+    if (method != that.method)
+    {
+      return false;
+    }
+    if (bulkId != null ? !bulkId.equals(that.bulkId) : that.bulkId != null)
+    {
+      return false;
+    }
+    if (version != null ? !version.equals(that.version) :
+        that.version != null)
+    {
+      return false;
+    }
+    if (status != null ? !status.equals(that.status) : that.status != null)
+    {
+      return false;
+    }
+    if (response != null ? !response.equals(that.response) :
+        that.response != null)
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    int result = location != null ? location.hashCode() : 0;
+    result = 31 * result + (method != null ? method.hashCode() : 0);
+    result = 31 * result + (bulkId != null ? bulkId.hashCode() : 0);
+    result = 31 * result + (version != null ? version.hashCode() : 0);
+    result = 31 * result + (status != null ? status.hashCode() : 0);
+    result = 31 * result + (response != null ? response.hashCode() : 0);
+    return result;
+  }
+}
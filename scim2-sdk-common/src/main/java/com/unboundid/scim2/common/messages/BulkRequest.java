@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.unboundid.scim2.common.BaseScimResource;
+import com.unboundid.scim2.common.annotations.Attribute;
+import com.unboundid.scim2.common.annotations.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class representing a SCIM 2 bulk request.
+ */
+@Schema(id="urn:ietf:params:scim:api:messages:2.0:BulkRequest",
+    name="Bulk Request", description = "SCIM 2.0 Bulk Request")
+public final class BulkRequest
+    extends BaseScimResource
+    implements Iterable<BulkOperation>
+{
+  @Attribute(description = "The number of errors that the service " +
+      "provider will accept before the operation is terminated")
+  @JsonProperty("failOnErrors")
+  private final Integer failOnErrors;
+
+  @Attribute(description = "Bulk Operations")
+  @JsonProperty(value = "Operations", required = true)
+  private final List<BulkOperation> operations;
+
+  /**
+   * Create a new Bulk Request.
+   *
+   * @param failOnErrors The number of errors that the service provider will
+   *                     accept before the remaining operations are not
+   *                     processed or {@code null} to process all operations.
+   * @param operations The list of operations to include.
+   */
+  @JsonCreator
+  public BulkRequest(
+      @JsonProperty("failOnErrors") final Integer failOnErrors,
+      @JsonProperty(value = "Operations", required = true)
+      final List<BulkOperation> operations)
+  {
+    this.failOnErrors = failOnErrors;
+    this.operations = Collections.unmodifiableList(
+        new ArrayList<BulkOperation>(operations));
+  }
+
+  /**
+   * Retrieves the number of errors that the service provider will accept
+   * before the remaining operations are not processed.
+   *
+   * @return The number of errors that the service provider will accept or
+   * {@code null} if all operations should be processed.
+   */
+  public Integer getFailOnErrors()
+  {
+    return failOnErrors;
+  }
+
+  /**
+   * Retrieves all the individual operations in this bulk request.
+   *
+   * @return The individual operations in this bulk request.
+   */
+  public List<BulkOperation> getOperations()
+  {
+    return operations;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Iterator<BulkOperation> iterator()
+  {
+    return getOperations().iterator();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+    if (!super.equals(o))
+    {
+      return false;
+    }
+
+    BulkRequest that = (BulkRequest) o;
+
+    if (failOnErrors != null ? !failOnErrors.equals(that.failOnErrors) :
+        that.failOnErrors != null)
+    {
+      return false;
+    }
+    if (!operations.equals(that.operations))
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    int result = super.hashCode();
+    result = 31 * result + (failOnErrors != null ? failOnErrors.hashCode() : 0);
+    result = 31 * result + operations.hashCode();
+    return result;
+  }
+}
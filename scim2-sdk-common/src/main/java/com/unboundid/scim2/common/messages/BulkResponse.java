@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.messages;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.unboundid.scim2.common.BaseScimResource;
+import com.unboundid.scim2.common.annotations.Attribute;
+import com.unboundid.scim2.common.annotations.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class representing a SCIM 2 bulk response.
+ */
+@Schema(id="urn:ietf:params:scim:api:messages:2.0:BulkResponse",
+    name="Bulk Response", description = "SCIM 2.0 Bulk Response")
+public final class BulkResponse
+    extends BaseScimResource
+    implements Iterable<BulkOperationResult>
+{
+  @Attribute(description = "Bulk Operation Results")
+  @JsonProperty(value = "Operations", required = true)
+  private final List<BulkOperationResult> operations;
+
+  /**
+   * Create a new Bulk Response.
+   *
+   * @param operations The results of the operations that were processed.
+   */
+  @JsonCreator
+  public BulkResponse(
+      @JsonProperty(value = "Operations", required = true)
+      final List<BulkOperationResult> operations)
+  {
+    this.operations = Collections.unmodifiableList(
+        new ArrayList<BulkOperationResult>(operations));
+  }
+
+  /**
+   * Retrieves the results of the operations that were processed.
+   *
+   * @return The results of the operations that were processed.
+   */
+  public List<BulkOperationResult> getOperations()
+  {
+    return operations;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Iterator<BulkOperationResult> iterator()
+  {
+    return getOperations().iterator();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public boolean equals(final Object o)
+  {
+    if (this == o)
+    {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass())
+    {
+      return false;
+    }
+    if (!super.equals(o))
+    {
+      return false;
+    }
+
+    BulkResponse that = (BulkResponse) o;
+
+    if (!operations.equals(that.operations))
+    {
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int hashCode()
+  {
+    int result = super.hashCode();
+    result = 31 * result + operations.hashCode();
+    return result;
+  }
+}
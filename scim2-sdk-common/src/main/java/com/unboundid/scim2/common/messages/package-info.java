@@ -17,7 +17,7 @@
 
 /**
  * Classes representing core SCIM 2 messages, such as error responses, query
- * responses, and PATCH requests.
+ * responses, PATCH requests, and bulk requests.
  */
 
 package com.unboundid.scim2.common.messages;
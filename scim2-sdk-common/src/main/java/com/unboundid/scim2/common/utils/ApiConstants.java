@@ -49,6 +49,12 @@ public class ApiConstants
    */
   public static final String ME_ENDPOINT = "Me";
 
+  /**
+   * An HTTP POST to this endpoint is used to send several resource operations
+   * in a single request.
+   */
+  public static final String BULK_ENDPOINT = "Bulk";
+
   /**
    * An HTTP POST to this endpoint is used to retrieve information about
    * resource schemas supported by a SCIM service provider.
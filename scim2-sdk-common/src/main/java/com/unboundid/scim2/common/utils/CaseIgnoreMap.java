@@ -38,7 +38,7 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
    * A wrapper around the standard String but compares and hashes them
    * in lower-case.
    */
-  private static class CaseIgnoreKey
+  static class CaseIgnoreKey
   {
     private final String key;
 
@@ -188,13 +188,27 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
   }
 
   private final LinkedHashMap<CaseIgnoreKey, JsonNode> attributes;
+  private final ValueInterner interner;
 
   /**
    * Create a new empty CaseIgnoreMap.
    */
   public CaseIgnoreMap()
+  {
+    this((ValueInterner) null);
+  }
+
+  /**
+   * Create a new empty CaseIgnoreMap that shares the keys of its field names
+   * with other maps.
+   *
+   * @param interner The value interner to share the keys with or
+   *                 {@code null} to not share keys.
+   */
+  public CaseIgnoreMap(final ValueInterner interner)
   {
     attributes = new LinkedHashMap<CaseIgnoreKey, JsonNode>();
+    this.interner = interner;
   }
 
   /**
@@ -203,8 +217,23 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
    * @param map The map whose mappings are to the placed in this map.
    */
   public CaseIgnoreMap(final Map<String, JsonNode> map)
+  {
+    this(map, null);
+  }
+
+  /**
+   * Create a new CaseIgnoreMap from the contents of the provided map that
+   * shares the keys of its field names with other maps.
+   *
+   * @param map The map whose mappings are to the placed in this map.
+   * @param interner The value interner to share the keys with or
+   *                 {@code null} to not share keys.
+   */
+  public CaseIgnoreMap(final Map<String, JsonNode> map,
+                       final ValueInterner interner)
   {
     attributes = new LinkedHashMap<CaseIgnoreKey, JsonNode>(map.size());
+    this.interner = interner;
     putAll(map);
   }
 
@@ -253,7 +282,7 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
    */
   public JsonNode put(final String key, final JsonNode value)
   {
-    return attributes.put(new CaseIgnoreKey(key), value);
+    return attributes.put(newKey(key), value);
   }
 
   /**
@@ -271,7 +300,7 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
   {
     for (Entry<? extends String, ? extends JsonNode> entry : m.entrySet())
     {
-      attributes.put(new CaseIgnoreKey(entry.getKey()), entry.getValue());
+      attributes.put(newKey(entry.getKey()), entry.getValue());
     }
   }
 
@@ -307,6 +336,17 @@ public class CaseIgnoreMap implements Map<String, JsonNode>
     return new EntrySet(attributes.entrySet());
   }
 
+  /**
+   * Create the key of a field name to add to the map.
+   *
+   * @param key The field name.
+   * @return The key.
+   */
+  private CaseIgnoreKey newKey(final String key)
+  {
+    return interner == null ? new CaseIgnoreKey(key) : interner.key(key);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -42,7 +42,7 @@ public class CaseIgnoreObjectNode extends ObjectNode
    */
   public CaseIgnoreObjectNode(final JsonNodeFactory nc)
   {
-    super(nc, new CaseIgnoreMap());
+    super(nc, new CaseIgnoreMap(getValueInterner(nc)));
   }
 
   /**
@@ -54,7 +54,20 @@ public class CaseIgnoreObjectNode extends ObjectNode
   public CaseIgnoreObjectNode(final JsonNodeFactory nc,
                               final Map<String, JsonNode> kids)
   {
-    super(nc, new CaseIgnoreMap(kids));
+    super(nc, new CaseIgnoreMap(kids, getValueInterner(nc)));
+  }
+
+  /**
+   * Retrieves the value interner of a node factory.
+   *
+   * @param nc The JsonNodeFactory.
+   * @return The value interner of the node factory or {@code null} if it
+   * does not intern values.
+   */
+  private static ValueInterner getValueInterner(final JsonNodeFactory nc)
+  {
+    return nc instanceof ScimJsonNodeFactory ?
+        ((ScimJsonNodeFactory) nc).getValueInterner() : null;
   }
 
   /**
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A utility that rewrites a filter into an equivalent normalized form that is
+ * cheaper to evaluate with the {@link FilterEvaluator}. Normalization:
+ * <ul>
+ *   <li>flattens nested {@code and} and {@code or} filters,</li>
+ *   <li>removes duplicate filter components,</li>
+ *   <li>folds {@code not (not (x))} into {@code x} and {@code not (a eq b)}
+ *       into {@code a ne b} (and vice versa),</li>
+ *   <li>collapses logical filters with a single component, and</li>
+ *   <li>orders the components of {@code and} and {@code or} filters by
+ *       their estimated evaluation cost so that the cheapest components are
+ *       evaluated first and evaluation short-circuits as early as
+ *       possible.</li>
+ * </ul>
+ * Costs are estimated from the filter type and the shape of the attribute
+ * path. Subclasses may provide attribute definitions so that multi-valued
+ * attributes are recognized and costed accordingly.
+ */
+public class FilterNormalizer
+{
+  /**
+   * The cost multiplier applied to filters that must examine every value of
+   * a multi-valued attribute.
+   */
+  protected static final int MULTI_VALUED_COST_FACTOR = 4;
+
+  /**
+   * Normalize the provided filter.
+   *
+   * @param filter The filter to normalize.
+   * @return The normalized filter, which matches exactly the same resources
+   * as the provided filter.
+   */
+  public Filter normalize(final Filter filter)
+  {
+    return normalize(filter, null);
+  }
+
+  /**
+   * Estimate the relative cost of evaluating the provided filter on a single
+   * resource. Costs are only meaningful relative to each other.
+   *
+   * @param filter The filter whose cost to estimate.
+   * @return The estimated cost of evaluating the filter.
+   */
+  public int estimateCost(final Filter filter)
+  {
+    return estimateCost(filter, null);
+  }
+
+  /**
+   * Retrieve the attribute definition for the attribute specified by the path
+   * to determine whether it is multi-valued.
+   *
+   * @param path The path to the attribute whose definition to retrieve.
+   * @return the attribute definition or {@code null} if not available, in which
+   *         case the attribute is assumed to be single-valued.
+   */
+  protected AttributeDefinition getAttributeDefinition(final Path path)
+  {
+    return null;
+  }
+
+  /**
+   * Normalize the provided filter.
+   *
+   * @param filter The filter to normalize.
+   * @param parentPath The path of the complex attribute when normalizing a
+   *                   value filter or {@code null} otherwise.
+   * @return The normalized filter.
+   */
+  private Filter normalize(final Filter filter, final Path parentPath)
+  {
+    switch (filter.getFilterType())
+    {
+      case AND:
+      case OR:
+        return normalizeCombining(filter, parentPath);
+      case NOT:
+        return normalizeNot(filter, parentPath);
+      case COMPLEX_VALUE:
+        Path attributePath = resolve(parentPath, filter.getAttributePath());
+        return Filter.hasComplexValue(filter.getAttributePath(),
+            normalize(filter.getValueFilter(), attributePath));
+      default:
+        return filter;
+    }
+  }
+
+  /**
+   * Normalize a logical combining filter.
+   *
+   * @param filter The {@code and} or {@code or} filter to normalize.
+   * @param parentPath The path of the complex attribute when normalizing a
+   *                   value filter or {@code null} otherwise.
+   * @return The normalized filter.
+   */
+  private Filter normalizeCombining(final Filter filter, final Path parentPath)
+  {
+    final List<Filter> components = new ArrayList<Filter>();
+    flatten(filter.getFilterType(), filter, parentPath, components);
+
+    if (components.size() == 1)
+    {
+      return components.get(0);
+    }
+
+    Collections.sort(components, new Comparator<Filter>()
+    {
+      public int compare(final Filter o1, final Filter o2)
+      {
+        int c1 = estimateCost(o1, parentPath);
+        int c2 = estimateCost(o2, parentPath);
+        return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+      }
+    });
+
+    return filter.getFilterType() == FilterType.AND ?
+        Filter.and(components) : Filter.or(components);
+  }
+
+  /**
+   * Collect the normalized components of nested logical filters of the same
+   * type, skipping any duplicates.
+   *
+   * @param type The type of the logical filter being flattened.
+   * @param filter The filter whose components to collect.
+   * @param parentPath The path of the complex attribute when normalizing a
+   *                   value filter or {@code null} otherwise.
+   * @param components The list to which components are added.
+   */
+  private void flatten(final FilterType type, final Filter filter,
+                       final Path parentPath, final List<Filter> components)
+  {
+    for (Filter component : filter.getCombinedFilters())
+    {
+      Filter normalized = normalize(component, parentPath);
+      if (normalized.getFilterType() == type)
+      {
+        // Already normalized so the components are already flat.
+        for (Filter nested : normalized.getCombinedFilters())
+        {
+          addIfAbsent(nested, components);
+        }
+      }
+      else
+      {
+        addIfAbsent(normalized, components);
+      }
+    }
+  }
+
+  /**
+   * Add a filter to a list of filters if the list does not already contain an
+   * equivalent filter.
+   *
+   * @param filter The filter to add.
+   * @param components The list to add to.
+   */
+  private static void addIfAbsent(final Filter filter,
+                                  final List<Filter> components)
+  {
+    if (!components.contains(filter))
+    {
+      components.add(filter);
+    }
+  }
+
+  /**
+   * Normalize a {@code not} filter.
+   *
+   * @param filter The {@code not} filter to normalize.
+   * @param parentPath The path of the complex attribute when normalizing a
+   *                   value filter or {@code null} otherwise.
+   * @return The normalized filter.
+   */
+  private Filter normalizeNot(final Filter filter, final Path parentPath)
+  {
+    Filter inverted = normalize(filter.getInvertedFilter(), parentPath);
+    switch (inverted.getFilterType())
+    {
+      case NOT:
+        return inverted.getInvertedFilter();
+      case EQUAL:
+        return Filter.ne(inverted.getAttributePath(),
+            inverted.getComparisonValue());
+      case NOT_EQUAL:
+        return Filter.eq(inverted.getAttributePath(),
+            inverted.getComparisonValue());
+      default:
+        return Filter.not(inverted);
+    }
+  }
+
+  /**
+   * Estimate the relative cost of evaluating the provided filter.
+   *
+   * @param filter The filter whose cost to estimate.
+   * @param parentPath The path of the complex attribute when estimating a
+   *                   value filter or {@code null} otherwise.
+   * @return The estimated cost of evaluating the filter.
+   */
+  private int estimateCost(final Filter filter, final Path parentPath)
+  {
+    int cost;
+    switch (filter.getFilterType())
+    {
+      case AND:
+      case OR:
+        cost = 0;
+        for (Filter component : filter.getCombinedFilters())
+        {
+          cost += estimateCost(component, parentPath);
+        }
+        return cost;
+      case NOT:
+        return estimateCost(filter.getInvertedFilter(), parentPath);
+      case COMPLEX_VALUE:
+        Path attributePath = resolve(parentPath, filter.getAttributePath());
+        return 1 + MULTI_VALUED_COST_FACTOR *
+            estimateCost(filter.getValueFilter(), attributePath);
+      case PRESENT:
+        cost = 1;
+        break;
+      case EQUAL:
+      case NOT_EQUAL:
+        cost = 2;
+        break;
+      case GREATER_THAN:
+      case GREATER_OR_EQUAL:
+      case LESS_THAN:
+      case LESS_OR_EQUAL:
+        cost = 3;
+        break;
+      case STARTS_WITH:
+      case ENDS_WITH:
+        cost = 4;
+        break;
+      default:
+        cost = 5;
+        break;
+    }
+    return estimatePathCost(cost, filter.getAttributePath(), parentPath);
+  }
+
+  /**
+   * Adjust the cost of an attribute comparison according to the attribute
+   * path it is evaluated against.
+   *
+   * @param cost The cost of comparing a single value.
+   * @param path The path to the attribute being compared.
+   * @param parentPath The path of the complex attribute when estimating a
+   *                   value filter or {@code null} otherwise.
+   * @return The estimated cost of the comparison.
+   */
+  private int estimatePathCost(final int cost, final Path path,
+                               final Path parentPath)
+  {
+    int pathCost = cost;
+    Path fullPath = resolve(parentPath, path);
+    int offset = fullPath.size() - path.size();
+    for (int i = 0; i < path.size(); i++)
+    {
+      Path.Element element = path.getElement(i);
+      AttributeDefinition attributeDefinition =
+          getAttributeDefinition(fullPath.subPath(offset + i + 1));
+      if (element.getValueFilter() != null)
+      {
+        pathCost += MULTI_VALUED_COST_FACTOR * estimateCost(
+            element.getValueFilter(), fullPath.subPath(offset + i + 1));
+      }
+      if (attributeDefinition != null && attributeDefinition.isMultiValued())
+      {
+        pathCost *= MULTI_VALUED_COST_FACTOR;
+      }
+      if (i > 0)
+      {
+        // Each level of sub-attribute requires another path traversal.
+        pathCost++;
+      }
+    }
+    return pathCost;
+  }
+
+  /**
+   * Resolve a path relative to the provided parent path.
+   *
+   * @param parentPath The parent path or {@code null}.
+   * @param path The path to resolve.
+   * @return The resolved path.
+   */
+  private static Path resolve(final Path parentPath, final Path path)
+  {
+    if (parentPath == null)
+    {
+      return path;
+    }
+    return parentPath.attribute(path);
+  }
+}
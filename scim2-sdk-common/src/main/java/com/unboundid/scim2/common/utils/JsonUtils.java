@@ -815,7 +815,7 @@ public class JsonUtils
    * @return A parsed date instance or {@code null} if the text is not an
    * ISO8601 formatted date and time string.
    */
-  private static Date dateValue(final JsonNode node)
+  public static Date dateValue(final JsonNode node)
   {
     String text = node.textValue().trim();
     if (text.length() >= 19 &&
@@ -43,6 +43,7 @@ public class MapperFactory
       Collections.<MapperFeature, Boolean>emptyMap();
   private static Map<SerializationFeature, Boolean> serializationCustomFeatures =
       Collections.<SerializationFeature, Boolean>emptyMap();
+  private static ValueInterner valueInterner = null;
 
   /**
    * Sets custom deserialization features for any JSON ObjectMapper that is
@@ -124,6 +125,23 @@ public class MapperFactory
     return this;
   }
 
+  /**
+   * Sets the value interner used by any JSON ObjectMapper that is used and
+   * returned by the SCIM 2 SDK to share field names and text values between
+   * the JSON nodes it creates. This reduces the memory used by large numbers
+   * of resources kept as JSON nodes. This class should be used to configure
+   * any object mapper customizations needed prior to using any method in the
+   * JsonUtils class.
+   *
+   * @param interner The value interner or {@code null} to not intern values.
+   * @return this object.
+   */
+  public MapperFactory setValueInterner(final ValueInterner interner)
+  {
+    valueInterner = interner;
+    return this;
+  }
+
   /**
    * Creates a custom SCIM compatible Jackson ObjectMapper. Creating new
    * ObjectMapper instances are expensive so instances should be shared if
@@ -149,7 +167,7 @@ public class MapperFactory
     mapper.configure(MapperFeature.ACCEPT_CASE_INSENSITIVE_PROPERTIES, true);
 
     // Use the case-insensitive JsonNodes.
-    mapper.setNodeFactory(new ScimJsonNodeFactory());
+    mapper.setNodeFactory(new ScimJsonNodeFactory(valueInterner));
 
     for (DeserializationFeature feature : deserializationCustomFeatures.keySet())
     {
@@ -19,15 +19,54 @@ package com.unboundid.scim2.common.utils;
 
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
 
 /**
  * Created by boli on 7/29/15.
  */
 public class ScimJsonNodeFactory extends JsonNodeFactory
 {
+  private final ValueInterner valueInterner;
+
+  /**
+   * Create a new node factory that does not intern values.
+   */
+  public ScimJsonNodeFactory()
+  {
+    this(null);
+  }
+
+  /**
+   * Create a new node factory that interns field names and text values.
+   *
+   * @param valueInterner The value interner or {@code null} to not intern
+   *                      values.
+   */
+  public ScimJsonNodeFactory(final ValueInterner valueInterner)
+  {
+    this.valueInterner = valueInterner;
+  }
+
+  /**
+   * Retrieves the value interner of this node factory.
+   *
+   * @return The value interner or {@code null} if values are not interned.
+   */
+  public ValueInterner getValueInterner()
+  {
+    return valueInterner;
+  }
+
   @Override
   public ObjectNode objectNode()
   {
     return new CaseIgnoreObjectNode(this);
   }
+
+  @Override
+  public TextNode textNode(final String text)
+  {
+    return valueInterner == null ?
+        super.textNode(text) : valueInterner.textNode(text);
+  }
 }
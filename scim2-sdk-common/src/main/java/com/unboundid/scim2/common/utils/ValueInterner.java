@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common.utils;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, thread-safe table of field names and text values shared by all
+ * JSON nodes created by a {@link ScimJsonNodeFactory}. Large sets of SCIM
+ * resources repeat the same strings over and over, such as the schema URNs
+ * of {@code schemas}, {@code "work"} and {@code "home"} in
+ * {@code emails.type} or the {@code meta.resourceType}. With interning, all
+ * occurrences of such a value share one immutable {@link TextNode}, and all
+ * occurrences of a field name share one map key.
+ * <p>
+ * Text values are only interned when they are short and have been seen
+ * recently, so that unique values like IDs and user names do not fill the
+ * table: every value first lands in a small direct-mapped array of recently
+ * seen values and is only added to the table when it is seen again before
+ * another value takes its slot. Once the table is full, new values are no
+ * longer interned but the values already in the table still are.
+ * <p>
+ * Interning is enabled for the SDK with
+ * {@link MapperFactory#setValueInterner(ValueInterner)}.
+ */
+public class ValueInterner
+{
+  /**
+   * The default maximum number of field names and text values.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+  /**
+   * The default maximum length of the interned text values.
+   */
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 64;
+
+  private static final int RECENT_VALUES = 4096;
+
+  private final int maxEntries;
+  private final int maxValueLength;
+  private final ConcurrentMap<String, TextNode> textNodes =
+      new ConcurrentHashMap<String, TextNode>();
+  private final ConcurrentMap<String, CaseIgnoreMap.CaseIgnoreKey> keys =
+      new ConcurrentHashMap<String, CaseIgnoreMap.CaseIgnoreKey>();
+  private final AtomicReferenceArray<String> recentValues =
+      new AtomicReferenceArray<String>(RECENT_VALUES);
+  private final AtomicInteger entries = new AtomicInteger();
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * Create a new value interner with the default limits.
+   */
+  public ValueInterner()
+  {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_VALUE_LENGTH);
+  }
+
+  /**
+   * Create a new value interner.
+   *
+   * @param maxEntries The maximum number of field names and text values.
+   * @param maxValueLength The maximum length of the interned text values.
+   */
+  public ValueInterner(final int maxEntries, final int maxValueLength)
+  {
+    if (maxEntries < 0 || maxValueLength < 0)
+    {
+      throw new IllegalArgumentException(
+          "maxEntries and maxValueLength may not be negative");
+    }
+    this.maxEntries = maxEntries;
+    this.maxValueLength = maxValueLength;
+  }
+
+  /**
+   * Retrieves a text node for a value, which is shared with other text nodes
+   * of the same value if the value is interned.
+   *
+   * @param text The value.
+   * @return The text node.
+   */
+  public TextNode textNode(final String text)
+  {
+    if (text == null)
+    {
+      return null;
+    }
+    TextNode node = textNodes.get(text);
+    if (node != null)
+    {
+      hits.incrementAndGet();
+      return node;
+    }
+    node = TextNode.valueOf(text);
+    if (text.length() > maxValueLength || !seenRecently(text))
+    {
+      return node;
+    }
+    TextNode existing = intern(textNodes, text, node);
+    return existing == null ? node : existing;
+  }
+
+  /**
+   * Retrieves the number of field names and text values in the table.
+   *
+   * @return The number of field names and text values in the table.
+   */
+  public int size()
+  {
+    return entries.get();
+  }
+
+  /**
+   * Retrieves the number of times a field name or text value was found in
+   * the table.
+   *
+   * @return The number of times a field name or text value was found in
+   * the table.
+   */
+  public long getHitCount()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Retrieves the map key for a field name, which is shared with other keys
+   * of the same field name if the field name is interned. Field names are
+   * interned until the table is full.
+   *
+   * @param name The field name.
+   * @return The map key.
+   */
+  CaseIgnoreMap.CaseIgnoreKey key(final String name)
+  {
+    CaseIgnoreMap.CaseIgnoreKey key = keys.get(name);
+    if (key != null)
+    {
+      hits.incrementAndGet();
+      return key;
+    }
+    key = new CaseIgnoreMap.CaseIgnoreKey(name);
+    CaseIgnoreMap.CaseIgnoreKey existing = intern(keys, name, key);
+    return existing == null ? key : existing;
+  }
+
+  /**
+   * Whether a text value was seen recently, remembering it otherwise.
+   *
+   * @param text The text value.
+   * @return {@code true} if the value was seen recently.
+   */
+  private boolean seenRecently(final String text)
+  {
+    int hash = text.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & (RECENT_VALUES - 1);
+    String recent = recentValues.get(slot);
+    if (text.equals(recent))
+    {
+      return true;
+    }
+    recentValues.set(slot, text);
+    return false;
+  }
+
+  /**
+   * Add a value to a table unless the table is full.
+   *
+   * @param table The table.
+   * @param name The name of the value.
+   * @param value The value.
+   * @param <V> The type of the value.
+   * @return The value already in the table or {@code null} if there was
+   * none.
+   */
+  private <V> V intern(final ConcurrentMap<String, V> table,
+                       final String name, final V value)
+  {
+    // Reserve room before adding so the table never exceeds its limit.
+    if (entries.incrementAndGet() > maxEntries)
+    {
+      entries.decrementAndGet();
+      return null;
+    }
+    V existing = table.putIfAbsent(name, value);
+    if (existing != null)
+    {
+      entries.decrementAndGet();
+    }
+    return existing;
+  }
+}
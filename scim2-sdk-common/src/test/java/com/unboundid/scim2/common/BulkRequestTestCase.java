@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.messages.BulkOpType;
+import com.unboundid.scim2.common.messages.BulkOperation;
+import com.unboundid.scim2.common.messages.BulkOperationResult;
+import com.unboundid.scim2.common.messages.BulkRequest;
+import com.unboundid.scim2.common.messages.BulkResponse;
+import com.unboundid.scim2.common.messages.ErrorResponse;
+import com.unboundid.scim2.common.messages.PatchOperation;
+import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test for bulk requests and responses.
+ */
+public class BulkRequestTestCase
+{
+  /**
+   * Test bulk request.
+   *
+   * @throws IOException If an error occurs.
+   * @throws ScimException If an error occurs.
+   */
+  @Test
+  public void testBulkRequest() throws IOException, ScimException
+  {
+    BulkRequest bulkRequest = JsonUtils.getObjectReader().
+        forType(BulkRequest.class).
+        readValue("{\n" +
+            "  \"schemas\": " +
+            "[\"urn:ietf:params:scim:api:messages:2.0:BulkRequest\"],\n" +
+            "  \"failOnErrors\": 1,\n" +
+            "  \"Operations\": [\n" +
+            "    {\n" +
+            "      \"method\": \"POST\",\n" +
+            "      \"path\": \"/Users\",\n" +
+            "      \"bulkId\": \"qwerty\",\n" +
+            "      \"data\": {\n" +
+            "        \"schemas\": " +
+            "[\"urn:ietf:params:scim:schemas:core:2.0:User\"],\n" +
+            "        \"userName\": \"Alice\"\n" +
+            "      }\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"method\": \"delete\",\n" +
+            "      \"path\": " +
+            "\"/Users/b7c14771-226c-4d05-8860-134711653041\",\n" +
+            "      \"version\": \"W/\\\"0ee8add0a938e1a\\\"\"\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}");
+
+    assertEquals(bulkRequest.getFailOnErrors(), Integer.valueOf(1));
+    assertEquals(bulkRequest.getOperations().size(), 2);
+    BulkOperation post = bulkRequest.getOperations().get(0);
+    assertEquals(post.getMethod(), BulkOpType.POST);
+    assertEquals(post.getBulkId(), "qwerty");
+    assertEquals(post.getData(UserResource.class).getUserName(), "Alice");
+    assertEquals(post, BulkOperation.post("/Users", "qwerty",
+        new UserResource().setUserName("Alice")));
+    BulkOperation delete = bulkRequest.getOperations().get(1);
+    assertEquals(delete.getMethod(), BulkOpType.DELETE);
+    assertEquals(delete.getVersion(), "W/\"0ee8add0a938e1a\"");
+    assertNull(delete.getData());
+
+    bulkRequest = new BulkRequest(null, Arrays.asList(
+        BulkOperation.put("/Users/1", new UserResource().setUserName("Bob"),
+            null),
+        BulkOperation.patch("/Users/bulkId:qwerty",
+            new PatchRequest(Collections.singletonList(
+                PatchOperation.replace("displayName", "Bob"))), "W/\"1\""),
+        BulkOperation.delete("/Users/2", null)));
+    String serialized = JsonUtils.getObjectWriter().
+        writeValueAsString(bulkRequest);
+    assertEquals(JsonUtils.getObjectReader().forType(BulkRequest.class).
+        readValue(serialized), bulkRequest);
+  }
+
+  /**
+   * Test bulk response.
+   *
+   * @throws IOException If an error occurs.
+   */
+  @Test
+  public void testBulkResponse() throws IOException
+  {
+    BulkResponse bulkResponse = JsonUtils.getObjectReader().
+        forType(BulkResponse.class).
+        readValue("{\n" +
+            "  \"schemas\": " +
+            "[\"urn:ietf:params:scim:api:messages:2.0:BulkResponse\"],\n" +
+            "  \"Operations\": [\n" +
+            "    {\n" +
+            "      \"location\": \"https://example.com/v2/Users/92b725cd\",\n" +
+            "      \"method\": \"POST\",\n" +
+            "      \"bulkId\": \"qwerty\",\n" +
+            "      \"version\": \"W/\\\"4weymrEsh5O6cAEK\\\"\",\n" +
+            "      \"status\": \"201\"\n" +
+            "    },\n" +
+            "    {\n" +
+            "      \"method\": \"DELETE\",\n" +
+            "      \"status\": 404,\n" +
+            "      \"response\": {\n" +
+            "        \"schemas\": " +
+            "[\"urn:ietf:params:scim:api:messages:2.0:Error\"],\n" +
+            "        \"detail\": \"Resource does not exist.\",\n" +
+            "        \"status\": \"404\"\n" +
+            "      }\n" +
+            "    }\n" +
+            "  ]\n" +
+            "}");
+
+    BulkOperationResult created = bulkResponse.getOperations().get(0);
+    assertTrue(created.isSuccessful());
+    assertEquals(created.getStatusCode(), 201);
+    assertEquals(created.getId(), "92b725cd");
+    assertEquals(created.getBulkId(), "qwerty");
+    assertNull(created.getErrorResponse());
+
+    BulkOperationResult failed = bulkResponse.getOperations().get(1);
+    assertFalse(failed.isSuccessful());
+    assertEquals(failed.getStatusCode(), 404);
+    assertNull(failed.getId());
+    assertEquals(failed.getErrorResponse().getDetail(),
+        "Resource does not exist.");
+
+    ErrorResponse errorResponse = new ErrorResponse(409);
+    BulkOperationResult error = BulkOperationResult.error(
+        BulkOperation.post("/Users", "ytrewq", new UserResource()),
+        errorResponse);
+    assertEquals(error.getStatus(), "409");
+    assertEquals(error.getBulkId(), "ytrewq");
+    assertEquals(error.getErrorResponse(), errorResponse);
+
+    bulkResponse = new BulkResponse(Arrays.asList(created, failed, error));
+    String serialized = JsonUtils.getObjectWriter().
+        writeValueAsString(bulkResponse);
+    assertEquals(JsonUtils.getObjectReader().forType(BulkResponse.class).
+        readValue(serialized), bulkResponse);
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.FilterEvaluator;
+import com.unboundid.scim2.common.utils.FilterNormalizer;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for normalizing SCIM 2 filters.
+ */
+public class FilterNormalizerTestCase
+{
+  /**
+   * Retrieves filter strings and their expected normalized form.
+   *
+   * @return  Filter strings and their expected normalized form.
+   */
+  @DataProvider(name = "testNormalizedFilterStrings")
+  public Object[][] getTestNormalizedFilterStrings()
+  {
+    return new Object[][]
+        {
+            // Simple filters are left as is.
+            new Object[] { "userName eq \"bjensen\"",
+                "userName eq \"bjensen\"" },
+            // Nested logical filters of the same type are flattened.
+            new Object[] { "a eq 1 and (b eq 2 and (c eq 3 and d eq 4))",
+                "(a eq 1 and b eq 2 and c eq 3 and d eq 4)" },
+            new Object[] { "(a eq 1 or b eq 2) or c eq 3",
+                "(a eq 1 or b eq 2 or c eq 3)" },
+            // Logical filters of different types are not.
+            new Object[] { "a eq 1 and (b eq 2 or c eq 3)",
+                "(a eq 1 and (b eq 2 or c eq 3))" },
+            // Duplicates are removed.
+            new Object[] { "a eq 1 and b eq 2 and a eq 1",
+                "(a eq 1 and b eq 2)" },
+            new Object[] { "a eq 1 or (a eq 1 or a eq 1)", "a eq 1" },
+            // Negations are folded.
+            new Object[] { "not(not(a eq 1))", "a eq 1" },
+            new Object[] { "not(not(not(a sw \"x\")))", "not (a sw \"x\")" },
+            new Object[] { "not(a eq 1)", "a ne 1" },
+            new Object[] { "not(a ne 1)", "a eq 1" },
+            // Cheaper components are evaluated first.
+            new Object[] { "a co \"x\" and b gt 1 and c eq 1 and d pr",
+                "(d pr and c eq 1 and b gt 1 and a co \"x\")" },
+            new Object[] { "emails[type eq \"work\"] or title eq \"CFO\"",
+                "(title eq \"CFO\" or emails[type eq \"work\"])" },
+            new Object[] { "name.givenName eq \"x\" and title eq \"CFO\"",
+                "(title eq \"CFO\" and name.givenName eq \"x\")" },
+            // Value filters are normalized as well.
+            new Object[] { "emails[value co \"x\" and (type eq \"work\")]",
+                "emails[(type eq \"work\" and value co \"x\")]" },
+        };
+  }
+
+  /**
+   * Test filter normalization.
+   *
+   * @param filter The filter string to normalize.
+   * @param expected The expected normalized filter string.
+   * @throws ScimException If the filter string is invalid.
+   */
+  @Test(dataProvider = "testNormalizedFilterStrings")
+  public void testNormalize(final String filter, final String expected)
+      throws ScimException
+  {
+    Filter normalized =
+        new FilterNormalizer().normalize(Filter.fromString(filter));
+    assertEquals(normalized.toString(), expected);
+    // Normalizing is idempotent.
+    assertEquals(new FilterNormalizer().normalize(normalized), normalized);
+  }
+
+  /**
+   * Retrieves filter strings to evaluate before and after normalization.
+   *
+   * @return  Filter strings to evaluate before and after normalization.
+   */
+  @DataProvider(name = "testEquivalentFilterStrings")
+  public Object[][] getTestEquivalentFilterStrings()
+  {
+    return new Object[][]
+        {
+            new Object[] { "title eq \"CFO\" and userName sw \"bj\"" },
+            new Object[] { "title eq \"CEO\" or (userName co \"jen\" or " +
+                "nickName pr)" },
+            new Object[] { "not(not(title eq \"CFO\"))" },
+            new Object[] { "not(title eq \"CFO\")" },
+            new Object[] { "not(title ne \"CFO\")" },
+            new Object[] { "not(nickName eq \"Babs\")" },
+            new Object[] { "emails[type eq \"work\" and value co \"@\"] " +
+                "and title eq \"CFO\"" },
+            new Object[] { "emails[type eq \"home\" or (value ew \".com\" " +
+                "and type eq \"work\")]" },
+            new Object[] { "emails[not(type eq \"work\")]" },
+            new Object[] { "(a eq 1 or title eq \"CFO\") and " +
+                "(title eq \"CFO\" and userName pr)" },
+        };
+  }
+
+  /**
+   * Test that normalized filters match exactly the same resources as the
+   * filters they were normalized from.
+   *
+   * @param filter The filter string to normalize.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "testEquivalentFilterStrings")
+  public void testNormalizedFilterMatches(final String filter)
+      throws Exception
+  {
+    JsonNode node = JsonUtils.getObjectReader().readTree(
+        "{\"userName\": \"bjensen\", \"title\": \"CFO\", " +
+        "\"emails\": [{\"type\": \"work\", " +
+        "\"value\": \"bjensen@example.com\"}, {\"type\": \"home\", " +
+        "\"value\": \"babs@example.org\"}]}");
+    Filter parsed = Filter.fromString(filter);
+    assertEquals(FilterEvaluator.evaluate(
+        new FilterNormalizer().normalize(parsed), node),
+        FilterEvaluator.evaluate(parsed, node));
+  }
+
+  /**
+   * Test that attribute definitions are used to cost multi-valued attributes.
+   *
+   * @throws ScimException If the filter string is invalid.
+   */
+  @Test
+  public void testMultiValuedCost() throws ScimException
+  {
+    FilterNormalizer normalizer = new FilterNormalizer()
+    {
+      @Override
+      protected AttributeDefinition getAttributeDefinition(final Path path)
+      {
+        if (path.size() == 1 &&
+            path.getElement(0).getAttribute().equalsIgnoreCase("emails"))
+        {
+          return new AttributeDefinition.Builder().setName("emails").
+              setType(AttributeDefinition.Type.COMPLEX).
+              setMultiValued(true).build();
+        }
+        return null;
+      }
+    };
+
+    Filter multiValued = Filter.fromString("emails.value co \"x\"");
+    Filter singleValued = Filter.fromString("title co \"x\"");
+    assertTrue(normalizer.estimateCost(multiValued) >
+        normalizer.estimateCost(singleValued));
+    assertTrue(normalizer.estimateCost(multiValued) >
+        new FilterNormalizer().estimateCost(multiValued));
+    assertEquals(normalizer.normalize(
+        Filter.and(multiValued, singleValued)).toString(),
+        "(title co \"x\" and emails.value co \"x\")");
+  }
+}
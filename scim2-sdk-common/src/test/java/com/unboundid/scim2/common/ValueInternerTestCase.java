@@ -0,0 +1,317 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.MapperFactory;
+import com.unboundid.scim2.common.utils.ScimJsonNodeFactory;
+import com.unboundid.scim2.common.utils.ValueInterner;
+import org.testng.Reporter;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Tests for interning field names and text values of JSON nodes.
+ */
+public class ValueInternerTestCase
+{
+  /**
+   * Test that repeated values are shared and unique values are not.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testInterning() throws Exception
+  {
+    ValueInterner interner = new ValueInterner();
+    ObjectMapper mapper = createObjectMapper(interner);
+
+    List<JsonNode> nodes = new ArrayList<JsonNode>();
+    for (int i = 0; i < 10; i++)
+    {
+      nodes.add(mapper.readTree(createUserJson(i)));
+    }
+    for (int i = 0; i < 10; i++)
+    {
+      // The parsed nodes are the same as without interning.
+      assertEquals(nodes.get(i),
+          JsonUtils.getObjectReader().readTree(createUserJson(i)));
+    }
+
+    // Values are interned the second time they are seen.
+    assertNotSame(nodes.get(0).path("emails").path(0).path("type"),
+        nodes.get(1).path("emails").path(0).path("type"));
+    assertSame(nodes.get(1).path("emails").path(0).path("type"),
+        nodes.get(9).path("emails").path(0).path("type"));
+    assertSame(nodes.get(1).path("schemas").path(0),
+        nodes.get(9).path("schemas").path(0));
+    assertSame(nodes.get(2).path("meta").path("resourceType"),
+        nodes.get(3).path("meta").path("resourceType"));
+    // Unique values are not.
+    assertNotSame(nodes.get(9).path("id"),
+        mapper.readTree(createUserJson(9)).path("id"));
+    assertTrue(interner.getHitCount() > 0);
+
+    // Interned values and keys do not affect case-insensitive field names.
+    JsonNode node = mapper.readTree("{\"EMAILS\":[{\"TYPE\":\"work\"}]}");
+    assertEquals(node.path("emails").path(0).path("type").textValue(),
+        "work");
+    assertTrue(node.fieldNames().next().equals("EMAILS"));
+  }
+
+  /**
+   * Test that the table of interned values does not grow beyond its limits.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testLimits() throws Exception
+  {
+    ValueInterner interner = new ValueInterner(20, 8);
+    ObjectMapper mapper = createObjectMapper(interner);
+    for (int i = 0; i < 50; i++)
+    {
+      JsonNode node = mapper.readTree(createUserJson(i));
+      assertEquals(node, JsonUtils.getObjectReader().readTree(
+          createUserJson(i)));
+      assertTrue(interner.size() <= 20);
+    }
+    assertEquals(interner.size(), 20);
+
+    // Values longer than the maximum length are never interned.
+    String text = "longer than eight";
+    interner = new ValueInterner(20, 8);
+    assertNotSame(interner.textNode(text), interner.textNode(text));
+    assertNotSame(interner.textNode(text), interner.textNode(text));
+    assertEquals(interner.size(), 0);
+    // Short values are interned the second time they are seen.
+    assertNotSame(interner.textNode("short"), interner.textNode("short"));
+    assertEquals(interner.size(), 1);
+    assertSame(interner.textNode("short"), interner.textNode("short"));
+  }
+
+  /**
+   * Test interning values from several threads.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testConcurrentInterning() throws Exception
+  {
+    final ValueInterner interner = new ValueInterner(100, 64);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 4; t++)
+      {
+        futures.add(executor.submit(new Callable<Boolean>()
+        {
+          public Boolean call() throws Exception
+          {
+            for (int i = 0; i < 10000; i++)
+            {
+              String text = "value" + (i % 500);
+              TextNode node = interner.textNode(text);
+              if (!node.textValue().equals(text))
+              {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> future : futures)
+      {
+        assertTrue(future.get());
+      }
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    assertEquals(interner.size(), 100);
+  }
+
+  /**
+   * Test that many parsed users share their repeated field names and values
+   * while the table stays within its limit.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSharing() throws Exception
+  {
+    ValueInterner interner = new ValueInterner(100, 64);
+    ObjectMapper mapper = createObjectMapper(interner);
+    List<JsonNode> nodes = new ArrayList<JsonNode>();
+    for (int i = 0; i < 1000; i++)
+    {
+      nodes.add(mapper.readTree(createUserJson(i)));
+      assertTrue(interner.size() <= 100);
+    }
+
+    JsonNode first = nodes.get(1);
+    for (JsonNode node : nodes.subList(2, nodes.size()))
+    {
+      assertSame(node.path("schemas").path(0), first.path("schemas").path(0));
+      assertSame(node.path("meta").path("resourceType"),
+          first.path("meta").path("resourceType"));
+      assertSame(node.path("emails").path(0).path("type"),
+          first.path("emails").path(0).path("type"));
+      assertSame(node.fieldNames().next(), first.fieldNames().next());
+      assertSame(node.path("name").fieldNames().next(),
+          first.path("name").fieldNames().next());
+    }
+  }
+
+  /**
+   * Compare the heap used by users parsed with and without interning. This
+   * only runs with the benchmarks profile since the measurements depend on
+   * the garbage collector. The number of users may be set with the
+   * {@code scim2.footprint.users} system property, such as
+   * {@code -Dscim2.footprint.users=1000000} with a large enough heap.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test(groups = "benchmark")
+  public void benchmarkFootprint() throws Exception
+  {
+    int count = Integer.getInteger("scim2.footprint.users", 50000);
+    long plainBytes = measureFootprint(createObjectMapper(null), count);
+    ValueInterner interner = new ValueInterner();
+    long internedBytes = measureFootprint(createObjectMapper(interner), count);
+
+    assertTrue(internedBytes < plainBytes,
+        "interned " + internedBytes + " plain " + plainBytes);
+    Reporter.log(String.format(
+        "Heap for %d users: plain %d bytes/user, interned %d bytes/user " +
+            "(%.0f%% less, %d interned values)",
+        count, plainBytes / count, internedBytes / count,
+        100.0 * (plainBytes - internedBytes) / plainBytes, interner.size()));
+  }
+
+  /**
+   * Measure the heap retained by parsed users.
+   *
+   * @param mapper The object mapper to parse with.
+   * @param count The number of users.
+   * @return The number of bytes retained by the users.
+   * @throws Exception If an error occurs.
+   */
+  private static long measureFootprint(final ObjectMapper mapper,
+                                       final int count)
+      throws Exception
+  {
+    long before = usedMemory();
+    List<JsonNode> nodes = new ArrayList<JsonNode>(count);
+    for (int i = 0; i < count; i++)
+    {
+      nodes.add(mapper.readTree(createUserJson(i)));
+    }
+    long after = usedMemory();
+    assertEquals(nodes.size(), count);
+    return after - before;
+  }
+
+  /**
+   * Retrieves the heap used after garbage collection.
+   *
+   * @return The heap used after garbage collection.
+   */
+  private static long usedMemory()
+  {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++)
+    {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+  /**
+   * Create an object mapper with a value interner.
+   *
+   * @param interner The value interner or {@code null} to not intern values.
+   * @return The object mapper.
+   */
+  private static ObjectMapper createObjectMapper(final ValueInterner interner)
+  {
+    // Set the node factory on this mapper rather than changing the interner
+    // that the MapperFactory uses for every mapper.
+    ObjectMapper mapper = MapperFactory.createObjectMapper();
+    mapper.setNodeFactory(new ScimJsonNodeFactory(interner));
+    return mapper;
+  }
+
+  /**
+   * Create the JSON of a user.
+   *
+   * @param i The number of the user.
+   * @return The JSON of the user.
+   * @throws Exception If an error occurs.
+   */
+  private static String createUserJson(final int i) throws Exception
+  {
+    UserResource user = new UserResource();
+    user.setId("2819c223-7f76-453a-919d-" + String.format("%012d", i));
+    user.setUserName("user" + i);
+    user.setName(new Name().setGivenName("Given" + i).
+        setFamilyName(i % 2 == 0 ? "Smith" : "Jensen"));
+    user.setActive(i % 10 != 0);
+    user.setUserType(i % 5 == 0 ? "Contractor" : "Employee");
+    user.setTitle(i % 3 == 0 ? "Engineer" : "Manager");
+    user.setPreferredLanguage("en-US");
+    user.setLocale("en-US");
+    user.setTimezone("America/Chicago");
+    user.setEmails(Arrays.asList(
+        new Email().setType("work").setPrimary(true).
+            setValue("user" + i + "@example.com"),
+        new Email().setType("home").setPrimary(false).
+            setValue("user" + i + "@home.example.com")));
+    Meta meta = new Meta();
+    meta.setResourceType("User");
+    meta.setLocation(new URI("https://example.com/v2/Users/" + i));
+    meta.setVersion("W/\"" + (i % 3) + "\"");
+    user.setMeta(meta);
+    return JsonUtils.getObjectWriter().writeValueAsString(user);
+  }
+}
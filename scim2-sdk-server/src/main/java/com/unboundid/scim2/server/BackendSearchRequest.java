@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SortOrder;
+
+/**
+ * The part of a search that is pushed down to a {@link SearchBackend}.
+ */
+public final class BackendSearchRequest
+{
+  private final Filter filter;
+  private final Path sortBy;
+  private final SortOrder sortOrder;
+  private final Integer startIndex;
+  private final Integer count;
+
+  /**
+   * Create a new backend search request.
+   *
+   * @param filter The filter or {@code null}.
+   * @param sortBy The attribute to sort by or {@code null}.
+   * @param sortOrder The sort order or {@code null}.
+   * @param startIndex The 1-based index of the first resource to return or
+   *                   {@code null}.
+   * @param count The maximum number of resources to return or {@code null}.
+   */
+  BackendSearchRequest(final Filter filter, final Path sortBy,
+                       final SortOrder sortOrder, final Integer startIndex,
+                       final Integer count)
+  {
+    this.filter = filter;
+    this.sortBy = sortBy;
+    this.sortOrder = sortOrder;
+    this.startIndex = startIndex;
+    this.count = count;
+  }
+
+  /**
+   * Retrieves the filter the returned resources must match.
+   *
+   * @return The filter or {@code null} if all resources match.
+   */
+  public Filter getFilter()
+  {
+    return filter;
+  }
+
+  /**
+   * Retrieves the attribute to sort the returned resources by.
+   *
+   * @return The attribute to sort by or {@code null} if the resources may be
+   * returned in any order.
+   */
+  public Path getSortBy()
+  {
+    return sortBy;
+  }
+
+  /**
+   * Retrieves the sort order.
+   *
+   * @return The sort order or {@code null} if the resources are not sorted.
+   */
+  public SortOrder getSortOrder()
+  {
+    return sortOrder;
+  }
+
+  /**
+   * Retrieves the 1-based index of the first resource to return. This is
+   * only set for backends supporting {@link PagingMode#OFFSET_AND_LIMIT}.
+   *
+   * @return The 1-based index of the first resource to return or
+   * {@code null} to start with the first resource.
+   */
+  public Integer getStartIndex()
+  {
+    return startIndex;
+  }
+
+  /**
+   * Retrieves the maximum number of resources to return.
+   *
+   * @return The maximum number of resources to return or {@code null} to
+   * return all resources.
+   */
+  public Integer getCount()
+  {
+    return count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    return "BackendSearchRequest{" +
+        "filter=" + filter +
+        ", sortBy=" + sortBy +
+        ", sortOrder=" + sortOrder +
+        ", startIndex=" + startIndex +
+        ", count=" + count +
+        '}';
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.ScimResource;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The resources returned by a {@link SearchBackend}.
+ *
+ * @param <T> The type of resources returned by the backend.
+ */
+public class BackendSearchResult<T extends ScimResource>
+{
+  private final List<T> resources;
+  private final Integer totalResults;
+
+  /**
+   * Create a new backend search result.
+   *
+   * @param resources The resources matching the request in the requested
+   *                  order.
+   * @param totalResults The total number of resources matching the filter,
+   *                     ignoring paging. This is required if paging was
+   *                     pushed down and may be {@code null} otherwise.
+   */
+  public BackendSearchResult(final List<T> resources,
+                             final Integer totalResults)
+  {
+    this.resources = Collections.unmodifiableList(resources);
+    this.totalResults = totalResults;
+  }
+
+  /**
+   * Retrieves the resources matching the request in the requested order.
+   *
+   * @return The resources matching the request.
+   */
+  public List<T> getResources()
+  {
+    return resources;
+  }
+
+  /**
+   * Retrieves the total number of resources matching the filter, ignoring
+   * paging.
+   *
+   * @return The total number of resources matching the filter or
+   * {@code null} if not known.
+   */
+  public Integer getTotalResults()
+  {
+    return totalResults;
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+/**
+ * The paging modes a {@link SearchBackend} may support.
+ */
+public enum PagingMode
+{
+  /**
+   * The backend always returns every resource that matches the filter.
+   */
+  NONE,
+
+  /**
+   * The backend can limit the number of resources returned, but can not skip
+   * resources. The SDK requests enough resources to cover the requested page
+   * and skips the resources before the start index itself.
+   */
+  LIMIT,
+
+  /**
+   * The backend can return the page of resources identified by a 1-based
+   * start index and a count.
+   */
+  OFFSET_AND_LIMIT
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+
+/**
+ * A service provider interface for the data stores behind search endpoints.
+ * A backend declares which parts of a search it can handle through its
+ * {@link SearchCapabilities}. The SDK only pushes down the supported parts of
+ * each search and evaluates the remainder on the resources returned by the
+ * backend.
+ *
+ * @param <T> The type of resources returned by the backend.
+ * @see com.unboundid.scim2.server.utils.BackendSearchResults
+ */
+public interface SearchBackend<T extends ScimResource>
+{
+  /**
+   * Retrieves the search capabilities of this backend.
+   *
+   * @return The search capabilities of this backend.
+   */
+  SearchCapabilities getSearchCapabilities();
+
+  /**
+   * Search for resources. The request only contains the filter, sorting and
+   * paging that are supported according to the search capabilities of the
+   * backend, and the backend must honor all of them.
+   *
+   * @param request The pushed-down part of the search.
+   * @return The resources matching the request in the requested order.
+   * @throws ScimException If an error occurs.
+   */
+  BackendSearchResult<T> search(final BackendSearchRequest request)
+      throws ScimException;
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.filters.FilterType;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The search capabilities of a {@link SearchBackend}: the filter types,
+ * attributes, sort keys and paging mode it can handle. Parts of a search
+ * request that the backend does not support are evaluated by the SDK on the
+ * resources returned by the backend. By default, nothing is supported.
+ */
+public class SearchCapabilities
+{
+  private final Set<FilterType> filterTypes =
+      EnumSet.noneOf(FilterType.class);
+  private final Set<Path> attributes = new HashSet<Path>();
+  private final Set<Path> sortKeys = new HashSet<Path>();
+  private boolean allAttributesSupported;
+  private PagingMode pagingMode = PagingMode.NONE;
+
+  /**
+   * Declare support for filter types. Logical filter types must be declared
+   * in order for filters combining other filters to be pushed down.
+   *
+   * @param types The supported filter types.
+   * @return this object.
+   */
+  public SearchCapabilities supportFilterTypes(final FilterType... types)
+  {
+    Collections.addAll(filterTypes, types);
+    return this;
+  }
+
+  /**
+   * Declare support for all filter types.
+   *
+   * @return this object.
+   */
+  public SearchCapabilities supportAllFilterTypes()
+  {
+    filterTypes.addAll(EnumSet.allOf(FilterType.class));
+    return this;
+  }
+
+  /**
+   * Declare support for filtering on attributes. Supporting a complex
+   * attribute implies support for all of its sub-attributes.
+   *
+   * @param paths The paths of the supported attributes.
+   * @return this object.
+   * @throws BadRequestException If a path could not be parsed.
+   */
+  public SearchCapabilities supportAttributes(final String... paths)
+      throws BadRequestException
+  {
+    for (String path : paths)
+    {
+      attributes.add(Path.fromString(path).withoutFilters());
+    }
+    return this;
+  }
+
+  /**
+   * Declare support for filtering on all attributes.
+   *
+   * @return this object.
+   */
+  public SearchCapabilities supportAllAttributes()
+  {
+    allAttributesSupported = true;
+    return this;
+  }
+
+  /**
+   * Declare support for sorting by attributes.
+   *
+   * @param paths The paths of the attributes the backend can sort by.
+   * @return this object.
+   * @throws BadRequestException If a path could not be parsed.
+   */
+  public SearchCapabilities supportSortKeys(final String... paths)
+      throws BadRequestException
+  {
+    for (String path : paths)
+    {
+      sortKeys.add(Path.fromString(path).withoutFilters());
+    }
+    return this;
+  }
+
+  /**
+   * Set the paging mode supported by the backend.
+   *
+   * @param pagingMode The supported paging mode.
+   * @return this object.
+   */
+  public SearchCapabilities setPagingMode(final PagingMode pagingMode)
+  {
+    if (pagingMode == null)
+    {
+      throw new NullPointerException("pagingMode must not be null");
+    }
+    this.pagingMode = pagingMode;
+    return this;
+  }
+
+  /**
+   * Retrieves the supported filter types.
+   *
+   * @return The supported filter types.
+   */
+  public Set<FilterType> getFilterTypes()
+  {
+    return Collections.unmodifiableSet(filterTypes);
+  }
+
+  /**
+   * Retrieves the paths of the attributes supported in filters.
+   *
+   * @return The paths of the attributes supported in filters.
+   */
+  public Set<Path> getAttributes()
+  {
+    return Collections.unmodifiableSet(attributes);
+  }
+
+  /**
+   * Whether all attributes are supported in filters.
+   *
+   * @return {@code true} if all attributes are supported in filters.
+   */
+  public boolean isAllAttributesSupported()
+  {
+    return allAttributesSupported;
+  }
+
+  /**
+   * Retrieves the paths of the attributes the backend can sort by.
+   *
+   * @return The paths of the attributes the backend can sort by.
+   */
+  public Set<Path> getSortKeys()
+  {
+    return Collections.unmodifiableSet(sortKeys);
+  }
+
+  /**
+   * Retrieves the supported paging mode.
+   *
+   * @return The supported paging mode.
+   */
+  public PagingMode getPagingMode()
+  {
+    return pagingMode;
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.server.utils.ResourceTypeDefinition;
+import com.unboundid.scim2.server.utils.SchemaAwareFilterNormalizer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The split of a search into the part that is pushed down to a
+ * {@link SearchBackend} and the residual part that the SDK must evaluate on
+ * the resources returned by the backend.
+ * <p>
+ * A filter is pushed down if all of its filter types and attributes are
+ * supported. Otherwise, the supported components of a top-level {@code and}
+ * filter are pushed down and the rest become the residual filter. Sorting is
+ * pushed down if the sort key is supported. Paging is only pushed down if
+ * there is no residual filter and the sorting, if any, was also pushed down,
+ * since otherwise the backend can not know which resources are on the
+ * requested page.
+ */
+public final class SearchPlan
+{
+  private final BackendSearchRequest backendRequest;
+  private final Filter residualFilter;
+  private final Path sortBy;
+  private final SortOrder sortOrder;
+  private final Integer startIndex;
+  private final Integer count;
+  private final boolean sortPushedDown;
+  private final boolean pagingPushedDown;
+
+  /**
+   * Create a new search plan.
+   *
+   * @param backendRequest The request to send to the backend.
+   * @param residualFilter The residual filter or {@code null}.
+   * @param sortBy The requested sort attribute or {@code null}.
+   * @param sortOrder The requested sort order or {@code null}.
+   * @param startIndex The requested start index or {@code null}.
+   * @param count The requested count or {@code null}.
+   * @param sortPushedDown Whether sorting was pushed down.
+   * @param pagingPushedDown Whether paging was pushed down.
+   */
+  private SearchPlan(final BackendSearchRequest backendRequest,
+                     final Filter residualFilter, final Path sortBy,
+                     final SortOrder sortOrder, final Integer startIndex,
+                     final Integer count, final boolean sortPushedDown,
+                     final boolean pagingPushedDown)
+  {
+    this.backendRequest = backendRequest;
+    this.residualFilter = residualFilter;
+    this.sortBy = sortBy;
+    this.sortOrder = sortOrder;
+    this.startIndex = startIndex;
+    this.count = count;
+    this.sortPushedDown = sortPushedDown;
+    this.pagingPushedDown = pagingPushedDown;
+  }
+
+  /**
+   * Split a search into the part that is pushed down to a backend and the
+   * residual part.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param capabilities The search capabilities of the backend.
+   * @param filter The filter or {@code null}.
+   * @param sortBy The attribute to sort by or {@code null}.
+   * @param sortOrder The sort order or {@code null} for ascending.
+   * @param startIndex The 1-based index of the first resource to return or
+   *                   {@code null}.
+   * @param count The maximum number of resources to return or {@code null}.
+   * @return The search plan.
+   */
+  public static SearchPlan create(final ResourceTypeDefinition resourceType,
+                                  final SearchCapabilities capabilities,
+                                  final Filter filter, final Path sortBy,
+                                  final SortOrder sortOrder,
+                                  final Integer startIndex,
+                                  final Integer count)
+  {
+    Planner planner = new Planner(resourceType, capabilities);
+
+    // Split the filter.
+    Filter pushedFilter = null;
+    Filter residualFilter = null;
+    if (filter != null)
+    {
+      Filter normalized =
+          new SchemaAwareFilterNormalizer(resourceType).normalize(filter);
+      if (planner.isSupported(normalized, null))
+      {
+        pushedFilter = normalized;
+      }
+      else if (normalized.getFilterType() == FilterType.AND)
+      {
+        List<Filter> pushed = new ArrayList<Filter>();
+        List<Filter> residual = new ArrayList<Filter>();
+        for (Filter component : normalized.getCombinedFilters())
+        {
+          // Without and support, only a single component can be pushed down.
+          if (planner.isSupported(component, null) && (pushed.isEmpty() ||
+              capabilities.getFilterTypes().contains(FilterType.AND)))
+          {
+            pushed.add(component);
+          }
+          else
+          {
+            residual.add(component);
+          }
+        }
+        pushedFilter = combine(pushed);
+        residualFilter = combine(residual);
+      }
+      else
+      {
+        residualFilter = normalized;
+      }
+    }
+
+    // Push down the sorting if the sort key is supported.
+    boolean sortPushedDown = sortBy != null && planner.isSortKey(sortBy);
+
+    // Push down the paging if the backend knows exactly which resources are
+    // on the requested page.
+    Integer pushedStartIndex = null;
+    Integer pushedCount = null;
+    boolean pagingPushedDown = false;
+    if ((startIndex != null || count != null) && residualFilter == null &&
+        (sortBy == null || sortPushedDown))
+    {
+      switch (capabilities.getPagingMode())
+      {
+        case OFFSET_AND_LIMIT:
+          pushedStartIndex = startIndex;
+          pushedCount = count;
+          pagingPushedDown = true;
+          break;
+        case LIMIT:
+          if (count != null)
+          {
+            pushedCount = count +
+                (startIndex == null ? 0 : startIndex - 1);
+            pagingPushedDown = true;
+          }
+          break;
+        default:
+          break;
+      }
+    }
+
+    BackendSearchRequest backendRequest = new BackendSearchRequest(
+        pushedFilter, sortPushedDown ? sortBy : null,
+        sortPushedDown ? sortOrder : null, pushedStartIndex, pushedCount);
+    return new SearchPlan(backendRequest, residualFilter, sortBy, sortOrder,
+        startIndex, count, sortPushedDown, pagingPushedDown);
+  }
+
+  /**
+   * Retrieves the request to send to the backend.
+   *
+   * @return The request to send to the backend.
+   */
+  public BackendSearchRequest getBackendRequest()
+  {
+    return backendRequest;
+  }
+
+  /**
+   * Retrieves the filter that must be evaluated on the resources returned by
+   * the backend.
+   *
+   * @return The residual filter or {@code null} if the filter was entirely
+   * pushed down.
+   */
+  public Filter getResidualFilter()
+  {
+    return residualFilter;
+  }
+
+  /**
+   * Retrieves the requested sort attribute.
+   *
+   * @return The requested sort attribute or {@code null}.
+   */
+  public Path getSortBy()
+  {
+    return sortBy;
+  }
+
+  /**
+   * Retrieves the requested sort order.
+   *
+   * @return The requested sort order or {@code null}.
+   */
+  public SortOrder getSortOrder()
+  {
+    return sortOrder;
+  }
+
+  /**
+   * Retrieves the requested 1-based index of the first resource to return.
+   *
+   * @return The requested start index or {@code null}.
+   */
+  public Integer getStartIndex()
+  {
+    return startIndex;
+  }
+
+  /**
+   * Retrieves the requested maximum number of resources to return.
+   *
+   * @return The requested count or {@code null}.
+   */
+  public Integer getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Whether the backend sorts the resources.
+   *
+   * @return {@code true} if sorting was pushed down.
+   */
+  public boolean isSortPushedDown()
+  {
+    return sortPushedDown;
+  }
+
+  /**
+   * Whether the backend applies the paging. The resources before the start
+   * index must still be skipped if the backend only supports
+   * {@link PagingMode#LIMIT}.
+   *
+   * @return {@code true} if paging was pushed down.
+   */
+  public boolean isPagingPushedDown()
+  {
+    return pagingPushedDown;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    return "SearchPlan{" +
+        "backendRequest=" + backendRequest +
+        ", residualFilter=" + residualFilter +
+        ", sortPushedDown=" + sortPushedDown +
+        ", pagingPushedDown=" + pagingPushedDown +
+        '}';
+  }
+
+  /**
+   * Combine filters with an {@code and} filter.
+   *
+   * @param filters The filters to combine.
+   * @return The combined filter or {@code null} if there are none.
+   */
+  private static Filter combine(final List<Filter> filters)
+  {
+    if (filters.isEmpty())
+    {
+      return null;
+    }
+    return filters.size() == 1 ? filters.get(0) : Filter.and(filters);
+  }
+
+  /**
+   * Checks filters and sort keys against the capabilities of a backend.
+   */
+  private static final class Planner
+  {
+    private final ResourceTypeDefinition resourceType;
+    private final SearchCapabilities capabilities;
+    private final Set<Path> attributes = new HashSet<Path>();
+    private final Set<Path> sortKeys = new HashSet<Path>();
+
+    /**
+     * Create a new planner.
+     *
+     * @param resourceType The resource type definition.
+     * @param capabilities The search capabilities of the backend.
+     */
+    private Planner(final ResourceTypeDefinition resourceType,
+                    final SearchCapabilities capabilities)
+    {
+      this.resourceType = resourceType;
+      this.capabilities = capabilities;
+      for (Path path : capabilities.getAttributes())
+      {
+        attributes.add(resourceType.normalizePath(path));
+      }
+      for (Path path : capabilities.getSortKeys())
+      {
+        sortKeys.add(resourceType.normalizePath(path));
+      }
+    }
+
+    /**
+     * Whether a filter can be pushed down.
+     *
+     * @param filter The filter.
+     * @param parentPath The path of the complex attribute when checking a
+     *                   value filter or {@code null} otherwise.
+     * @return {@code true} if the filter can be pushed down.
+     */
+    private boolean isSupported(final Filter filter, final Path parentPath)
+    {
+      if (!capabilities.getFilterTypes().contains(filter.getFilterType()))
+      {
+        return false;
+      }
+      switch (filter.getFilterType())
+      {
+        case AND:
+        case OR:
+          for (Filter component : filter.getCombinedFilters())
+          {
+            if (!isSupported(component, parentPath))
+            {
+              return false;
+            }
+          }
+          return true;
+        case NOT:
+          return isSupported(filter.getInvertedFilter(), parentPath);
+        case COMPLEX_VALUE:
+          Path path = resolve(parentPath, filter.getAttributePath());
+          // Only the sub-attributes referenced by the value filter need to
+          // be supported.
+          return isValueFilterSupported(path) &&
+              isSupported(filter.getValueFilter(), path.withoutFilters());
+        default:
+          Path attributePath = resolve(parentPath, filter.getAttributePath());
+          return isValueFilterSupported(attributePath) &&
+              isAttributeSupported(attributePath);
+      }
+    }
+
+    /**
+     * Whether the value filters of the elements of an attribute path can be
+     * pushed down.
+     *
+     * @param path The resolved attribute path.
+     * @return {@code true} if the value filters can be pushed down.
+     */
+    private boolean isValueFilterSupported(final Path path)
+    {
+      for (int i = 0; i < path.size(); i++)
+      {
+        Filter valueFilter = path.getElement(i).getValueFilter();
+        if (valueFilter != null && (!capabilities.getFilterTypes().contains(
+            FilterType.COMPLEX_VALUE) || !isSupported(valueFilter,
+            path.subPath(i + 1).withoutFilters())))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Whether filters on an attribute can be pushed down.
+     *
+     * @param path The resolved attribute path.
+     * @return {@code true} if filters on the attribute can be pushed down.
+     */
+    private boolean isAttributeSupported(final Path path)
+    {
+      if (capabilities.isAllAttributesSupported())
+      {
+        return true;
+      }
+      Path attributePath = path.withoutFilters();
+      for (int i = attributePath.size(); i > 0; i--)
+      {
+        if (attributes.contains(attributePath.subPath(i)))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Whether the backend can sort by an attribute.
+     *
+     * @param sortBy The attribute to sort by.
+     * @return {@code true} if the backend can sort by the attribute.
+     */
+    private boolean isSortKey(final Path sortBy)
+    {
+      Path path = resourceType.normalizePath(sortBy);
+      return path.equals(path.withoutFilters()) && sortKeys.contains(path);
+    }
+
+    /**
+     * Resolve a filter attribute path relative to the resource.
+     *
+     * @param parentPath The path of the complex attribute or {@code null}.
+     * @param path The filter attribute path.
+     * @return The resolved path.
+     */
+    private Path resolve(final Path parentPath, final Path path)
+    {
+      return resourceType.normalizePath(
+          parentPath == null ? path : parentPath.attribute(path));
+    }
+  }
+}
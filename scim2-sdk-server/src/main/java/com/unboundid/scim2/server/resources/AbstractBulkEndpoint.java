@@ -0,0 +1,689 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.resources;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.NotImplementedException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.messages.BulkOperation;
+import com.unboundid.scim2.common.messages.BulkOperationResult;
+import com.unboundid.scim2.common.messages.BulkRequest;
+import com.unboundid.scim2.common.messages.ErrorResponse;
+import com.unboundid.scim2.common.types.BulkConfig;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
+
+/**
+ * An abstract JAX-RS resource class for servicing the Bulk endpoint.
+ * <p>
+ * The bulk request is parsed one operation at a time from the request
+ * entity, so the request is never held as a single JSON tree, and is rejected
+ * with a {@code 413 Payload Too Large} error as soon as it exceeds the
+ * maxOperations or maxPayloadSize of the {@link BulkConfig}. Operations that
+ * reference resources created by other operations of the request with their
+ * bulkId are processed after those operations, with the references replaced
+ * by the IDs of the created resources. Operations that do not depend on each
+ * other are processed concurrently, at most
+ * {@link #getMaxConcurrentOperations()} at a time, and the result of each
+ * operation is streamed back as soon as it is available. Results are
+ * therefore returned in the order the operations completed.
+ */
+@Path("Bulk")
+public abstract class AbstractBulkEndpoint
+{
+  /**
+   * The default maximum number of operations of a single bulk request that
+   * are processed concurrently.
+   */
+  public static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 4;
+
+  /**
+   * The HTTP status code of requests that exceed the bulk limits.
+   */
+  private static final int PAYLOAD_TOO_LARGE = 413;
+
+  /**
+   * Holds the default executor, which is only created when needed.
+   */
+  private static final class DefaultExecutorHolder
+  {
+    private static final ExecutorService EXECUTOR =
+        Executors.newFixedThreadPool(
+            4 * DEFAULT_MAX_CONCURRENT_OPERATIONS, new ThreadFactory()
+            {
+              private final AtomicInteger count = new AtomicInteger();
+
+              public Thread newThread(final Runnable runnable)
+              {
+                Thread thread = new Thread(runnable,
+                    "SCIM Bulk Operation " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+              }
+            });
+  }
+
+  /**
+   * Thrown when the request entity exceeds the maximum payload size.
+   */
+  private static final class PayloadTooLargeException extends IOException
+  {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create a new exception.
+     *
+     * @param maxPayloadSize The maximum payload size in bytes.
+     */
+    private PayloadTooLargeException(final int maxPayloadSize)
+    {
+      super("The size of the bulk request exceeds the maxPayloadSize of " +
+          maxPayloadSize + " bytes");
+    }
+  }
+
+  /**
+   * An input stream that fails once more than a maximum number of bytes were
+   * read.
+   */
+  private static final class LimitedInputStream extends FilterInputStream
+  {
+    private final int maxBytes;
+    private long bytesRead;
+
+    /**
+     * Create a new limited input stream.
+     *
+     * @param inputStream The input stream to read from.
+     * @param maxBytes The maximum number of bytes that may be read.
+     */
+    private LimitedInputStream(final InputStream inputStream,
+                               final int maxBytes)
+    {
+      super(inputStream);
+      this.maxBytes = maxBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException
+    {
+      int b = super.read();
+      if (b >= 0)
+      {
+        count(1);
+      }
+      return b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+        throws IOException
+    {
+      int n = super.read(b, off, len);
+      if (n > 0)
+      {
+        count(n);
+      }
+      return n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(final long n) throws IOException
+    {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    /**
+     * Count bytes read and fail if the limit is exceeded.
+     *
+     * @param n The number of bytes read.
+     * @throws PayloadTooLargeException If the limit is exceeded.
+     */
+    private void count(final long n) throws PayloadTooLargeException
+    {
+      bytesRead += n;
+      if (bytesRead > maxBytes)
+      {
+        throw new PayloadTooLargeException(maxBytes);
+      }
+    }
+  }
+
+  /**
+   * The result of an operation processed by the executor.
+   */
+  private static final class Completion
+  {
+    private final int index;
+    private final BulkOperationResult result;
+
+    /**
+     * Create a new completion.
+     *
+     * @param index The index of the operation in the request.
+     * @param result The result of the operation.
+     */
+    private Completion(final int index, final BulkOperationResult result)
+    {
+      this.index = index;
+      this.result = result;
+    }
+  }
+
+  /**
+   * Processes the operations of a single bulk request and writes their
+   * results. Only the request thread modifies the state of an execution.
+   */
+  private final class Execution
+  {
+    private final BulkRequest request;
+    private final UriInfo uriInfo;
+    private final JsonGenerator generator;
+    private final int operationCount;
+    private final int[] pendingDependencies;
+    private final List<List<Integer>> dependents;
+    private final boolean[] done;
+    private final Map<String, String> ids = new HashMap<String, String>();
+    private final Deque<Integer> ready = new ArrayDeque<Integer>();
+    private final BlockingQueue<Completion> completions =
+        new LinkedBlockingQueue<Completion>();
+    private final Executor executor = getExecutor();
+    private final int maxConcurrentOperations = getMaxConcurrentOperations();
+    private int running;
+    private int errors;
+
+    /**
+     * Create a new execution.
+     *
+     * @param request The bulk request.
+     * @param uriInfo The UriInfo of the request.
+     * @param generator The generator to write the results to.
+     */
+    private Execution(final BulkRequest request, final UriInfo uriInfo,
+                      final JsonGenerator generator)
+    {
+      this.request = request;
+      this.uriInfo = uriInfo;
+      this.generator = generator;
+      operationCount = request.getOperations().size();
+      pendingDependencies = new int[operationCount];
+      dependents = new ArrayList<List<Integer>>(operationCount);
+      done = new boolean[operationCount];
+      for (int i = 0; i < operationCount; i++)
+      {
+        dependents.add(new ArrayList<Integer>());
+      }
+    }
+
+    /**
+     * Process all operations and write their results.
+     *
+     * @throws IOException If an error occurs while writing.
+     */
+    private void run() throws IOException
+    {
+      Map<String, Integer> bulkIdIndexes = new HashMap<String, Integer>();
+      for (int i = 0; i < operationCount; i++)
+      {
+        String bulkId = request.getOperations().get(i).getBulkId();
+        if (bulkId != null)
+        {
+          bulkIdIndexes.put(bulkId, i);
+        }
+      }
+
+      List<Integer> unresolvable = new ArrayList<Integer>();
+      for (int i = 0; i < operationCount; i++)
+      {
+        for (String reference :
+            request.getOperations().get(i).getBulkIdReferences())
+        {
+          Integer dependency = bulkIdIndexes.get(reference);
+          if (dependency == null || dependency == i)
+          {
+            unresolvable.add(i);
+            break;
+          }
+          pendingDependencies[i]++;
+          dependents.get(dependency).add(i);
+        }
+        if (pendingDependencies[i] == 0 && !unresolvable.contains(i))
+        {
+          ready.add(i);
+        }
+      }
+      for (Integer index : unresolvable)
+      {
+        if (!done[index] && !isStopped())
+        {
+          complete(index, conflict(index,
+              "The operation references an unknown bulkId"));
+        }
+      }
+
+      while (true)
+      {
+        while (!isStopped() && running < maxConcurrentOperations &&
+            !ready.isEmpty())
+        {
+          submit(ready.poll());
+        }
+        if (running == 0)
+        {
+          break;
+        }
+        Completion completion;
+        try
+        {
+          completion = completions.take();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(
+              "Interrupted while processing bulk operations");
+        }
+        running--;
+        complete(completion.index, completion.result);
+      }
+
+      // Operations that are still waiting reference each other in a cycle.
+      for (int i = 0; i < operationCount && !isStopped(); i++)
+      {
+        if (!done[i])
+        {
+          complete(i, conflict(i,
+              "The operation is part of a circular bulkId reference"));
+        }
+      }
+    }
+
+    /**
+     * Whether the number of failed operations reached failOnErrors.
+     *
+     * @return {@code true} if no further operations should be processed.
+     */
+    private boolean isStopped()
+    {
+      return request.getFailOnErrors() != null &&
+          errors >= request.getFailOnErrors();
+    }
+
+    /**
+     * Process an operation on the executor.
+     *
+     * @param index The index of the operation.
+     */
+    private void submit(final int index)
+    {
+      final BulkOperation operation =
+          request.getOperations().get(index).resolveBulkIdReferences(ids);
+      running++;
+      try
+      {
+        executor.execute(new Runnable()
+        {
+          public void run()
+          {
+            completions.add(new Completion(index,
+                processOperation(operation, uriInfo)));
+          }
+        });
+      }
+      catch (RejectedExecutionException e)
+      {
+        Debug.debugException(e);
+        ErrorResponse errorResponse = new ErrorResponse(503);
+        errorResponse.setDetail("The operation could not be scheduled");
+        completions.add(new Completion(index,
+            BulkOperationResult.error(operation, errorResponse)));
+      }
+    }
+
+    /**
+     * Write the result of an operation and schedule or fail the operations
+     * that depend on it.
+     *
+     * @param index The index of the operation.
+     * @param result The result of the operation.
+     * @throws IOException If an error occurs while writing.
+     */
+    private void complete(final int index, final BulkOperationResult result)
+        throws IOException
+    {
+      done[index] = true;
+      generator.writeObject(result);
+      generator.flush();
+
+      BulkOperation operation = request.getOperations().get(index);
+      if (!result.isSuccessful())
+      {
+        errors++;
+        for (Integer dependent : dependents.get(index))
+        {
+          if (!done[dependent] && !isStopped())
+          {
+            complete(dependent, conflict(dependent, "The operation with " +
+                "bulkId " + operation.getBulkId() + " failed"));
+          }
+        }
+        return;
+      }
+
+      if (operation.getBulkId() != null && result.getId() != null)
+      {
+        ids.put(operation.getBulkId(), result.getId());
+      }
+      for (Integer dependent : dependents.get(index))
+      {
+        if (--pendingDependencies[dependent] == 0 && !done[dependent])
+        {
+          ready.add(dependent);
+        }
+      }
+    }
+
+    /**
+     * Create the result of an operation whose bulkId references could not be
+     * resolved.
+     *
+     * @param index The index of the operation.
+     * @param detail The error detail.
+     * @return The result of the operation.
+     */
+    private BulkOperationResult conflict(final int index, final String detail)
+    {
+      ErrorResponse errorResponse = new ErrorResponse(409);
+      errorResponse.setScimType(BadRequestException.INVALID_VALUE);
+      errorResponse.setDetail(detail);
+      return BulkOperationResult.error(request.getOperations().get(index),
+          errorResponse);
+    }
+  }
+
+  /**
+   * Service a SCIM bulk request.
+   *
+   * @param inputStream The request entity.
+   * @param uriInfo UriInfo of the request.
+   * @return The bulk response, which is written as the operations complete.
+   * @throws ScimException If bulk operations are not supported or the bulk
+   * request is invalid or too large.
+   */
+  @POST
+  @Consumes({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  public StreamingOutput bulk(final InputStream inputStream,
+                              @Context final UriInfo uriInfo)
+      throws ScimException
+  {
+    BulkConfig bulkConfig = getBulkConfig();
+    if (bulkConfig == null || !bulkConfig.isSupported())
+    {
+      throw new NotImplementedException("Bulk operations are not supported");
+    }
+    final BulkRequest request = parse(inputStream, bulkConfig);
+
+    return new StreamingOutput()
+    {
+      public void write(final OutputStream outputStream) throws IOException
+      {
+        JsonGenerator generator = JsonUtils.getObjectReader().getFactory().
+            createGenerator(outputStream);
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("schemas");
+        generator.writeString(
+            "urn:ietf:params:scim:api:messages:2.0:BulkResponse");
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("Operations");
+        new Execution(request, uriInfo, generator).run();
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.flush();
+        generator.close();
+      }
+    };
+  }
+
+  /**
+   * Retrieve the bulk configuration of the service provider, which is
+   * usually the bulk configuration of the service provider config.
+   *
+   * @return The bulk configuration.
+   * @throws ScimException if an error occurs.
+   */
+  public abstract BulkConfig getBulkConfig() throws ScimException;
+
+  /**
+   * Process a single operation of a bulk request. References to resources
+   * created by other operations of the request have already been replaced by
+   * the IDs of the resources. Operations that do not depend on each other may
+   * be processed concurrently.
+   * <p>
+   * The result of a successful operation that created a resource must
+   * include the location of the resource so that other operations may
+   * reference it.
+   *
+   * @param operation The operation to process.
+   * @param uriInfo UriInfo of the bulk request.
+   * @return The result of the operation.
+   * @throws ScimException If the operation failed, which is returned as the
+   * result of the operation.
+   */
+  protected abstract BulkOperationResult process(BulkOperation operation,
+                                                 UriInfo uriInfo)
+      throws ScimException;
+
+  /**
+   * Retrieve the executor used to process operations. The default executor
+   * is a fixed size thread pool shared by all bulk endpoints.
+   *
+   * @return The executor used to process operations.
+   */
+  protected Executor getExecutor()
+  {
+    return DefaultExecutorHolder.EXECUTOR;
+  }
+
+  /**
+   * Retrieve the maximum number of operations of a single bulk request that
+   * are processed concurrently. The default is
+   * {@link #DEFAULT_MAX_CONCURRENT_OPERATIONS}.
+   *
+   * @return The maximum number of operations processed concurrently.
+   */
+  protected int getMaxConcurrentOperations()
+  {
+    return DEFAULT_MAX_CONCURRENT_OPERATIONS;
+  }
+
+  /**
+   * Process a single operation and convert failures to error results.
+   *
+   * @param operation The operation to process.
+   * @param uriInfo UriInfo of the bulk request.
+   * @return The result of the operation.
+   */
+  private BulkOperationResult processOperation(final BulkOperation operation,
+                                               final UriInfo uriInfo)
+  {
+    try
+    {
+      BulkOperationResult result = process(operation, uriInfo);
+      if (result == null)
+      {
+        throw new ServerErrorException("No result for " +
+            operation.getMethod() + " operation on " + operation.getPath());
+      }
+      return result;
+    }
+    catch (ScimException e)
+    {
+      Debug.debugException(e);
+      return BulkOperationResult.error(operation, e.getScimError());
+    }
+    catch (RuntimeException e)
+    {
+      Debug.debugException(Level.WARNING, e);
+      ErrorResponse errorResponse = new ErrorResponse(500);
+      errorResponse.setDetail(e.getMessage());
+      return BulkOperationResult.error(operation, errorResponse);
+    }
+  }
+
+  /**
+   * Parse a bulk request from the request entity one operation at a time.
+   *
+   * @param inputStream The request entity.
+   * @param bulkConfig The bulk configuration with the limits to enforce.
+   * @return The bulk request.
+   * @throws ScimException If the bulk request is invalid or too large.
+   */
+  private static BulkRequest parse(final InputStream inputStream,
+                                   final BulkConfig bulkConfig)
+      throws ScimException
+  {
+    int maxOperations = bulkConfig.getMaxOperations() > 0 ?
+        bulkConfig.getMaxOperations() : Integer.MAX_VALUE;
+    InputStream limitedInputStream = bulkConfig.getMaxPayloadSize() > 0 ?
+        new LimitedInputStream(inputStream, bulkConfig.getMaxPayloadSize()) :
+        inputStream;
+    ObjectReader reader =
+        JsonUtils.getObjectReader().forType(BulkOperation.class);
+    Integer failOnErrors = null;
+    List<BulkOperation> operations = new ArrayList<BulkOperation>();
+    Set<String> bulkIds = new HashSet<String>();
+    try
+    {
+      JsonParser parser =
+          reader.getFactory().createParser(limitedInputStream);
+      if (parser.nextToken() != JsonToken.START_OBJECT)
+      {
+        throw BadRequestException.invalidSyntax(
+            "The bulk request must be a JSON object");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME)
+      {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (field.equalsIgnoreCase("failOnErrors"))
+        {
+          if (token != JsonToken.VALUE_NUMBER_INT ||
+              parser.getIntValue() < 1)
+          {
+            throw BadRequestException.invalidValue(
+                "failOnErrors must be a positive integer");
+          }
+          failOnErrors = parser.getIntValue();
+        }
+        else if (field.equalsIgnoreCase("Operations"))
+        {
+          if (token != JsonToken.START_ARRAY)
+          {
+            throw BadRequestException.invalidSyntax(
+                "Operations must be an array");
+          }
+          while (parser.nextToken() != JsonToken.END_ARRAY)
+          {
+            if (operations.size() >= maxOperations)
+            {
+              throw new ScimException(PAYLOAD_TOO_LARGE, null,
+                  "The number of operations exceeds the maxOperations of " +
+                      maxOperations);
+            }
+            BulkOperation operation = reader.readValue(parser);
+            if (operation.getBulkId() != null &&
+                !bulkIds.add(operation.getBulkId()))
+            {
+              throw BadRequestException.invalidValue(
+                  "Duplicate bulkId " + operation.getBulkId());
+            }
+            operations.add(operation);
+          }
+        }
+        else
+        {
+          parser.skipChildren();
+        }
+      }
+    }
+    catch (PayloadTooLargeException e)
+    {
+      throw new ScimException(PAYLOAD_TOO_LARGE, null, e.getMessage(), e);
+    }
+    catch (JsonProcessingException e)
+    {
+      throw BadRequestException.invalidSyntax(e.getMessage());
+    }
+    catch (IOException e)
+    {
+      throw new ServerErrorException(e.getMessage(), null, e);
+    }
+    return new BulkRequest(failOnErrors, operations);
+  }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.AndFilter;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.OrFilter;
+import com.unboundid.scim2.common.utils.Debug;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A schema aware filter evaluator for long-lived searches that learns the
+ * selectivity and cost of each component of {@code and} and {@code or}
+ * filters while evaluating the first resources, and then reorders the
+ * components to maximize short-circuiting for the remaining resources.
+ * <p>
+ * During the sampling phase every component of a logical filter is evaluated
+ * and timed, even when the result is already known. Once a logical filter has
+ * been evaluated against the configured number of resources, its components
+ * are ordered by the expected cost of reaching a decision: for {@code and}
+ * filters by average cost divided by the probability of not matching, and for
+ * {@code or} filters by average cost divided by the probability of matching.
+ * Components that failed to evaluate during the sampling phase, because
+ * their result was not needed for the resource, are kept after the other
+ * components in their original order so that they are not evaluated for
+ * more resources than without reordering.
+ * <p>
+ * Statistics are kept per filter instance and this class is not thread-safe.
+ */
+public class AdaptiveFilterEvaluator extends SchemaAwareFilterEvaluator
+{
+  /**
+   * Statistics collected for a single component of a logical filter.
+   */
+  public static final class ComponentStatistics
+  {
+    private final Filter filter;
+    private long evaluations;
+    private long matches;
+    private long failures;
+    private long sampledEvaluations;
+    private long sampledNanos;
+
+    /**
+     * Create a new component statistics.
+     *
+     * @param filter The filter component.
+     */
+    private ComponentStatistics(final Filter filter)
+    {
+      this.filter = filter;
+    }
+
+    /**
+     * Retrieves the filter component.
+     *
+     * @return The filter component.
+     */
+    public Filter getFilter()
+    {
+      return filter;
+    }
+
+    /**
+     * Retrieves the number of times the component was evaluated.
+     *
+     * @return The number of times the component was evaluated.
+     */
+    public long getEvaluations()
+    {
+      return evaluations;
+    }
+
+    /**
+     * Retrieves the number of times the component matched.
+     *
+     * @return The number of times the component matched.
+     */
+    public long getMatches()
+    {
+      return matches;
+    }
+
+    /**
+     * Retrieves the number of times the component failed to evaluate during
+     * the sampling phase when its result was not needed.
+     *
+     * @return The number of times the component failed to evaluate.
+     */
+    public long getFailures()
+    {
+      return failures;
+    }
+
+    /**
+     * Retrieves the fraction of evaluations where the component matched.
+     *
+     * @return The fraction of evaluations where the component matched or
+     * {@code 0} if the component has not been evaluated.
+     */
+    public double getSelectivity()
+    {
+      return evaluations == 0 ? 0 : (double) matches / evaluations;
+    }
+
+    /**
+     * Retrieves the average time in nanoseconds it took to evaluate the
+     * component during the sampling phase.
+     *
+     * @return The average time in nanoseconds it took to evaluate the
+     * component during the sampling phase.
+     */
+    public double getAverageNanos()
+    {
+      return sampledEvaluations == 0 ? 0 :
+          (double) sampledNanos / sampledEvaluations;
+    }
+
+    /**
+     * Record the result of evaluating the component.
+     *
+     * @param matched Whether the component matched.
+     */
+    private void record(final boolean matched)
+    {
+      evaluations++;
+      if (matched)
+      {
+        matches++;
+      }
+    }
+
+    /**
+     * Record a sampled evaluation of the component.
+     *
+     * @param nanos The time in nanoseconds the evaluation took.
+     */
+    private void recordSample(final long nanos)
+    {
+      sampledNanos += nanos;
+      sampledEvaluations++;
+    }
+
+    /**
+     * Whether the component may be ranked by its statistics.
+     *
+     * @return {@code true} if the component was sampled without failing.
+     */
+    private boolean isRankable()
+    {
+      return sampledEvaluations > 0 && failures == 0;
+    }
+
+    /**
+     * Retrieves the expected cost of evaluating this component before a
+     * logical filter reaches a decision.
+     *
+     * @param decidingValue The component result that decides the logical
+     *                      filter.
+     * @return The rank of this component. Lower ranks are evaluated first.
+     */
+    private double getRank(final boolean decidingValue)
+    {
+      double deciding = decidingValue ?
+          getSelectivity() : 1.0 - getSelectivity();
+      // Avoid zero costs so selectivity still orders very cheap components.
+      double cost = getAverageNanos() + 1.0;
+      return deciding == 0 ? Double.MAX_VALUE : cost / deciding;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+      return filter + " [evaluations=" + evaluations + ", matches=" + matches +
+          ", failures=" + failures + ", averageNanos=" +
+          Math.round(getAverageNanos()) + "]";
+    }
+  }
+
+  /**
+   * The evaluation plan for a single logical filter.
+   */
+  private static final class Plan
+  {
+    private final List<ComponentStatistics> components;
+    private long samples;
+
+    /**
+     * Create a new plan using the filter's own component order.
+     *
+     * @param filter The logical filter.
+     */
+    private Plan(final Filter filter)
+    {
+      components = new ArrayList<ComponentStatistics>(
+          filter.getCombinedFilters().size());
+      for (Filter component : filter.getCombinedFilters())
+      {
+        components.add(new ComponentStatistics(component));
+      }
+    }
+  }
+
+  private final int sampleSize;
+  private final Map<Filter, Plan> plans = new IdentityHashMap<Filter, Plan>();
+
+  /**
+   * Create a new adaptive filter evaluator.
+   *
+   * @param resourceType The resource type definition.
+   * @param sampleSize The number of evaluations of each logical filter to
+   *                   sample before its components are reordered.
+   */
+  public AdaptiveFilterEvaluator(final ResourceTypeDefinition resourceType,
+                                 final int sampleSize)
+  {
+    super(resourceType);
+    if (sampleSize < 1)
+    {
+      throw new IllegalArgumentException("sampleSize must be at least 1");
+    }
+    this.sampleSize = sampleSize;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Boolean visit(final AndFilter filter, final JsonNode object)
+      throws ScimException
+  {
+    return evaluateCombining(filter, object, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Boolean visit(final OrFilter filter, final JsonNode object)
+      throws ScimException
+  {
+    return evaluateCombining(filter, object, true);
+  }
+
+  /**
+   * Retrieves the statistics for the components of a logical filter in the
+   * order they are currently evaluated.
+   *
+   * @param filter The {@code and} or {@code or} filter instance that was
+   *               evaluated.
+   * @return The statistics for the components of the logical filter or an
+   * empty list if the filter has not been evaluated.
+   */
+  public List<ComponentStatistics> getComponentStatistics(final Filter filter)
+  {
+    Plan plan = plans.get(filter);
+    if (plan == null)
+    {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(
+        new ArrayList<ComponentStatistics>(plan.components));
+  }
+
+  /**
+   * Whether the sampling phase has completed for the logical filter and its
+   * components have been reordered.
+   *
+   * @param filter The {@code and} or {@code or} filter instance that was
+   *               evaluated.
+   * @return {@code true} if the components of the logical filter have been
+   * reordered or {@code false} otherwise.
+   */
+  public boolean isOptimized(final Filter filter)
+  {
+    Plan plan = plans.get(filter);
+    return plan != null && plan.samples >= sampleSize;
+  }
+
+  /**
+   * Retrieves a string representation of the current evaluation plan of a
+   * filter, including the statistics of every logical filter component.
+   *
+   * @param filter The filter that was evaluated.
+   * @return A string representation of the current evaluation plan.
+   */
+  public String describePlan(final Filter filter)
+  {
+    StringBuilder builder = new StringBuilder();
+    describePlan(filter, builder);
+    return builder.toString();
+  }
+
+  /**
+   * Append a string representation of the current evaluation plan of a filter
+   * to the provided buffer.
+   *
+   * @param filter The filter that was evaluated.
+   * @param builder The buffer to append to.
+   */
+  private void describePlan(final Filter filter, final StringBuilder builder)
+  {
+    Plan plan = plans.get(filter);
+    if (plan == null)
+    {
+      if (filter.isComplexValueFilter())
+      {
+        builder.append(filter.getAttributePath());
+        builder.append('[');
+        describePlan(filter.getValueFilter(), builder);
+        builder.append(']');
+      }
+      else if (filter.isNotFilter())
+      {
+        builder.append("not (");
+        describePlan(filter.getInvertedFilter(), builder);
+        builder.append(')');
+      }
+      else
+      {
+        builder.append(filter);
+      }
+      return;
+    }
+
+    builder.append('(');
+    for (int i = 0; i < plan.components.size(); i++)
+    {
+      ComponentStatistics component = plan.components.get(i);
+      if (i != 0)
+      {
+        builder.append(' ');
+        builder.append(filter.getFilterType().getStringValue());
+        builder.append(' ');
+      }
+      describePlan(component.getFilter(), builder);
+      builder.append(" [evaluations=");
+      builder.append(component.getEvaluations());
+      builder.append(", matches=");
+      builder.append(component.getMatches());
+      builder.append(", failures=");
+      builder.append(component.getFailures());
+      builder.append(", averageNanos=");
+      builder.append(Math.round(component.getAverageNanos()));
+      builder.append(']');
+    }
+    builder.append(')');
+  }
+
+  /**
+   * Evaluate a logical combining filter.
+   *
+   * @param filter The {@code and} or {@code or} filter.
+   * @param object The JsonNode to evaluate the filter against.
+   * @param decidingValue The component result that decides the logical filter,
+   *                      {@code false} for {@code and} and {@code true} for
+   *                      {@code or} filters.
+   * @return The result of the evaluation.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private boolean evaluateCombining(final Filter filter,
+                                    final JsonNode object,
+                                    final boolean decidingValue)
+      throws ScimException
+  {
+    Plan plan = plans.get(filter);
+    if (plan == null)
+    {
+      plan = new Plan(filter);
+      plans.put(filter, plan);
+    }
+
+    if (plan.samples >= sampleSize)
+    {
+      for (ComponentStatistics component : plan.components)
+      {
+        boolean matched = component.getFilter().visit(this, object);
+        component.record(matched);
+        if (matched == decidingValue)
+        {
+          return decidingValue;
+        }
+      }
+      return !decidingValue;
+    }
+
+    // Sampling phase: evaluate every component to learn its selectivity and
+    // cost, but preserve the short-circuit result of the current order.
+    boolean decided = false;
+    for (ComponentStatistics component : plan.components)
+    {
+      boolean matched;
+      long start = System.nanoTime();
+      try
+      {
+        matched = component.getFilter().visit(this, object);
+      }
+      catch (ScimException e)
+      {
+        if (!decided)
+        {
+          throw e;
+        }
+        // This component would not have been evaluated without sampling.
+        // Record the failure so that it is not moved ahead of the components
+        // that kept it from being evaluated.
+        Debug.debugException(e);
+        component.recordSample(System.nanoTime() - start);
+        component.failures++;
+        continue;
+      }
+      component.recordSample(System.nanoTime() - start);
+      component.record(matched);
+      if (matched == decidingValue)
+      {
+        decided = true;
+      }
+    }
+
+    plan.samples++;
+    if (plan.samples == sampleSize)
+    {
+      reorder(plan, decidingValue);
+    }
+    return decided ? decidingValue : !decidingValue;
+  }
+
+  /**
+   * Reorder the components of a plan by their rank. Components that can not
+   * be ranked are kept after the others in their original order.
+   *
+   * @param plan The plan to reorder.
+   * @param decidingValue The component result that decides the logical filter.
+   */
+  private static void reorder(final Plan plan, final boolean decidingValue)
+  {
+    Collections.sort(plan.components, new Comparator<ComponentStatistics>()
+    {
+      public int compare(final ComponentStatistics o1,
+                         final ComponentStatistics o2)
+      {
+        if (o1.isRankable() != o2.isRankable())
+        {
+          return o1.isRankable() ? -1 : 1;
+        }
+        if (!o1.isRankable())
+        {
+          return 0;
+        }
+        return Double.compare(o1.getRank(decidingValue),
+            o2.getRank(decidingValue));
+      }
+    });
+  }
+}
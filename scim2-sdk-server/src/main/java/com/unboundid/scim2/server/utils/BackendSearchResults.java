@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.ListResponseStreamingOutput;
+import com.unboundid.scim2.server.ListResponseWriter;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchPlan;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.*;
+
+/**
+ * A utility ListResponseStreamingOutput that pushes as much of a search as
+ * possible down to a {@link SearchBackend} and filters, sorts and paginates
+ * the resources returned by the backend according to the residual
+ * {@link SearchPlan}. The backend is searched when this object is created.
+ */
+public class BackendSearchResults<T extends ScimResource>
+    extends ListResponseStreamingOutput<T>
+{
+  private final SearchPlan searchPlan;
+  private final List<ScimResource> resources;
+  private final int totalResults;
+  private final ResourcePreparer<ScimResource> responsePreparer;
+
+  /**
+   * Create a new BackendSearchResults by searching a backend.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param uriInfo The UriInfo from the search operation.
+   * @param backend The backend to search.
+   * @throws ScimException if the filter or paths in the search operation
+   * is invalid or an error occurs while searching the backend.
+   */
+  public BackendSearchResults(final ResourceTypeDefinition resourceType,
+                              final UriInfo uriInfo,
+                              final SearchBackend<T> backend)
+      throws ScimException
+  {
+    this(resourceType,
+        new ResourcePreparer<ScimResource>(resourceType, uriInfo),
+        uriInfo.getQueryParameters(), backend);
+  }
+
+  /**
+   * Create a new BackendSearchResults by searching a backend.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param responsePreparer The preparer of the returned resources.
+   * @param queryParams The query parameters of the search operation.
+   * @param backend The backend to search.
+   * @throws ScimException if the filter or paths in the search operation
+   * is invalid or an error occurs while searching the backend.
+   */
+  BackendSearchResults(final ResourceTypeDefinition resourceType,
+                       final ResourcePreparer<ScimResource> responsePreparer,
+                       final MultivaluedMap<String, String> queryParams,
+                       final SearchBackend<T> backend)
+      throws ScimException
+  {
+    this.responsePreparer = responsePreparer;
+    this.searchPlan = createSearchPlan(resourceType, queryParams, backend);
+
+    BackendSearchResult<T> result =
+        backend.search(searchPlan.getBackendRequest());
+    Filter residualFilter = searchPlan.getResidualFilter();
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    List<ScimResource> matched =
+        new ArrayList<ScimResource>(result.getResources().size());
+    for (T resource : result.getResources())
+    {
+      GenericScimResource genericResource;
+      if (resource instanceof GenericScimResource)
+      {
+        // Make a copy
+        genericResource = new GenericScimResource(
+            ((GenericScimResource) resource).getObjectNode().deepCopy());
+      }
+      else
+      {
+        genericResource = resource.asGenericScimResource();
+      }
+
+      // Set meta attributes so they can be used in the following filter eval
+      responsePreparer.setResourceTypeAndLocation(genericResource);
+
+      if (residualFilter == null || residualFilter.visit(filterEvaluator,
+          genericResource.getObjectNode()))
+      {
+        matched.add(genericResource);
+      }
+    }
+
+    if (searchPlan.getSortBy() != null && !searchPlan.isSortPushedDown())
+    {
+      Collections.sort(matched, new ResourceComparator<ScimResource>(
+          searchPlan.getSortBy(), searchPlan.getSortOrder(), resourceType));
+    }
+
+    int skip = searchPlan.getStartIndex() == null ?
+        0 : searchPlan.getStartIndex() - 1;
+    if (searchPlan.isPagingPushedDown())
+    {
+      if (result.getTotalResults() == null)
+      {
+        throw new ServerErrorException("The search backend did not return " +
+            "the total number of results for a paged search");
+      }
+      totalResults = result.getTotalResults();
+      if (searchPlan.getBackendRequest().getStartIndex() != null)
+      {
+        // The backend already skipped the resources before the start index.
+        skip = 0;
+      }
+    }
+    else
+    {
+      totalResults = matched.size();
+    }
+
+    List<ScimResource> page = matched;
+    if (skip > 0)
+    {
+      page = skip >= page.size() ? Collections.<ScimResource>emptyList() :
+          page.subList(skip, page.size());
+    }
+    if (searchPlan.getCount() != null && searchPlan.getCount() < page.size())
+    {
+      page = page.subList(0, searchPlan.getCount());
+    }
+    this.resources = page;
+  }
+
+  /**
+   * Retrieves the plan used to split the search between the backend and the
+   * SDK.
+   *
+   * @return The search plan.
+   */
+  public SearchPlan getSearchPlan()
+  {
+    return searchPlan;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void write(final ListResponseWriter<T> os)
+      throws IOException
+  {
+    os.totalResults(totalResults);
+    if(searchPlan.getStartIndex() != null || searchPlan.getCount() != null)
+    {
+      os.startIndex(searchPlan.getStartIndex() == null ?
+          1 : searchPlan.getStartIndex());
+      os.itemsPerPage(resources.size());
+    }
+    for(ScimResource resource : resources)
+    {
+      os.resource((T) responsePreparer.trimRetrievedResource(resource));
+    }
+  }
+
+  /**
+   * Parse the search parameters and split the search.
+   *
+   * @param resourceType The resource type definition of result resources.
+   * @param queryParams The query parameters of the search operation.
+   * @param backend The backend to search.
+   * @return The search plan.
+   * @throws BadRequestException if the filter or paths in the search
+   * operation is invalid.
+   */
+  private static SearchPlan createSearchPlan(
+      final ResourceTypeDefinition resourceType,
+      final MultivaluedMap<String, String> queryParams,
+      final SearchBackend<?> backend)
+      throws BadRequestException
+  {
+    String filterString = queryParams.getFirst(QUERY_PARAMETER_FILTER);
+    String startIndexString = queryParams.getFirst(
+        QUERY_PARAMETER_PAGE_START_INDEX);
+    String countString = queryParams.getFirst(QUERY_PARAMETER_PAGE_SIZE);
+    String sortByString = queryParams.getFirst(QUERY_PARAMETER_SORT_BY);
+    String sortOrderString = queryParams.getFirst(QUERY_PARAMETER_SORT_ORDER);
+
+    Filter filter = filterString == null ?
+        null : Filter.fromString(filterString);
+
+    Integer startIndex = null;
+    if(startIndexString != null)
+    {
+      int i = Integer.valueOf(startIndexString);
+      // 3.4.2.4: A value less than 1 SHALL be interpreted as 1.
+      startIndex = i < 1 ? 1 : i;
+    }
+
+    Integer count = null;
+    if(countString != null)
+    {
+      int i = Integer.valueOf(countString);
+      // 3.4.2.4: A negative value SHALL be interpreted as 0.
+      count = i < 0 ? 0 : i;
+    }
+
+    Path sortBy;
+    try
+    {
+      sortBy = sortByString == null ? null : Path.fromString(sortByString);
+    }
+    catch (BadRequestException e)
+    {
+      throw BadRequestException.invalidValue("'" + sortByString +
+          "' is not a valid value for the sortBy parameter: " +
+          e.getMessage());
+    }
+    SortOrder sortOrder = sortOrderString == null ?
+        SortOrder.ASCENDING : SortOrder.fromName(sortOrderString);
+
+    return SearchPlan.create(resourceType, backend.getSearchCapabilities(),
+        filter, sortBy, sortOrder, startIndex, count);
+  }
+}
@@ -0,0 +1,702 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact binary encoding of JSON trees. Field names are replaced by
+ * numbers from a {@link NameTable} shared by all encoded trees, numbers are
+ * stored as variable-length integers or raw IEEE 754 bits, and objects and
+ * arrays are prefixed by their encoded length so that decoders can skip the
+ * fields they do not need without parsing them.
+ * <p>
+ * Every value starts with a one byte tag:
+ * <ul>
+ *   <li>{@code null}, {@code false} and {@code true} have no payload.</li>
+ *   <li>Integers and longs are followed by a zig-zag variable-length
+ *       integer.</li>
+ *   <li>Big integers are followed by the length and bytes of their two's
+ *       complement representation. Big decimals are additionally preceded by
+ *       their scale.</li>
+ *   <li>Doubles and floats are followed by their IEEE 754 bits.</li>
+ *   <li>Strings and binary values are followed by their length and their
+ *       UTF-8 encoded or raw bytes.</li>
+ *   <li>Arrays and objects are followed by the four byte length of the rest
+ *       of the value, the number of elements or fields and the elements or
+ *       the name numbers and values of the fields.</li>
+ * </ul>
+ * Decoded objects ignore the case of field names like the ones parsed by
+ * {@link JsonUtils}, and every value decodes to a node that is equal to the
+ * encoded node.
+ */
+final class BinaryJson
+{
+  private static final byte NULL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte BIG_INTEGER = 5;
+  private static final byte DOUBLE = 6;
+  private static final byte FLOAT = 7;
+  private static final byte DECIMAL = 8;
+  private static final byte STRING = 9;
+  private static final byte BINARY = 10;
+  private static final byte ARRAY = 11;
+  private static final byte OBJECT = 12;
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Assigns numbers to field names. A name table is not thread-safe.
+   */
+  static final class NameTable
+  {
+    private final List<String> names = new ArrayList<String>();
+    private final List<String> lowerCaseNames = new ArrayList<String>();
+    private final Map<String, Integer> numbers =
+        new HashMap<String, Integer>();
+
+    /**
+     * Retrieves the number of a field name, assigning a new number if the
+     * name is not in the table yet.
+     *
+     * @param name The field name.
+     * @return The number of the field name.
+     */
+    int numberOf(final String name)
+    {
+      Integer number = numbers.get(name);
+      if (number == null)
+      {
+        number = names.size();
+        names.add(name);
+        lowerCaseNames.add(StaticUtils.toLowerCase(name));
+        numbers.put(name, number);
+      }
+      return number;
+    }
+
+    /**
+     * Retrieves a field name.
+     *
+     * @param number The number of the field name.
+     * @return The field name.
+     */
+    String nameOf(final int number)
+    {
+      return names.get(number);
+    }
+
+    /**
+     * Retrieves a field name in lower case.
+     *
+     * @param number The number of the field name.
+     * @return The field name in lower case.
+     */
+    String lowerCaseNameOf(final int number)
+    {
+      return lowerCaseNames.get(number);
+    }
+
+    /**
+     * Retrieves the number of names in the table.
+     *
+     * @return The number of names in the table.
+     */
+    int size()
+    {
+      return names.size();
+    }
+  }
+
+  /**
+   * A growable byte array that values are encoded into.
+   */
+  private static final class Writer
+  {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    /**
+     * Make room for more bytes.
+     *
+     * @param length The number of bytes to make room for.
+     */
+    private void ensure(final int length)
+    {
+      if (size + length > bytes.length)
+      {
+        byte[] grown = new byte[Math.max(bytes.length * 2, size + length)];
+        System.arraycopy(bytes, 0, grown, 0, size);
+        bytes = grown;
+      }
+    }
+
+    /**
+     * Write a byte.
+     *
+     * @param b The byte.
+     */
+    private void write(final int b)
+    {
+      ensure(1);
+      bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param b The bytes.
+     */
+    private void write(final byte[] b)
+    {
+      ensure(b.length);
+      System.arraycopy(b, 0, bytes, size, b.length);
+      size += b.length;
+    }
+
+    /**
+     * Write an unsigned variable-length integer.
+     *
+     * @param value The value, which is treated as unsigned.
+     */
+    private void writeVarLong(final long value)
+    {
+      long v = value;
+      while ((v & ~0x7FL) != 0)
+      {
+        write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      write((int) v);
+    }
+
+    /**
+     * Write a four byte integer at a position that was already written.
+     *
+     * @param position The position to write at.
+     * @param value The value.
+     */
+    private void writeIntAt(final int position, final int value)
+    {
+      bytes[position] = (byte) (value >>> 24);
+      bytes[position + 1] = (byte) (value >>> 16);
+      bytes[position + 2] = (byte) (value >>> 8);
+      bytes[position + 3] = (byte) value;
+    }
+
+    /**
+     * Write an eight byte integer.
+     *
+     * @param value The value.
+     */
+    private void writeLong(final long value)
+    {
+      for (int shift = 56; shift >= 0; shift -= 8)
+      {
+        write((int) (value >>> shift));
+      }
+    }
+
+    /**
+     * Write the length and the bytes of a byte array.
+     *
+     * @param b The bytes.
+     */
+    private void writeBytes(final byte[] b)
+    {
+      writeVarLong(b.length);
+      write(b);
+    }
+  }
+
+  /**
+   * Reads encoded values from a buffer using absolute reads, so that any
+   * number of readers may share the same buffer.
+   */
+  private static final class Reader
+  {
+    private final ByteBuffer buffer;
+    private int position;
+
+    /**
+     * Create a new reader.
+     *
+     * @param buffer The buffer to read from.
+     * @param position The position of the first byte to read.
+     */
+    private Reader(final ByteBuffer buffer, final int position)
+    {
+      this.buffer = buffer;
+      this.position = position;
+    }
+
+    /**
+     * Read a byte.
+     *
+     * @return The byte.
+     */
+    private byte read()
+    {
+      return buffer.get(position++);
+    }
+
+    /**
+     * Read an unsigned variable-length integer.
+     *
+     * @return The value.
+     * @throws IOException If the encoding is not valid.
+     */
+    private long readVarLong() throws IOException
+    {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7)
+      {
+        byte b = read();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+        {
+          return value;
+        }
+      }
+      throw new IOException("Malformed variable-length integer at " +
+          (position - 1));
+    }
+
+    /**
+     * Read a length or a count.
+     *
+     * @return The length or count.
+     * @throws IOException If the encoding is not valid.
+     */
+    private int readLength() throws IOException
+    {
+      long length = readVarLong();
+      if (length < 0 || length > Integer.MAX_VALUE)
+      {
+        throw new IOException("Invalid length " + length);
+      }
+      return (int) length;
+    }
+
+    /**
+     * Read a four byte integer.
+     *
+     * @return The value.
+     */
+    private int readInt()
+    {
+      int value = buffer.getInt(position);
+      position += 4;
+      return value;
+    }
+
+    /**
+     * Read an eight byte integer.
+     *
+     * @return The value.
+     */
+    private long readLong()
+    {
+      long value = buffer.getLong(position);
+      position += 8;
+      return value;
+    }
+
+    /**
+     * Read the length and the bytes of a byte array.
+     *
+     * @return The bytes.
+     * @throws IOException If the encoding is not valid.
+     */
+    private byte[] readBytes() throws IOException
+    {
+      byte[] bytes = new byte[readLength()];
+      for (int i = 0; i < bytes.length; i++)
+      {
+        bytes[i] = buffer.get(position + i);
+      }
+      position += bytes.length;
+      return bytes;
+    }
+  }
+
+  /**
+   * Prevent instantiation.
+   */
+  private BinaryJson()
+  {
+    // No implementation.
+  }
+
+  /**
+   * Encode a JSON tree.
+   *
+   * @param node The node to encode.
+   * @param names The name table to number field names with. New names are
+   *              added to the table.
+   * @return The encoded node.
+   * @throws IllegalArgumentException If the tree contains nodes that are not
+   * JSON values, such as POJO nodes.
+   */
+  static byte[] encode(final JsonNode node, final NameTable names)
+  {
+    Writer writer = new Writer();
+    encode(node, names, writer);
+    byte[] encoded = new byte[writer.size];
+    System.arraycopy(writer.bytes, 0, encoded, 0, writer.size);
+    return encoded;
+  }
+
+  /**
+   * Decode an encoded JSON object.
+   *
+   * @param buffer The buffer to read from. Its position is not modified.
+   * @param position The position of the encoded object in the buffer.
+   * @param names The name table the object was encoded with.
+   * @return The decoded object.
+   * @throws IOException If the buffer does not contain an encoded object.
+   */
+  static ObjectNode decodeObject(final ByteBuffer buffer, final int position,
+                                 final NameTable names)
+      throws IOException
+  {
+    return decodeObject(buffer, position, names, null);
+  }
+
+  /**
+   * Decode some fields of an encoded JSON object. The other fields are
+   * skipped without being decoded.
+   *
+   * @param buffer The buffer to read from. Its position is not modified.
+   * @param position The position of the encoded object in the buffer.
+   * @param names The name table the object was encoded with.
+   * @param fields The lower case names of the fields to decode or
+   *               {@code null} to decode all fields.
+   * @return An object with the decoded fields.
+   * @throws IOException If the buffer does not contain an encoded object.
+   */
+  static ObjectNode decodeObject(final ByteBuffer buffer, final int position,
+                                 final NameTable names,
+                                 final Set<String> fields)
+      throws IOException
+  {
+    Reader reader = new Reader(buffer, position);
+    byte tag = reader.read();
+    if (tag != OBJECT)
+    {
+      throw new IOException("Expected an object but found tag " + tag);
+    }
+    return readObject(reader, names, fields);
+  }
+
+  /**
+   * Encode a value.
+   *
+   * @param node The node to encode.
+   * @param names The name table.
+   * @param writer The writer to encode into.
+   */
+  private static void encode(final JsonNode node, final NameTable names,
+                             final Writer writer)
+  {
+    switch (node.getNodeType())
+    {
+      case NULL:
+        writer.write(NULL);
+        break;
+      case BOOLEAN:
+        writer.write(node.booleanValue() ? TRUE : FALSE);
+        break;
+      case NUMBER:
+        encodeNumber(node, writer);
+        break;
+      case STRING:
+        writer.write(STRING);
+        writer.writeBytes(node.textValue().getBytes(UTF_8));
+        break;
+      case BINARY:
+        writer.write(BINARY);
+        try
+        {
+          writer.writeBytes(node.binaryValue());
+        }
+        catch (IOException e)
+        {
+          // Binary nodes always have a binary value.
+          throw new IllegalArgumentException(e);
+        }
+        break;
+      case ARRAY:
+      case OBJECT:
+        writer.write(node.isArray() ? ARRAY : OBJECT);
+        int lengthPosition = writer.size;
+        writer.ensure(4);
+        writer.size += 4;
+        writer.writeVarLong(node.size());
+        if (node.isArray())
+        {
+          for (JsonNode element : node)
+          {
+            encode(element, names, writer);
+          }
+        }
+        else
+        {
+          Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+          while (fields.hasNext())
+          {
+            Map.Entry<String, JsonNode> field = fields.next();
+            writer.writeVarLong(names.numberOf(field.getKey()));
+            encode(field.getValue(), names, writer);
+          }
+        }
+        writer.writeIntAt(lengthPosition,
+            writer.size - lengthPosition - 4);
+        break;
+      default:
+        throw new IllegalArgumentException("Unable to encode a " +
+            node.getNodeType() + " node");
+    }
+  }
+
+  /**
+   * Encode a number.
+   *
+   * @param node The number node to encode.
+   * @param writer The writer to encode into.
+   */
+  private static void encodeNumber(final JsonNode node, final Writer writer)
+  {
+    switch (node.numberType())
+    {
+      case INT:
+        writer.write(INT);
+        writer.writeVarLong(zigZag(node.intValue()));
+        break;
+      case LONG:
+        writer.write(LONG);
+        writer.writeVarLong(zigZag(node.longValue()));
+        break;
+      case BIG_INTEGER:
+        writer.write(BIG_INTEGER);
+        writer.writeBytes(node.bigIntegerValue().toByteArray());
+        break;
+      case FLOAT:
+        writer.write(FLOAT);
+        int bits = Float.floatToRawIntBits(node.floatValue());
+        writer.ensure(4);
+        writer.size += 4;
+        writer.writeIntAt(writer.size - 4, bits);
+        break;
+      case DOUBLE:
+        writer.write(DOUBLE);
+        writer.writeLong(Double.doubleToRawLongBits(node.doubleValue()));
+        break;
+      default:
+        BigDecimal decimal = node.decimalValue();
+        writer.write(DECIMAL);
+        writer.writeVarLong(zigZag(decimal.scale()));
+        writer.writeBytes(decimal.unscaledValue().toByteArray());
+        break;
+    }
+  }
+
+  /**
+   * Read the rest of an object after its tag.
+   *
+   * @param reader The reader.
+   * @param names The name table.
+   * @param fields The lower case names of the fields to decode or
+   *               {@code null} to decode all fields.
+   * @return The object.
+   * @throws IOException If the encoding is not valid.
+   */
+  private static ObjectNode readObject(final Reader reader,
+                                       final NameTable names,
+                                       final Set<String> fields)
+      throws IOException
+  {
+    reader.readInt();
+    int count = reader.readLength();
+    ObjectNode object = JsonUtils.getJsonNodeFactory().objectNode();
+    for (int i = 0; i < count; i++)
+    {
+      int number = reader.readLength();
+      if (number >= names.size())
+      {
+        throw new IOException("Unknown field name number " + number);
+      }
+      if (fields == null || fields.contains(names.lowerCaseNameOf(number)))
+      {
+        object.set(names.nameOf(number), read(reader, names));
+      }
+      else
+      {
+        skip(reader);
+      }
+    }
+    return object;
+  }
+
+  /**
+   * Read a value.
+   *
+   * @param reader The reader.
+   * @param names The name table.
+   * @return The value.
+   * @throws IOException If the encoding is not valid.
+   */
+  private static JsonNode read(final Reader reader, final NameTable names)
+      throws IOException
+  {
+    JsonNodeFactory factory = JsonUtils.getJsonNodeFactory();
+    byte tag = reader.read();
+    switch (tag)
+    {
+      case NULL:
+        return factory.nullNode();
+      case FALSE:
+        return factory.booleanNode(false);
+      case TRUE:
+        return factory.booleanNode(true);
+      case INT:
+        return factory.numberNode((int) unZigZag(reader.readVarLong()));
+      case LONG:
+        return factory.numberNode(unZigZag(reader.readVarLong()));
+      case BIG_INTEGER:
+        return BigIntegerNode.valueOf(new BigInteger(reader.readBytes()));
+      case DOUBLE:
+        return factory.numberNode(
+            Double.longBitsToDouble(reader.readLong()));
+      case FLOAT:
+        return factory.numberNode(Float.intBitsToFloat(reader.readInt()));
+      case DECIMAL:
+        int scale = (int) unZigZag(reader.readVarLong());
+        return DecimalNode.valueOf(
+            new BigDecimal(new BigInteger(reader.readBytes()), scale));
+      case STRING:
+        return factory.textNode(new String(reader.readBytes(), UTF_8));
+      case BINARY:
+        return factory.binaryNode(reader.readBytes());
+      case ARRAY:
+        reader.readInt();
+        int count = reader.readLength();
+        ArrayNode array = factory.arrayNode();
+        for (int i = 0; i < count; i++)
+        {
+          array.add(read(reader, names));
+        }
+        return array;
+      case OBJECT:
+        return readObject(reader, names, null);
+      default:
+        throw new IOException("Unknown tag " + tag + " at " +
+            (reader.position - 1));
+    }
+  }
+
+  /**
+   * Skip a value without decoding it.
+   *
+   * @param reader The reader.
+   * @throws IOException If the encoding is not valid.
+   */
+  private static void skip(final Reader reader) throws IOException
+  {
+    byte tag = reader.read();
+    switch (tag)
+    {
+      case NULL:
+      case FALSE:
+      case TRUE:
+        break;
+      case INT:
+      case LONG:
+        reader.readVarLong();
+        break;
+      case DECIMAL:
+        reader.readVarLong();
+        reader.position += reader.readLength();
+        break;
+      case BIG_INTEGER:
+      case STRING:
+      case BINARY:
+        reader.position += reader.readLength();
+        break;
+      case DOUBLE:
+        reader.position += 8;
+        break;
+      case FLOAT:
+        reader.position += 4;
+        break;
+      case ARRAY:
+      case OBJECT:
+        int length = reader.readInt();
+        reader.position += length;
+        break;
+      default:
+        throw new IOException("Unknown tag " + tag + " at " +
+            (reader.position - 1));
+    }
+  }
+
+  /**
+   * Zig-zag encode a signed value so that small negative values have short
+   * variable-length encodings.
+   *
+   * @param value The signed value.
+   * @return The zig-zag encoded value.
+   */
+  private static long zigZag(final long value)
+  {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Decode a zig-zag encoded value.
+   *
+   * @param value The zig-zag encoded value.
+   * @return The signed value.
+   */
+  private static long unZigZag(final long value)
+  {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index that keeps a bitmap of resource ordinals for every distinct value
+ * of an attribute. Bitmap indexes answer {@code eq} and {@code pr} filters,
+ * and their answers can be combined with bitwise operations for
+ * {@code and}, {@code or} and {@code not} filters without examining any
+ * resource.
+ * <p>
+ * Every distinct value needs a bitmap as large as the highest ordinal, so
+ * bitmap indexes are intended for attributes with few distinct values, such
+ * as boolean attributes, attributes with canonical values and enumerations.
+ */
+public final class BitmapResourceIndex implements OrdinalResourceIndex
+{
+  private final Path path;
+  private final AttributeDefinition attributeDefinition;
+  private final Map<IndexKeys.Kind, Map<Comparable<?>, BitSet>> bitmaps =
+      new EnumMap<IndexKeys.Kind, Map<Comparable<?>, BitSet>>(
+          IndexKeys.Kind.class);
+  private final Map<IndexKeys.Kind, Integer> kindCounts =
+      new EnumMap<IndexKeys.Kind, Integer>(IndexKeys.Kind.class);
+  private BitSet present = new BitSet();
+
+  /**
+   * Create a new bitmap index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to determine the
+   *                     case sensitivity of the attribute or {@code null}.
+   */
+  public BitmapResourceIndex(final Path path,
+                             final ResourceTypeDefinition resourceType)
+  {
+    Path attributePath = path.withoutFilters();
+    this.path = resourceType == null ?
+        attributePath : resourceType.normalizePath(attributePath);
+    this.attributeDefinition = resourceType == null ?
+        null : resourceType.getAttributeDefinition(this.path);
+    for (IndexKeys.Kind kind : IndexKeys.Kind.values())
+    {
+      bitmaps.put(kind, new HashMap<Comparable<?>, BitSet>());
+      kindCounts.put(kind, 0);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void add(final int ordinal, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      IndexKeys.Kind kind = IndexKeys.kindOf(value);
+      Comparable<?> key = IndexKeys.keyOf(value, kind, attributeDefinition);
+      Map<Comparable<?>, BitSet> kindBitmaps = bitmaps.get(kind);
+      BitSet bitmap = kindBitmaps.get(key);
+      if (bitmap == null)
+      {
+        bitmap = new BitSet();
+        kindBitmaps.put(key, bitmap);
+      }
+      bitmap.set(ordinal);
+      kindCounts.put(kind, kindCounts.get(kind) + 1);
+    }
+    if (!values.isEmpty())
+    {
+      present.set(ordinal);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void addAll(final Map<Integer, List<JsonNode>> values)
+  {
+    for (Map.Entry<Integer, List<JsonNode>> entry : values.entrySet())
+    {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(final int ordinal, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      IndexKeys.Kind kind = IndexKeys.kindOf(value);
+      Comparable<?> key = IndexKeys.keyOf(value, kind, attributeDefinition);
+      Map<Comparable<?>, BitSet> kindBitmaps = bitmaps.get(kind);
+      BitSet bitmap = kindBitmaps.get(key);
+      if (bitmap != null)
+      {
+        bitmap.clear(ordinal);
+        if (bitmap.isEmpty())
+        {
+          kindBitmaps.remove(key);
+        }
+      }
+      kindCounts.put(kind, kindCounts.get(kind) - 1);
+    }
+    present.clear(ordinal);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void renumber(final int[] renumbered)
+  {
+    for (Map<Comparable<?>, BitSet> kindBitmaps : bitmaps.values())
+    {
+      for (Map.Entry<Comparable<?>, BitSet> entry : kindBitmaps.entrySet())
+      {
+        entry.setValue(renumber(entry.getValue(), renumbered));
+      }
+    }
+    present = renumber(present, renumbered);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BitSet lookup(final Filter filter)
+  {
+    if (filter.getFilterType() == FilterType.PRESENT)
+    {
+      return present;
+    }
+    if (filter.getFilterType() != FilterType.EQUAL)
+    {
+      return null;
+    }
+    ValueNode value = filter.getComparisonValue();
+    if (value.isNull())
+    {
+      return null;
+    }
+    IndexKeys.Kind kind = IndexKeys.kindOf(value);
+    for (Map.Entry<IndexKeys.Kind, Integer> entry : kindCounts.entrySet())
+    {
+      // The filter evaluator compares values of different kinds as text,
+      // which the index keys do not preserve.
+      if (entry.getKey() != kind && entry.getValue() > 0)
+      {
+        return null;
+      }
+    }
+    BitSet bitmap = bitmaps.get(kind).get(
+        IndexKeys.keyOf(value, kind, attributeDefinition));
+    return bitmap == null ? new BitSet() : bitmap;
+  }
+
+  /**
+   * Retrieves the number of distinct values in the index.
+   *
+   * @return The number of distinct values in the index.
+   */
+  public int getCardinality()
+  {
+    int cardinality = 0;
+    for (Map<Comparable<?>, BitSet> kindBitmaps : bitmaps.values())
+    {
+      cardinality += kindBitmaps.size();
+    }
+    return cardinality;
+  }
+
+  /**
+   * Create a bitmap with the new ordinals of the ordinals in a bitmap.
+   *
+   * @param bitmap The bitmap of ordinals.
+   * @param renumbered The new ordinal of each ordinal.
+   * @return The bitmap of new ordinals.
+   */
+  private static BitSet renumber(final BitSet bitmap, final int[] renumbered)
+  {
+    BitSet result = new BitSet();
+    for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1))
+    {
+      result.set(renumbered[i]);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,951 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+import com.unboundid.scim2.server.BackendSearchRequest;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.PagingMode;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchCapabilities;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An append-only set of SCIM resources stored column by column for
+ * analytics-style searches over large numbers of resources of the same type.
+ * <p>
+ * Every attribute is stored in a column of dictionary codes: each distinct
+ * value is stored once in the dictionary of the column, and each resource
+ * refers to its values with an offset into the array of codes of the column.
+ * Multi-valued attributes simply have more than one code per resource.
+ * Complex values are stored in nested column sets with one entry per
+ * complex value, so {@code emails.value} is a column of the nested column set
+ * of {@code emails}.
+ * <p>
+ * Filters are evaluated a column at a time into selection vectors, which
+ * are bitmaps of the matching resources:
+ * <ul>
+ *   <li>Attribute comparisons are evaluated once for every distinct value
+ *       of the column and then applied to the codes of the candidate
+ *       resources.</li>
+ *   <li>The components of {@code and} filters only evaluate the resources
+ *       selected by the previous components, {@code or} filters only
+ *       evaluate the resources not selected yet, and {@code not} filters
+ *       complement their inverted filter.</li>
+ *   <li>Value filters of complex attributes, such as
+ *       {@code emails[type eq "work" and value co "@example.com"]}, are
+ *       evaluated on the nested column set of the complex values.</li>
+ * </ul>
+ * Results are exactly those of the {@link SchemaAwareFilterEvaluator}.
+ * Filters whose attribute paths have value filters, such as
+ * {@code emails[type eq "work"].value eq "x"}, and comparisons that could
+ * fail for some values, such as ordering comparisons of boolean values, are
+ * evaluated by the schema aware filter evaluator on each candidate resource.
+ * Only the selected resources are reassembled into
+ * {@link GenericScimResource}s. Attribute names are matched ignoring case
+ * and reassembled with the case of their first occurrence.
+ * <p>
+ * The set is thread-safe.
+ */
+public class ColumnarResourceSet implements SearchBackend<GenericScimResource>
+{
+  /**
+   * A set of columns with one entry per object, which is a resource or a
+   * complex value.
+   */
+  private static final class Table
+  {
+    private final Map<String, Column> columns =
+        new LinkedHashMap<String, Column>();
+    private int size;
+
+    /**
+     * Add an object to the table.
+     *
+     * @param object The object.
+     * @return The number of the entry of the object.
+     */
+    private int add(final ObjectNode object)
+    {
+      int entry = size++;
+      Iterator<Map.Entry<String, JsonNode>> fields = object.fields();
+      while (fields.hasNext())
+      {
+        Map.Entry<String, JsonNode> field = fields.next();
+        String key = StaticUtils.toLowerCase(field.getKey());
+        Column column = columns.get(key);
+        if (column == null)
+        {
+          column = new Column(field.getKey());
+          columns.put(key, column);
+        }
+        column.add(entry, field.getValue());
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * The values of one attribute of the entries of a table. Every value is an
+   * item: a non-negative item is the code of a value in the dictionary and a
+   * negative item {@code -(n + 1)} refers to entry {@code n} of the nested
+   * table of complex values. Arrays nested in arrays are stored in the
+   * dictionary like any other value.
+   */
+  private static final class Column
+  {
+    private final String name;
+    private final Map<JsonNode, Integer> codes =
+        new HashMap<JsonNode, Integer>();
+    private final List<JsonNode> dictionary = new ArrayList<JsonNode>();
+    private final BitSet arrays = new BitSet();
+    private int[] offsets = new int[16];
+    private int[] items = new int[16];
+    private int itemCount;
+    private int entryCount;
+    private Table children;
+
+    /**
+     * Create a new column.
+     *
+     * @param name The name of the attribute.
+     */
+    private Column(final String name)
+    {
+      this.name = name;
+    }
+
+    /**
+     * Add the value of an entry.
+     *
+     * @param entry The number of the entry, which must not be less than any
+     *              entry added before.
+     * @param value The value.
+     */
+    private void add(final int entry, final JsonNode value)
+    {
+      if (entry + 2 > offsets.length)
+      {
+        int[] grown = new int[Math.max(offsets.length * 2, entry + 2)];
+        System.arraycopy(offsets, 0, grown, 0, offsets.length);
+        offsets = grown;
+      }
+      // Entries without this attribute have no items.
+      while (entryCount < entry)
+      {
+        offsets[++entryCount] = itemCount;
+      }
+      if (value.isArray())
+      {
+        arrays.set(entry);
+        for (JsonNode element : value)
+        {
+          addItem(element);
+        }
+      }
+      else
+      {
+        addItem(value);
+      }
+      offsets[entry + 1] = itemCount;
+      entryCount = entry + 1;
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param value The value of the item.
+     */
+    private void addItem(final JsonNode value)
+    {
+      int item;
+      if (value.isObject())
+      {
+        if (children == null)
+        {
+          children = new Table();
+        }
+        item = -(children.add((ObjectNode) value) + 1);
+      }
+      else
+      {
+        Integer code = codes.get(value);
+        if (code == null)
+        {
+          code = dictionary.size();
+          JsonNode copy = value.deepCopy();
+          dictionary.add(copy);
+          codes.put(copy, code);
+        }
+        item = code;
+      }
+      if (itemCount == items.length)
+      {
+        int[] grown = new int[items.length * 2];
+        System.arraycopy(items, 0, grown, 0, items.length);
+        items = grown;
+      }
+      items[itemCount++] = item;
+    }
+
+    /**
+     * Retrieves the offset of the first item of an entry.
+     *
+     * @param entry The number of the entry.
+     * @return The offset of the first item of the entry.
+     */
+    private int from(final int entry)
+    {
+      return entry < entryCount ? offsets[entry] : itemCount;
+    }
+
+    /**
+     * Retrieves the offset after the last item of an entry.
+     *
+     * @param entry The number of the entry.
+     * @return The offset after the last item of the entry.
+     */
+    private int to(final int entry)
+    {
+      return entry < entryCount ? offsets[entry + 1] : itemCount;
+    }
+  }
+
+  /**
+   * The entries of a table with a value at the path of an attribute
+   * comparison that matches the comparison, and the entries with a value
+   * that is not empty.
+   */
+  private static final class Matches
+  {
+    private final BitSet matching = new BitSet();
+    private final BitSet present = new BitSet();
+  }
+
+  private final ResourceTypeDefinition resourceType;
+  private final Table rows = new Table();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong rowEvaluations = new AtomicLong();
+
+  /**
+   * Create a new columnar resource set.
+   *
+   * @param resourceType The resource type definition of the resources.
+   */
+  public ColumnarResourceSet(final ResourceTypeDefinition resourceType)
+  {
+    this.resourceType = resourceType;
+  }
+
+  /**
+   * Add a resource.
+   *
+   * @param resource The resource to add.
+   * @return The row number of the resource.
+   */
+  public int add(final ScimResource resource)
+  {
+    ObjectNode node = resource.asGenericScimResource().getObjectNode();
+    lock.writeLock().lock();
+    try
+    {
+      return rows.add(node);
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add resources.
+   *
+   * @param resources The resources to add.
+   * @return this object.
+   */
+  public ColumnarResourceSet addAll(
+      final Collection<? extends ScimResource> resources)
+  {
+    for (ScimResource resource : resources)
+    {
+      add(resource);
+    }
+    return this;
+  }
+
+  /**
+   * Retrieves the number of resources in the set.
+   *
+   * @return The number of resources in the set.
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return rows.size;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Reassemble a resource.
+   *
+   * @param row The row number of the resource.
+   * @return The resource.
+   */
+  public GenericScimResource get(final int row)
+  {
+    lock.readLock().lock();
+    try
+    {
+      if (row < 0 || row >= rows.size)
+      {
+        throw new IndexOutOfBoundsException("row " + row +
+            " is not between 0 and " + rows.size);
+      }
+      return new GenericScimResource(reassemble(rows, row));
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Evaluate a filter against all resources.
+   *
+   * @param filter The filter.
+   * @return The selection vector with the row numbers of the matching
+   * resources.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  public BitSet select(final Filter filter) throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet all = new BitSet();
+      all.set(0, rows.size);
+      return filter == null ? all : evaluate(filter, rows, all);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Search for resources matching a filter.
+   *
+   * @param filter The filter or {@code null} to return all resources.
+   * @return The matching resources in the order they were added.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  public List<GenericScimResource> search(final Filter filter)
+      throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet selection = select(filter);
+      List<GenericScimResource> resources =
+          new ArrayList<GenericScimResource>(selection.cardinality());
+      for (int i = selection.nextSetBit(0); i >= 0;
+           i = selection.nextSetBit(i + 1))
+      {
+        resources.add(new GenericScimResource(reassemble(rows, i)));
+      }
+      return resources;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of times a filter was evaluated against a single
+   * reassembled resource or complex value because it could not be evaluated
+   * on the columns.
+   *
+   * @return The number of filter evaluations against single values.
+   */
+  public long getRowEvaluationCount()
+  {
+    return rowEvaluations.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Any filter and paging can be pushed down to the set. Sorting is left to
+   * the SDK.
+   */
+  public SearchCapabilities getSearchCapabilities()
+  {
+    return new SearchCapabilities().
+        supportAllFilterTypes().
+        supportAllAttributes().
+        setPagingMode(PagingMode.OFFSET_AND_LIMIT);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BackendSearchResult<GenericScimResource> search(
+      final BackendSearchRequest request) throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet selection = select(request.getFilter());
+      int totalResults = selection.cardinality();
+      int skip = request.getStartIndex() == null ?
+          0 : Math.max(request.getStartIndex() - 1, 0);
+      int count = request.getCount() == null ?
+          totalResults : request.getCount();
+      List<GenericScimResource> resources =
+          new ArrayList<GenericScimResource>();
+      for (int i = selection.nextSetBit(0); i >= 0 && resources.size() < count;
+           i = selection.nextSetBit(i + 1))
+      {
+        if (skip > 0)
+        {
+          skip--;
+          continue;
+        }
+        resources.add(new GenericScimResource(reassemble(rows, i)));
+      }
+      return new BackendSearchResult<GenericScimResource>(resources,
+          totalResults);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Evaluate a filter on the entries of a table. The caller must hold the
+   * read lock.
+   *
+   * @param filter The filter.
+   * @param table The table.
+   * @param candidates The entries to evaluate the filter on.
+   * @return The candidates that match the filter.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private BitSet evaluate(final Filter filter, final Table table,
+                          final BitSet candidates)
+      throws ScimException
+  {
+    switch (filter.getFilterType())
+    {
+      case AND:
+        BitSet selected = candidates;
+        for (Filter component : filter.getCombinedFilters())
+        {
+          if (selected.isEmpty())
+          {
+            break;
+          }
+          selected = evaluate(component, table, selected);
+        }
+        return selected == candidates ? (BitSet) candidates.clone() : selected;
+      case OR:
+        BitSet matched = new BitSet();
+        BitSet remaining = (BitSet) candidates.clone();
+        for (Filter component : filter.getCombinedFilters())
+        {
+          if (remaining.isEmpty())
+          {
+            break;
+          }
+          BitSet componentMatches = evaluate(component, table, remaining);
+          matched.or(componentMatches);
+          remaining.andNot(componentMatches);
+        }
+        return matched;
+      case NOT:
+        BitSet complement = (BitSet) candidates.clone();
+        complement.andNot(
+            evaluate(filter.getInvertedFilter(), table, candidates));
+        return complement;
+      default:
+        break;
+    }
+
+    List<String> fields = getFields(filter.getAttributePath());
+    if (fields == null)
+    {
+      return evaluateEach(filter, table, candidates);
+    }
+    try
+    {
+      if (filter.isComplexValueFilter())
+      {
+        return evaluateComplexValue(filter, table, fields, 0, candidates);
+      }
+      return evaluateComparison(filter, table, fields, candidates);
+    }
+    catch (ScimException e)
+    {
+      // The filter evaluator might not have evaluated the value that made
+      // the filter fail, so evaluate it in the same order it would.
+      Debug.debugException(e);
+      return evaluateEach(filter, table, candidates);
+    }
+  }
+
+  /**
+   * Evaluate an attribute comparison filter on the entries of a table.
+   *
+   * @param filter The filter.
+   * @param table The table.
+   * @param fields The lower case names of the attributes of the path.
+   * @param candidates The entries to evaluate the filter on.
+   * @return The candidates that match the filter.
+   * @throws ScimException If the comparison fails for some value.
+   */
+  private BitSet evaluateComparison(final Filter filter, final Table table,
+                                    final List<String> fields,
+                                    final BitSet candidates)
+      throws ScimException
+  {
+    Matches matches = match(filter, table, fields, 0, candidates);
+    switch (filter.getFilterType())
+    {
+      case PRESENT:
+        return matches.present;
+      case EQUAL:
+      case NOT_EQUAL:
+        BitSet equal = matches.matching;
+        if (filter.getComparisonValue().isNull())
+        {
+          // Entries without values are equal to null.
+          BitSet empty = (BitSet) candidates.clone();
+          empty.andNot(matches.present);
+          equal.or(empty);
+        }
+        if (filter.getFilterType() == FilterType.EQUAL)
+        {
+          return equal;
+        }
+        BitSet notEqual = (BitSet) candidates.clone();
+        notEqual.andNot(equal);
+        return notEqual;
+      default:
+        return matches.matching;
+    }
+  }
+
+  /**
+   * Find the entries with values at a path that match an attribute
+   * comparison. The comparison is evaluated once for every distinct value
+   * of the last attribute of the path.
+   *
+   * @param filter The attribute comparison filter.
+   * @param table The table.
+   * @param fields The lower case names of the attributes of the path.
+   * @param level The index of the attribute of the path in the table.
+   * @param candidates The entries to evaluate the filter on.
+   * @return The matches.
+   * @throws ScimException If the comparison fails for some value.
+   */
+  private Matches match(final Filter filter, final Table table,
+                        final List<String> fields, final int level,
+                        final BitSet candidates)
+      throws ScimException
+  {
+    Matches matches = new Matches();
+    Column column = table.columns.get(fields.get(level));
+    if (column == null)
+    {
+      return matches;
+    }
+
+    if (level < fields.size() - 1)
+    {
+      if (column.children == null)
+      {
+        return matches;
+      }
+      Matches childMatches = match(filter, column.children, fields,
+          level + 1, getChildren(column, candidates));
+      for (int entry = candidates.nextSetBit(0); entry >= 0;
+           entry = candidates.nextSetBit(entry + 1))
+      {
+        for (int i = column.from(entry); i < column.to(entry); i++)
+        {
+          int item = column.items[i];
+          if (item < 0)
+          {
+            if (childMatches.matching.get(-item - 1))
+            {
+              matches.matching.set(entry);
+            }
+            if (childMatches.present.get(-item - 1))
+            {
+              matches.present.set(entry);
+            }
+          }
+        }
+      }
+      return matches;
+    }
+
+    // 0 means not evaluated yet, 1 matching and 2 not matching.
+    byte[] results = new byte[column.dictionary.size()];
+    for (int entry = candidates.nextSetBit(0); entry >= 0;
+         entry = candidates.nextSetBit(entry + 1))
+    {
+      for (int i = column.from(entry); i < column.to(entry); i++)
+      {
+        int item = column.items[i];
+        boolean present;
+        boolean matching;
+        if (item < 0)
+        {
+          present = true;
+          matching = filter.getFilterType() != FilterType.PRESENT &&
+              compare(filter, fields,
+                  reassemble(column.children, -item - 1));
+        }
+        else
+        {
+          JsonNode value = column.dictionary.get(item);
+          present = !isEmpty(value);
+          if (results[item] == 0)
+          {
+            results[item] = filter.getFilterType() != FilterType.PRESENT &&
+                compare(filter, fields, value) ? (byte) 1 : (byte) 2;
+          }
+          matching = results[item] == 1;
+        }
+        if (present)
+        {
+          matches.present.set(entry);
+        }
+        if (matching)
+        {
+          matches.matching.set(entry);
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Evaluate a value filter of a complex attribute on the entries of a
+   * table.
+   *
+   * @param filter The complex value filter.
+   * @param table The table.
+   * @param fields The lower case names of the attributes of the path.
+   * @param level The index of the attribute of the path in the table.
+   * @param candidates The entries to evaluate the filter on.
+   * @return The candidates that match the filter.
+   * @throws ScimException If the value filter fails for some value.
+   */
+  private BitSet evaluateComplexValue(final Filter filter, final Table table,
+                                      final List<String> fields,
+                                      final int level,
+                                      final BitSet candidates)
+      throws ScimException
+  {
+    BitSet matching = new BitSet();
+    Column column = table.columns.get(fields.get(level));
+    if (column == null)
+    {
+      return matching;
+    }
+
+    BitSet childMatches = new BitSet();
+    if (column.children != null)
+    {
+      BitSet children = getChildren(column, candidates);
+      childMatches = level < fields.size() - 1 ?
+          evaluateComplexValue(filter, column.children, fields, level + 1,
+              children) :
+          evaluate(filter.getValueFilter(), column.children, children);
+    }
+
+    boolean last = level == fields.size() - 1;
+    byte[] results = new byte[last ? column.dictionary.size() : 0];
+    for (int entry = candidates.nextSetBit(0); entry >= 0;
+         entry = candidates.nextSetBit(entry + 1))
+    {
+      for (int i = column.from(entry); i < column.to(entry); i++)
+      {
+        int item = column.items[i];
+        if (item < 0)
+        {
+          if (childMatches.get(-item - 1))
+          {
+            matching.set(entry);
+          }
+        }
+        else if (last)
+        {
+          if (results[item] == 0)
+          {
+            results[item] = matchesValue(filter.getValueFilter(),
+                column.dictionary.get(item)) ? (byte) 1 : (byte) 2;
+          }
+          if (results[item] == 1)
+          {
+            matching.set(entry);
+          }
+        }
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Evaluate a filter on each candidate entry of a table, reassembled as an
+   * object.
+   *
+   * @param filter The filter.
+   * @param table The table.
+   * @param candidates The entries to evaluate the filter on.
+   * @return The candidates that match the filter.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private BitSet evaluateEach(final Filter filter, final Table table,
+                              final BitSet candidates)
+      throws ScimException
+  {
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    BitSet matching = new BitSet();
+    for (int entry = candidates.nextSetBit(0); entry >= 0;
+         entry = candidates.nextSetBit(entry + 1))
+    {
+      rowEvaluations.incrementAndGet();
+      if (filter.visit(filterEvaluator, reassemble(table, entry)))
+      {
+        matching.set(entry);
+      }
+    }
+    return matching;
+  }
+
+  /**
+   * Compare a single value at the path of an attribute comparison filter.
+   *
+   * @param filter The attribute comparison filter.
+   * @param fields The lower case names of the attributes of the path.
+   * @param value The value.
+   * @return Whether the value matches the comparison.
+   * @throws ScimException If the value can not be compared.
+   */
+  private boolean compare(final Filter filter, final List<String> fields,
+                          final JsonNode value)
+      throws ScimException
+  {
+    if (filter.getFilterType() == FilterType.EQUAL ||
+        filter.getFilterType() == FilterType.NOT_EQUAL)
+    {
+      return JsonUtils.compareTo(value, filter.getComparisonValue(),
+          resourceType.getAttributeDefinition(filter.getAttributePath())) == 0;
+    }
+
+    // Evaluate the filter on an object with just this value at the path.
+    ObjectNode object = JsonUtils.getJsonNodeFactory().objectNode();
+    ObjectNode parent = object;
+    for (int i = 0; i < fields.size() - 1; i++)
+    {
+      parent = parent.putObject(fields.get(i));
+    }
+    parent.putArray(fields.get(fields.size() - 1)).add(value);
+    return filter.visit(new SchemaAwareFilterEvaluator(resourceType), object);
+  }
+
+  /**
+   * Evaluate the value filter of a complex attribute on a value that is not
+   * an object, like the filter evaluator does.
+   *
+   * @param valueFilter The value filter.
+   * @param value The value.
+   * @return Whether the value matches the value filter.
+   * @throws ScimException If the value filter fails for the value.
+   */
+  private boolean matchesValue(final Filter valueFilter, final JsonNode value)
+      throws ScimException
+  {
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    if (value.isArray())
+    {
+      for (JsonNode element : value)
+      {
+        if (valueFilter.visit(filterEvaluator, element))
+        {
+          return true;
+        }
+      }
+      return false;
+    }
+    return valueFilter.visit(filterEvaluator, value);
+  }
+
+  /**
+   * Retrieves the entries of the nested table of complex values of the
+   * candidate entries.
+   *
+   * @param column The column of the complex attribute.
+   * @param candidates The candidate entries of the table of the column.
+   * @return The entries of the nested table.
+   */
+  private static BitSet getChildren(final Column column,
+                                    final BitSet candidates)
+  {
+    BitSet children = new BitSet();
+    for (int entry = candidates.nextSetBit(0); entry >= 0;
+         entry = candidates.nextSetBit(entry + 1))
+    {
+      for (int i = column.from(entry); i < column.to(entry); i++)
+      {
+        if (column.items[i] < 0)
+        {
+          children.set(-column.items[i] - 1);
+        }
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Reassemble an entry of a table as an object.
+   *
+   * @param table The table.
+   * @param entry The number of the entry.
+   * @return The object.
+   */
+  private static ObjectNode reassemble(final Table table, final int entry)
+  {
+    ObjectNode object = JsonUtils.getJsonNodeFactory().objectNode();
+    for (Column column : table.columns.values())
+    {
+      int from = column.from(entry);
+      int to = column.to(entry);
+      if (column.arrays.get(entry))
+      {
+        ArrayNode array = object.putArray(column.name);
+        for (int i = from; i < to; i++)
+        {
+          array.add(reassemble(column, column.items[i]));
+        }
+      }
+      else if (from < to)
+      {
+        object.set(column.name, reassemble(column, column.items[from]));
+      }
+    }
+    return object;
+  }
+
+  /**
+   * Reassemble an item of a column.
+   *
+   * @param column The column.
+   * @param item The item.
+   * @return The value of the item.
+   */
+  private static JsonNode reassemble(final Column column, final int item)
+  {
+    return item < 0 ? reassemble(column.children, -item - 1) :
+        column.dictionary.get(item).deepCopy();
+  }
+
+  /**
+   * Retrieves the lower case names of the attributes the filter evaluator
+   * traverses for a path.
+   *
+   * @param path The path.
+   * @return The lower case names of the attributes or {@code null} if the
+   * path has value filters.
+   */
+  private static List<String> getFields(final Path path)
+  {
+    List<String> fields = new ArrayList<String>(path.size() + 1);
+    if (path.getSchemaUrn() != null)
+    {
+      fields.add(StaticUtils.toLowerCase(path.getSchemaUrn()));
+    }
+    for (Path.Element element : path)
+    {
+      if (element.getValueFilter() != null)
+      {
+        return null;
+      }
+      fields.add(StaticUtils.toLowerCase(element.getAttribute()));
+    }
+    return fields.isEmpty() ? null : fields;
+  }
+
+  /**
+   * Whether a value is considered empty by the filter evaluator: a null
+   * value or an array of only empty values.
+   *
+   * @param value The value.
+   * @return {@code true} if the value is empty.
+   */
+  private static boolean isEmpty(final JsonNode value)
+  {
+    if (value.isArray())
+    {
+      for (JsonNode element : value)
+      {
+        if (!isEmpty(element))
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+    return value.isNull();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hash index that answers {@code eq} and {@code pr} filters on an
+ * attribute, such as {@code id}, {@code userName} or {@code emails.value}.
+ */
+public final class HashResourceIndex extends ValueIndex
+{
+  /**
+   * Create a new hash index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to determine the
+   *                     case sensitivity of the attribute or {@code null}.
+   */
+  public HashResourceIndex(final Path path,
+                           final ResourceTypeDefinition resourceType)
+  {
+    super(path, resourceType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Map<Comparable<?>, Set<String>> newKeyMap()
+  {
+    return new HashMap<Comparable<?>, Set<String>>();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Set<String> lookupOther(final Filter filter)
+  {
+    return null;
+  }
+}
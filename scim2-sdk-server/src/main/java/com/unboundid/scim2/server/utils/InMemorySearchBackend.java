@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.server.BackendSearchRequest;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchCapabilities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A reference {@link SearchBackend} that keeps resources in memory and
+ * handles everything allowed by the search capabilities it was created
+ * with by scanning all resources. Resources are returned in the order they
+ * were added unless sorting is requested. It is mostly useful for testing
+ * and as an example of the contract backends must implement.
+ *
+ * @param <T> The type of resources in the backend.
+ */
+public class InMemorySearchBackend<T extends ScimResource>
+    implements SearchBackend<T>
+{
+  private final ResourceTypeDefinition resourceType;
+  private final SearchCapabilities searchCapabilities;
+  private final Map<String, T> resources =
+      Collections.synchronizedMap(new LinkedHashMap<String, T>());
+
+  /**
+   * Create a new in-memory search backend.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param searchCapabilities The search capabilities to declare.
+   */
+  public InMemorySearchBackend(final ResourceTypeDefinition resourceType,
+                               final SearchCapabilities searchCapabilities)
+  {
+    this.resourceType = resourceType;
+    this.searchCapabilities = searchCapabilities;
+  }
+
+  /**
+   * Add or replace a resource.
+   *
+   * @param resource The resource to add. It must have an ID.
+   * @return this object.
+   */
+  public InMemorySearchBackend<T> put(final T resource)
+  {
+    if (resource.getId() == null)
+    {
+      throw new IllegalArgumentException("resource must have an id");
+    }
+    resources.put(resource.getId(), resource);
+    return this;
+  }
+
+  /**
+   * Add or replace resources.
+   *
+   * @param resources The resources to add. They must have IDs.
+   * @return this object.
+   */
+  public InMemorySearchBackend<T> putAll(final Collection<T> resources)
+  {
+    for (T resource : resources)
+    {
+      put(resource);
+    }
+    return this;
+  }
+
+  /**
+   * Remove a resource.
+   *
+   * @param id The ID of the resource to remove.
+   * @return The removed resource or {@code null} if there is no resource with
+   * the ID.
+   */
+  public T remove(final String id)
+  {
+    return resources.remove(id);
+  }
+
+  /**
+   * Retrieve a resource.
+   *
+   * @param id The ID of the resource to retrieve.
+   * @return The resource or {@code null} if there is no resource with the ID.
+   */
+  public T get(final String id)
+  {
+    return resources.get(id);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public SearchCapabilities getSearchCapabilities()
+  {
+    return searchCapabilities;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BackendSearchResult<T> search(final BackendSearchRequest request)
+      throws ScimException
+  {
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    List<T> candidates;
+    synchronized (resources)
+    {
+      candidates = new ArrayList<T>(resources.values());
+    }
+    List<T> matched = new ArrayList<T>();
+    for (T resource : candidates)
+    {
+      if (request.getFilter() == null || request.getFilter().visit(
+          filterEvaluator, resource.asGenericScimResource().getObjectNode()))
+      {
+        matched.add(resource);
+      }
+    }
+
+    if (request.getSortBy() != null)
+    {
+      Collections.sort(matched, new ResourceComparator<T>(
+          request.getSortBy(), request.getSortOrder(), resourceType));
+    }
+
+    int totalResults = matched.size();
+    List<T> page = matched;
+    if (request.getStartIndex() != null && request.getStartIndex() > 1)
+    {
+      page = request.getStartIndex() > page.size() ?
+          Collections.<T>emptyList() :
+          page.subList(request.getStartIndex() - 1, page.size());
+    }
+    if (request.getCount() != null && request.getCount() < page.size())
+    {
+      page = page.subList(0, request.getCount());
+    }
+    return new BackendSearchResult<T>(new ArrayList<T>(page), totalResults);
+  }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+/**
+ * A {@link ResourceIndex} that can be updated with only the values that
+ * changed when a resource is replaced. The {@link IndexedResourceStore}
+ * calls {@link #remove} with the values that were removed and {@link #add}
+ * with the values that were added, so implementations must keep track of
+ * each value individually rather than of whole resources.
+ */
+public interface IncrementalResourceIndex extends ResourceIndex
+{
+}
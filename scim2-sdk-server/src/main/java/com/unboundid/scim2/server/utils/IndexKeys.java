@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Converts attribute values into index keys that are equal and ordered
+ * exactly like {@link JsonUtils#compareTo} orders values of the same kind.
+ * Values of different kinds are compared as text by the filter evaluator, so
+ * indexes may only answer filters when all indexed values and the comparison
+ * value have the same kind.
+ */
+final class IndexKeys
+{
+  /**
+   * The kinds of values with different comparison rules.
+   */
+  enum Kind
+  {
+    /**
+     * Strings that are not ISO 8601 dates.
+     */
+    STRING,
+
+    /**
+     * Strings that are ISO 8601 dates, which compare as dates.
+     */
+    DATE,
+
+    /**
+     * Numbers.
+     */
+    NUMBER,
+
+    /**
+     * Any other value, such as booleans, which compare as text.
+     */
+    OTHER
+  }
+
+  /**
+   * Prevent instantiation.
+   */
+  private IndexKeys()
+  {
+    // No implementation.
+  }
+
+  /**
+   * Retrieves the kind of a value.
+   *
+   * @param value The value.
+   * @return The kind of the value.
+   */
+  static Kind kindOf(final JsonNode value)
+  {
+    if (value.isTextual())
+    {
+      return JsonUtils.dateValue(value) == null ? Kind.STRING : Kind.DATE;
+    }
+    return value.isNumber() ? Kind.NUMBER : Kind.OTHER;
+  }
+
+  /**
+   * Retrieves the index key of a value.
+   *
+   * @param value The value.
+   * @param kind The kind of the value.
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @return The index key.
+   */
+  static Comparable<?> keyOf(final JsonNode value, final Kind kind,
+                             final AttributeDefinition attributeDefinition)
+  {
+    switch (kind)
+    {
+      case STRING:
+        return isCaseExact(attributeDefinition) ?
+            value.textValue() : StaticUtils.toLowerCase(value.textValue());
+      case DATE:
+        Date date = JsonUtils.dateValue(value);
+        return date.getTime();
+      case NUMBER:
+        BigDecimal decimal = value.decimalValue();
+        // Compare 1 and 1.0 as equal.
+        return decimal.signum() == 0 ?
+            BigDecimal.ZERO : decimal.stripTrailingZeros();
+      default:
+        return value.asText();
+    }
+  }
+
+  /**
+   * Whether string values of an attribute are compared case-sensitively.
+   *
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @return {@code true} if string values are compared case-sensitively.
+   */
+  static boolean isCaseExact(final AttributeDefinition attributeDefinition)
+  {
+    return attributeDefinition != null &&
+        attributeDefinition.getType() == AttributeDefinition.Type.STRING &&
+        attributeDefinition.isCaseExact();
+  }
+
+  /**
+   * Whether substring filters on an attribute fold case the same way as
+   * the index keys of its string values.
+   *
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @return {@code true} if substring filters fold case like index keys.
+   */
+  static boolean isSubstringCompatible(
+      final AttributeDefinition attributeDefinition)
+  {
+    return attributeDefinition == null ||
+        attributeDefinition.getType() == AttributeDefinition.Type.STRING ||
+        !attributeDefinition.isCaseExact();
+  }
+}
@@ -0,0 +1,1280 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.BackendSearchRequest;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.PagingMode;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchCapabilities;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory store of SCIM resources with secondary indexes. Searches use
+ * the indexes to find the candidate resources for the parts of the filter
+ * the indexes can answer, and only evaluate the rest of the filter on those
+ * candidates with the {@link SchemaAwareFilterEvaluator}. Every resource is
+ * assigned an ordinal and candidates are combined as bitmaps of ordinals:
+ * <ul>
+ *   <li>The components of an {@code and} filter answered by indexes are
+ *       intersected and the other components become the residual
+ *       filter.</li>
+ *   <li>An {@code or} filter is answered by the union of its components if
+ *       they can all be answered.</li>
+ *   <li>A {@code not} filter is answered by the complement of its inverted
+ *       filter.</li>
+ *   <li>A value filter with a single attribute filter, such as
+ *       {@code emails[value eq "x"]}, is answered like the equivalent
+ *       {@code emails.value eq "x"}. A value filter with {@code ne} is not
+ *       equivalent to {@code ne} on the attribute and is evaluated.</li>
+ * </ul>
+ * Indexes are kept up to date when resources are added, replaced, patched
+ * and removed. The ordinals of removed resources are reclaimed by
+ * {@link #compact()}, which the store does itself once there are more
+ * removed resources than resources in the store. Filters that can not be
+ * answered by any index are evaluated against all resources. Resources are
+ * returned in the order they were first added. The store is thread-safe.
+ * Resources must not be modified after they are added.
+ *
+ * @param <T> The type of resources in the store.
+ */
+public class IndexedResourceStore<T extends ScimResource>
+    implements SearchBackend<T>
+{
+  /**
+   * A resource in the store.
+   *
+   * @param <T> The type of the resource.
+   */
+  private static final class Entry<T>
+  {
+    private final T resource;
+    private final ObjectNode node;
+    private final int ordinal;
+
+    /**
+     * Create a new entry.
+     *
+     * @param resource The resource.
+     * @param node The JSON representation of the resource.
+     * @param ordinal The ordinal of the resource, which is in the order
+     *                resources were first added.
+     */
+    private Entry(final T resource, final ObjectNode node, final int ordinal)
+    {
+      this.resource = resource;
+      this.node = node;
+      this.ordinal = ordinal;
+    }
+  }
+
+  /**
+   * The ordinals of the resources matching part of a filter and the rest of
+   * the filter that must still be evaluated on those resources.
+   */
+  private static final class Candidates
+  {
+    private final BitSet ordinals;
+    private final Filter residualFilter;
+
+    /**
+     * Create new candidates.
+     *
+     * @param ordinals The candidate ordinals, which must not be modified.
+     * @param residualFilter The residual filter or {@code null}.
+     */
+    private Candidates(final BitSet ordinals, final Filter residualFilter)
+    {
+      this.ordinals = ordinals;
+      this.residualFilter = residualFilter;
+    }
+  }
+
+  private final ResourceTypeDefinition resourceType;
+  private final List<ResourceIndex> indexes = new ArrayList<ResourceIndex>();
+  private final List<OrdinalResourceIndex> ordinalIndexes =
+      new ArrayList<OrdinalResourceIndex>();
+  private final Map<String, Entry<T>> entries = new HashMap<String, Entry<T>>();
+  private final List<Entry<T>> entriesByOrdinal = new ArrayList<Entry<T>>();
+  private final BitSet liveOrdinals = new BitSet();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong filterEvaluations = new AtomicLong();
+
+  /**
+   * Create a new indexed resource store.
+   *
+   * @param resourceType The resource type definition of the resources.
+   */
+  public IndexedResourceStore(final ResourceTypeDefinition resourceType)
+  {
+    this.resourceType = resourceType;
+  }
+
+  /**
+   * Add a hash index, which answers {@code eq} and {@code pr} filters.
+   *
+   * @param path The path of the attribute to index.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public IndexedResourceStore<T> addHashIndex(final String path)
+      throws BadRequestException
+  {
+    return addIndex(new HashResourceIndex(Path.fromString(path),
+        resourceType));
+  }
+
+  /**
+   * Add a sorted index, which answers {@code eq}, {@code pr}, {@code gt},
+   * {@code ge}, {@code lt}, {@code le} and {@code sw} filters.
+   *
+   * @param path The path of the attribute to index.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public IndexedResourceStore<T> addSortedIndex(final String path)
+      throws BadRequestException
+  {
+    return addIndex(new SortedResourceIndex(Path.fromString(path),
+        resourceType));
+  }
+
+  /**
+   * Add a trigram index, which answers {@code co}, {@code sw} and
+   * {@code ew} filters on string attributes.
+   *
+   * @param path The path of the attribute to index.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public IndexedResourceStore<T> addTrigramIndex(final String path)
+      throws BadRequestException
+  {
+    return addIndex(new TrigramResourceIndex(Path.fromString(path),
+        resourceType));
+  }
+
+  /**
+   * Add a bitmap index, which answers {@code eq} and {@code pr} filters on
+   * attributes with few distinct values.
+   *
+   * @param path The path of the attribute to index.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public IndexedResourceStore<T> addBitmapIndex(final String path)
+      throws BadRequestException
+  {
+    return addIndex(new BitmapResourceIndex(Path.fromString(path),
+        resourceType));
+  }
+
+  /**
+   * Add a range index, which answers {@code eq}, {@code gt}, {@code ge},
+   * {@code lt} and {@code le} filters on date time and numeric attributes and
+   * lists resources in the order of their values when sorting.
+   *
+   * @param path The path of the attribute to index.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public IndexedResourceStore<T> addRangeIndex(final String path)
+      throws BadRequestException
+  {
+    return addIndex(new RangeResourceIndex(Path.fromString(path),
+        resourceType));
+  }
+
+  /**
+   * Add bitmap indexes for all the boolean attributes and attributes with
+   * canonical values in the schemas of the resource type, including
+   * sub-attributes.
+   *
+   * @return this object.
+   */
+  public IndexedResourceStore<T> addBitmapIndexes()
+  {
+    if (resourceType.getCoreSchema() != null)
+    {
+      addBitmapIndexes(Path.root(),
+          resourceType.getCoreSchema().getAttributes());
+    }
+    for (SchemaResource schemaExtension :
+        resourceType.getSchemaExtensions().keySet())
+    {
+      addBitmapIndexes(Path.root(schemaExtension.getId()),
+          schemaExtension.getAttributes());
+    }
+    return this;
+  }
+
+  /**
+   * Add an index over resource ordinals. Resources already in the store are
+   * added to the index all at once.
+   *
+   * @param index The index to add.
+   * @return this object.
+   */
+  public IndexedResourceStore<T> addIndex(final OrdinalResourceIndex index)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Map<Integer, ObjectNode> nodes = new HashMap<Integer, ObjectNode>();
+      for (Entry<T> entry : entries.values())
+      {
+        nodes.put(entry.ordinal, entry.node);
+      }
+      index.addAll(getValues(index.getPath(), nodes));
+      ordinalIndexes.add(index);
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+    return this;
+  }
+
+  /**
+   * Add an index. Resources already in the store are added to the index.
+   *
+   * @param index The index to add.
+   * @return this object.
+   */
+  public IndexedResourceStore<T> addIndex(final ResourceIndex index)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      for (Map.Entry<String, Entry<T>> entry : entries.entrySet())
+      {
+        index.add(entry.getKey(),
+            getValues(index.getPath(), entry.getValue().node));
+      }
+      indexes.add(index);
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+    return this;
+  }
+
+  /**
+   * Add or replace a resource. A replaced resource keeps its position in the
+   * order resources are returned in.
+   *
+   * @param resource The resource to add. It must have an ID.
+   * @return The replaced resource or {@code null} if there was no resource
+   * with the same ID.
+   */
+  public T put(final T resource)
+  {
+    return put(resource, null);
+  }
+
+  /**
+   * Add or replace resources. The indexes over resource ordinals index the
+   * added resources all at once.
+   *
+   * @param resources The resources to add. They must have IDs.
+   * @return this object.
+   */
+  public IndexedResourceStore<T> putAll(final Collection<T> resources)
+  {
+    Map<Integer, ObjectNode> added = new HashMap<Integer, ObjectNode>();
+    lock.writeLock().lock();
+    try
+    {
+      try
+      {
+        for (T resource : resources)
+        {
+          put(resource, added);
+        }
+      }
+      finally
+      {
+        // Index the added resources even if a later resource was rejected.
+        for (OrdinalResourceIndex index : ordinalIndexes)
+        {
+          index.addAll(getValues(index.getPath(), added));
+        }
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+    return this;
+  }
+
+  /**
+   * Modify a resource by applying a patch request to a copy of it and
+   * replacing it with the result.
+   *
+   * @param id The ID of the resource to modify.
+   * @param patchRequest The patch request.
+   * @return The modified resource.
+   * @throws ScimException If there is no resource with the ID or the patch
+   * request could not be applied.
+   */
+  @SuppressWarnings("unchecked")
+  public T patch(final String id, final PatchRequest patchRequest)
+      throws ScimException
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Entry<T> entry = entries.get(id);
+      if (entry == null)
+      {
+        throw new ResourceNotFoundException("No resource with ID " + id);
+      }
+      GenericScimResource patched =
+          new GenericScimResource(entry.node.deepCopy());
+      patchRequest.apply(patched);
+      if (!id.equals(patched.getId()))
+      {
+        throw BadRequestException.mutability(
+            "The id attribute can not be modified");
+      }
+
+      T resource;
+      if (entry.resource instanceof GenericScimResource)
+      {
+        resource = (T) patched;
+      }
+      else
+      {
+        try
+        {
+          resource = (T) JsonUtils.nodeToValue(patched.getObjectNode(),
+              entry.resource.getClass());
+        }
+        catch (JsonProcessingException e)
+        {
+          throw new ServerErrorException(e.getMessage());
+        }
+      }
+      put(resource);
+      return resource;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a resource.
+   *
+   * @param id The ID of the resource to remove.
+   * @return The removed resource or {@code null} if there is no resource with
+   * the ID.
+   */
+  public T remove(final String id)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Entry<T> entry = entries.remove(id);
+      if (entry == null)
+      {
+        return null;
+      }
+      unindex(id, entry);
+      // Ordinals are not reused so that resources stay in insertion order,
+      // but are reclaimed by compacting.
+      entriesByOrdinal.set(entry.ordinal, null);
+      liveOrdinals.clear(entry.ordinal);
+      if (entriesByOrdinal.size() - entries.size() > entries.size())
+      {
+        compact();
+      }
+      return entry.resource;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Renumber the resources without changing their order, reclaiming the
+   * ordinals of removed resources so that bitmaps and indexes only cover the
+   * resources in the store.
+   */
+  public void compact()
+  {
+    lock.writeLock().lock();
+    try
+    {
+      int[] renumbered = new int[entriesByOrdinal.size()];
+      List<Entry<T>> compacted = new ArrayList<Entry<T>>(entries.size());
+      for (int i = liveOrdinals.nextSetBit(0); i >= 0;
+           i = liveOrdinals.nextSetBit(i + 1))
+      {
+        Entry<T> entry = entriesByOrdinal.get(i);
+        renumbered[i] = compacted.size();
+        Entry<T> renumberedEntry =
+            new Entry<T>(entry.resource, entry.node, compacted.size());
+        compacted.add(renumberedEntry);
+        entries.put(entry.resource.getId(), renumberedEntry);
+      }
+      entriesByOrdinal.clear();
+      entriesByOrdinal.addAll(compacted);
+      liveOrdinals.clear();
+      liveOrdinals.set(0, compacted.size());
+      for (OrdinalResourceIndex index : ordinalIndexes)
+      {
+        index.renumber(renumbered);
+      }
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieve a resource.
+   *
+   * @param id The ID of the resource to retrieve.
+   * @return The resource or {@code null} if there is no resource with the ID.
+   */
+  public T get(final String id)
+  {
+    lock.readLock().lock();
+    try
+    {
+      Entry<T> entry = entries.get(id);
+      return entry == null ? null : entry.resource;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of resources in the store.
+   *
+   * @return The number of resources in the store.
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return entries.size();
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Search for resources matching a filter.
+   *
+   * @param filter The filter or {@code null} to return all resources.
+   * @return The matching resources in the order they were added.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  public List<T> search(final Filter filter) throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet ordinals = match(filter);
+      List<T> resources = new ArrayList<T>(ordinals.cardinality());
+      addAll(ordinals, resources);
+      return resources;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of times a filter was evaluated against a resource
+   * because the indexes could not answer it.
+   *
+   * @return The number of filter evaluations.
+   */
+  public long getFilterEvaluationCount()
+  {
+    return filterEvaluations.get();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Any filter can be pushed down to the store. Sorting is supported by the
+   * attributes with sorted or range indexes.
+   */
+  public SearchCapabilities getSearchCapabilities()
+  {
+    SearchCapabilities capabilities = new SearchCapabilities().
+        supportAllFilterTypes().
+        supportAllAttributes().
+        setPagingMode(PagingMode.OFFSET_AND_LIMIT);
+    lock.readLock().lock();
+    try
+    {
+      for (ResourceIndex index : indexes)
+      {
+        if (index instanceof SortedResourceIndex)
+        {
+          capabilities.supportSortKeys(index.getPath().toString());
+        }
+      }
+      for (OrdinalResourceIndex index : ordinalIndexes)
+      {
+        if (index instanceof RangeResourceIndex)
+        {
+          capabilities.supportSortKeys(index.getPath().toString());
+        }
+      }
+    }
+    catch (BadRequestException e)
+    {
+      // Should never happen since the path was already parsed.
+      Debug.debugException(e);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+    return capabilities;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BackendSearchResult<T> search(final BackendSearchRequest request)
+      throws ScimException
+  {
+    List<T> resources;
+    lock.readLock().lock();
+    try
+    {
+      BitSet ordinals = match(request.getFilter());
+      RangeResourceIndex sortIndex = request.getSortBy() == null ?
+          null : getSortIndex(request.getSortBy());
+      if (sortIndex != null)
+      {
+        resources = sort(ordinals, sortIndex, request.getSortOrder());
+      }
+      else
+      {
+        resources = new ArrayList<T>(ordinals.cardinality());
+        addAll(ordinals, resources);
+        if (request.getSortBy() != null)
+        {
+          Collections.sort(resources, new ResourceComparator<T>(
+              request.getSortBy(), request.getSortOrder(), resourceType));
+        }
+      }
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+
+    int totalResults = resources.size();
+    List<T> page = resources;
+    if (request.getStartIndex() != null && request.getStartIndex() > 1)
+    {
+      page = request.getStartIndex() > page.size() ?
+          Collections.<T>emptyList() :
+          page.subList(request.getStartIndex() - 1, page.size());
+    }
+    if (request.getCount() != null && request.getCount() < page.size())
+    {
+      page = page.subList(0, request.getCount());
+    }
+    return new BackendSearchResult<T>(new ArrayList<T>(page), totalResults);
+  }
+
+  /**
+   * Find the resources matching a filter. The caller must hold the read
+   * lock.
+   *
+   * @param filter The filter or {@code null} to match all resources.
+   * @return The ordinals of the matching resources, which must not be
+   * modified.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private BitSet match(final Filter filter) throws ScimException
+  {
+    if (filter == null)
+    {
+      return liveOrdinals;
+    }
+    Filter normalized =
+        new SchemaAwareFilterNormalizer(resourceType).normalize(filter);
+    Candidates candidates = getCandidates(normalized);
+    BitSet ordinals = candidates == null ?
+        liveOrdinals : candidates.ordinals;
+    Filter residualFilter = candidates == null ?
+        normalized : candidates.residualFilter;
+    if (residualFilter == null)
+    {
+      return ordinals;
+    }
+
+    BitSet matches = new BitSet();
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    for (int i = ordinals.nextSetBit(0); i >= 0;
+         i = ordinals.nextSetBit(i + 1))
+    {
+      filterEvaluations.incrementAndGet();
+      if (residualFilter.visit(filterEvaluator, entriesByOrdinal.get(i).node))
+      {
+        matches.set(i);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Retrieves a range index that can list resources in the order of an
+   * attribute. The caller must hold the read lock.
+   *
+   * @param sortBy The path of the attribute to sort by.
+   * @return The range index or {@code null} if there is none that can list
+   * resources in the same order as the {@link ResourceComparator}.
+   */
+  private RangeResourceIndex getSortIndex(final Path sortBy)
+  {
+    Path path = resourceType.normalizePath(sortBy);
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    for (OrdinalResourceIndex index : ordinalIndexes)
+    {
+      if (index instanceof RangeResourceIndex &&
+          index.getPath().equals(path) &&
+          ((RangeResourceIndex) index).isSortable())
+      {
+        return (RangeResourceIndex) index;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * List resources in the order of a range index. Resources without a value
+   * are listed last when sorting in ascending order and first when sorting in
+   * descending order, like the {@link ResourceComparator}. The caller must
+   * hold the read lock.
+   *
+   * @param ordinals The ordinals of the resources to list.
+   * @param sortIndex The range index.
+   * @param sortOrder The sort order.
+   * @return The sorted resources.
+   */
+  private List<T> sort(final BitSet ordinals,
+                       final RangeResourceIndex sortIndex,
+                       final SortOrder sortOrder)
+  {
+    int[] sorted = sortIndex.sort(ordinals, sortOrder);
+    BitSet missing = (BitSet) ordinals.clone();
+    for (int ordinal : sorted)
+    {
+      missing.clear(ordinal);
+    }
+
+    List<T> resources = new ArrayList<T>(ordinals.cardinality());
+    boolean descending = sortOrder == SortOrder.DESCENDING;
+    if (descending)
+    {
+      addAll(missing, resources);
+    }
+    for (int ordinal : sorted)
+    {
+      resources.add(entriesByOrdinal.get(ordinal).resource);
+    }
+    if (!descending)
+    {
+      addAll(missing, resources);
+    }
+    return resources;
+  }
+
+  /**
+   * Add resources to a list in the order of their ordinals.
+   *
+   * @param ordinals The ordinals of the resources.
+   * @param resources The list to add to.
+   */
+  private void addAll(final BitSet ordinals, final List<T> resources)
+  {
+    for (int i = ordinals.nextSetBit(0); i >= 0;
+         i = ordinals.nextSetBit(i + 1))
+    {
+      resources.add(entriesByOrdinal.get(i).resource);
+    }
+  }
+
+  /**
+   * Add or replace a resource, possibly as one of several resources added
+   * together.
+   *
+   * @param resource The resource to add. It must have an ID.
+   * @param added The nodes of the resources added together, keyed by
+   *              ordinal, that the indexes over resource ordinals have yet to
+   *              index, or {@code null} to index the resource right away.
+   * @return The replaced resource or {@code null} if there was no resource
+   * with the same ID.
+   */
+  private T put(final T resource, final Map<Integer, ObjectNode> added)
+  {
+    String id = resource.getId();
+    if (id == null)
+    {
+      throw new IllegalArgumentException("resource must have an id");
+    }
+    ObjectNode node =
+        resource.asGenericScimResource().getObjectNode().deepCopy();
+
+    lock.writeLock().lock();
+    try
+    {
+      Entry<T> previous = entries.get(id);
+      Entry<T> entry = new Entry<T>(resource, node,
+          previous == null ? entriesByOrdinal.size() : previous.ordinal);
+      entries.put(id, entry);
+      if (previous == null)
+      {
+        entriesByOrdinal.add(entry);
+        liveOrdinals.set(entry.ordinal);
+      }
+      else
+      {
+        entriesByOrdinal.set(entry.ordinal, entry);
+      }
+      for (ResourceIndex index : indexes)
+      {
+        List<JsonNode> values = getValues(index.getPath(), node);
+        if (previous == null)
+        {
+          index.add(id, values);
+        }
+        else
+        {
+          reindex(index, id, getValues(index.getPath(), previous.node),
+              values);
+        }
+      }
+      if (added != null &&
+          (previous == null || added.containsKey(entry.ordinal)))
+      {
+        added.put(entry.ordinal, node);
+        return previous == null ? null : previous.resource;
+      }
+      for (OrdinalResourceIndex index : ordinalIndexes)
+      {
+        List<JsonNode> values = getValues(index.getPath(), node);
+        if (previous != null)
+        {
+          List<JsonNode> previousValues =
+              getValues(index.getPath(), previous.node);
+          if (previousValues.equals(values))
+          {
+            continue;
+          }
+          index.remove(entry.ordinal, previousValues);
+        }
+        index.add(entry.ordinal, values);
+      }
+      return previous == null ? null : previous.resource;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a resource from all indexes.
+   *
+   * @param id The ID of the resource.
+   * @param entry The entry of the resource.
+   */
+  private void unindex(final String id, final Entry<T> entry)
+  {
+    for (ResourceIndex index : indexes)
+    {
+      index.remove(id, getValues(index.getPath(), entry.node));
+    }
+    for (OrdinalResourceIndex index : ordinalIndexes)
+    {
+      index.remove(entry.ordinal, getValues(index.getPath(), entry.node));
+    }
+  }
+
+  /**
+   * Update an index with the values of a replaced resource. Incremental
+   * indexes are only updated with the values that changed.
+   *
+   * @param index The index.
+   * @param id The ID of the resource.
+   * @param previousValues The indexed values of the replaced resource.
+   * @param values The values of the new resource.
+   */
+  private static void reindex(final ResourceIndex index, final String id,
+                              final List<JsonNode> previousValues,
+                              final List<JsonNode> values)
+  {
+    if (previousValues.equals(values))
+    {
+      return;
+    }
+    if (!(index instanceof IncrementalResourceIndex))
+    {
+      index.remove(id, previousValues);
+      index.add(id, values);
+      return;
+    }
+
+    Map<JsonNode, Integer> counts = new HashMap<JsonNode, Integer>();
+    for (JsonNode value : previousValues)
+    {
+      Integer count = counts.get(value);
+      counts.put(value, count == null ? 1 : count + 1);
+    }
+    List<JsonNode> added = new ArrayList<JsonNode>();
+    for (JsonNode value : values)
+    {
+      Integer count = counts.get(value);
+      if (count == null)
+      {
+        added.add(value);
+      }
+      else if (count == 1)
+      {
+        counts.remove(value);
+      }
+      else
+      {
+        counts.put(value, count - 1);
+      }
+    }
+    List<JsonNode> removed = new ArrayList<JsonNode>();
+    for (Map.Entry<JsonNode, Integer> count : counts.entrySet())
+    {
+      for (int i = 0; i < count.getValue(); i++)
+      {
+        removed.add(count.getKey());
+      }
+    }
+    index.remove(id, removed);
+    index.add(id, added);
+  }
+
+  /**
+   * Add bitmap indexes for the boolean attributes and attributes with
+   * canonical values among the provided attributes and their
+   * sub-attributes.
+   *
+   * @param parentPath The path of the parent of the attributes.
+   * @param attributes The attribute definitions.
+   */
+  private void addBitmapIndexes(
+      final Path parentPath, final Collection<AttributeDefinition> attributes)
+  {
+    if (attributes == null)
+    {
+      return;
+    }
+    for (AttributeDefinition attribute : attributes)
+    {
+      Path path = parentPath.attribute(attribute.getName());
+      if (attribute.getType() == AttributeDefinition.Type.BOOLEAN ||
+          (attribute.getCanonicalValues() != null &&
+              !attribute.getCanonicalValues().isEmpty()))
+      {
+        addIndex(new BitmapResourceIndex(path, resourceType));
+      }
+      else if (attribute.getType() == AttributeDefinition.Type.COMPLEX)
+      {
+        addBitmapIndexes(path, attribute.getSubAttributes());
+      }
+    }
+  }
+
+  /**
+   * Find the resources matching the parts of a filter that the indexes can
+   * answer.
+   *
+   * @param filter The normalized filter.
+   * @return The candidates or {@code null} if the indexes can not answer any
+   * part of the filter.
+   */
+  private Candidates getCandidates(final Filter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case AND:
+        List<BitSet> bitmaps = new ArrayList<BitSet>();
+        List<Filter> residual = new ArrayList<Filter>();
+        for (Filter component : filter.getCombinedFilters())
+        {
+          Candidates candidates = getCandidates(component);
+          if (candidates == null)
+          {
+            residual.add(component);
+            continue;
+          }
+          bitmaps.add(candidates.ordinals);
+          if (candidates.residualFilter != null)
+          {
+            residual.add(candidates.residualFilter);
+          }
+        }
+        if (bitmaps.isEmpty())
+        {
+          return null;
+        }
+        Filter residualFilter = null;
+        if (!residual.isEmpty())
+        {
+          residualFilter = residual.size() == 1 ?
+              residual.get(0) : Filter.and(residual);
+        }
+        return new Candidates(intersect(bitmaps), residualFilter);
+      case OR:
+        BitSet union = new BitSet();
+        for (Filter component : filter.getCombinedFilters())
+        {
+          Candidates candidates = getCandidates(component);
+          if (candidates == null || candidates.residualFilter != null)
+          {
+            return null;
+          }
+          union.or(candidates.ordinals);
+        }
+        return new Candidates(union, null);
+      case NOT:
+        Candidates inverted = getCandidates(filter.getInvertedFilter());
+        if (inverted == null || inverted.residualFilter != null)
+        {
+          return null;
+        }
+        return new Candidates(complement(inverted.ordinals), null);
+      case COMPLEX_VALUE:
+        Filter valueFilter = filter.getValueFilter();
+        // emails[value ne "x"] matches when any email has a different value,
+        // which is not the complement of the resources with an equal one.
+        if (!isAttributeFilter(valueFilter) ||
+            valueFilter.getFilterType() == FilterType.NOT_EQUAL ||
+            hasValueFilters(filter.getAttributePath()))
+        {
+          return null;
+        }
+        return lookup(valueFilter, filter.getAttributePath().attribute(
+            valueFilter.getAttributePath()));
+      default:
+        return lookup(filter, filter.getAttributePath());
+    }
+  }
+
+  /**
+   * Answer an attribute filter using the indexes.
+   *
+   * @param filter The attribute filter.
+   * @param attributePath The path of the attribute relative to the resource.
+   * @return The candidates or {@code null} if no index can answer the filter.
+   */
+  private Candidates lookup(final Filter filter, final Path attributePath)
+  {
+    Path path = resourceType.normalizePath(attributePath);
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    Filter resolved = path.equals(filter.getAttributePath()) ?
+        filter : withAttributePath(filter, path);
+    if (resolved == null)
+    {
+      return null;
+    }
+    if (resolved.getFilterType() == FilterType.NOT_EQUAL &&
+        !resolved.getComparisonValue().isNull())
+    {
+      // The filter evaluator matches ne exactly when eq does not match.
+      BitSet equal = lookup(Filter.eq(path, resolved.getComparisonValue()));
+      return equal == null ? null : new Candidates(complement(equal), null);
+    }
+    BitSet ordinals = lookup(resolved);
+    return ordinals == null ? null : new Candidates(ordinals, null);
+  }
+
+  /**
+   * Answer an attribute filter with a normalized attribute path using the
+   * indexes, preferring indexes over resource ordinals.
+   *
+   * @param filter The attribute filter.
+   * @return The ordinals of the matching resources or {@code null} if no
+   * index can answer the filter.
+   */
+  private BitSet lookup(final Filter filter)
+  {
+    Path path = filter.getAttributePath();
+    for (OrdinalResourceIndex index : ordinalIndexes)
+    {
+      if (index.getPath().equals(path))
+      {
+        BitSet ordinals = index.lookup(filter);
+        if (ordinals != null)
+        {
+          return ordinals;
+        }
+      }
+    }
+    for (ResourceIndex index : indexes)
+    {
+      if (index.getPath().equals(path))
+      {
+        Set<String> ids = index.lookup(filter);
+        if (ids != null)
+        {
+          BitSet ordinals = new BitSet();
+          for (String id : ids)
+          {
+            ordinals.set(entries.get(id).ordinal);
+          }
+          return ordinals;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Retrieves the ordinals of the resources in the store that are not in a
+   * set of ordinals.
+   *
+   * @param ordinals The ordinals to exclude.
+   * @return The complement of the ordinals.
+   */
+  private BitSet complement(final BitSet ordinals)
+  {
+    BitSet complement = (BitSet) liveOrdinals.clone();
+    complement.andNot(ordinals);
+    return complement;
+  }
+
+  /**
+   * Retrieve the values of an attribute from a resource.
+   *
+   * @param path The path of the attribute.
+   * @param node The resource.
+   * @return The non-null values with multi-valued attributes flattened.
+   */
+  private static List<JsonNode> getValues(final Path path,
+                                          final ObjectNode node)
+  {
+    List<JsonNode> values = new ArrayList<JsonNode>();
+    try
+    {
+      for (JsonNode value : JsonUtils.findMatchingPaths(path, node))
+      {
+        if (value.isArray())
+        {
+          for (JsonNode element : value)
+          {
+            if (!element.isNull())
+            {
+              values.add(element);
+            }
+          }
+        }
+        else if (!value.isNull())
+        {
+          values.add(value);
+        }
+      }
+    }
+    catch (ScimException e)
+    {
+      // The path has no value filters so this should never happen.
+      Debug.debugException(e);
+    }
+    return values;
+  }
+
+  /**
+   * Retrieve the values of an attribute from several resources.
+   *
+   * @param path The path of the attribute.
+   * @param nodes The resources keyed by ordinal.
+   * @return The non-null values of each resource keyed by ordinal.
+   */
+  private static Map<Integer, List<JsonNode>> getValues(
+      final Path path, final Map<Integer, ObjectNode> nodes)
+  {
+    Map<Integer, List<JsonNode>> values =
+        new HashMap<Integer, List<JsonNode>>(nodes.size() * 2);
+    for (Map.Entry<Integer, ObjectNode> entry : nodes.entrySet())
+    {
+      values.put(entry.getKey(), getValues(path, entry.getValue()));
+    }
+    return values;
+  }
+
+  /**
+   * Intersect bitmaps of resource ordinals, starting with the sparsest.
+   *
+   * @param bitmaps The bitmaps of resource ordinals, which are not modified.
+   * @return The intersection of the bitmaps.
+   */
+  private static BitSet intersect(final List<BitSet> bitmaps)
+  {
+    if (bitmaps.size() == 1)
+    {
+      return bitmaps.get(0);
+    }
+    Collections.sort(bitmaps, new Comparator<BitSet>()
+    {
+      public int compare(final BitSet o1, final BitSet o2)
+      {
+        int c1 = o1.cardinality();
+        int c2 = o2.cardinality();
+        return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+      }
+    });
+    BitSet ordinals = (BitSet) bitmaps.get(0).clone();
+    for (int i = 1; i < bitmaps.size() && !ordinals.isEmpty(); i++)
+    {
+      ordinals.and(bitmaps.get(i));
+    }
+    return ordinals;
+  }
+
+  /**
+   * Whether a filter compares a single attribute.
+   *
+   * @param filter The filter.
+   * @return {@code true} if the filter compares a single attribute.
+   */
+  private static boolean isAttributeFilter(final Filter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case AND:
+      case OR:
+      case NOT:
+      case COMPLEX_VALUE:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Whether any element of the path has a value filter.
+   *
+   * @param path The path.
+   * @return {@code true} if any element of the path has a value filter.
+   */
+  private static boolean hasValueFilters(final Path path)
+  {
+    for (Path.Element element : path)
+    {
+      if (element.getValueFilter() != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Create a copy of an attribute filter with a different attribute path.
+   *
+   * @param filter The attribute filter.
+   * @param path The new attribute path.
+   * @return The new filter or {@code null} if the filter type is not
+   * supported.
+   */
+  private static Filter withAttributePath(final Filter filter, final Path path)
+  {
+    switch (filter.getFilterType())
+    {
+      case EQUAL:
+        return Filter.eq(path, filter.getComparisonValue());
+      case NOT_EQUAL:
+        return Filter.ne(path, filter.getComparisonValue());
+      case CONTAINS:
+        return Filter.co(path, filter.getComparisonValue());
+      case STARTS_WITH:
+        return Filter.sw(path, filter.getComparisonValue());
+      case ENDS_WITH:
+        return Filter.ew(path, filter.getComparisonValue());
+      case PRESENT:
+        return Filter.pr(path);
+      case GREATER_THAN:
+        return Filter.gt(path, filter.getComparisonValue());
+      case GREATER_OR_EQUAL:
+        return Filter.ge(path, filter.getComparisonValue());
+      case LESS_THAN:
+        return Filter.lt(path, filter.getComparisonValue());
+      case LESS_OR_EQUAL:
+        return Filter.le(path, filter.getComparisonValue());
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+
+/**
+ * A mapping of SCIM attributes to the attribute types of an LDAP directory
+ * used by the {@link LdapFilterTranslator}. Attributes that are not mapped can
+ * not be pushed down to the directory and must be evaluated in memory.
+ */
+public interface LdapAttributeMapping
+{
+  /**
+   * Retrieve the LDAP attribute type for an attribute.
+   *
+   * @param path The path to the attribute, without any value filters and
+   *             relative to the resource. Sub-attributes of complex attributes
+   *             are mapped individually, for example {@code name.givenName}
+   *             or {@code emails.value}.
+   * @return The name or OID of the LDAP attribute type or {@code null} if the
+   * attribute is not mapped.
+   */
+  String getLdapAttribute(final Path path);
+}
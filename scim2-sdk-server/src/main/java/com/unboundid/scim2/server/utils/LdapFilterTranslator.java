@@ -0,0 +1,682 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.AndFilter;
+import com.unboundid.scim2.common.filters.ComplexValueFilter;
+import com.unboundid.scim2.common.filters.ContainsFilter;
+import com.unboundid.scim2.common.filters.EndsWithFilter;
+import com.unboundid.scim2.common.filters.EqualFilter;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.filters.FilterVisitor;
+import com.unboundid.scim2.common.filters.GreaterThanFilter;
+import com.unboundid.scim2.common.filters.GreaterThanOrEqualFilter;
+import com.unboundid.scim2.common.filters.LessThanFilter;
+import com.unboundid.scim2.common.filters.LessThanOrEqualFilter;
+import com.unboundid.scim2.common.filters.NotEqualFilter;
+import com.unboundid.scim2.common.filters.NotFilter;
+import com.unboundid.scim2.common.filters.OrFilter;
+import com.unboundid.scim2.common.filters.PresentFilter;
+import com.unboundid.scim2.common.filters.StartsWithFilter;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.FilterNormalizer;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * A filter visitor that translates SCIM filters into LDAP filter strings as
+ * described in RFC 4515 so that searches may be pushed down to a directory
+ * server. Attributes are mapped to LDAP attribute types using a
+ * {@link LdapAttributeMapping}. Each visit method returns the LDAP filter, or
+ * {@code null} if the filter can not be translated.
+ * <p>
+ * Most callers should use {@link #translate(Filter)}, which translates as much
+ * of the filter as possible and reports the remainder as a residual filter to
+ * be evaluated in memory. The following translations are performed:
+ * <ul>
+ *   <li>{@code eq} and {@code ne} become equality assertions, with
+ *       {@code eq null} and {@code ne null} becoming negated and plain
+ *       presence assertions.</li>
+ *   <li>{@code co}, {@code sw} and {@code ew} become substring
+ *       assertions.</li>
+ *   <li>{@code pr} becomes a presence assertion.</li>
+ *   <li>{@code ge} and {@code le} become ordering assertions. {@code gt} and
+ *       {@code lt} are expressed as an ordering assertion combined with a
+ *       negated equality assertion, which is only equivalent for
+ *       single-valued attributes.</li>
+ *   <li>Value filters on single-valued complex attributes are translated
+ *       using the mapped sub-attributes. LDAP can not correlate the values of
+ *       different attributes, so value filters on multi-valued complex
+ *       attributes are only translated if every value matching the filter
+ *       matches a single sub-attribute assertion, for example
+ *       {@code emails[value ew "@example.com"]}.</li>
+ * </ul>
+ * Values are matched using the matching rules of the mapped LDAP attribute
+ * types, so attributes should be mapped to LDAP attribute types with the same
+ * case sensitivity. Attributes are treated as multi-valued unless a resource
+ * type definition is provided that defines them as single-valued.
+ */
+public class LdapFilterTranslator implements FilterVisitor<String, Void>
+{
+  private static final String GENERALIZED_TIME_FORMAT =
+      "yyyyMMddHHmmss.SSS'Z'";
+
+  private final LdapAttributeMapping attributeMapping;
+  private final ResourceTypeDefinition resourceType;
+  private final Path parentPath;
+
+  /**
+   * Create a new LDAP filter translator.
+   *
+   * @param attributeMapping The mapping of attributes to LDAP attribute types.
+   * @param resourceType The resource type definition used to determine
+   *                     attribute types and whether attributes are
+   *                     multi-valued or {@code null} to treat all attributes
+   *                     as multi-valued strings.
+   */
+  public LdapFilterTranslator(final LdapAttributeMapping attributeMapping,
+                              final ResourceTypeDefinition resourceType)
+  {
+    this(attributeMapping, resourceType, null);
+  }
+
+  /**
+   * Create a new LDAP filter translator for value filters.
+   *
+   * @param attributeMapping The mapping of attributes to LDAP attribute types.
+   * @param resourceType The resource type definition or {@code null}.
+   * @param parentPath The path of the complex attribute whose value filter is
+   *                   translated or {@code null}.
+   */
+  private LdapFilterTranslator(final LdapAttributeMapping attributeMapping,
+                               final ResourceTypeDefinition resourceType,
+                               final Path parentPath)
+  {
+    this.attributeMapping = attributeMapping;
+    this.resourceType = resourceType;
+    this.parentPath = parentPath;
+  }
+
+  /**
+   * Translate a filter. The components of a top-level {@code and} filter are
+   * translated individually and any components that could not be translated
+   * are returned as the residual filter.
+   *
+   * @param filter The filter to translate or {@code null}.
+   * @return The translated LDAP query.
+   */
+  public LdapQuery translate(final Filter filter)
+  {
+    if (filter == null)
+    {
+      return new LdapQuery(null, null);
+    }
+
+    Filter normalized = resourceType == null ?
+        new FilterNormalizer().normalize(filter) :
+        new SchemaAwareFilterNormalizer(resourceType).normalize(filter);
+    List<Filter> components = normalized.getFilterType() == FilterType.AND ?
+        normalized.getCombinedFilters() :
+        Collections.singletonList(normalized);
+
+    List<String> translated = new ArrayList<String>(components.size());
+    List<Filter> residual = new ArrayList<Filter>();
+    for (Filter component : components)
+    {
+      String ldapFilter;
+      try
+      {
+        ldapFilter = component.visit(this, null);
+      }
+      catch (ScimException e)
+      {
+        Debug.debugException(e);
+        ldapFilter = null;
+      }
+      if (ldapFilter == null)
+      {
+        residual.add(component);
+      }
+      else
+      {
+        translated.add(ldapFilter);
+      }
+    }
+
+    String ldapFilter;
+    if (translated.isEmpty())
+    {
+      ldapFilter = null;
+    }
+    else if (translated.size() == 1)
+    {
+      ldapFilter = translated.get(0);
+    }
+    else
+    {
+      StringBuilder builder = new StringBuilder("(&");
+      for (String component : translated)
+      {
+        builder.append(component);
+      }
+      ldapFilter = builder.append(')').toString();
+    }
+
+    Filter residualFilter;
+    if (residual.isEmpty())
+    {
+      residualFilter = null;
+    }
+    else
+    {
+      residualFilter = residual.size() == 1 ?
+          residual.get(0) : Filter.and(residual);
+    }
+    return new LdapQuery(ldapFilter, residualFilter);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final EqualFilter filter, final Void param)
+      throws ScimException
+  {
+    String attribute = getLdapAttribute(filter);
+    if (attribute == null)
+    {
+      return null;
+    }
+    if (filter.getComparisonValue().isNull())
+    {
+      return "(!(" + attribute + "=*))";
+    }
+    String value = toAssertionValue(filter);
+    return value == null ? null : "(" + attribute + "=" + value + ")";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final NotEqualFilter filter, final Void param)
+      throws ScimException
+  {
+    String attribute = getLdapAttribute(filter);
+    if (attribute == null)
+    {
+      return null;
+    }
+    if (filter.getComparisonValue().isNull())
+    {
+      return "(" + attribute + "=*)";
+    }
+    String value = toAssertionValue(filter);
+    // A missing value is not equal to anything.
+    return value == null ? null : "(!(" + attribute + "=" + value + "))";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final ContainsFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateSubstring(filter, true, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final StartsWithFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateSubstring(filter, false, true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final EndsWithFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateSubstring(filter, true, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final PresentFilter filter, final Void param)
+      throws ScimException
+  {
+    String attribute = getLdapAttribute(filter);
+    return attribute == null ? null : "(" + attribute + "=*)";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final GreaterThanFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateOrdering(filter, ">=", true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final GreaterThanOrEqualFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateOrdering(filter, ">=", false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final LessThanFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateOrdering(filter, "<=", true);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final LessThanOrEqualFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateOrdering(filter, "<=", false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final AndFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateCombining(filter, '&');
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final OrFilter filter, final Void param)
+      throws ScimException
+  {
+    return translateCombining(filter, '|');
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final NotFilter filter, final Void param)
+      throws ScimException
+  {
+    String inverted = filter.getInvertedFilter().visit(this, param);
+    return inverted == null ? null : "(!" + inverted + ")";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final ComplexValueFilter filter, final Void param)
+      throws ScimException
+  {
+    Path path = resolve(filter.getAttributePath());
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    if (!isSingleValued(path) && !isDistributive(filter.getValueFilter()))
+    {
+      return null;
+    }
+    return filter.getValueFilter().visit(
+        new LdapFilterTranslator(attributeMapping, resourceType, path), param);
+  }
+
+  /**
+   * Whether a value filter on a multi-valued complex attribute is equivalent
+   * to the same filter applied to the sub-attributes of all values
+   * combined. This is the case for {@code or} filters of positive attribute
+   * assertions that match a single value.
+   *
+   * @param valueFilter The value filter.
+   * @return {@code true} if the value filter can be translated without
+   * correlating sub-attributes of the same value.
+   */
+  private static boolean isDistributive(final Filter valueFilter)
+  {
+    switch (valueFilter.getFilterType())
+    {
+      case OR:
+        for (Filter component : valueFilter.getCombinedFilters())
+        {
+          if (!isDistributive(component))
+          {
+            return false;
+          }
+        }
+        return true;
+      case EQUAL:
+        return !valueFilter.getComparisonValue().isNull();
+      case CONTAINS:
+      case STARTS_WITH:
+      case ENDS_WITH:
+      case PRESENT:
+      case GREATER_OR_EQUAL:
+      case LESS_OR_EQUAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Translate a logical combining filter. The filter is only translated if
+   * all of its components can be translated.
+   *
+   * @param filter The {@code and} or {@code or} filter.
+   * @param operator The LDAP filter operator.
+   * @return The LDAP filter or {@code null}.
+   * @throws ScimException If an error occurs.
+   */
+  private String translateCombining(final Filter filter, final char operator)
+      throws ScimException
+  {
+    StringBuilder builder = new StringBuilder("(");
+    builder.append(operator);
+    for (Filter component : filter.getCombinedFilters())
+    {
+      String ldapFilter = component.visit(this, null);
+      if (ldapFilter == null)
+      {
+        return null;
+      }
+      builder.append(ldapFilter);
+    }
+    builder.append(')');
+    return builder.toString();
+  }
+
+  /**
+   * Translate an ordering comparison.
+   *
+   * @param filter The comparison filter.
+   * @param operator The LDAP ordering operator.
+   * @param strict Whether equal values must be excluded.
+   * @return The LDAP filter or {@code null}.
+   */
+  private String translateOrdering(final Filter filter, final String operator,
+                                   final boolean strict)
+  {
+    ValueNode comparisonValue = filter.getComparisonValue();
+    if (!comparisonValue.isTextual() && !comparisonValue.isNumber())
+    {
+      // The filter evaluator rejects these so leave it to report the error.
+      return null;
+    }
+    String attribute = getLdapAttribute(filter);
+    if (attribute == null)
+    {
+      return null;
+    }
+    String value = toAssertionValue(filter);
+    if (value == null)
+    {
+      return null;
+    }
+    if (!strict)
+    {
+      return "(" + attribute + operator + value + ")";
+    }
+    // Another value of a multi-valued attribute might be equal.
+    if (!isSingleValued(resolve(filter.getAttributePath())))
+    {
+      return null;
+    }
+    return "(&(" + attribute + operator + value + ")(!(" + attribute + "=" +
+        value + ")))";
+  }
+
+  /**
+   * Translate a substring filter into a substring assertion.
+   *
+   * @param filter The substring filter.
+   * @param leadingWildcard Whether the value may be preceded by other
+   *                        characters.
+   * @param trailingWildcard Whether the value may be followed by other
+   *                         characters.
+   * @return The LDAP filter or {@code null}.
+   */
+  private String translateSubstring(final Filter filter,
+                                    final boolean leadingWildcard,
+                                    final boolean trailingWildcard)
+  {
+    String attribute = getLdapAttribute(filter);
+    if (attribute == null || !filter.getComparisonValue().isTextual())
+    {
+      return null;
+    }
+    AttributeDefinition attributeDefinition =
+        getAttributeDefinition(resolve(filter.getAttributePath()));
+    if (attributeDefinition != null &&
+        attributeDefinition.getType() != AttributeDefinition.Type.STRING &&
+        attributeDefinition.getType() != AttributeDefinition.Type.REFERENCE)
+    {
+      return null;
+    }
+    String value = filter.getComparisonValue().textValue();
+    if (value.isEmpty())
+    {
+      // Every string contains the empty string.
+      return "(" + attribute + "=*)";
+    }
+    StringBuilder builder = new StringBuilder();
+    builder.append('(').append(attribute).append('=');
+    if (leadingWildcard)
+    {
+      builder.append('*');
+    }
+    escape(value, builder);
+    if (trailingWildcard)
+    {
+      builder.append('*');
+    }
+    return builder.append(')').toString();
+  }
+
+  /**
+   * Convert the comparison value of a filter to an escaped LDAP assertion
+   * value.
+   *
+   * @param filter The comparison filter.
+   * @return The escaped assertion value or {@code null} if the value can not
+   * be converted.
+   */
+  private String toAssertionValue(final Filter filter)
+  {
+    ValueNode value = filter.getComparisonValue();
+    AttributeDefinition attributeDefinition =
+        getAttributeDefinition(resolve(filter.getAttributePath()));
+    String assertionValue;
+    if (value.isTextual())
+    {
+      if (attributeDefinition != null &&
+          attributeDefinition.getType() == AttributeDefinition.Type.DATETIME)
+      {
+        Date date = JsonUtils.dateValue(value);
+        if (date == null)
+        {
+          return null;
+        }
+        SimpleDateFormat format =
+            new SimpleDateFormat(GENERALIZED_TIME_FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        assertionValue = format.format(date);
+      }
+      else
+      {
+        assertionValue = value.textValue();
+      }
+    }
+    else if (value.isNumber())
+    {
+      assertionValue = value.asText();
+    }
+    else if (value.isBoolean())
+    {
+      // The LDAP Boolean syntax.
+      assertionValue = value.booleanValue() ? "TRUE" : "FALSE";
+    }
+    else
+    {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder(assertionValue.length());
+    escape(assertionValue, builder);
+    return builder.toString();
+  }
+
+  /**
+   * Append a value to a buffer, escaping the characters that are not allowed
+   * in RFC 4515 assertion values.
+   *
+   * @param value The value to escape.
+   * @param builder The buffer to append to.
+   */
+  private static void escape(final String value, final StringBuilder builder)
+  {
+    for (int i = 0; i < value.length(); i++)
+    {
+      char c = value.charAt(i);
+      switch (c)
+      {
+        case '*':
+          builder.append("\\2a");
+          break;
+        case '(':
+          builder.append("\\28");
+          break;
+        case ')':
+          builder.append("\\29");
+          break;
+        case '\\':
+          builder.append("\\5c");
+          break;
+        case '\u0000':
+          builder.append("\\00");
+          break;
+        default:
+          builder.append(c);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Retrieve the LDAP attribute type for the attribute of a filter.
+   *
+   * @param filter The filter.
+   * @return The LDAP attribute type or {@code null} if the attribute is not
+   * mapped.
+   */
+  private String getLdapAttribute(final Filter filter)
+  {
+    Path path = resolve(filter.getAttributePath());
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    return attributeMapping.getLdapAttribute(path);
+  }
+
+  /**
+   * Whether an attribute and all of its parent attributes are known to be
+   * single-valued.
+   *
+   * @param path The resolved path to the attribute.
+   * @return {@code true} if the attribute is single-valued.
+   */
+  private boolean isSingleValued(final Path path)
+  {
+    for (int i = 1; i <= path.size(); i++)
+    {
+      AttributeDefinition attributeDefinition =
+          getAttributeDefinition(path.subPath(i));
+      if (attributeDefinition == null || attributeDefinition.isMultiValued())
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Retrieve the attribute definition of an attribute.
+   *
+   * @param path The resolved path to the attribute.
+   * @return The attribute definition or {@code null}.
+   */
+  private AttributeDefinition getAttributeDefinition(final Path path)
+  {
+    return resourceType == null ? null :
+        resourceType.getAttributeDefinition(path);
+  }
+
+  /**
+   * Resolve a filter attribute path relative to the resource.
+   *
+   * @param path The filter attribute path.
+   * @return The resolved path.
+   */
+  private Path resolve(final Path path)
+  {
+    Path resolved = parentPath == null ? path : parentPath.attribute(path);
+    return resourceType == null ? resolved :
+        resourceType.normalizePath(resolved);
+  }
+
+  /**
+   * Whether any element of the path has a value filter.
+   *
+   * @param path The path.
+   * @return {@code true} if any element of the path has a value filter.
+   */
+  private static boolean hasValueFilters(final Path path)
+  {
+    for (Path.Element element : path)
+    {
+      if (element.getValueFilter() != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+}
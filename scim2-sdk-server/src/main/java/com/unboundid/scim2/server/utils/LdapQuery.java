@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.filters.Filter;
+
+/**
+ * The result of translating a SCIM filter into an LDAP filter using the
+ * {@link LdapFilterTranslator}. Any part of the filter that could not be
+ * translated is available as the residual filter, which must be evaluated in
+ * memory on the entries returned by the directory, for example with the
+ * {@link SchemaAwareFilterEvaluator}.
+ */
+public final class LdapQuery
+{
+  /**
+   * The LDAP filter that matches all entries.
+   */
+  public static final String MATCH_ALL_FILTER = "(objectClass=*)";
+
+  private final String filter;
+  private final Filter residualFilter;
+
+  /**
+   * Create a new LDAP query.
+   *
+   * @param filter The RFC 4515 LDAP filter or {@code null}.
+   * @param residualFilter The filter that must be evaluated in memory or
+   *                       {@code null}.
+   */
+  LdapQuery(final String filter, final Filter residualFilter)
+  {
+    this.filter = filter;
+    this.residualFilter = residualFilter;
+  }
+
+  /**
+   * Retrieves the string representation of the LDAP filter as described in
+   * RFC 4515.
+   *
+   * @return The LDAP filter or {@code null} if all entries are candidates.
+   */
+  public String getFilter()
+  {
+    return filter;
+  }
+
+  /**
+   * Retrieves the string representation of the LDAP filter to send to the
+   * directory.
+   *
+   * @return The LDAP filter or {@link #MATCH_ALL_FILTER} if all entries are
+   * candidates.
+   */
+  public String getFilterOrMatchAll()
+  {
+    return filter == null ? MATCH_ALL_FILTER : filter;
+  }
+
+  /**
+   * Retrieves the part of the SCIM filter that could not be translated and
+   * must be evaluated in memory.
+   *
+   * @return The residual filter or {@code null} if the entire filter was
+   * translated.
+   */
+  public Filter getResidualFilter()
+  {
+    return residualFilter;
+  }
+
+  /**
+   * Whether the entire SCIM filter was translated so that no post-filtering
+   * of the entries returned by the directory is needed.
+   *
+   * @return {@code true} if the entire filter was translated.
+   */
+  public boolean isFullyTranslated()
+  {
+    return residualFilter == null;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    return "LdapQuery{" +
+        "filter='" + filter + '\'' +
+        ", residualFilter=" + residualFilter +
+        '}';
+  }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A reverse index from the values of a group's members, such as
+ * {@code members.value}, to the IDs of the groups with those members. It
+ * answers {@code eq} and {@code pr} filters, including value filters like
+ * {@code members[value eq "2819c223"]}, and is updated incrementally with
+ * only the members added or removed when a group is replaced or patched.
+ * <p>
+ * The index can also expand nested groups: the transitive groups of a member
+ * are the groups it is a member of, the groups those groups are members of,
+ * and so on. Expansions are memoized until the index is next updated, and
+ * cycles in the group graph are tolerated.
+ * <p>
+ * Unlike other indexes, this index is thread-safe so that memberships can be
+ * expanded while the store is searched.
+ */
+public final class MembershipIndex implements IncrementalResourceIndex
+{
+  private final Path path;
+  private final AttributeDefinition attributeDefinition;
+  private final Map<Comparable<?>, Map<String, Integer>> groupsByMember =
+      new HashMap<Comparable<?>, Map<String, Integer>>();
+  private final Map<String, Integer> memberCounts =
+      new HashMap<String, Integer>();
+  private final Map<Comparable<?>, Set<String>> transitiveGroups =
+      new HashMap<Comparable<?>, Set<String>>();
+  private int nonStringCount;
+
+  /**
+   * Create a new membership index on the {@code members.value} attribute.
+   *
+   * @param resourceType The resource type definition of the groups or
+   *                     {@code null}.
+   */
+  public MembershipIndex(final ResourceTypeDefinition resourceType)
+  {
+    this(Path.root().attribute("members").attribute("value"), resourceType);
+  }
+
+  /**
+   * Create a new membership index.
+   *
+   * @param path The path of the member value attribute.
+   * @param resourceType The resource type definition of the groups or
+   *                     {@code null}.
+   */
+  public MembershipIndex(final Path path,
+                         final ResourceTypeDefinition resourceType)
+  {
+    Path attributePath = path.withoutFilters();
+    this.path = resourceType == null ?
+        attributePath : resourceType.normalizePath(attributePath);
+    this.attributeDefinition = resourceType == null ?
+        null : resourceType.getAttributeDefinition(this.path);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void add(final String id, final List<JsonNode> values)
+  {
+    if (values.isEmpty())
+    {
+      return;
+    }
+    for (JsonNode value : values)
+    {
+      Comparable<?> key = keyOf(value);
+      Map<String, Integer> groups = groupsByMember.get(key);
+      if (groups == null)
+      {
+        groups = new HashMap<String, Integer>(2);
+        groupsByMember.put(key, groups);
+      }
+      Integer count = groups.get(id);
+      groups.put(id, count == null ? 1 : count + 1);
+      if (!isString(value))
+      {
+        nonStringCount++;
+      }
+    }
+    Integer count = memberCounts.get(id);
+    memberCounts.put(id, (count == null ? 0 : count) + values.size());
+    transitiveGroups.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized void remove(final String id,
+                                  final List<JsonNode> values)
+  {
+    if (values.isEmpty())
+    {
+      return;
+    }
+    for (JsonNode value : values)
+    {
+      Comparable<?> key = keyOf(value);
+      Map<String, Integer> groups = groupsByMember.get(key);
+      Integer count = groups == null ? null : groups.get(id);
+      if (count != null)
+      {
+        if (count == 1)
+        {
+          groups.remove(id);
+          if (groups.isEmpty())
+          {
+            groupsByMember.remove(key);
+          }
+        }
+        else
+        {
+          groups.put(id, count - 1);
+        }
+      }
+      if (!isString(value))
+      {
+        nonStringCount--;
+      }
+    }
+    Integer count = memberCounts.get(id);
+    if (count != null)
+    {
+      if (count <= values.size())
+      {
+        memberCounts.remove(id);
+      }
+      else
+      {
+        memberCounts.put(id, count - values.size());
+      }
+    }
+    transitiveGroups.clear();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized Set<String> lookup(final Filter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case PRESENT:
+        return new HashSet<String>(memberCounts.keySet());
+      case EQUAL:
+        ValueNode value = filter.getComparisonValue();
+        // Other values are compared as dates or text by the filter
+        // evaluator, which the member keys do not preserve.
+        if (!isString(value) || nonStringCount > 0)
+        {
+          return null;
+        }
+        Map<String, Integer> groups = groupsByMember.get(keyOf(value));
+        return groups == null ?
+            Collections.<String>emptySet() :
+            new HashSet<String>(groups.keySet());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Retrieves the IDs of the groups a member is directly a member of.
+   *
+   * @param member The member value, such as the ID of a user or group.
+   * @return The IDs of the groups the member is directly a member of.
+   */
+  public synchronized Set<String> getGroups(final String member)
+  {
+    Map<String, Integer> groups = groupsByMember.get(keyOf(member));
+    return groups == null ?
+        Collections.<String>emptySet() :
+        Collections.unmodifiableSet(new HashSet<String>(groups.keySet()));
+  }
+
+  /**
+   * Retrieves the IDs of the groups a member is directly or indirectly a
+   * member of through nested groups, where a group is a member of another
+   * group if its ID is a member value of the other group.
+   *
+   * @param member The member value, such as the ID of a user or group.
+   * @return The IDs of the groups the member is directly or indirectly a
+   * member of.
+   */
+  public synchronized Set<String> getTransitiveGroups(final String member)
+  {
+    Comparable<?> memberKey = keyOf(member);
+    Set<String> result = transitiveGroups.get(memberKey);
+    if (result != null)
+    {
+      return result;
+    }
+
+    Set<String> groups = new HashSet<String>();
+    Deque<String> pending = new ArrayDeque<String>();
+    pending.add(member);
+    while (!pending.isEmpty())
+    {
+      String current = pending.poll();
+      Comparable<?> key = keyOf(current);
+      Set<String> memoized = key.equals(memberKey) ?
+          null : transitiveGroups.get(key);
+      if (memoized != null)
+      {
+        // Everything reachable from this group was already expanded.
+        groups.addAll(memoized);
+        continue;
+      }
+      Map<String, Integer> direct = groupsByMember.get(key);
+      if (direct == null)
+      {
+        continue;
+      }
+      for (String group : direct.keySet())
+      {
+        if (groups.add(group))
+        {
+          pending.add(group);
+        }
+      }
+    }
+
+    result = Collections.unmodifiableSet(groups);
+    transitiveGroups.put(memberKey, result);
+    return result;
+  }
+
+  /**
+   * Whether a value is a string that is compared as text by the filter
+   * evaluator.
+   *
+   * @param value The value.
+   * @return {@code true} if the value is a string that is not a date.
+   */
+  private static boolean isString(final JsonNode value)
+  {
+    return value != null &&
+        IndexKeys.kindOf(value) == IndexKeys.Kind.STRING;
+  }
+
+  /**
+   * Retrieves the key of a member value. Strings are keyed by their text so
+   * that group IDs can be looked up when expanding nested groups.
+   *
+   * @param value The member value.
+   * @return The key of the member value.
+   */
+  private Comparable<?> keyOf(final JsonNode value)
+  {
+    return value.isTextual() ? keyOf(value.textValue()) :
+        IndexKeys.keyOf(value, IndexKeys.kindOf(value), attributeDefinition);
+  }
+
+  /**
+   * Retrieves the key of a member value.
+   *
+   * @param value The member value.
+   * @return The key of the member value.
+   */
+  private Comparable<?> keyOf(final String value)
+  {
+    return IndexKeys.isCaseExact(attributeDefinition) ?
+        value : StaticUtils.toLowerCase(value);
+  }
+}
@@ -0,0 +1,764 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.SchemaUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+import com.unboundid.scim2.server.BackendSearchRequest;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.PagingMode;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchCapabilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A store of SCIM resources that keeps every resource in a compact binary
+ * encoding in direct byte buffers outside of the Java heap. Only the IDs of
+ * the resources, the locations of their encodings and the field names shared
+ * by all resources are kept on the heap, so large numbers of resources do not
+ * add to the garbage collector's work.
+ * <p>
+ * Resources are only materialized as {@code ObjectNode}s and converted to
+ * the resource class when they are returned. Filters are evaluated with the
+ * {@link SchemaAwareFilterEvaluator} on a partial decoding of each resource
+ * that only contains the top-level attributes the filter references, and all
+ * other attributes are skipped in their encoded form. Sorting decodes only
+ * the attribute to sort by, and only the requested page of the results is
+ * materialized.
+ * <p>
+ * Replaced and removed resources leave unused space in the buffers, which is
+ * reclaimed by {@link #compact()}. The store compacts itself once the unused
+ * space exceeds both the space used by live resources and the buffer size.
+ * Resources are returned in the order they were first added. The store is
+ * thread-safe.
+ *
+ * @param <T> The type of resources in the store.
+ */
+public class OffHeapResourceStore<T extends ScimResource>
+    implements SearchBackend<T>
+{
+  /**
+   * The default size of the buffers resources are stored in.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+  private final ResourceTypeDefinition resourceType;
+  private final Class<T> resourceClass;
+  private final int bufferSize;
+  private final BinaryJson.NameTable names = new BinaryJson.NameTable();
+  private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+  private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+  private final BitSet liveOrdinals = new BitSet();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicLong materializations = new AtomicLong();
+  private int currentBuffer = -1;
+  private long[] locations = new long[16];
+  private int[] lengths = new int[16];
+  private int nextOrdinal;
+  private long liveBytes;
+  private long unusedBytes;
+
+  /**
+   * Create a new off-heap resource store with the default buffer size.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param resourceClass The class to convert resources to when they are
+   *                      returned.
+   */
+  public OffHeapResourceStore(final ResourceTypeDefinition resourceType,
+                              final Class<T> resourceClass)
+  {
+    this(resourceType, resourceClass, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a new off-heap resource store.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param resourceClass The class to convert resources to when they are
+   *                      returned.
+   * @param bufferSize The size of the buffers resources are stored in.
+   *                   Resources larger than this are stored in a buffer of
+   *                   their own.
+   */
+  public OffHeapResourceStore(final ResourceTypeDefinition resourceType,
+                              final Class<T> resourceClass,
+                              final int bufferSize)
+  {
+    if (bufferSize < 1)
+    {
+      throw new IllegalArgumentException("bufferSize must be at least 1");
+    }
+    this.resourceType = resourceType;
+    this.resourceClass = resourceClass;
+    this.bufferSize = bufferSize;
+  }
+
+  /**
+   * Add or replace a resource. A replaced resource keeps its position in the
+   * order resources are returned in.
+   *
+   * @param resource The resource to add. It must have an ID.
+   * @return {@code true} if a resource with the same ID was replaced or
+   * {@code false} if the resource was added.
+   */
+  public boolean put(final T resource)
+  {
+    String id = resource.getId();
+    if (id == null)
+    {
+      throw new IllegalArgumentException("resource must have an id");
+    }
+    ObjectNode node = resource.asGenericScimResource().getObjectNode();
+
+    lock.writeLock().lock();
+    try
+    {
+      byte[] encoded = BinaryJson.encode(node, names);
+      Integer previous = ordinals.get(id);
+      int ordinal;
+      if (previous == null)
+      {
+        ordinal = nextOrdinal++;
+        ensureCapacity(nextOrdinal);
+        ordinals.put(id, ordinal);
+        liveOrdinals.set(ordinal);
+      }
+      else
+      {
+        ordinal = previous;
+        liveBytes -= lengths[ordinal];
+        unusedBytes += lengths[ordinal];
+      }
+      locations[ordinal] = write(encoded);
+      lengths[ordinal] = encoded.length;
+      liveBytes += encoded.length;
+      compactIfNeeded();
+      return previous != null;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Add or replace resources.
+   *
+   * @param resources The resources to add. They must have IDs.
+   * @return this object.
+   */
+  public OffHeapResourceStore<T> putAll(final Collection<T> resources)
+  {
+    for (T resource : resources)
+    {
+      put(resource);
+    }
+    return this;
+  }
+
+  /**
+   * Remove a resource.
+   *
+   * @param id The ID of the resource to remove.
+   * @return {@code true} if the resource was removed or {@code false} if
+   * there is no resource with the ID.
+   */
+  public boolean remove(final String id)
+  {
+    lock.writeLock().lock();
+    try
+    {
+      Integer ordinal = ordinals.remove(id);
+      if (ordinal == null)
+      {
+        return false;
+      }
+      // Ordinals are not reused so that resources stay in insertion order.
+      liveOrdinals.clear(ordinal);
+      liveBytes -= lengths[ordinal];
+      unusedBytes += lengths[ordinal];
+      compactIfNeeded();
+      return true;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieve a resource.
+   *
+   * @param id The ID of the resource to retrieve.
+   * @return The resource or {@code null} if there is no resource with the ID.
+   * @throws ScimException If the resource could not be materialized.
+   */
+  public T get(final String id) throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      Integer ordinal = ordinals.get(id);
+      return ordinal == null ? null : materialize(ordinal);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of resources in the store.
+   *
+   * @return The number of resources in the store.
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return ordinals.size();
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of bytes used by the encodings of the resources in
+   * the store.
+   *
+   * @return The number of bytes used by the encodings of the resources.
+   */
+  public long getLiveBytes()
+  {
+    lock.readLock().lock();
+    try
+    {
+      return liveBytes;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the total capacity of the off-heap buffers of the store.
+   *
+   * @return The total capacity of the off-heap buffers in bytes.
+   */
+  public long getAllocatedBytes()
+  {
+    lock.readLock().lock();
+    try
+    {
+      long allocated = 0;
+      for (ByteBuffer buffer : buffers)
+      {
+        allocated += buffer.capacity();
+      }
+      return allocated;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the number of times a resource was fully decoded because it
+   * was returned.
+   *
+   * @return The number of materialized resources.
+   */
+  public long getMaterializationCount()
+  {
+    return materializations.get();
+  }
+
+  /**
+   * Search for resources matching a filter.
+   *
+   * @param filter The filter or {@code null} to return all resources.
+   * @return The matching resources in the order they were added.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  public List<T> search(final Filter filter) throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet matches = match(filter);
+      List<T> resources = new ArrayList<T>(matches.cardinality());
+      for (int i = matches.nextSetBit(0); i >= 0;
+           i = matches.nextSetBit(i + 1))
+      {
+        resources.add(materialize(i));
+      }
+      return resources;
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Any filter can be pushed down to the store, and it can sort by the
+   * common attributes and any attribute defined by the schemas of the
+   * resource type.
+   */
+  public SearchCapabilities getSearchCapabilities()
+  {
+    SearchCapabilities capabilities = new SearchCapabilities().
+        supportAllFilterTypes().
+        supportAllAttributes().
+        setPagingMode(PagingMode.OFFSET_AND_LIMIT);
+    try
+    {
+      addSortKeys(capabilities, Path.root(),
+          SchemaUtils.COMMON_ATTRIBUTE_DEFINITIONS);
+      if (resourceType.getCoreSchema() != null)
+      {
+        addSortKeys(capabilities, Path.root(),
+            resourceType.getCoreSchema().getAttributes());
+      }
+      for (SchemaResource extension :
+          resourceType.getSchemaExtensions().keySet())
+      {
+        addSortKeys(capabilities, Path.root(extension.getId()),
+            extension.getAttributes());
+      }
+    }
+    catch (BadRequestException e)
+    {
+      // Should never happen since the paths are built from the schemas.
+      Debug.debugException(e);
+    }
+    return capabilities;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BackendSearchResult<T> search(final BackendSearchRequest request)
+      throws ScimException
+  {
+    lock.readLock().lock();
+    try
+    {
+      BitSet matches = match(request.getFilter());
+      List<Integer> sorted = new ArrayList<Integer>(matches.cardinality());
+      for (int i = matches.nextSetBit(0); i >= 0;
+           i = matches.nextSetBit(i + 1))
+      {
+        sorted.add(i);
+      }
+      if (request.getSortBy() != null)
+      {
+        sorted = sort(sorted, request);
+      }
+
+      int totalResults = sorted.size();
+      List<Integer> page = sorted;
+      if (request.getStartIndex() != null && request.getStartIndex() > 1)
+      {
+        page = request.getStartIndex() > page.size() ?
+            Collections.<Integer>emptyList() :
+            page.subList(request.getStartIndex() - 1, page.size());
+      }
+      if (request.getCount() != null && request.getCount() < page.size())
+      {
+        page = page.subList(0, request.getCount());
+      }
+
+      List<T> resources = new ArrayList<T>(page.size());
+      for (int ordinal : page)
+      {
+        resources.add(materialize(ordinal));
+      }
+      return new BackendSearchResult<T>(resources, totalResults);
+    }
+    finally
+    {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Copy the encodings of the live resources into new buffers, reclaiming
+   * the space of replaced and removed resources, and renumber the resources
+   * without changing their order.
+   */
+  public void compact()
+  {
+    lock.writeLock().lock();
+    try
+    {
+      List<ByteBuffer> oldBuffers = new ArrayList<ByteBuffer>(buffers);
+      long[] oldLocations = locations;
+      int[] oldLengths = lengths;
+      int[] renumbered = new int[nextOrdinal];
+
+      buffers.clear();
+      currentBuffer = -1;
+      int capacity = Math.max(16, ordinals.size());
+      locations = new long[capacity];
+      lengths = new int[capacity];
+      nextOrdinal = 0;
+      for (int i = liveOrdinals.nextSetBit(0); i >= 0;
+           i = liveOrdinals.nextSetBit(i + 1))
+      {
+        byte[] encoded = read(oldBuffers, oldLocations[i], oldLengths[i]);
+        renumbered[i] = nextOrdinal;
+        locations[nextOrdinal] = write(encoded);
+        lengths[nextOrdinal] = encoded.length;
+        nextOrdinal++;
+      }
+      for (Map.Entry<String, Integer> entry : ordinals.entrySet())
+      {
+        entry.setValue(renumbered[entry.getValue()]);
+      }
+      liveOrdinals.clear();
+      liveOrdinals.set(0, nextOrdinal);
+      unusedBytes = 0;
+    }
+    finally
+    {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Find the resources matching a filter. The caller must hold the read
+   * lock.
+   *
+   * @param filter The filter or {@code null} to match all resources.
+   * @return The ordinals of the matching resources.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private BitSet match(final Filter filter) throws ScimException
+  {
+    if (filter == null)
+    {
+      return (BitSet) liveOrdinals.clone();
+    }
+    Filter normalized =
+        new SchemaAwareFilterNormalizer(resourceType).normalize(filter);
+    Set<String> fields = new HashSet<String>();
+    addFields(normalized, fields);
+
+    BitSet matches = new BitSet();
+    SchemaAwareFilterEvaluator filterEvaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    for (int i = liveOrdinals.nextSetBit(0); i >= 0;
+         i = liveOrdinals.nextSetBit(i + 1))
+    {
+      if (normalized.visit(filterEvaluator, decode(i, fields)))
+      {
+        matches.set(i);
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * Sort resources by the attribute requested by a search. The caller must
+   * hold the read lock.
+   *
+   * @param ordinals The ordinals of the resources to sort.
+   * @param request The search request.
+   * @return The sorted ordinals.
+   * @throws ScimException If the resources could not be decoded.
+   */
+  private List<Integer> sort(final List<Integer> ordinals,
+                             final BackendSearchRequest request)
+      throws ScimException
+  {
+    Set<String> fields = new HashSet<String>();
+    addFields(request.getSortBy(), fields);
+    final Map<Integer, GenericScimResource> sortValues =
+        new HashMap<Integer, GenericScimResource>(ordinals.size());
+    for (int ordinal : ordinals)
+    {
+      sortValues.put(ordinal,
+          new GenericScimResource(decode(ordinal, fields)));
+    }
+
+    final ResourceComparator<GenericScimResource> comparator =
+        new ResourceComparator<GenericScimResource>(request.getSortBy(),
+            request.getSortOrder(), resourceType);
+    List<Integer> sorted = new ArrayList<Integer>(ordinals);
+    Collections.sort(sorted, new Comparator<Integer>()
+    {
+      public int compare(final Integer o1, final Integer o2)
+      {
+        return comparator.compare(sortValues.get(o1), sortValues.get(o2));
+      }
+    });
+    return sorted;
+  }
+
+  /**
+   * Fully decode a resource and convert it to the resource class. The caller
+   * must hold the read lock.
+   *
+   * @param ordinal The ordinal of the resource.
+   * @return The resource.
+   * @throws ScimException If the resource could not be decoded or
+   * converted.
+   */
+  @SuppressWarnings("unchecked")
+  private T materialize(final int ordinal) throws ScimException
+  {
+    materializations.incrementAndGet();
+    ObjectNode node = decode(ordinal, null);
+    if (resourceClass.isAssignableFrom(GenericScimResource.class))
+    {
+      return (T) new GenericScimResource(node);
+    }
+    try
+    {
+      return JsonUtils.nodeToValue(node, resourceClass);
+    }
+    catch (JsonProcessingException e)
+    {
+      throw new ServerErrorException(e.getMessage());
+    }
+  }
+
+  /**
+   * Decode a resource. The caller must hold the read lock.
+   *
+   * @param ordinal The ordinal of the resource.
+   * @param fields The lower case names of the top-level attributes to decode
+   *               or {@code null} to decode all attributes.
+   * @return The decoded attributes of the resource.
+   * @throws ServerErrorException If the encoding of the resource is not
+   * valid.
+   */
+  private ObjectNode decode(final int ordinal, final Set<String> fields)
+      throws ServerErrorException
+  {
+    long location = locations[ordinal];
+    try
+    {
+      return BinaryJson.decodeObject(buffers.get((int) (location >>> 32)),
+          (int) location, names, fields);
+    }
+    catch (IOException e)
+    {
+      Debug.debugException(e);
+      throw new ServerErrorException(
+          "Unable to decode a stored resource: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Write an encoded resource to the buffers. The caller must hold the write
+   * lock.
+   *
+   * @param encoded The encoded resource.
+   * @return The location of the encoded resource, which is the index of the
+   * buffer in the upper and the position in the buffer in the lower 32 bits.
+   */
+  private long write(final byte[] encoded)
+  {
+    int index;
+    int position;
+    if (encoded.length > bufferSize)
+    {
+      // Oversized resources get a buffer of their own, and the current
+      // buffer stays current.
+      buffers.add(ByteBuffer.allocateDirect(encoded.length));
+      index = buffers.size() - 1;
+      position = 0;
+    }
+    else
+    {
+      if (currentBuffer < 0 ||
+          buffers.get(currentBuffer).remaining() < encoded.length)
+      {
+        buffers.add(ByteBuffer.allocateDirect(bufferSize));
+        currentBuffer = buffers.size() - 1;
+      }
+      index = currentBuffer;
+      position = buffers.get(currentBuffer).position();
+    }
+    ByteBuffer buffer = buffers.get(index);
+    buffer.position(position);
+    buffer.put(encoded);
+    return ((long) index << 32) | position;
+  }
+
+  /**
+   * Read an encoded resource from buffers.
+   *
+   * @param from The buffers to read from.
+   * @param location The location of the encoded resource.
+   * @param length The length of the encoded resource.
+   * @return The encoded resource.
+   */
+  private static byte[] read(final List<ByteBuffer> from, final long location,
+                             final int length)
+  {
+    ByteBuffer buffer = from.get((int) (location >>> 32)).duplicate();
+    buffer.position((int) location);
+    byte[] encoded = new byte[length];
+    buffer.get(encoded);
+    return encoded;
+  }
+
+  /**
+   * Compact the store once the unused space exceeds both the space used by
+   * live resources and the buffer size. The caller must hold the write lock.
+   */
+  private void compactIfNeeded()
+  {
+    if (unusedBytes > liveBytes && unusedBytes > bufferSize)
+    {
+      compact();
+    }
+  }
+
+  /**
+   * Make room for more ordinals. The caller must hold the write lock.
+   *
+   * @param capacity The number of ordinals to make room for.
+   */
+  private void ensureCapacity(final int capacity)
+  {
+    if (capacity > locations.length)
+    {
+      int grown = Math.max(locations.length * 2, capacity);
+      long[] grownLocations = new long[grown];
+      System.arraycopy(locations, 0, grownLocations, 0, locations.length);
+      locations = grownLocations;
+      int[] grownLengths = new int[grown];
+      System.arraycopy(lengths, 0, grownLengths, 0, lengths.length);
+      lengths = grownLengths;
+    }
+  }
+
+  /**
+   * Add the lower case names of the top-level attributes referenced by a
+   * filter. Value filters of complex attributes only reference
+   * sub-attributes of the complex attribute.
+   *
+   * @param filter The filter.
+   * @param fields The set to add to.
+   */
+  private static void addFields(final Filter filter, final Set<String> fields)
+  {
+    if (filter.isCombiningFilter())
+    {
+      for (Filter component : filter.getCombinedFilters())
+      {
+        addFields(component, fields);
+      }
+    }
+    else if (filter.isNotFilter())
+    {
+      addFields(filter.getInvertedFilter(), fields);
+    }
+    else
+    {
+      addFields(filter.getAttributePath(), fields);
+    }
+  }
+
+  /**
+   * Add the lower case name of the top-level attribute of a path. Both the
+   * schema URN and the first attribute name of paths with a schema URN are
+   * added, since core attributes may be referenced with the URN of the core
+   * schema.
+   *
+   * @param path The path.
+   * @param fields The set to add to.
+   */
+  private static void addFields(final Path path, final Set<String> fields)
+  {
+    if (path.getSchemaUrn() != null)
+    {
+      fields.add(StaticUtils.toLowerCase(path.getSchemaUrn()));
+    }
+    if (path.size() > 0)
+    {
+      fields.add(StaticUtils.toLowerCase(path.getElement(0).getAttribute()));
+    }
+  }
+
+  /**
+   * Declare an attribute and its sub-attributes as sort keys.
+   *
+   * @param capabilities The capabilities to declare the sort keys in.
+   * @param parent The path of the parent attribute or schema.
+   * @param attributes The attributes.
+   * @throws BadRequestException If a path could not be parsed.
+   */
+  private static void addSortKeys(final SearchCapabilities capabilities,
+                                  final Path parent,
+                                  final Collection<AttributeDefinition>
+                                      attributes)
+      throws BadRequestException
+  {
+    if (attributes == null)
+    {
+      return;
+    }
+    for (AttributeDefinition attribute : attributes)
+    {
+      Path path = parent.attribute(attribute.getName());
+      capabilities.supportSortKeys(path.toString());
+      addSortKeys(capabilities, path, attribute.getSubAttributes());
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A secondary index on the values of an attribute that identifies resources
+ * by the ordinals assigned by the {@link IndexedResourceStore}, so that its
+ * answers can be combined with bitwise operations. The store always adds and
+ * removes all the values of a resource at once. Implementations need not be
+ * thread-safe; the store serializes updates and lookups.
+ */
+public interface OrdinalResourceIndex
+{
+  /**
+   * Retrieves the path of the indexed attribute.
+   *
+   * @return The path of the indexed attribute, without value filters and
+   * relative to the resource.
+   */
+  Path getPath();
+
+  /**
+   * Index the values of a resource.
+   *
+   * @param ordinal The ordinal of the resource.
+   * @param values The non-null values of the indexed attribute in the
+   *               resource, with the values of multi-valued attributes
+   *               flattened.
+   */
+  void add(final int ordinal, final List<JsonNode> values);
+
+  /**
+   * Index the values of many resources at once, which the store does when
+   * the index is added to a store that already has resources and when
+   * several resources are added together. Implementations may do this more
+   * efficiently than indexing the resources one at a time.
+   *
+   * @param values The values of the indexed attribute in each resource, like
+   *               those passed to {@link #add}, keyed by the ordinal of the
+   *               resource.
+   */
+  void addAll(final Map<Integer, List<JsonNode>> values);
+
+  /**
+   * Remove the values of a resource from the index.
+   *
+   * @param ordinal The ordinal of the resource.
+   * @param values The values that were indexed for the resource.
+   */
+  void remove(final int ordinal, final List<JsonNode> values);
+
+  /**
+   * Replace the ordinals of all the resources in the index, which the store
+   * does when it reclaims the ordinals of removed resources. New ordinals are
+   * in the same order as the ordinals they replace.
+   *
+   * @param renumbered The new ordinal of each ordinal in the index, indexed
+   *                   by the ordinal it replaces.
+   */
+  void renumber(final int[] renumbered);
+
+  /**
+   * Retrieve the ordinals of the resources matching a filter on the indexed
+   * attribute. The result must be exactly the set of resources the
+   * {@link SchemaAwareFilterEvaluator} would match, so an index should
+   * decline any filter it can not answer exactly.
+   *
+   * @param filter An attribute filter whose attribute is the indexed
+   *               attribute.
+   * @return The ordinals of the matching resources, which the caller must not
+   * modify, or {@code null} if the index can not answer the filter.
+   */
+  BitSet lookup(final Filter filter);
+}
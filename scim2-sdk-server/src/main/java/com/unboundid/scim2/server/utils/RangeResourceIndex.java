@@ -0,0 +1,626 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A range index on a date time or numeric attribute, such as
+ * {@code meta.lastModified}, that answers {@code eq}, {@code gt},
+ * {@code ge}, {@code lt} and {@code le} filters. Values are kept as
+ * primitive {@code long} keys in a sorted array alongside the resource
+ * ordinals, so lookups are binary searches and no date is parsed or number
+ * boxed when searching. Dates are keyed by milliseconds since the epoch,
+ * integers by their value and floating point numbers by a bit pattern that
+ * orders like {@link Double#compare}.
+ * <p>
+ * The index can also list resources in the order of their values, which
+ * replaces sorting the results of a search when the attribute has at most
+ * one value per resource.
+ * <p>
+ * Adding or removing a value shifts the entries after it, so it takes time
+ * proportional to the number of entries after it. Values added in increasing
+ * order, such as {@code meta.lastModified} of new resources, are appended
+ * without shifting. Resources added together by
+ * {@link IndexedResourceStore#putAll} and the resources already in a store
+ * when the index is added are indexed with a single sort.
+ * <p>
+ * Values of different categories, strings that are not dates, booleans and
+ * arbitrary precision numbers are compared differently by the filter
+ * evaluator, so the index declines all filters while it has any of them.
+ */
+public final class RangeResourceIndex implements OrdinalResourceIndex
+{
+  /**
+   * The categories of values with different key encodings.
+   */
+  private enum Category
+  {
+    /**
+     * Date time strings keyed by milliseconds since the epoch.
+     */
+    DATE,
+
+    /**
+     * Integers keyed by their value.
+     */
+    INTEGER,
+
+    /**
+     * Floating point numbers keyed by their sortable bits.
+     */
+    FLOATING_POINT,
+
+    /**
+     * Values that can not be indexed.
+     */
+    UNSUPPORTED
+  }
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Path path;
+  private long[] keys = new long[INITIAL_CAPACITY];
+  private int[] ordinals = new int[INITIAL_CAPACITY];
+  private int size;
+  private final int[] categoryCounts = new int[Category.values().length];
+  private int multiValuedCount;
+
+  /**
+   * Create a new range index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to normalize the
+   *                     path or {@code null}.
+   */
+  public RangeResourceIndex(final Path path,
+                            final ResourceTypeDefinition resourceType)
+  {
+    Path attributePath = path.withoutFilters();
+    this.path = resourceType == null ?
+        attributePath : resourceType.normalizePath(attributePath);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void add(final int ordinal, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      Category category = categoryOf(value);
+      categoryCounts[category.ordinal()]++;
+      if (category != Category.UNSUPPORTED)
+      {
+        insert(keyOf(value, category), ordinal);
+      }
+    }
+    if (values.size() > 1)
+    {
+      multiValuedCount++;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void addAll(final Map<Integer, List<JsonNode>> values)
+  {
+    int count = size;
+    for (List<JsonNode> resourceValues : values.values())
+    {
+      count += resourceValues.size();
+    }
+    if (count > keys.length)
+    {
+      keys = Arrays.copyOf(keys, count);
+      ordinals = Arrays.copyOf(ordinals, count);
+    }
+
+    // Append the new entries and sort all the entries once.
+    for (Map.Entry<Integer, List<JsonNode>> entry : values.entrySet())
+    {
+      for (JsonNode value : entry.getValue())
+      {
+        Category category = categoryOf(value);
+        categoryCounts[category.ordinal()]++;
+        if (category != Category.UNSUPPORTED)
+        {
+          keys[size] = keyOf(value, category);
+          ordinals[size] = entry.getKey();
+          size++;
+        }
+      }
+      if (entry.getValue().size() > 1)
+      {
+        multiValuedCount++;
+      }
+    }
+    sortEntries();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(final int ordinal, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      Category category = categoryOf(value);
+      categoryCounts[category.ordinal()]--;
+      if (category != Category.UNSUPPORTED)
+      {
+        delete(keyOf(value, category), ordinal);
+      }
+    }
+    if (values.size() > 1)
+    {
+      multiValuedCount--;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void renumber(final int[] renumbered)
+  {
+    // The new ordinals are in the same order, so the entries stay sorted.
+    for (int i = 0; i < size; i++)
+    {
+      ordinals[i] = renumbered[ordinals[i]];
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public BitSet lookup(final Filter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case EQUAL:
+      case GREATER_THAN:
+      case GREATER_OR_EQUAL:
+      case LESS_THAN:
+      case LESS_OR_EQUAL:
+        break;
+      default:
+        return null;
+    }
+    ValueNode value = filter.getComparisonValue();
+    if (value == null || (!value.isTextual() && !value.isNumber()))
+    {
+      // Leave the filter evaluator to report invalid comparison values.
+      return null;
+    }
+    if (size == 0 && categoryCounts[Category.UNSUPPORTED.ordinal()] == 0)
+    {
+      return new BitSet();
+    }
+    Category category = getCategory();
+    if (category == null)
+    {
+      return null;
+    }
+
+    int from;
+    int to;
+    switch (filter.getFilterType())
+    {
+      case EQUAL:
+        from = search(category, value, false);
+        to = search(category, value, true);
+        break;
+      case GREATER_THAN:
+        from = search(category, value, true);
+        to = size;
+        break;
+      case GREATER_OR_EQUAL:
+        from = search(category, value, false);
+        to = size;
+        break;
+      case LESS_THAN:
+        from = 0;
+        to = search(category, value, false);
+        break;
+      default:
+        from = 0;
+        to = search(category, value, true);
+        break;
+    }
+    if (from < 0 || to < 0)
+    {
+      return null;
+    }
+
+    BitSet result = new BitSet();
+    for (int i = from; i < to; i++)
+    {
+      result.set(ordinals[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Whether the index can list resources in the same order the
+   * {@link ResourceComparator} sorts them.
+   *
+   * @return {@code true} if every resource has at most one value and all
+   * values are of the same category.
+   */
+  public boolean isSortable()
+  {
+    return multiValuedCount == 0 && (size == 0 || getCategory() != null);
+  }
+
+  /**
+   * Retrieve the ordinals of the selected resources that have a value in the
+   * order of their values. Resources with equal values are listed in the
+   * order of their ordinals. This may only be used if the index is sortable.
+   *
+   * @param selection The ordinals of the resources to list.
+   * @param sortOrder The order of the values.
+   * @return The ordinals of the selected resources that have a value.
+   */
+  public int[] sort(final BitSet selection, final SortOrder sortOrder)
+  {
+    int[] sorted = new int[Math.min(size, selection.cardinality())];
+    int count = 0;
+    if (sortOrder != SortOrder.DESCENDING)
+    {
+      for (int i = 0; i < size; i++)
+      {
+        if (selection.get(ordinals[i]))
+        {
+          sorted[count++] = ordinals[i];
+        }
+      }
+    }
+    else
+    {
+      // Walk runs of equal keys backwards, keeping ordinal order in a run.
+      int end = size;
+      while (end > 0)
+      {
+        int start = end - 1;
+        while (start > 0 && keys[start - 1] == keys[end - 1])
+        {
+          start--;
+        }
+        for (int i = start; i < end; i++)
+        {
+          if (selection.get(ordinals[i]))
+          {
+            sorted[count++] = ordinals[i];
+          }
+        }
+        end = start;
+      }
+    }
+    return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+  }
+
+  /**
+   * Retrieves the category of all indexed values.
+   *
+   * @return The category of all indexed values or {@code null} if values of
+   * several categories or unsupported values are indexed.
+   */
+  private Category getCategory()
+  {
+    Category category = null;
+    for (Category c : Category.values())
+    {
+      if (categoryCounts[c.ordinal()] > 0)
+      {
+        if (category != null || c == Category.UNSUPPORTED)
+        {
+          return null;
+        }
+        category = c;
+      }
+    }
+    return category;
+  }
+
+  /**
+   * Find the position of the first key that is greater than, or greater than
+   * or equal to, a comparison value, comparing the same way as
+   * {@link JsonUtils#compareTo}.
+   *
+   * @param category The category of all indexed values.
+   * @param value The comparison value.
+   * @param strict {@code true} to find the first greater key or
+   *               {@code false} to find the first greater or equal key.
+   * @return The position or {@code -1} if the comparison value can not be
+   * compared with the indexed values.
+   */
+  private int search(final Category category, final ValueNode value,
+                     final boolean strict)
+  {
+    long key;
+    switch (category)
+    {
+      case DATE:
+        Date date = value.isTextual() ? JsonUtils.dateValue(value) : null;
+        if (date == null)
+        {
+          return -1;
+        }
+        key = date.getTime();
+        break;
+      case INTEGER:
+        if (value.isDouble() || value.isFloat())
+        {
+          return search(value.doubleValue(), strict);
+        }
+        if (!value.isInt() && !value.isLong())
+        {
+          return -1;
+        }
+        key = value.longValue();
+        break;
+      default:
+        if (!value.isInt() && !value.isLong() && !value.isDouble() &&
+            !value.isFloat())
+        {
+          return -1;
+        }
+        key = sortableBits(value.doubleValue());
+        break;
+    }
+
+    int low = 0;
+    int high = size;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (keys[mid] < key || (strict && keys[mid] == key))
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Find the position of the first integer key that is greater than, or
+   * greater than or equal to, a floating point comparison value. The filter
+   * evaluator compares integers with floating point numbers as doubles, and
+   * converting a long to a double preserves its order.
+   *
+   * @param value The comparison value.
+   * @param strict {@code true} to find the first greater key or
+   *               {@code false} to find the first greater or equal key.
+   * @return The position.
+   */
+  private int search(final double value, final boolean strict)
+  {
+    int low = 0;
+    int high = size;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      int c = Double.compare((double) keys[mid], value);
+      if (c < 0 || (strict && c == 0))
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Sort the entries by key and then by ordinal with a merge sort.
+   */
+  private void sortEntries()
+  {
+    long[] fromKeys = keys;
+    int[] fromOrdinals = ordinals;
+    long[] toKeys = new long[keys.length];
+    int[] toOrdinals = new int[ordinals.length];
+    for (int width = 1; width < size; width *= 2)
+    {
+      for (int low = 0; low < size; low += width * 2)
+      {
+        int middle = Math.min(low + width, size);
+        int high = Math.min(low + width * 2, size);
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++)
+        {
+          if (right >= high || (left < middle &&
+              (fromKeys[left] < fromKeys[right] ||
+                  (fromKeys[left] == fromKeys[right] &&
+                      fromOrdinals[left] <= fromOrdinals[right]))))
+          {
+            toKeys[i] = fromKeys[left];
+            toOrdinals[i] = fromOrdinals[left++];
+          }
+          else
+          {
+            toKeys[i] = fromKeys[right];
+            toOrdinals[i] = fromOrdinals[right++];
+          }
+        }
+      }
+      long[] swapKeys = fromKeys;
+      fromKeys = toKeys;
+      toKeys = swapKeys;
+      int[] swapOrdinals = fromOrdinals;
+      fromOrdinals = toOrdinals;
+      toOrdinals = swapOrdinals;
+    }
+    keys = fromKeys;
+    ordinals = fromOrdinals;
+  }
+
+  /**
+   * Insert a key and ordinal, keeping the arrays sorted by key and then by
+   * ordinal.
+   *
+   * @param key The key.
+   * @param ordinal The ordinal.
+   */
+  private void insert(final long key, final int ordinal)
+  {
+    int position = position(key, ordinal);
+    if (size == keys.length)
+    {
+      keys = Arrays.copyOf(keys, size * 2);
+      ordinals = Arrays.copyOf(ordinals, size * 2);
+    }
+    System.arraycopy(keys, position, keys, position + 1, size - position);
+    System.arraycopy(ordinals, position, ordinals, position + 1,
+        size - position);
+    keys[position] = key;
+    ordinals[position] = ordinal;
+    size++;
+  }
+
+  /**
+   * Delete a key and ordinal.
+   *
+   * @param key The key.
+   * @param ordinal The ordinal.
+   */
+  private void delete(final long key, final int ordinal)
+  {
+    int position = position(key, ordinal);
+    if (position < size && keys[position] == key &&
+        ordinals[position] == ordinal)
+    {
+      System.arraycopy(keys, position + 1, keys, position,
+          size - position - 1);
+      System.arraycopy(ordinals, position + 1, ordinals, position,
+          size - position - 1);
+      size--;
+    }
+  }
+
+  /**
+   * Find the position of the first entry that is not less than a key and
+   * ordinal.
+   *
+   * @param key The key.
+   * @param ordinal The ordinal.
+   * @return The position.
+   */
+  private int position(final long key, final int ordinal)
+  {
+    int low = 0;
+    int high = size;
+    while (low < high)
+    {
+      int mid = (low + high) >>> 1;
+      if (keys[mid] < key || (keys[mid] == key && ordinals[mid] < ordinal))
+      {
+        low = mid + 1;
+      }
+      else
+      {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Retrieves the category of a value.
+   *
+   * @param value The value.
+   * @return The category of the value.
+   */
+  private static Category categoryOf(final JsonNode value)
+  {
+    if (value.isTextual())
+    {
+      return JsonUtils.dateValue(value) == null ?
+          Category.UNSUPPORTED : Category.DATE;
+    }
+    if (value.isInt() || value.isLong())
+    {
+      return Category.INTEGER;
+    }
+    if (value.isDouble() || value.isFloat())
+    {
+      return Category.FLOATING_POINT;
+    }
+    return Category.UNSUPPORTED;
+  }
+
+  /**
+   * Retrieves the key of a value.
+   *
+   * @param value The value.
+   * @param category The category of the value.
+   * @return The key of the value.
+   */
+  private static long keyOf(final JsonNode value, final Category category)
+  {
+    switch (category)
+    {
+      case DATE:
+        return JsonUtils.dateValue(value).getTime();
+      case INTEGER:
+        return value.longValue();
+      default:
+        return sortableBits(value.doubleValue());
+    }
+  }
+
+  /**
+   * Retrieves a long whose signed order matches the order of doubles in
+   * {@link Double#compare}.
+   *
+   * @param value The double.
+   * @return The sortable bits of the double.
+   */
+  private static long sortableBits(final double value)
+  {
+    long bits = Double.doubleToLongBits(value);
+    return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+  }
+}
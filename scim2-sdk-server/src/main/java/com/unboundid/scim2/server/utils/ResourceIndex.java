@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A secondary index on the values of an attribute used by the
+ * {@link IndexedResourceStore} to answer parts of a filter without scanning
+ * every resource. Implementations need not be thread-safe; the store
+ * serializes updates and lookups.
+ */
+public interface ResourceIndex
+{
+  /**
+   * Retrieves the path of the indexed attribute.
+   *
+   * @return The path of the indexed attribute, without value filters and
+   * relative to the resource.
+   */
+  Path getPath();
+
+  /**
+   * Index the values of a resource.
+   *
+   * @param id The ID of the resource.
+   * @param values The non-null values of the indexed attribute in the
+   *               resource, with the values of multi-valued attributes
+   *               flattened.
+   */
+  void add(final String id, final List<JsonNode> values);
+
+  /**
+   * Remove the values of a resource from the index.
+   *
+   * @param id The ID of the resource.
+   * @param values The values that were indexed for the resource.
+   */
+  void remove(final String id, final List<JsonNode> values);
+
+  /**
+   * Retrieve the IDs of the resources matching a filter on the indexed
+   * attribute. The result must be exactly the set of resources the
+   * {@link SchemaAwareFilterEvaluator} would match, so an index should
+   * decline any filter it can not answer exactly.
+   *
+   * @param filter An attribute filter whose attribute is the indexed
+   *               attribute.
+   * @return The IDs of the matching resources, which the caller must not
+   * modify, or {@code null} if the index can not answer the filter.
+   */
+  Set<String> lookup(final Filter filter);
+}
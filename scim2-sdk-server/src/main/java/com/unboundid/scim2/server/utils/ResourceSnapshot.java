@@ -0,0 +1,777 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only snapshot of a collection of SCIM resources in a versioned file
+ * format that is memory-mapped when it is opened. Opening a snapshot only
+ * reads its header and metadata, regardless of how many resources it
+ * contains, and each resource is decoded only when it is retrieved.
+ * <p>
+ * A snapshot file consists of:
+ * <ul>
+ *   <li>A header with a magic number, the format version, the number of
+ *       resources and the positions of the other sections.</li>
+ *   <li>The resources in the order they were written, each as the length
+ *       and UTF-8 bytes of its ID followed by the resource in the binary
+ *       JSON encoding also used by the {@link OffHeapResourceStore}.</li>
+ *   <li>The metadata: the name and endpoint of the resource type, the URNs
+ *       of its core schema and schema extensions, and the field names used
+ *       by the binary JSON encoding.</li>
+ *   <li>An offset table with the position of every resource.</li>
+ *   <li>An open addressing hash table from the hash codes of the IDs to the
+ *       indexes of the resources in the offset table.</li>
+ * </ul>
+ * Snapshots are written with a {@link Writer}, which streams resources to
+ * the file as they are added. All numbers are big-endian. The file is mapped
+ * in segments, and no resource or table entry spans two segments, so that
+ * snapshots may be larger than 2 GB.
+ * <p>
+ * A snapshot may be read by any number of threads concurrently. The mapped
+ * memory is released when the snapshot is garbage collected.
+ */
+public final class ResourceSnapshot implements Closeable
+{
+  /**
+   * The version of the snapshot format written by this class.
+   */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC =
+      { 'S', 'C', 'I', 'M', '2', 'S', 'N', 'P' };
+  private static final int HEADER_SIZE = 64;
+  private static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /**
+   * Writes a snapshot file. Resources are streamed to the file as they are
+   * added, and the metadata, tables and header are written when the writer
+   * is closed. Only the position and the hash code of the ID of each
+   * resource are kept in memory until then. A writer is not thread-safe.
+   */
+  public static final class Writer implements Closeable
+  {
+    private final File file;
+    private final ResourceTypeDefinition resourceType;
+    private final int segmentSize;
+    private final DataOutputStream output;
+    private final BinaryJson.NameTable names = new BinaryJson.NameTable();
+    private long[] offsets = new long[1024];
+    private int[] hashes = new int[1024];
+    private int count;
+    private long position;
+    private boolean closed;
+
+    /**
+     * Create a new writer.
+     *
+     * @param file The file to write to.
+     * @param resourceType The resource type definition of the resources.
+     * @param segmentSize The size of the segments the file is mapped in.
+     * @throws IOException If the file could not be created.
+     */
+    private Writer(final File file, final ResourceTypeDefinition resourceType,
+                   final int segmentSize)
+        throws IOException
+    {
+      this.file = file;
+      this.resourceType = resourceType;
+      this.segmentSize = segmentSize;
+      this.output = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file), 64 * 1024));
+      // The header is written when the writer is closed.
+      output.write(new byte[HEADER_SIZE]);
+      position = HEADER_SIZE;
+    }
+
+    /**
+     * Add a resource to the snapshot.
+     *
+     * @param resource The resource to add. It must have an ID that is unique
+     *                 within the snapshot.
+     * @return this object.
+     * @throws IOException If the resource could not be written.
+     */
+    public Writer add(final ScimResource resource) throws IOException
+    {
+      if (closed)
+      {
+        throw new IOException("The snapshot writer is closed");
+      }
+      String id = resource.getId();
+      if (id == null)
+      {
+        throw new IllegalArgumentException("resource must have an id");
+      }
+      byte[] idBytes = id.getBytes(UTF_8);
+      byte[] encoded = BinaryJson.encode(
+          resource.asGenericScimResource().getObjectNode(), names);
+      long length = 4L + idBytes.length + encoded.length;
+      if (length > segmentSize)
+      {
+        throw new IOException("Resource " + id +
+            " is too large to be written to the snapshot");
+      }
+      if (position / segmentSize != (position + length - 1) / segmentSize)
+      {
+        pad(segmentSize - position % segmentSize);
+      }
+
+      if (count == offsets.length)
+      {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        hashes = Arrays.copyOf(hashes, count * 2);
+      }
+      offsets[count] = position;
+      hashes[count] = hash(id);
+      count++;
+
+      output.writeInt(idBytes.length);
+      output.write(idBytes);
+      output.write(encoded);
+      position += length;
+      return this;
+    }
+
+    /**
+     * Write the metadata, the tables and the header, and close the file.
+     *
+     * @throws IOException If the snapshot could not be written.
+     */
+    public void close() throws IOException
+    {
+      if (closed)
+      {
+        return;
+      }
+      closed = true;
+
+      long metadataOffset = position;
+      long offsetTableOffset;
+      long idTableOffset;
+      int idTableCapacity = idTableCapacity(count);
+      try
+      {
+        byte[] metadata = getMetadata();
+        output.write(metadata);
+        position += metadata.length;
+        pad((8 - position % 8) % 8);
+
+        offsetTableOffset = position;
+        for (int i = 0; i < count; i++)
+        {
+          output.writeLong(offsets[i]);
+        }
+        position += 8L * count;
+
+        idTableOffset = position;
+        int[] idTable = new int[idTableCapacity];
+        int mask = idTableCapacity - 1;
+        for (int i = 0; i < count; i++)
+        {
+          int slot = hashes[i] & mask;
+          while (idTable[slot] != 0)
+          {
+            slot = (slot + 1) & mask;
+          }
+          // Slots hold the index in the offset table plus one so that zero
+          // marks an empty slot.
+          idTable[slot] = i + 1;
+        }
+        for (int slot : idTable)
+        {
+          output.writeInt(slot);
+        }
+      }
+      finally
+      {
+        output.close();
+      }
+
+      RandomAccessFile header = new RandomAccessFile(file, "rw");
+      try
+      {
+        header.write(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(count);
+        header.writeInt(segmentSize);
+        header.writeInt(idTableCapacity);
+        header.writeLong(metadataOffset);
+        header.writeLong(offsetTableOffset - metadataOffset);
+        header.writeLong(offsetTableOffset);
+        header.writeLong(idTableOffset);
+      }
+      finally
+      {
+        header.close();
+      }
+    }
+
+    /**
+     * Retrieves the encoded metadata section.
+     *
+     * @return The encoded metadata section.
+     * @throws IOException If the metadata could not be encoded.
+     */
+    private byte[] getMetadata() throws IOException
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream metadata = new DataOutputStream(bytes);
+      List<String> urns = getSchemaUrns(resourceType);
+      metadata.writeUTF(resourceType.getName());
+      metadata.writeUTF(resourceType.getEndpoint());
+      metadata.writeInt(urns.size());
+      for (String urn : urns)
+      {
+        metadata.writeUTF(urn);
+      }
+      metadata.writeInt(names.size());
+      for (int i = 0; i < names.size(); i++)
+      {
+        metadata.writeUTF(names.nameOf(i));
+      }
+      metadata.close();
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Write zero bytes.
+     *
+     * @param length The number of bytes to write.
+     * @throws IOException If the bytes could not be written.
+     */
+    private void pad(final long length) throws IOException
+    {
+      for (long i = 0; i < length; i++)
+      {
+        output.write(0);
+      }
+      position += length;
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final ByteBuffer[] segments;
+  private final int segmentSize;
+  private final int count;
+  private final int idTableCapacity;
+  private final long offsetTableOffset;
+  private final long idTableOffset;
+  private final String resourceTypeName;
+  private final String endpoint;
+  private final List<String> schemaUrns;
+  private final BinaryJson.NameTable names = new BinaryJson.NameTable();
+
+  /**
+   * Open a snapshot.
+   *
+   * @param file The snapshot file.
+   * @throws IOException If the file is not a valid snapshot.
+   */
+  private ResourceSnapshot(final RandomAccessFile file) throws IOException
+  {
+    this.file = file;
+    byte[] magic = new byte[MAGIC.length];
+    file.readFully(magic);
+    if (!Arrays.equals(magic, MAGIC))
+    {
+      throw new IOException("The file is not a SCIM resource snapshot");
+    }
+    int version = file.readInt();
+    if (version != VERSION)
+    {
+      throw new IOException("Unsupported snapshot version " + version);
+    }
+    count = file.readInt();
+    segmentSize = file.readInt();
+    idTableCapacity = file.readInt();
+    long metadataOffset = file.readLong();
+    long metadataLength = file.readLong();
+    offsetTableOffset = file.readLong();
+    idTableOffset = file.readLong();
+    long length = file.length();
+    if (count < 0 || segmentSize < 8 || segmentSize % 8 != 0 ||
+        Integer.bitCount(idTableCapacity) != 1 ||
+        idTableOffset + 4L * idTableCapacity != length ||
+        offsetTableOffset + 8L * count != idTableOffset ||
+        metadataOffset + metadataLength != offsetTableOffset ||
+        metadataLength > Integer.MAX_VALUE)
+    {
+      throw new IOException("The snapshot is truncated or corrupt");
+    }
+
+    byte[] metadataBytes = new byte[(int) metadataLength];
+    file.seek(metadataOffset);
+    file.readFully(metadataBytes);
+    DataInputStream metadata =
+        new DataInputStream(new ByteArrayInputStream(metadataBytes));
+    try
+    {
+      resourceTypeName = metadata.readUTF();
+      endpoint = metadata.readUTF();
+      int urnCount = metadata.readInt();
+      List<String> urns = new ArrayList<String>(Math.min(urnCount, 16));
+      for (int i = 0; i < urnCount; i++)
+      {
+        urns.add(metadata.readUTF());
+      }
+      schemaUrns = Collections.unmodifiableList(urns);
+      int nameCount = metadata.readInt();
+      for (int i = 0; i < nameCount; i++)
+      {
+        names.numberOf(metadata.readUTF());
+      }
+    }
+    catch (EOFException e)
+    {
+      throw new IOException("The snapshot metadata is truncated", e);
+    }
+
+    FileChannel channel = file.getChannel();
+    segments = new ByteBuffer[(int) ((length + segmentSize - 1) /
+        segmentSize)];
+    for (int i = 0; i < segments.length; i++)
+    {
+      long start = (long) i * segmentSize;
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+          Math.min(segmentSize, length - start));
+    }
+  }
+
+  /**
+   * Create a writer for a new snapshot file.
+   *
+   * @param file The file to write to. An existing file is overwritten.
+   * @param resourceType The resource type definition of the resources.
+   * @return The writer, which must be closed to complete the snapshot.
+   * @throws IOException If the file could not be created.
+   */
+  public static Writer create(final File file,
+                              final ResourceTypeDefinition resourceType)
+      throws IOException
+  {
+    return new Writer(file, resourceType, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Create a writer for a new snapshot file that is mapped in segments of
+   * the provided size. This is only intended for testing.
+   *
+   * @param file The file to write to. An existing file is overwritten.
+   * @param resourceType The resource type definition of the resources.
+   * @param segmentSize The size of the segments, which must be a positive
+   *                    multiple of 8.
+   * @return The writer, which must be closed to complete the snapshot.
+   * @throws IOException If the file could not be created.
+   */
+  static Writer create(final File file,
+                       final ResourceTypeDefinition resourceType,
+                       final int segmentSize)
+      throws IOException
+  {
+    if (segmentSize < 8 || segmentSize % 8 != 0)
+    {
+      throw new IllegalArgumentException(
+          "segmentSize must be a positive multiple of 8");
+    }
+    return new Writer(file, resourceType, segmentSize);
+  }
+
+  /**
+   * Open a snapshot file.
+   *
+   * @param file The snapshot file.
+   * @return The snapshot, which should be closed when it is no longer used.
+   * @throws IOException If the file could not be read or is not a valid
+   * snapshot.
+   */
+  public static ResourceSnapshot open(final File file) throws IOException
+  {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try
+    {
+      return new ResourceSnapshot(randomAccessFile);
+    }
+    catch (IOException e)
+    {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Open a snapshot file of resources of a resource type.
+   *
+   * @param file The snapshot file.
+   * @param resourceType The resource type definition the snapshot must have
+   *                     been written with.
+   * @return The snapshot, which should be closed when it is no longer used.
+   * @throws IOException If the file could not be read, is not a valid
+   * snapshot, or was written with a different resource type or schemas.
+   */
+  public static ResourceSnapshot open(final File file,
+                                      final ResourceTypeDefinition resourceType)
+      throws IOException
+  {
+    ResourceSnapshot snapshot = open(file);
+    if (!snapshot.getResourceTypeName().equals(resourceType.getName()) ||
+        !snapshot.getSchemaUrns().equals(getSchemaUrns(resourceType)))
+    {
+      snapshot.close();
+      throw new IOException("The snapshot contains " +
+          snapshot.getResourceTypeName() + " resources with schemas " +
+          snapshot.getSchemaUrns() + " and not " + resourceType.getName() +
+          " resources with schemas " + getSchemaUrns(resourceType));
+    }
+    return snapshot;
+  }
+
+  /**
+   * Retrieves the name of the resource type of the resources.
+   *
+   * @return The name of the resource type of the resources.
+   */
+  public String getResourceTypeName()
+  {
+    return resourceTypeName;
+  }
+
+  /**
+   * Retrieves the endpoint of the resource type of the resources.
+   *
+   * @return The endpoint of the resource type of the resources.
+   */
+  public String getEndpoint()
+  {
+    return endpoint;
+  }
+
+  /**
+   * Retrieves the URNs of the core schema and the schema extensions of the
+   * resource type.
+   *
+   * @return The URN of the core schema, if any, followed by the URNs of the
+   * schema extensions in alphabetical order.
+   */
+  public List<String> getSchemaUrns()
+  {
+    return schemaUrns;
+  }
+
+  /**
+   * Retrieves the number of resources in the snapshot.
+   *
+   * @return The number of resources in the snapshot.
+   */
+  public int size()
+  {
+    return count;
+  }
+
+  /**
+   * Retrieves the ID of a resource.
+   *
+   * @param index The index of the resource in the order it was written.
+   * @return The ID of the resource.
+   * @throws IOException If the snapshot is corrupt.
+   */
+  public String getId(final int index) throws IOException
+  {
+    return readId(getOffset(index));
+  }
+
+  /**
+   * Decode a resource.
+   *
+   * @param index The index of the resource in the order it was written.
+   * @return The resource.
+   * @throws IOException If the snapshot is corrupt.
+   */
+  public ObjectNode getObjectNode(final int index) throws IOException
+  {
+    return decode(getOffset(index));
+  }
+
+  /**
+   * Find and decode a resource by its ID.
+   *
+   * @param id The ID of the resource.
+   * @return The resource or {@code null} if there is no resource with the
+   * ID.
+   * @throws IOException If the snapshot is corrupt.
+   */
+  public ObjectNode getObjectNode(final String id) throws IOException
+  {
+    long offset = find(id);
+    return offset < 0 ? null : decode(offset);
+  }
+
+  /**
+   * Find and decode a resource by its ID and convert it to a resource
+   * class.
+   *
+   * @param id The ID of the resource.
+   * @param resourceClass The resource class.
+   * @param <T> The type of the resource.
+   * @return The resource or {@code null} if there is no resource with the
+   * ID.
+   * @throws IOException If the snapshot is corrupt or the resource could not
+   * be converted.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends ScimResource> T get(final String id,
+                                        final Class<T> resourceClass)
+      throws IOException
+  {
+    ObjectNode node = getObjectNode(id);
+    if (node == null)
+    {
+      return null;
+    }
+    if (resourceClass.isAssignableFrom(GenericScimResource.class))
+    {
+      return (T) new GenericScimResource(node);
+    }
+    try
+    {
+      return JsonUtils.nodeToValue(node, resourceClass);
+    }
+    catch (JsonProcessingException e)
+    {
+      throw new IOException("Unable to convert resource " + id, e);
+    }
+  }
+
+  /**
+   * Close the snapshot file. Resources may still be retrieved until the
+   * snapshot is garbage collected, since the file stays mapped until then.
+   *
+   * @throws IOException If the file could not be closed.
+   */
+  public void close() throws IOException
+  {
+    file.close();
+  }
+
+  /**
+   * Retrieves the position of a resource in the file.
+   *
+   * @param index The index of the resource in the offset table.
+   * @return The position of the resource in the file.
+   * @throws IOException If the position is not valid.
+   */
+  private long getOffset(final int index) throws IOException
+  {
+    if (index < 0 || index >= count)
+    {
+      throw new IndexOutOfBoundsException("index " + index +
+          " is not between 0 and " + count);
+    }
+    long offset = getLong(offsetTableOffset + 8L * index);
+    if (offset < HEADER_SIZE || offset >= offsetTableOffset)
+    {
+      throw new IOException("Invalid offset " + offset + " of resource " +
+          index);
+    }
+    return offset;
+  }
+
+  /**
+   * Find a resource by its ID.
+   *
+   * @param id The ID of the resource.
+   * @return The position of the resource in the file or {@code -1} if there
+   * is no resource with the ID.
+   * @throws IOException If the snapshot is corrupt.
+   */
+  private long find(final String id) throws IOException
+  {
+    int mask = idTableCapacity - 1;
+    int slot = hash(id) & mask;
+    for (int probes = 0; probes < idTableCapacity; probes++)
+    {
+      int entry = getInt(idTableOffset + 4L * slot);
+      if (entry == 0)
+      {
+        return -1;
+      }
+      long offset = getOffset(entry - 1);
+      if (id.equals(readId(offset)))
+      {
+        return offset;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Read the ID of a resource.
+   *
+   * @param offset The position of the resource in the file.
+   * @return The ID of the resource.
+   * @throws IOException If the ID is not valid.
+   */
+  private String readId(final long offset) throws IOException
+  {
+    ByteBuffer segment = segments[(int) (offset / segmentSize)];
+    int position = (int) (offset % segmentSize);
+    int length = segment.getInt(position);
+    if (length < 0 || position + 4L + length > segment.limit())
+    {
+      throw new IOException("Invalid ID length at " + offset);
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++)
+    {
+      bytes[i] = segment.get(position + 4 + i);
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Decode a resource.
+   *
+   * @param offset The position of the resource in the file.
+   * @return The resource.
+   * @throws IOException If the resource is not valid.
+   */
+  private ObjectNode decode(final long offset) throws IOException
+  {
+    ByteBuffer segment = segments[(int) (offset / segmentSize)];
+    int position = (int) (offset % segmentSize);
+    int idLength = segment.getInt(position);
+    try
+    {
+      return BinaryJson.decodeObject(segment, position + 4 + idLength,
+          names);
+    }
+    catch (IndexOutOfBoundsException e)
+    {
+      throw new IOException("The resource at " + offset + " is truncated", e);
+    }
+  }
+
+  /**
+   * Read a four byte integer from the file.
+   *
+   * @param offset The position in the file.
+   * @return The integer.
+   */
+  private int getInt(final long offset)
+  {
+    return segments[(int) (offset / segmentSize)].getInt(
+        (int) (offset % segmentSize));
+  }
+
+  /**
+   * Read an eight byte integer from the file.
+   *
+   * @param offset The position in the file.
+   * @return The integer.
+   */
+  private long getLong(final long offset)
+  {
+    return segments[(int) (offset / segmentSize)].getLong(
+        (int) (offset % segmentSize));
+  }
+
+  /**
+   * Retrieves the URNs of the core schema and the schema extensions of a
+   * resource type.
+   *
+   * @param resourceType The resource type definition.
+   * @return The URN of the core schema, if any, followed by the URNs of the
+   * schema extensions in alphabetical order.
+   */
+  private static List<String> getSchemaUrns(
+      final ResourceTypeDefinition resourceType)
+  {
+    List<String> extensionUrns = new ArrayList<String>();
+    for (SchemaResource extension :
+        resourceType.getSchemaExtensions().keySet())
+    {
+      extensionUrns.add(extension.getId());
+    }
+    Collections.sort(extensionUrns);
+
+    List<String> urns = new ArrayList<String>();
+    if (resourceType.getCoreSchema() != null)
+    {
+      urns.add(resourceType.getCoreSchema().getId());
+    }
+    urns.addAll(extensionUrns);
+    return urns;
+  }
+
+  /**
+   * Retrieves the capacity of the ID hash table, which is the smallest power
+   * of two that keeps the table at most half full.
+   *
+   * @param count The number of resources.
+   * @return The capacity of the ID hash table.
+   */
+  private static int idTableCapacity(final int count)
+  {
+    int capacity = 1;
+    while (capacity < 2L * count)
+    {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Retrieves the hash code of an ID. The hash code of a string is defined by
+   * the Java language specification, so it is stable across JVMs.
+   *
+   * @param id The ID.
+   * @return The hash code of the ID.
+   */
+  private static int hash(final String id)
+  {
+    int h = id.hashCode();
+    return h ^ (h >>> 16);
+  }
+}
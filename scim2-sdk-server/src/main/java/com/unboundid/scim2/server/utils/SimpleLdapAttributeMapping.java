@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link LdapAttributeMapping} backed by a fixed map of attribute paths.
+ */
+public class SimpleLdapAttributeMapping implements LdapAttributeMapping
+{
+  private final Map<Path, String> attributes = new HashMap<Path, String>();
+
+  /**
+   * Map an attribute to an LDAP attribute type.
+   *
+   * @param path The path to the attribute.
+   * @param ldapAttribute The name or OID of the LDAP attribute type.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public SimpleLdapAttributeMapping addAttribute(final String path,
+                                                 final String ldapAttribute)
+      throws BadRequestException
+  {
+    attributes.put(Path.fromString(path).withoutFilters(), ldapAttribute);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getLdapAttribute(final Path path)
+  {
+    return attributes.get(path);
+  }
+}
@@ -49,9 +49,11 @@ public class SimpleSearchResults<T extends ScimResource>
   private final Filter filter;
   private final Integer startIndex;
   private final Integer count;
-  private final SchemaAwareFilterEvaluator filterEvaluator;
+  private final ResourceTypeDefinition resourceType;
+  private SchemaAwareFilterEvaluator filterEvaluator;
   private final ResourceComparator<ScimResource> resourceComparator;
   private final ResourcePreparer<ScimResource> responsePreparer;
+  private boolean resourcesAdded;
 
   /**
    * Create a new SimpleSearchResults for results from a search operation.
@@ -64,6 +66,7 @@ public class SimpleSearchResults<T extends ScimResource>
   public SimpleSearchResults(final ResourceTypeDefinition resourceType,
                              final UriInfo uriInfo) throws BadRequestException
   {
+    this.resourceType = resourceType;
     this.filterEvaluator = new SchemaAwareFilterEvaluator(resourceType);
     this.responsePreparer =
         new ResourcePreparer<ScimResource>(resourceType, uriInfo);
@@ -79,7 +82,8 @@ public class SimpleSearchResults<T extends ScimResource>
 
     if(filterString != null)
     {
-      this.filter = Filter.fromString(filterString);
+      this.filter = new SchemaAwareFilterNormalizer(resourceType).normalize(
+          Filter.fromString(filterString));
     }
     else
     {
@@ -132,6 +136,58 @@ public class SimpleSearchResults<T extends ScimResource>
     }
   }
 
+  /**
+   * Enable adaptive filter evaluation for long-lived searches. The selectivity
+   * and cost of each component of the {@code and} and {@code or} filters are
+   * sampled while evaluating the first resources, after which the components
+   * are reordered to maximize short-circuiting for the rest of the resources.
+   * This method must be called before any resources are added.
+   *
+   * @param sampleSize The number of resources to sample before reordering.
+   * @return this object.
+   * @throws IllegalStateException If resources were already added.
+   * @see AdaptiveFilterEvaluator
+   */
+  public SimpleSearchResults enableAdaptiveFilterEvaluation(
+      final int sampleSize)
+  {
+    if(resourcesAdded)
+    {
+      throw new IllegalStateException(
+          "Adaptive filter evaluation must be enabled before adding resources");
+    }
+    this.filterEvaluator =
+        new AdaptiveFilterEvaluator(resourceType, sampleSize);
+    return this;
+  }
+
+  /**
+   * Retrieves the filter used to select resources after normalization.
+   *
+   * @return The filter used to select resources or {@code null} if the search
+   * operation did not include a filter.
+   */
+  public Filter getFilter()
+  {
+    return filter;
+  }
+
+  /**
+   * Retrieves the adaptive filter evaluator and thus the statistics and plan
+   * chosen for the filter.
+   *
+   * @return The adaptive filter evaluator or {@code null} if adaptive filter
+   * evaluation is not enabled.
+   */
+  public AdaptiveFilterEvaluator getAdaptiveFilterEvaluator()
+  {
+    if(filterEvaluator instanceof AdaptiveFilterEvaluator)
+    {
+      return (AdaptiveFilterEvaluator) filterEvaluator;
+    }
+    return null;
+  }
+
   /**
    * Add a resource to include in the search results.
    *
@@ -142,6 +198,8 @@ public class SimpleSearchResults<T extends ScimResource>
    */
   public SimpleSearchResults add(final T resource) throws ScimException
   {
+    resourcesAdded = true;
+
     // Convert to GenericScimResource
     GenericScimResource genericResource;
     if(resource instanceof GenericScimResource)
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link SqlColumnMapping} backed by a fixed map of attribute paths.
+ */
+public class SimpleSqlColumnMapping implements SqlColumnMapping
+{
+  private final Map<Path, String> columns = new HashMap<Path, String>();
+  private final Map<Path, String> valueFilterTemplates =
+      new HashMap<Path, String>();
+
+  /**
+   * Map an attribute to a SQL column expression.
+   *
+   * @param path The path to the attribute.
+   * @param column The SQL column expression.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public SimpleSqlColumnMapping addColumn(final String path,
+                                          final String column)
+      throws BadRequestException
+  {
+    columns.put(Path.fromString(path).withoutFilters(), column);
+    return this;
+  }
+
+  /**
+   * Map a complex attribute to a SQL condition template used to translate
+   * value filters.
+   *
+   * @param path The path to the complex attribute.
+   * @param template The SQL condition template containing the
+   *                 {@link #VALUE_FILTER_PLACEHOLDER}.
+   * @return this object.
+   * @throws BadRequestException If the path could not be parsed.
+   */
+  public SimpleSqlColumnMapping addValueFilterTemplate(final String path,
+                                                       final String template)
+      throws BadRequestException
+  {
+    if (!template.contains(VALUE_FILTER_PLACEHOLDER))
+    {
+      throw new IllegalArgumentException("template must contain " +
+          VALUE_FILTER_PLACEHOLDER);
+    }
+    valueFilterTemplates.put(Path.fromString(path).withoutFilters(), template);
+    return this;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getColumn(final Path path)
+  {
+    return columns.get(path);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String getValueFilterTemplate(final Path path)
+  {
+    return valueFilterTemplates.get(path);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A sorted index that answers {@code eq}, {@code pr}, {@code gt},
+ * {@code ge}, {@code lt}, {@code le} and {@code sw} filters on an orderable
+ * attribute, such as {@code meta.lastModified}.
+ */
+public final class SortedResourceIndex extends ValueIndex
+{
+  /**
+   * Create a new sorted index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to determine the
+   *                     case sensitivity of the attribute or {@code null}.
+   */
+  public SortedResourceIndex(final Path path,
+                             final ResourceTypeDefinition resourceType)
+  {
+    super(path, resourceType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Map<Comparable<?>, Set<String>> newKeyMap()
+  {
+    return new TreeMap<Comparable<?>, Set<String>>();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Set<String> lookupOther(final Filter filter)
+  {
+    ValueNode value = filter.getComparisonValue();
+    switch (filter.getFilterType())
+    {
+      case GREATER_THAN:
+      case GREATER_OR_EQUAL:
+      case LESS_THAN:
+      case LESS_OR_EQUAL:
+        // The filter evaluator rejects other values so leave it to report
+        // the error.
+        if (!value.isTextual() && !value.isNumber())
+        {
+          return null;
+        }
+        IndexKeys.Kind kind = IndexKeys.kindOf(value);
+        if (!isHomogeneous(kind))
+        {
+          return null;
+        }
+        return lookupRange(filter, kind,
+            IndexKeys.keyOf(value, kind, getAttributeDefinition()));
+      case STARTS_WITH:
+        if (!value.isTextual() || !isHomogeneous(IndexKeys.Kind.STRING) ||
+            !IndexKeys.isSubstringCompatible(getAttributeDefinition()))
+        {
+          return null;
+        }
+        return lookupPrefix(value.textValue());
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Retrieve the IDs of the resources with values in a range.
+   *
+   * @param filter The ordering filter.
+   * @param kind The kind of the comparison value.
+   * @param key The index key of the comparison value.
+   * @return The IDs of the resources with values in the range.
+   */
+  private Set<String> lookupRange(final Filter filter,
+                                  final IndexKeys.Kind kind,
+                                  final Comparable<?> key)
+  {
+    NavigableMap<Comparable<?>, Set<String>> keyMap =
+        (NavigableMap<Comparable<?>, Set<String>>) getKeyMap(kind);
+    NavigableMap<Comparable<?>, Set<String>> range;
+    switch (filter.getFilterType())
+    {
+      case GREATER_THAN:
+        range = keyMap.tailMap(key, false);
+        break;
+      case GREATER_OR_EQUAL:
+        range = keyMap.tailMap(key, true);
+        break;
+      case LESS_THAN:
+        range = keyMap.headMap(key, false);
+        break;
+      default:
+        range = keyMap.headMap(key, true);
+        break;
+    }
+    return union(range.values());
+  }
+
+  /**
+   * Retrieve the IDs of the resources with string values starting with a
+   * prefix.
+   *
+   * @param prefix The prefix.
+   * @return The IDs of the resources with values starting with the prefix.
+   */
+  private Set<String> lookupPrefix(final String prefix)
+  {
+    String foldedPrefix = IndexKeys.isCaseExact(getAttributeDefinition()) ?
+        prefix : StaticUtils.toLowerCase(prefix);
+    NavigableMap<Comparable<?>, Set<String>> keyMap =
+        (NavigableMap<Comparable<?>, Set<String>>)
+            getKeyMap(IndexKeys.Kind.STRING);
+    Set<String> ids = new HashSet<String>();
+    for (Map.Entry<Comparable<?>, Set<String>> entry :
+        keyMap.tailMap(foldedPrefix, true).entrySet())
+    {
+      if (!((String) entry.getKey()).startsWith(foldedPrefix))
+      {
+        break;
+      }
+      ids.addAll(entry.getValue());
+    }
+    return ids;
+  }
+
+  /**
+   * Combine sets of resource IDs.
+   *
+   * @param idSets The sets of resource IDs.
+   * @return The union of the sets.
+   */
+  private static Set<String> union(final Collection<Set<String>> idSets)
+  {
+    Set<String> ids = new HashSet<String>();
+    for (Set<String> idSet : idSets)
+    {
+      ids.addAll(idSet);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.Path;
+
+/**
+ * A mapping of SCIM attributes to the columns of a relational database used
+ * by the {@link SqlFilterTranslator}. Attributes that are not mapped can not
+ * be pushed down to the database and must be evaluated in memory.
+ */
+public interface SqlColumnMapping
+{
+  /**
+   * The placeholder in a value filter template that is replaced with the
+   * translated value filter.
+   */
+  String VALUE_FILTER_PLACEHOLDER = "{0}";
+
+  /**
+   * Retrieve the SQL column expression for an attribute.
+   *
+   * @param path The path to the attribute, without any value filters and
+   *             relative to the resource.
+   * @return The SQL column expression or {@code null} if the attribute is
+   * not mapped.
+   */
+  String getColumn(final Path path);
+
+  /**
+   * Retrieve the SQL condition template used to translate a complex
+   * multi-valued attribute value filter. The template must contain the
+   * {@link #VALUE_FILTER_PLACEHOLDER}, which is replaced with the translation
+   * of the value filter, for example
+   * {@code EXISTS (SELECT 1 FROM emails e WHERE e.user_id = u.id AND {0})}.
+   * The template {@code {0}} may be used if the sub-attributes of the complex
+   * attribute are columns of the same row, such as for single-valued complex
+   * attributes.
+   *
+   * @param path The path to the complex attribute, without any value filters
+   *             and relative to the resource.
+   * @return The SQL condition template or {@code null} if value filters on
+   * the attribute can not be translated.
+   */
+  String getValueFilterTemplate(final Path path);
+}
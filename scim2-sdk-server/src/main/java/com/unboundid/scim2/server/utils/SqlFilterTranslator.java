@@ -0,0 +1,898 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.AndFilter;
+import com.unboundid.scim2.common.filters.ComplexValueFilter;
+import com.unboundid.scim2.common.filters.ContainsFilter;
+import com.unboundid.scim2.common.filters.EndsWithFilter;
+import com.unboundid.scim2.common.filters.EqualFilter;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.filters.FilterVisitor;
+import com.unboundid.scim2.common.filters.GreaterThanFilter;
+import com.unboundid.scim2.common.filters.GreaterThanOrEqualFilter;
+import com.unboundid.scim2.common.filters.LessThanFilter;
+import com.unboundid.scim2.common.filters.LessThanOrEqualFilter;
+import com.unboundid.scim2.common.filters.NotEqualFilter;
+import com.unboundid.scim2.common.filters.NotFilter;
+import com.unboundid.scim2.common.filters.OrFilter;
+import com.unboundid.scim2.common.filters.PresentFilter;
+import com.unboundid.scim2.common.filters.StartsWithFilter;
+import com.unboundid.scim2.common.messages.SearchRequest;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.FilterNormalizer;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A filter visitor that translates SCIM filters into parameterized SQL
+ * conditions so that searches may be pushed down to a relational database.
+ * Attributes are mapped to columns using a {@link SqlColumnMapping}. Each
+ * visit method appends the values of its {@code ?} placeholders to the
+ * provided parameter list and returns the SQL condition, or {@code null} if
+ * the filter can not be translated.
+ * <p>
+ * Most callers should use {@link #translate(SearchRequest)} or
+ * {@link #translate(Filter)}, which translate as much of the filter as
+ * possible and report the remainder as a residual filter to be evaluated in
+ * memory. The translation preserves the semantics of the
+ * {@link SchemaAwareFilterEvaluator}: string comparisons are case-insensitive
+ * unless the attribute is {@code caseExact}, {@code ne} matches rows where the
+ * column is {@code NULL}, and missing sort values are ordered last when
+ * ascending and first when descending.
+ */
+public class SqlFilterTranslator
+    implements FilterVisitor<String, List<Object>>
+{
+  private static final char LIKE_ESCAPE = '\\';
+
+  private final SqlColumnMapping columnMapping;
+  private final ResourceTypeDefinition resourceType;
+  private final Path parentPath;
+
+  /**
+   * Create a new SQL filter translator.
+   *
+   * @param columnMapping The mapping of attributes to SQL columns.
+   * @param resourceType The resource type definition used to determine
+   *                     attribute types and case sensitivity or {@code null}
+   *                     to treat all string values as case-insensitive.
+   */
+  public SqlFilterTranslator(final SqlColumnMapping columnMapping,
+                             final ResourceTypeDefinition resourceType)
+  {
+    this(columnMapping, resourceType, null);
+  }
+
+  /**
+   * Create a new SQL filter translator for value filters.
+   *
+   * @param columnMapping The mapping of attributes to SQL columns.
+   * @param resourceType The resource type definition or {@code null}.
+   * @param parentPath The path of the complex attribute whose value filter is
+   *                   translated or {@code null}.
+   */
+  private SqlFilterTranslator(final SqlColumnMapping columnMapping,
+                              final ResourceTypeDefinition resourceType,
+                              final Path parentPath)
+  {
+    this.columnMapping = columnMapping;
+    this.resourceType = resourceType;
+    this.parentPath = parentPath;
+  }
+
+  /**
+   * Translate the filter, sorting and paging parameters of a search request.
+   * Sorting is only pushed down if the sort attribute is mapped, and paging
+   * is only pushed down if the entire filter and the sorting were pushed
+   * down.
+   *
+   * @param searchRequest The search request to translate.
+   * @return The translated SQL query.
+   * @throws BadRequestException If the filter or sortBy attribute could not
+   * be parsed.
+   */
+  public SqlQuery translate(final SearchRequest searchRequest)
+      throws BadRequestException
+  {
+    Filter filter = searchRequest.getFilter() == null ? null :
+        Filter.fromString(searchRequest.getFilter());
+    List<Object> parameters = new ArrayList<Object>();
+    List<Filter> residual = new ArrayList<Filter>();
+    String where = translateFilter(filter, parameters, residual);
+
+    String orderBy = null;
+    boolean sortPushedDown = true;
+    if (searchRequest.getSortBy() != null)
+    {
+      orderBy = translateSortBy(Path.fromString(searchRequest.getSortBy()),
+          searchRequest.getSortOrder());
+      sortPushedDown = orderBy != null;
+    }
+
+    Integer limit = null;
+    Integer offset = null;
+    if (residual.isEmpty() && sortPushedDown)
+    {
+      if (searchRequest.getCount() != null)
+      {
+        // 3.4.2.4: A negative value SHALL be interpreted as 0.
+        limit = Math.max(searchRequest.getCount(), 0);
+      }
+      if (searchRequest.getStartIndex() != null &&
+          searchRequest.getStartIndex() > 1)
+      {
+        // 3.4.2.4: A value less than 1 SHALL be interpreted as 1.
+        offset = searchRequest.getStartIndex() - 1;
+      }
+    }
+
+    return new SqlQuery(where, parameters, combine(residual), orderBy,
+        limit, offset);
+  }
+
+  /**
+   * Translate a filter.
+   *
+   * @param filter The filter to translate or {@code null}.
+   * @return The translated SQL query, without sorting or paging.
+   */
+  public SqlQuery translate(final Filter filter)
+  {
+    List<Object> parameters = new ArrayList<Object>();
+    List<Filter> residual = new ArrayList<Filter>();
+    String where = translateFilter(filter, parameters, residual);
+    return new SqlQuery(where, parameters, combine(residual), null,
+        null, null);
+  }
+
+  /**
+   * Translate a sortBy attribute to an ORDER BY expression.
+   *
+   * @param sortBy The attribute to sort by.
+   * @param sortOrder The sort order or {@code null} for ascending.
+   * @return The ORDER BY expression or {@code null} if the attribute is not
+   * mapped.
+   */
+  public String translateSortBy(final Path sortBy, final SortOrder sortOrder)
+  {
+    Path path = normalize(sortBy);
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    String column = columnMapping.getColumn(path);
+    if (column == null)
+    {
+      return null;
+    }
+    AttributeDefinition attributeDefinition = getAttributeDefinition(path);
+    boolean descending = sortOrder == SortOrder.DESCENDING;
+    // Without a definition the column type is unknown, so it is not safe to
+    // apply LOWER, which would change the ordering of numbers and dates.
+    String value = attributeDefinition != null &&
+        isCaseIgnored(attributeDefinition, null) ?
+        "LOWER(" + column + ")" : column;
+    // Missing values are ordered last if ascending and first if descending.
+    return "CASE WHEN " + column + " IS NULL THEN " + (descending ? 0 : 1) +
+        " ELSE " + (descending ? 1 : 0) + " END, " + value +
+        (descending ? " DESC" : " ASC");
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final EqualFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    if (filter.getComparisonValue().isNull())
+    {
+      String column = getColumn(filter);
+      return column == null ? null : column + " IS NULL";
+    }
+    return translateComparison(filter, "=", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final NotEqualFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    String column = getColumn(filter);
+    if (column == null)
+    {
+      return null;
+    }
+    if (filter.getComparisonValue().isNull())
+    {
+      return column + " IS NOT NULL";
+    }
+    String comparison = translateComparison(filter, "<>", param);
+    if (comparison == null)
+    {
+      return null;
+    }
+    // A missing value is not equal to anything.
+    return "(" + comparison + " OR " + column + " IS NULL)";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final ContainsFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateSubstring(filter, param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final StartsWithFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateSubstring(filter, param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final EndsWithFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateSubstring(filter, param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final PresentFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    String column = getColumn(filter);
+    return column == null ? null : column + " IS NOT NULL";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final GreaterThanFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateOrdering(filter, ">", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final GreaterThanOrEqualFilter filter,
+                      final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateOrdering(filter, ">=", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final LessThanFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateOrdering(filter, "<", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final LessThanOrEqualFilter filter,
+                      final List<Object> param)
+      throws ScimException
+  {
+    if (getValueFilterPrefixSize(filter) > 0)
+    {
+      return translateAsValueFilter(filter, param);
+    }
+    return translateOrdering(filter, "<=", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final AndFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    return translateCombining(filter, " AND ", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final OrFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    return translateCombining(filter, " OR ", param);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final NotFilter filter, final List<Object> param)
+      throws ScimException
+  {
+    String inverted = filter.getInvertedFilter().visit(this, param);
+    // Use IS NOT TRUE rather than NOT so that rows where the inverted
+    // condition is unknown because a column is NULL still match.
+    return inverted == null ? null : "(" + inverted + ") IS NOT TRUE";
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public String visit(final ComplexValueFilter filter,
+                      final List<Object> param)
+      throws ScimException
+  {
+    Path path = resolve(filter.getAttributePath());
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    String template = columnMapping.getValueFilterTemplate(path);
+    if (template == null)
+    {
+      return null;
+    }
+    int mark = param.size();
+    String valueFilter = filter.getValueFilter().visit(
+        new SqlFilterTranslator(columnMapping, resourceType, path), param);
+    if (valueFilter == null)
+    {
+      truncate(param, mark);
+      return null;
+    }
+    return template.replace(
+        SqlColumnMapping.VALUE_FILTER_PLACEHOLDER, valueFilter);
+  }
+
+  /**
+   * Retrieves the number of leading elements of a filter attribute path that
+   * identify a complex attribute with a value filter template, for example
+   * {@code 1} for {@code emails.value} if {@code emails} has a template.
+   * Sub-attributes of such complex attributes are only accessible within the
+   * template.
+   *
+   * @param filter The attribute filter.
+   * @return The number of leading path elements that identify the complex
+   * attribute or {@code 0} if the path does not reference a sub-attribute of
+   * a complex attribute with a value filter template.
+   */
+  private int getValueFilterPrefixSize(final Filter filter)
+  {
+    if (parentPath != null)
+    {
+      return 0;
+    }
+    Path path = resolve(filter.getAttributePath());
+    for (int i = path.size() - 1; i > 0; i--)
+    {
+      if (columnMapping.getValueFilterTemplate(
+          path.subPath(i).withoutFilters()) != null)
+      {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Translate a filter on a sub-attribute of a complex attribute with a value
+   * filter template by rewriting it as a value filter. For example,
+   * {@code emails.value co "x"} is equivalent to {@code emails[value co "x"]}
+   * and {@code emails[type eq "work"].value co "x"} is equivalent to
+   * {@code emails[type eq "work" and value co "x"]}. A filter matches if any
+   * value matches, except for {@code ne} filters which only match if no value
+   * is equal.
+   *
+   * @param filter The attribute filter.
+   * @param param The list to add placeholder values to.
+   * @return The SQL condition or {@code null}.
+   * @throws ScimException If an error occurs.
+   */
+  private String translateAsValueFilter(final Filter filter,
+                                        final List<Object> param)
+      throws ScimException
+  {
+    Path path = resolve(filter.getAttributePath());
+    int prefixSize = getValueFilterPrefixSize(filter);
+    for (int i = 0; i < prefixSize - 1; i++)
+    {
+      if (path.getElement(i).getValueFilter() != null)
+      {
+        return null;
+      }
+    }
+    Path subAttributePath = Path.root();
+    for (int i = prefixSize; i < path.size(); i++)
+    {
+      Path.Element element = path.getElement(i);
+      subAttributePath = subAttributePath.attribute(
+          element.getAttribute(), element.getValueFilter());
+    }
+
+    boolean negate;
+    Filter valueFilter;
+    switch (filter.getFilterType())
+    {
+      case EQUAL:
+        negate = filter.getComparisonValue().isNull();
+        valueFilter = negate ? Filter.pr(subAttributePath) :
+            Filter.eq(subAttributePath, filter.getComparisonValue());
+        break;
+      case NOT_EQUAL:
+        negate = !filter.getComparisonValue().isNull();
+        valueFilter = negate ?
+            Filter.eq(subAttributePath, filter.getComparisonValue()) :
+            Filter.pr(subAttributePath);
+        break;
+      case CONTAINS:
+        negate = false;
+        valueFilter = Filter.co(subAttributePath, filter.getComparisonValue());
+        break;
+      case STARTS_WITH:
+        negate = false;
+        valueFilter = Filter.sw(subAttributePath, filter.getComparisonValue());
+        break;
+      case ENDS_WITH:
+        negate = false;
+        valueFilter = Filter.ew(subAttributePath, filter.getComparisonValue());
+        break;
+      case PRESENT:
+        negate = false;
+        valueFilter = Filter.pr(subAttributePath);
+        break;
+      case GREATER_THAN:
+        negate = false;
+        valueFilter = Filter.gt(subAttributePath, filter.getComparisonValue());
+        break;
+      case GREATER_OR_EQUAL:
+        negate = false;
+        valueFilter = Filter.ge(subAttributePath, filter.getComparisonValue());
+        break;
+      case LESS_THAN:
+        negate = false;
+        valueFilter = Filter.lt(subAttributePath, filter.getComparisonValue());
+        break;
+      case LESS_OR_EQUAL:
+        negate = false;
+        valueFilter = Filter.le(subAttributePath, filter.getComparisonValue());
+        break;
+      default:
+        return null;
+    }
+
+    Path.Element complexElement = path.getElement(prefixSize - 1);
+    if (complexElement.getValueFilter() != null)
+    {
+      valueFilter = Filter.and(complexElement.getValueFilter(), valueFilter);
+    }
+    String condition = Filter.hasComplexValue(
+        path.subPath(prefixSize).withoutFilters(), valueFilter).visit(
+        this, param);
+    if (condition == null || !negate)
+    {
+      return condition;
+    }
+    return "(" + condition + ") IS NOT TRUE";
+  }
+
+  /**
+   * Translate as much of a filter as possible. The components of a top-level
+   * {@code and} filter are translated individually and any components that
+   * could not be translated are added to the residual filters.
+   *
+   * @param filter The filter to translate or {@code null}.
+   * @param parameters The list to add placeholder values to.
+   * @param residual The list to add filters that must be evaluated in memory
+   *                 to.
+   * @return The SQL condition or {@code null} if nothing was translated.
+   */
+  private String translateFilter(final Filter filter,
+                                 final List<Object> parameters,
+                                 final List<Filter> residual)
+  {
+    if (filter == null)
+    {
+      return null;
+    }
+
+    Filter normalized = resourceType == null ?
+        new FilterNormalizer().normalize(filter) :
+        new SchemaAwareFilterNormalizer(resourceType).normalize(filter);
+    List<Filter> components = normalized.getFilterType() == FilterType.AND ?
+        normalized.getCombinedFilters() :
+        Collections.singletonList(normalized);
+
+    StringBuilder where = new StringBuilder();
+    for (Filter component : components)
+    {
+      int mark = parameters.size();
+      String condition;
+      try
+      {
+        condition = component.visit(this, parameters);
+      }
+      catch (ScimException e)
+      {
+        Debug.debugException(e);
+        condition = null;
+      }
+      if (condition == null)
+      {
+        truncate(parameters, mark);
+        residual.add(component);
+        continue;
+      }
+      if (where.length() > 0)
+      {
+        where.append(" AND ");
+      }
+      where.append(condition);
+    }
+    return where.length() == 0 ? null : where.toString();
+  }
+
+  /**
+   * Translate a logical combining filter. The filter is only translated if
+   * all of its components can be translated.
+   *
+   * @param filter The {@code and} or {@code or} filter.
+   * @param operator The SQL operator.
+   * @param param The list to add placeholder values to.
+   * @return The SQL condition or {@code null}.
+   * @throws ScimException If an error occurs.
+   */
+  private String translateCombining(final Filter filter, final String operator,
+                                    final List<Object> param)
+      throws ScimException
+  {
+    int mark = param.size();
+    StringBuilder builder = new StringBuilder("(");
+    for (Filter component : filter.getCombinedFilters())
+    {
+      String condition = component.visit(this, param);
+      if (condition == null)
+      {
+        truncate(param, mark);
+        return null;
+      }
+      if (builder.length() > 1)
+      {
+        builder.append(operator);
+      }
+      builder.append(condition);
+    }
+    builder.append(')');
+    return builder.toString();
+  }
+
+  /**
+   * Translate an equality comparison.
+   *
+   * @param filter The comparison filter.
+   * @param operator The SQL comparison operator.
+   * @param param The list to add placeholder values to.
+   * @return The SQL condition or {@code null}.
+   */
+  private String translateComparison(final Filter filter,
+                                     final String operator,
+                                     final List<Object> param)
+  {
+    String column = getColumn(filter);
+    if (column == null)
+    {
+      return null;
+    }
+    AttributeDefinition attributeDefinition =
+        getAttributeDefinition(resolve(filter.getAttributePath()));
+    Object value = toSqlValue(filter.getComparisonValue(), attributeDefinition);
+    if (value == null)
+    {
+      return null;
+    }
+    if (value instanceof String &&
+        isCaseIgnored(attributeDefinition, filter.getComparisonValue()))
+    {
+      param.add(StaticUtils.toLowerCase((String) value));
+      return "LOWER(" + column + ") " + operator + " ?";
+    }
+    param.add(value);
+    return column + " " + operator + " ?";
+  }
+
+  /**
+   * Translate an ordering comparison.
+   *
+   * @param filter The comparison filter.
+   * @param operator The SQL comparison operator.
+   * @param param The list to add placeholder values to.
+   * @return The SQL condition or {@code null}.
+   */
+  private String translateOrdering(final Filter filter, final String operator,
+                                   final List<Object> param)
+  {
+    ValueNode value = filter.getComparisonValue();
+    if (!value.isTextual() && !value.isNumber())
+    {
+      // The filter evaluator rejects these so leave it to report the error.
+      return null;
+    }
+    return translateComparison(filter, operator, param);
+  }
+
+  /**
+   * Translate a substring filter into a LIKE condition.
+   *
+   * @param filter The substring filter.
+   * @param param The list to add placeholder values to.
+   * @return The SQL condition or {@code null}.
+   */
+  private String translateSubstring(final Filter filter,
+                                    final List<Object> param)
+  {
+    String column = getColumn(filter);
+    if (column == null || !filter.getComparisonValue().isTextual())
+    {
+      return null;
+    }
+    AttributeDefinition attributeDefinition =
+        getAttributeDefinition(resolve(filter.getAttributePath()));
+    if (attributeDefinition != null &&
+        attributeDefinition.getType() != AttributeDefinition.Type.STRING &&
+        attributeDefinition.getType() != AttributeDefinition.Type.REFERENCE)
+    {
+      return null;
+    }
+
+    String value = filter.getComparisonValue().textValue();
+    boolean caseIgnored = attributeDefinition == null ||
+        !attributeDefinition.isCaseExact();
+    if (caseIgnored)
+    {
+      value = StaticUtils.toLowerCase(value);
+    }
+    StringBuilder pattern = new StringBuilder(value.length() + 2);
+    if (filter.getFilterType() != FilterType.STARTS_WITH)
+    {
+      pattern.append('%');
+    }
+    for (int i = 0; i < value.length(); i++)
+    {
+      char c = value.charAt(i);
+      if (c == '%' || c == '_' || c == LIKE_ESCAPE)
+      {
+        pattern.append(LIKE_ESCAPE);
+      }
+      pattern.append(c);
+    }
+    if (filter.getFilterType() != FilterType.ENDS_WITH)
+    {
+      pattern.append('%');
+    }
+    param.add(pattern.toString());
+    return (caseIgnored ? "LOWER(" + column + ")" : column) +
+        " LIKE ? ESCAPE '" + LIKE_ESCAPE + "'";
+  }
+
+  /**
+   * Convert a filter comparison value to a JDBC parameter value.
+   *
+   * @param value The comparison value.
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @return The JDBC parameter value or {@code null} if the value can not be
+   * converted.
+   */
+  private static Object toSqlValue(
+      final ValueNode value, final AttributeDefinition attributeDefinition)
+  {
+    if (value.isTextual())
+    {
+      if (attributeDefinition != null &&
+          attributeDefinition.getType() == AttributeDefinition.Type.DATETIME)
+      {
+        Date date = JsonUtils.dateValue(value);
+        return date == null ? null : new Timestamp(date.getTime());
+      }
+      return value.textValue();
+    }
+    if (value.isNumber())
+    {
+      return value.numberValue();
+    }
+    if (value.isBoolean())
+    {
+      return value.booleanValue();
+    }
+    return null;
+  }
+
+  /**
+   * Whether string comparisons on the attribute ignore case.
+   *
+   * @param attributeDefinition The attribute definition or {@code null}.
+   * @param value The comparison value or {@code null}.
+   * @return {@code true} if string comparisons ignore case.
+   */
+  private static boolean isCaseIgnored(
+      final AttributeDefinition attributeDefinition, final ValueNode value)
+  {
+    if (attributeDefinition == null)
+    {
+      return value == null || value.isTextual();
+    }
+    return (attributeDefinition.getType() == AttributeDefinition.Type.STRING ||
+        attributeDefinition.getType() == AttributeDefinition.Type.REFERENCE) &&
+        !attributeDefinition.isCaseExact();
+  }
+
+  /**
+   * Retrieve the SQL column for the attribute of a filter.
+   *
+   * @param filter The filter.
+   * @return The SQL column or {@code null} if the attribute is not mapped.
+   */
+  private String getColumn(final Filter filter)
+  {
+    Path path = resolve(filter.getAttributePath());
+    if (hasValueFilters(path))
+    {
+      return null;
+    }
+    return columnMapping.getColumn(path);
+  }
+
+  /**
+   * Retrieve the attribute definition of an attribute.
+   *
+   * @param path The resolved path to the attribute.
+   * @return The attribute definition or {@code null}.
+   */
+  private AttributeDefinition getAttributeDefinition(final Path path)
+  {
+    return resourceType == null ? null :
+        resourceType.getAttributeDefinition(path);
+  }
+
+  /**
+   * Resolve a filter attribute path relative to the resource.
+   *
+   * @param path The filter attribute path.
+   * @return The resolved path.
+   */
+  private Path resolve(final Path path)
+  {
+    return normalize(parentPath == null ? path : parentPath.attribute(path));
+  }
+
+  /**
+   * Normalize a path by removing the schema URN for core attributes.
+   *
+   * @param path The path to normalize.
+   * @return The normalized path.
+   */
+  private Path normalize(final Path path)
+  {
+    return resourceType == null ? path : resourceType.normalizePath(path);
+  }
+
+  /**
+   * Whether any element of the path has a value filter.
+   *
+   * @param path The path.
+   * @return {@code true} if any element of the path has a value filter.
+   */
+  private static boolean hasValueFilters(final Path path)
+  {
+    for (Path.Element element : path)
+    {
+      if (element.getValueFilter() != null)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Combine residual filters into a single filter.
+   *
+   * @param residual The residual filters.
+   * @return The combined filter or {@code null} if there are none.
+   */
+  private static Filter combine(final List<Filter> residual)
+  {
+    if (residual.isEmpty())
+    {
+      return null;
+    }
+    return residual.size() == 1 ? residual.get(0) : Filter.and(residual);
+  }
+
+  /**
+   * Remove the placeholder values added after a mark.
+   *
+   * @param param The placeholder values.
+   * @param mark The number of values to keep.
+   */
+  private static void truncate(final List<Object> param, final int mark)
+  {
+    while (param.size() > mark)
+    {
+      param.remove(param.size() - 1);
+    }
+  }
+}
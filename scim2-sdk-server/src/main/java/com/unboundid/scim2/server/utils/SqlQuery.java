@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.filters.Filter;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of translating a SCIM search into SQL using the
+ * {@link SqlFilterTranslator}. The WHERE clause uses {@code ?} placeholders
+ * whose values are provided, in order, by {@link #getParameters()}. Any part
+ * of the filter that could not be translated is available as the residual
+ * filter, which must be evaluated in memory on the rows returned by the
+ * database, for example with the {@link SchemaAwareFilterEvaluator}.
+ */
+public final class SqlQuery
+{
+  private final String whereClause;
+  private final List<Object> parameters;
+  private final Filter residualFilter;
+  private final String orderByClause;
+  private final Integer limit;
+  private final Integer offset;
+
+  /**
+   * Create a new SQL query.
+   *
+   * @param whereClause The WHERE condition or {@code null}.
+   * @param parameters The parameter values for the WHERE condition.
+   * @param residualFilter The filter that must be evaluated in memory or
+   *                       {@code null}.
+   * @param orderByClause The ORDER BY expression or {@code null}.
+   * @param limit The maximum number of rows to return or {@code null}.
+   * @param offset The number of rows to skip or {@code null}.
+   */
+  SqlQuery(final String whereClause, final List<Object> parameters,
+           final Filter residualFilter, final String orderByClause,
+           final Integer limit, final Integer offset)
+  {
+    this.whereClause = whereClause;
+    this.parameters = Collections.unmodifiableList(parameters);
+    this.residualFilter = residualFilter;
+    this.orderByClause = orderByClause;
+    this.limit = limit;
+    this.offset = offset;
+  }
+
+  /**
+   * Retrieves the SQL condition for the WHERE clause, without the
+   * {@code WHERE} keyword.
+   *
+   * @return The SQL condition or {@code null} if all rows are candidates.
+   */
+  public String getWhereClause()
+  {
+    return whereClause;
+  }
+
+  /**
+   * Retrieves the values of the {@code ?} placeholders in the WHERE
+   * condition in order.
+   *
+   * @return The values of the placeholders in the WHERE condition.
+   */
+  public List<Object> getParameters()
+  {
+    return parameters;
+  }
+
+  /**
+   * Retrieves the part of the filter that could not be translated and must
+   * be evaluated in memory.
+   *
+   * @return The residual filter or {@code null} if the entire filter was
+   * translated.
+   */
+  public Filter getResidualFilter()
+  {
+    return residualFilter;
+  }
+
+  /**
+   * Retrieves the SQL expression for the ORDER BY clause, without the
+   * {@code ORDER BY} keywords.
+   *
+   * @return The ORDER BY expression or {@code null} if the search is not
+   * sorted or sorting could not be translated.
+   */
+  public String getOrderByClause()
+  {
+    return orderByClause;
+  }
+
+  /**
+   * Retrieves the maximum number of rows to return.
+   *
+   * @return The maximum number of rows or {@code null} if paging is not
+   * requested or could not be pushed down.
+   */
+  public Integer getLimit()
+  {
+    return limit;
+  }
+
+  /**
+   * Retrieves the number of rows to skip.
+   *
+   * @return The number of rows to skip or {@code null} if paging is not
+   * requested or could not be pushed down.
+   */
+  public Integer getOffset()
+  {
+    return offset;
+  }
+
+  /**
+   * Whether paging was pushed down to the database. If not, the caller must
+   * page the results after evaluating the residual filter and sorting.
+   *
+   * @return {@code true} if paging was pushed down or {@code false}
+   * otherwise.
+   */
+  public boolean isPagingPushedDown()
+  {
+    return limit != null || offset != null;
+  }
+
+  /**
+   * Build a complete SQL statement by appending the WHERE, ORDER BY, LIMIT
+   * and OFFSET clauses to the provided SELECT statement.
+   *
+   * @param select The SELECT statement, for example
+   *               {@code SELECT * FROM users u}.
+   * @return The complete SQL statement.
+   */
+  public String toSql(final String select)
+  {
+    StringBuilder builder = new StringBuilder(toCountSql(select));
+    if (orderByClause != null)
+    {
+      builder.append(" ORDER BY ");
+      builder.append(orderByClause);
+    }
+    if (limit != null)
+    {
+      builder.append(" LIMIT ");
+      builder.append(limit);
+    }
+    if (offset != null)
+    {
+      builder.append(" OFFSET ");
+      builder.append(offset);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Build a SQL statement by appending only the WHERE clause to the provided
+   * SELECT statement. This is useful to count the total number of results
+   * when paging is pushed down.
+   *
+   * @param select The SELECT statement, for example
+   *               {@code SELECT COUNT(*) FROM users u}.
+   * @return The SQL statement.
+   */
+  public String toCountSql(final String select)
+  {
+    if (whereClause == null)
+    {
+      return select;
+    }
+    return select + " WHERE " + whereClause;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString()
+  {
+    return "SqlQuery{" +
+        "whereClause='" + whereClause + '\'' +
+        ", parameters=" + parameters +
+        ", residualFilter=" + residualFilter +
+        ", orderByClause='" + orderByClause + '\'' +
+        ", limit=" + limit +
+        ", offset=" + offset +
+        '}';
+  }
+}
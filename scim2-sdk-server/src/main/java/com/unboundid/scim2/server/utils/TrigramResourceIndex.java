@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of the trigrams (substrings of three characters) of string
+ * attribute values that answers {@code co}, {@code sw} and {@code ew}
+ * filters. The resources containing every trigram of the comparison value
+ * are the candidates, and only their indexed values are verified against the
+ * filter. Values are folded to lower case unless the attribute is case
+ * exact, the same way the filter evaluator compares substrings.
+ */
+public final class TrigramResourceIndex implements ResourceIndex
+{
+  /**
+   * The number of characters in a gram.
+   */
+  private static final int GRAM_LENGTH = 3;
+
+  private final Path path;
+  private final boolean caseExact;
+  private final Map<String, Set<String>> postings =
+      new HashMap<String, Set<String>>();
+  private final Map<String, List<String>> values =
+      new HashMap<String, List<String>>();
+
+  /**
+   * Create a new trigram index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to determine the
+   *                     case sensitivity of the attribute or {@code null}.
+   */
+  public TrigramResourceIndex(final Path path,
+                              final ResourceTypeDefinition resourceType)
+  {
+    Path attributePath = path.withoutFilters();
+    this.path = resourceType == null ?
+        attributePath : resourceType.normalizePath(attributePath);
+    AttributeDefinition attributeDefinition = resourceType == null ?
+        null : resourceType.getAttributeDefinition(this.path);
+    this.caseExact =
+        attributeDefinition != null && attributeDefinition.isCaseExact();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Only string values are indexed since values of other types never match
+   * a substring filter with a string comparison value.
+   */
+  public void add(final String id, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      if (!value.isTextual())
+      {
+        continue;
+      }
+      String folded = fold(value.textValue());
+      List<String> idValues = this.values.get(id);
+      if (idValues == null)
+      {
+        idValues = new ArrayList<String>(1);
+        this.values.put(id, idValues);
+      }
+      idValues.add(folded);
+      for (String gram : grams(folded))
+      {
+        Set<String> ids = postings.get(gram);
+        if (ids == null)
+        {
+          ids = new HashSet<String>();
+          postings.put(gram, ids);
+        }
+        ids.add(id);
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(final String id, final List<JsonNode> values)
+  {
+    List<String> idValues = this.values.remove(id);
+    if (idValues == null)
+    {
+      return;
+    }
+    for (String value : idValues)
+    {
+      for (String gram : grams(value))
+      {
+        Set<String> ids = postings.get(gram);
+        if (ids != null)
+        {
+          ids.remove(id);
+          if (ids.isEmpty())
+          {
+            postings.remove(gram);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Set<String> lookup(final Filter filter)
+  {
+    switch (filter.getFilterType())
+    {
+      case CONTAINS:
+      case STARTS_WITH:
+      case ENDS_WITH:
+        break;
+      default:
+        return null;
+    }
+    ValueNode value = filter.getComparisonValue();
+    if (value == null || !value.isTextual())
+    {
+      return null;
+    }
+
+    String comparisonValue = fold(value.textValue());
+    Set<String> grams = grams(comparisonValue);
+    Set<String> ids = new HashSet<String>();
+    for (String id : getCandidates(grams))
+    {
+      for (String indexedValue : values.get(id))
+      {
+        if (matches(filter, indexedValue, comparisonValue))
+        {
+          ids.add(id);
+          break;
+        }
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Retrieves the IDs of the resources with values containing all the
+   * provided trigrams.
+   *
+   * @param grams The trigrams.
+   * @return The candidate IDs.
+   */
+  private Collection<String> getCandidates(final Set<String> grams)
+  {
+    if (grams.isEmpty())
+    {
+      // The comparison value is too short to have trigrams.
+      return values.keySet();
+    }
+    List<Set<String>> idSets = new ArrayList<Set<String>>(grams.size());
+    for (String gram : grams)
+    {
+      Set<String> ids = postings.get(gram);
+      if (ids == null)
+      {
+        return Collections.emptySet();
+      }
+      idSets.add(ids);
+    }
+    Set<String> smallest = idSets.get(0);
+    for (Set<String> ids : idSets)
+    {
+      if (ids.size() < smallest.size())
+      {
+        smallest = ids;
+      }
+    }
+    Set<String> candidates = new HashSet<String>(smallest);
+    for (Set<String> ids : idSets)
+    {
+      if (ids != smallest)
+      {
+        candidates.retainAll(ids);
+        if (candidates.isEmpty())
+        {
+          break;
+        }
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Whether an indexed value matches a substring filter.
+   *
+   * @param filter The substring filter.
+   * @param indexedValue The folded indexed value.
+   * @param comparisonValue The folded comparison value.
+   * @return {@code true} if the value matches.
+   */
+  private static boolean matches(final Filter filter,
+                                 final String indexedValue,
+                                 final String comparisonValue)
+  {
+    switch (filter.getFilterType())
+    {
+      case STARTS_WITH:
+        return indexedValue.startsWith(comparisonValue);
+      case ENDS_WITH:
+        return indexedValue.endsWith(comparisonValue);
+      default:
+        return indexedValue.contains(comparisonValue);
+    }
+  }
+
+  /**
+   * Fold a value the same way the filter evaluator does for substring
+   * filters.
+   *
+   * @param value The value.
+   * @return The folded value.
+   */
+  private String fold(final String value)
+  {
+    return caseExact ? value : StaticUtils.toLowerCase(value);
+  }
+
+  /**
+   * Retrieves the distinct trigrams of a value.
+   *
+   * @param value The folded value.
+   * @return The distinct trigrams of the value.
+   */
+  private static Set<String> grams(final String value)
+  {
+    Set<String> grams = new LinkedHashSet<String>();
+    for (int i = 0; i + GRAM_LENGTH <= value.length(); i++)
+    {
+      grams.add(value.substring(i, i + GRAM_LENGTH));
+    }
+    return grams;
+  }
+}
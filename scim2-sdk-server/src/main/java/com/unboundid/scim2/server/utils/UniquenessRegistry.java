@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.Debug;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.common.utils.StaticUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A registry that enforces the {@code uniqueness} of attributes declared in
+ * the schemas of resource types. Values of attributes with
+ * {@link AttributeDefinition.Uniqueness#SERVER} uniqueness must be unique
+ * among the resources of the same resource type, and values of attributes
+ * with {@link AttributeDefinition.Uniqueness#GLOBAL} uniqueness must be
+ * unique among the resources of all resource types sharing the registry.
+ * String values are compared ignoring case unless the attribute is case
+ * exact.
+ * <p>
+ * Values are reserved atomically before a resource is created, replaced or
+ * modified, so concurrent requests can not both claim the same value:
+ * <pre>
+ *   UniquenessRegistry.Reservation reservation =
+ *       registry.reserve(resourceType, id, currentObjectNode, newObjectNode);
+ *   try
+ *   {
+ *     // Write the resource to the backend.
+ *     reservation.commit();
+ *   }
+ *   finally
+ *   {
+ *     reservation.release();
+ *   }
+ * </pre>
+ * Committing frees the values the resource no longer has, and releasing a
+ * reservation that was not committed frees the values it claimed. When a
+ * resource is deleted, its values are freed with {@link #release}.
+ * <p>
+ * Values are kept in striped hash maps, each guarded by its own lock, so
+ * reservations of unrelated values rarely contend. This class is
+ * thread-safe.
+ */
+public class UniquenessRegistry
+{
+  /**
+   * The values claimed for a resource that must be either committed or
+   * released.
+   */
+  public final class Reservation
+  {
+    private final String owner;
+    private final Collection<String> claimedKeys;
+    private final Collection<String> replacedKeys;
+    private boolean done;
+
+    /**
+     * Create a new reservation.
+     *
+     * @param owner The owner of the values.
+     * @param claimedKeys The keys of the values claimed by this reservation.
+     * @param replacedKeys The keys of the values to free on commit.
+     */
+    private Reservation(final String owner,
+                        final Collection<String> claimedKeys,
+                        final Collection<String> replacedKeys)
+    {
+      this.owner = owner;
+      this.claimedKeys = claimedKeys;
+      this.replacedKeys = replacedKeys;
+    }
+
+    /**
+     * Keep the claimed values and free the values the previous version of
+     * the resource had but the new version does not. Call this once the
+     * resource has been written.
+     */
+    public synchronized void commit()
+    {
+      if (!done)
+      {
+        done = true;
+        free(owner, replacedKeys);
+      }
+    }
+
+    /**
+     * Free the values claimed by this reservation if it was not committed.
+     * This has no effect after the reservation is committed, so it can be
+     * called in a finally block.
+     */
+    public synchronized void release()
+    {
+      if (!done)
+      {
+        done = true;
+        free(owner, claimedKeys);
+      }
+    }
+  }
+
+  /**
+   * A stripe of the registry.
+   */
+  private static final class Stripe
+  {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, String> owners = new HashMap<String, String>();
+  }
+
+  /**
+   * An attribute whose values must be unique.
+   */
+  private static final class UniqueAttribute
+  {
+    private final Path path;
+    private final AttributeDefinition attributeDefinition;
+    private final String namespace;
+
+    /**
+     * Create a new unique attribute.
+     *
+     * @param path The path of the attribute.
+     * @param attributeDefinition The attribute definition.
+     * @param namespace The namespace of the values of the attribute.
+     */
+    private UniqueAttribute(final Path path,
+                            final AttributeDefinition attributeDefinition,
+                            final String namespace)
+    {
+      this.path = path;
+      this.attributeDefinition = attributeDefinition;
+      this.namespace = namespace;
+    }
+  }
+
+  private static final int DEFAULT_STRIPE_COUNT = 64;
+
+  private final Stripe[] stripes;
+  private final ConcurrentMap<ResourceTypeDefinition, List<UniqueAttribute>>
+      uniqueAttributes =
+      new ConcurrentHashMap<ResourceTypeDefinition, List<UniqueAttribute>>();
+
+  /**
+   * Create a new uniqueness registry.
+   */
+  public UniquenessRegistry()
+  {
+    this(DEFAULT_STRIPE_COUNT);
+  }
+
+  /**
+   * Create a new uniqueness registry.
+   *
+   * @param stripeCount The number of independently locked stripes.
+   */
+  public UniquenessRegistry(final int stripeCount)
+  {
+    if (stripeCount < 1)
+    {
+      throw new IllegalArgumentException("stripeCount must be at least 1");
+    }
+    stripes = new Stripe[stripeCount];
+    for (int i = 0; i < stripeCount; i++)
+    {
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Reserve the unique attribute values of a resource that is about to be
+   * created, replaced or modified.
+   *
+   * @param resourceType The resource type definition of the resource.
+   * @param id The ID of the resource.
+   * @param current The current version of the resource or {@code null} if
+   *                the resource is being created.
+   * @param resource The new version of the resource.
+   * @return The reservation, which must be committed or released.
+   * @throws BadRequestException If a unique attribute value is already used
+   * by another resource.
+   */
+  public Reservation reserve(final ResourceTypeDefinition resourceType,
+                             final String id, final ObjectNode current,
+                             final ObjectNode resource)
+      throws BadRequestException
+  {
+    String owner = resourceType.getName() + "/" + id;
+    Map<String, String> keys = getKeys(resourceType, resource);
+    Map<String, String> currentKeys = current == null ?
+        Collections.<String, String>emptyMap() :
+        getKeys(resourceType, current);
+
+    // Lock the stripes in a consistent order to avoid deadlocks.
+    TreeMap<Integer, List<String>> keysByStripe =
+        new TreeMap<Integer, List<String>>();
+    for (String key : keys.keySet())
+    {
+      int stripe = stripeOf(key);
+      List<String> stripeKeys = keysByStripe.get(stripe);
+      if (stripeKeys == null)
+      {
+        stripeKeys = new ArrayList<String>();
+        keysByStripe.put(stripe, stripeKeys);
+      }
+      stripeKeys.add(key);
+    }
+
+    List<String> claimedKeys = new ArrayList<String>();
+    List<Stripe> locked = new ArrayList<Stripe>(keysByStripe.size());
+    try
+    {
+      for (Integer stripe : keysByStripe.keySet())
+      {
+        stripes[stripe].lock.lock();
+        locked.add(stripes[stripe]);
+      }
+      for (Map.Entry<Integer, List<String>> entry : keysByStripe.entrySet())
+      {
+        Map<String, String> owners = stripes[entry.getKey()].owners;
+        for (String key : entry.getValue())
+        {
+          String existingOwner = owners.get(key);
+          if (existingOwner != null && !existingOwner.equals(owner))
+          {
+            throw BadRequestException.uniqueness("The value of the " +
+                keys.get(key) + " attribute is already in use");
+          }
+        }
+      }
+      for (Map.Entry<Integer, List<String>> entry : keysByStripe.entrySet())
+      {
+        Map<String, String> owners = stripes[entry.getKey()].owners;
+        for (String key : entry.getValue())
+        {
+          if (owners.put(key, owner) == null)
+          {
+            claimedKeys.add(key);
+          }
+        }
+      }
+    }
+    finally
+    {
+      for (Stripe stripe : locked)
+      {
+        stripe.lock.unlock();
+      }
+    }
+
+    List<String> replacedKeys = new ArrayList<String>();
+    for (String key : currentKeys.keySet())
+    {
+      if (!keys.containsKey(key))
+      {
+        replacedKeys.add(key);
+      }
+    }
+    return new Reservation(owner, claimedKeys, replacedKeys);
+  }
+
+  /**
+   * Free the unique attribute values of a resource that was deleted.
+   *
+   * @param resourceType The resource type definition of the resource.
+   * @param id The ID of the resource.
+   * @param resource The resource.
+   */
+  public void release(final ResourceTypeDefinition resourceType,
+                      final String id, final ObjectNode resource)
+  {
+    free(resourceType.getName() + "/" + id,
+        getKeys(resourceType, resource).keySet());
+  }
+
+  /**
+   * Retrieves the number of reserved values.
+   *
+   * @return The number of reserved values.
+   */
+  public int size()
+  {
+    int size = 0;
+    for (Stripe stripe : stripes)
+    {
+      stripe.lock.lock();
+      try
+      {
+        size += stripe.owners.size();
+      }
+      finally
+      {
+        stripe.lock.unlock();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Free values owned by a resource.
+   *
+   * @param owner The owner of the values.
+   * @param keys The keys of the values.
+   */
+  private void free(final String owner, final Collection<String> keys)
+  {
+    for (String key : keys)
+    {
+      Stripe stripe = stripes[stripeOf(key)];
+      stripe.lock.lock();
+      try
+      {
+        if (owner.equals(stripe.owners.get(key)))
+        {
+          stripe.owners.remove(key);
+        }
+      }
+      finally
+      {
+        stripe.lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Retrieves the stripe of a key.
+   *
+   * @param key The key.
+   * @return The index of the stripe.
+   */
+  private int stripeOf(final String key)
+  {
+    int hash = key.hashCode();
+    // Spread the high bits since stripe counts are usually small.
+    hash ^= hash >>> 16;
+    return (hash & Integer.MAX_VALUE) % stripes.length;
+  }
+
+  /**
+   * Retrieves the keys of the unique attribute values of a resource.
+   *
+   * @param resourceType The resource type definition of the resource.
+   * @param resource The resource.
+   * @return The keys of the unique attribute values mapped to the names of
+   * their attributes.
+   */
+  private Map<String, String> getKeys(final ResourceTypeDefinition resourceType,
+                                      final ObjectNode resource)
+  {
+    Map<String, String> keys = new LinkedHashMap<String, String>();
+    for (UniqueAttribute attribute : getUniqueAttributes(resourceType))
+    {
+      List<JsonNode> values;
+      try
+      {
+        values = JsonUtils.findMatchingPaths(attribute.path, resource);
+      }
+      catch (ScimException e)
+      {
+        // The path has no value filters so this should never happen.
+        Debug.debugException(e);
+        continue;
+      }
+      for (JsonNode value : values)
+      {
+        if (value.isArray())
+        {
+          for (JsonNode element : value)
+          {
+            addKey(attribute, element, keys);
+          }
+        }
+        else
+        {
+          addKey(attribute, value, keys);
+        }
+      }
+    }
+    return keys;
+  }
+
+  /**
+   * Add the key of a unique attribute value.
+   *
+   * @param attribute The unique attribute.
+   * @param value The value.
+   * @param keys The keys to add to.
+   */
+  private static void addKey(final UniqueAttribute attribute,
+                             final JsonNode value,
+                             final Map<String, String> keys)
+  {
+    if (value.isNull())
+    {
+      return;
+    }
+    IndexKeys.Kind kind = IndexKeys.kindOf(value);
+    keys.put(attribute.namespace + kind + '\u0000' +
+            IndexKeys.keyOf(value, kind, attribute.attributeDefinition),
+        attribute.path.toString());
+  }
+
+  /**
+   * Retrieves the attributes of a resource type whose values must be
+   * unique.
+   *
+   * @param resourceType The resource type definition.
+   * @return The unique attributes.
+   */
+  private List<UniqueAttribute> getUniqueAttributes(
+      final ResourceTypeDefinition resourceType)
+  {
+    List<UniqueAttribute> attributes = uniqueAttributes.get(resourceType);
+    if (attributes == null)
+    {
+      attributes = new ArrayList<UniqueAttribute>();
+      if (resourceType.getCoreSchema() != null)
+      {
+        addUniqueAttributes(resourceType, Path.root(),
+            resourceType.getCoreSchema().getAttributes(), attributes);
+      }
+      for (SchemaResource schemaExtension :
+          resourceType.getSchemaExtensions().keySet())
+      {
+        addUniqueAttributes(resourceType,
+            Path.root(schemaExtension.getId()),
+            schemaExtension.getAttributes(), attributes);
+      }
+      uniqueAttributes.putIfAbsent(resourceType, attributes);
+    }
+    return attributes;
+  }
+
+  /**
+   * Add the attributes whose values must be unique among the provided
+   * attributes and their sub-attributes.
+   *
+   * @param resourceType The resource type definition.
+   * @param parentPath The path of the parent of the attributes.
+   * @param definitions The attribute definitions.
+   * @param attributes The list to add to.
+   */
+  private static void addUniqueAttributes(
+      final ResourceTypeDefinition resourceType, final Path parentPath,
+      final Collection<AttributeDefinition> definitions,
+      final List<UniqueAttribute> attributes)
+  {
+    if (definitions == null)
+    {
+      return;
+    }
+    for (AttributeDefinition definition : definitions)
+    {
+      Path path = parentPath.attribute(definition.getName());
+      AttributeDefinition.Uniqueness uniqueness = definition.getUniqueness();
+      if (uniqueness == AttributeDefinition.Uniqueness.SERVER ||
+          uniqueness == AttributeDefinition.Uniqueness.GLOBAL)
+      {
+        // Attribute names are case insensitive.
+        String namespace =
+            (uniqueness == AttributeDefinition.Uniqueness.GLOBAL ?
+                "" : resourceType.getName()) + '\u0000' +
+            StaticUtils.toLowerCase(path.toString()) + '\u0000';
+        attributes.add(new UniqueAttribute(path, definition, namespace));
+      }
+      else if (definition.getType() == AttributeDefinition.Type.COMPLEX)
+      {
+        addUniqueAttributes(resourceType, path,
+            definition.getSubAttributes(), attributes);
+      }
+    }
+  }
+}
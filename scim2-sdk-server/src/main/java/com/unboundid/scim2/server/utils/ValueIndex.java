@@ -0,0 +1,227 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base class for indexes that map the keys of attribute values to the IDs of
+ * the resources with those values. Values of each {@link IndexKeys.Kind} are
+ * kept in separate maps. This base class answers {@code pr} filters and
+ * {@code eq} filters.
+ */
+abstract class ValueIndex implements ResourceIndex
+{
+  private final Path path;
+  private final AttributeDefinition attributeDefinition;
+  private final Map<IndexKeys.Kind, Map<Comparable<?>, Set<String>>> keyMaps =
+      new EnumMap<IndexKeys.Kind, Map<Comparable<?>, Set<String>>>(
+          IndexKeys.Kind.class);
+  private final Map<IndexKeys.Kind, Integer> kindCounts =
+      new EnumMap<IndexKeys.Kind, Integer>(IndexKeys.Kind.class);
+  private final Map<String, Integer> presentIds =
+      new HashMap<String, Integer>();
+
+  /**
+   * Create a new value index.
+   *
+   * @param path The path of the indexed attribute.
+   * @param resourceType The resource type definition used to determine the
+   *                     case sensitivity of the attribute or {@code null}.
+   */
+  ValueIndex(final Path path, final ResourceTypeDefinition resourceType)
+  {
+    Path attributePath = path.withoutFilters();
+    this.path = resourceType == null ?
+        attributePath : resourceType.normalizePath(attributePath);
+    this.attributeDefinition = resourceType == null ?
+        null : resourceType.getAttributeDefinition(this.path);
+    for (IndexKeys.Kind kind : IndexKeys.Kind.values())
+    {
+      keyMaps.put(kind, newKeyMap());
+      kindCounts.put(kind, 0);
+    }
+  }
+
+  /**
+   * Create a new, empty map from index keys to resource IDs.
+   *
+   * @return A new map from index keys to resource IDs.
+   */
+  abstract Map<Comparable<?>, Set<String>> newKeyMap();
+
+  /**
+   * Answer filters other than {@code pr} and {@code eq}.
+   *
+   * @param filter The attribute filter.
+   * @return The IDs of the matching resources or {@code null}.
+   */
+  abstract Set<String> lookupOther(final Filter filter);
+
+  /**
+   * {@inheritDoc}
+   */
+  public Path getPath()
+  {
+    return path;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void add(final String id, final List<JsonNode> values)
+  {
+    if (values.isEmpty())
+    {
+      return;
+    }
+    for (JsonNode value : values)
+    {
+      IndexKeys.Kind kind = IndexKeys.kindOf(value);
+      Comparable<?> key = IndexKeys.keyOf(value, kind, attributeDefinition);
+      Map<Comparable<?>, Set<String>> keyMap = keyMaps.get(kind);
+      Set<String> ids = keyMap.get(key);
+      if (ids == null)
+      {
+        ids = new HashSet<String>();
+        keyMap.put(key, ids);
+      }
+      ids.add(id);
+      kindCounts.put(kind, kindCounts.get(kind) + 1);
+    }
+    Integer count = presentIds.get(id);
+    presentIds.put(id, (count == null ? 0 : count) + values.size());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void remove(final String id, final List<JsonNode> values)
+  {
+    for (JsonNode value : values)
+    {
+      IndexKeys.Kind kind = IndexKeys.kindOf(value);
+      Comparable<?> key = IndexKeys.keyOf(value, kind, attributeDefinition);
+      Map<Comparable<?>, Set<String>> keyMap = keyMaps.get(kind);
+      Set<String> ids = keyMap.get(key);
+      if (ids != null)
+      {
+        ids.remove(id);
+        if (ids.isEmpty())
+        {
+          keyMap.remove(key);
+        }
+      }
+      kindCounts.put(kind, kindCounts.get(kind) - 1);
+    }
+    Integer count = presentIds.get(id);
+    if (count != null)
+    {
+      if (count <= values.size())
+      {
+        presentIds.remove(id);
+      }
+      else
+      {
+        presentIds.put(id, count - values.size());
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Set<String> lookup(final Filter filter)
+  {
+    if (filter.getFilterType() == FilterType.PRESENT)
+    {
+      return Collections.unmodifiableSet(presentIds.keySet());
+    }
+    if (filter.getFilterType() == FilterType.EQUAL)
+    {
+      ValueNode value = filter.getComparisonValue();
+      if (value.isNull())
+      {
+        return null;
+      }
+      IndexKeys.Kind kind = IndexKeys.kindOf(value);
+      if (!isHomogeneous(kind))
+      {
+        return null;
+      }
+      Set<String> ids = keyMaps.get(kind).get(
+          IndexKeys.keyOf(value, kind, attributeDefinition));
+      return ids == null ? Collections.<String>emptySet() : ids;
+    }
+    return lookupOther(filter);
+  }
+
+  /**
+   * Retrieves the attribute definition of the indexed attribute.
+   *
+   * @return The attribute definition or {@code null}.
+   */
+  AttributeDefinition getAttributeDefinition()
+  {
+    return attributeDefinition;
+  }
+
+  /**
+   * Retrieves the map from index keys to resource IDs for values of a kind.
+   *
+   * @param kind The kind of values.
+   * @return The map from index keys to resource IDs.
+   */
+  Map<Comparable<?>, Set<String>> getKeyMap(final IndexKeys.Kind kind)
+  {
+    return keyMaps.get(kind);
+  }
+
+  /**
+   * Whether all indexed values are of the provided kind. The filter
+   * evaluator compares values of different kinds as text, which the index
+   * keys do not preserve.
+   *
+   * @param kind The kind of the comparison value.
+   * @return {@code true} if there are no indexed values of other kinds.
+   */
+  boolean isHomogeneous(final IndexKeys.Kind kind)
+  {
+    for (Map.Entry<IndexKeys.Kind, Integer> entry : kindCounts.entrySet())
+    {
+      if (entry.getKey() != kind && entry.getValue() > 0)
+      {
+        return false;
+      }
+    }
+    return true;
+  }
+}
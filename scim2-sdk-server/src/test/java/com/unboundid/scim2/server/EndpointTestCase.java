@@ -18,20 +18,37 @@
 package com.unboundid.scim2.server;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import com.fasterxml.jackson.jaxrs.cfg.JaxRSFeature;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.google.common.collect.Lists;
+import com.unboundid.scim2.client.AdaptiveConcurrencyLimiter;
+import com.unboundid.scim2.client.AsyncScimInterface;
+import com.unboundid.scim2.client.ResourceCache;
+import com.unboundid.scim2.client.RetrieveAllResults;
+import com.unboundid.scim2.client.RetryPolicy;
 import com.unboundid.scim2.client.ScimInterface;
+import com.unboundid.scim2.client.ScimOperationExecutor;
 import com.unboundid.scim2.client.ScimService;
 import com.unboundid.scim2.client.ScimServiceException;
+import com.unboundid.scim2.client.requests.BulkRequestBuilder;
+import com.unboundid.scim2.client.requests.ListResponseBuilder;
+import com.unboundid.scim2.client.requests.PagedSearchResults;
 import com.unboundid.scim2.common.GenericScimResource;
 import com.unboundid.scim2.common.Path;
 import com.unboundid.scim2.common.ScimResource;
 import com.unboundid.scim2.common.exceptions.BadRequestException;
 import com.unboundid.scim2.common.exceptions.MethodNotAllowedException;
+import com.unboundid.scim2.common.exceptions.NotModifiedException;
 import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
 import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.messages.BulkOpType;
+import com.unboundid.scim2.common.messages.BulkOperation;
+import com.unboundid.scim2.common.messages.BulkOperationResult;
+import com.unboundid.scim2.common.messages.BulkRequest;
+import com.unboundid.scim2.common.messages.BulkResponse;
 import com.unboundid.scim2.common.messages.ErrorResponse;
 import com.unboundid.scim2.common.messages.ListResponse;
 import com.unboundid.scim2.common.messages.PatchOperation;
@@ -68,23 +85,36 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Application;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
@@ -134,6 +164,8 @@ public class EndpointTestCase extends JerseyTestNg.ContainerPerClassTest
 
     config.register(TestResourceEndpoint.class);
     config.register(new TestSingletonResourceEndpoint());
+    config.register(new TestVersionedResourceEndpoint());
+    config.register(new TestBulkEndpoint());
 
     return config;
   }
@@ -568,6 +600,1033 @@ public class EndpointTestCase extends JerseyTestNg.ContainerPerClassTest
     assertEquals(createdUser, retrievedUser);
   }
 
+  /**
+   * Test the asynchronous operations.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testAsync() throws Exception
+  {
+    ScimService scimService = new ScimService(target());
+
+    assertEquals(scimService.getServiceProviderConfigAsync().get(),
+        serviceProviderConfig);
+    assertEquals(scimService.getSchemaAsync(userSchema.getId()).get(),
+        userSchema);
+    assertEquals(scimService.getResourceTypeAsync(
+        resourceType.getId()).get(), resourceType);
+
+    List<CompletableFuture<UserResource>> created =
+        new ArrayList<CompletableFuture<UserResource>>();
+    for (int i = 0; i < 20; i++)
+    {
+      created.add(scimService.createAsync("SingletonUsers",
+          new UserResource().setUserName("asyncUser" + i)));
+    }
+    for (int i = 0; i < 20; i++)
+    {
+      UserResource user = created.get(i).get();
+      assertEquals(user.getUserName(), "asyncUser" + i);
+      assertEquals(scimService.retrieveAsync(user).get(), user);
+    }
+
+    UserResource user = created.get(0).get();
+    user.setDisplayName("Async");
+    assertEquals(scimService.replaceAsync(user).get().getDisplayName(),
+        "Async");
+    UserResource modified = scimService.modifyAsync(user,
+        new PatchRequest(Collections.singletonList(PatchOperation.replace(
+            "title", TextNode.valueOf("Engineer"))))).get();
+    assertEquals(modified.getTitle(), "Engineer");
+    assertEquals(modified.getDisplayName(), "Async");
+
+    ListResponse<UserResource> users = scimService.searchAsync("Users",
+        "meta.resourceType eq \"User\"", UserResource.class).get();
+    assertEquals(users.getTotalResults(), 1);
+    assertEquals(scimService.searchRequest("Users").
+        filter("meta.resourceType eq \"User\"").
+        invokePostAsync(UserResource.class).get().getTotalResults(), 1);
+
+    scimService.deleteAsync(user).get();
+    // Errors are the exceptions the synchronous operations throw.
+    try
+    {
+      scimService.retrieveAsync(user).get();
+      fail("Resource should have been deleted");
+    }
+    catch (ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof ResourceNotFoundException);
+    }
+    try
+    {
+      scimService.deleteAsync("badPath", "id").get();
+      fail("Expected an error");
+    }
+    catch (ExecutionException e)
+    {
+      assertTrue(e.getCause() instanceof ResourceNotFoundException);
+    }
+  }
+
+  /**
+   * Test paging through search results with prefetching.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testPagedSearch() throws Exception
+  {
+    ScimService scimService = new ScimService(target());
+    Set<String> ids = new HashSet<String>();
+    for (int i = 0; i < 25; i++)
+    {
+      ids.add(scimService.create("SingletonUsers",
+          new UserResource().setUserName("pagedUser" + i)).getId());
+    }
+    String filter = "userName sw \"pagedUser\"";
+
+    PagedSearchResults<UserResource> results =
+        scimService.searchRequest("SingletonUsers").filter(filter).
+            invokePaged(4, 2, UserResource.class);
+    Set<String> found = new HashSet<String>();
+    for (UserResource user : results)
+    {
+      assertTrue(found.add(user.getId()));
+    }
+    assertEquals(found, ids);
+    assertEquals(results.getTotalResults(), Integer.valueOf(25));
+    // No page is requested beyond totalResults once it is known.
+    assertEquals(results.getPagesRequested(), 7);
+
+    assertEquals(scimService.searchRequest("SingletonUsers").filter(filter).
+        page(11, 1).invokePostPaged(5, 1, UserResource.class).stream().
+        count(), 15);
+
+    // A service provider that returns at most 7 results per page.
+    WebTarget limitedTarget = target().register(new ClientRequestFilter()
+    {
+      public void filter(final ClientRequestContext requestContext)
+      {
+        requestContext.setUri(UriBuilder.fromUri(requestContext.getUri()).
+            replaceQueryParam(ApiConstants.QUERY_PARAMETER_PAGE_SIZE, 7).
+            build());
+      }
+    });
+    results = new ScimService(limitedTarget).searchRequest("SingletonUsers").
+        filter(filter).invokePaged(10, 2, UserResource.class);
+    found.clear();
+    for (UserResource user : results)
+    {
+      assertTrue(found.add(user.getId()));
+    }
+    assertEquals(found, ids);
+    // Pages 11 and 21 are cancelled and paging continues with pages of 7.
+    assertEquals(results.getPagesRequested(), 6);
+
+    // Closing early stops paging.
+    results = scimService.searchRequest("SingletonUsers").filter(filter).
+        invokePaged(2, 3, UserResource.class);
+    Iterator<UserResource> iterator = results.iterator();
+    iterator.next();
+    iterator.next();
+    iterator.next();
+    results.close();
+    iterator.next();
+    assertTrue(!iterator.hasNext());
+    assertTrue(results.getPagesRequested() <= 6);
+
+    for (String id : ids)
+    {
+      scimService.delete("SingletonUsers", id);
+    }
+  }
+
+  /**
+   * Test retrieving search results with parallel window requests.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testParallelSearch() throws Exception
+  {
+    ScimService scimService = new ScimService(target());
+    for (int i = 0; i < 30; i++)
+    {
+      scimService.create("SingletonUsers",
+          new UserResource().setUserName("parallelUser" + i));
+    }
+    String filter = "userName sw \"parallelUser\"";
+    List<String> expected = new ArrayList<String>();
+    for (UserResource user : scimService.searchRequest("SingletonUsers").
+        filter(filter).invoke(UserResource.class))
+    {
+      expected.add(user.getId());
+    }
+    assertEquals(expected.size(), 30);
+
+    ListResponse<UserResource> response =
+        scimService.searchRequest("SingletonUsers").filter(filter).
+            parallel().pageSize(4).parallelism(3).
+            invoke(UserResource.class);
+    assertEquals(response.getTotalResults(), 30);
+    assertEquals(getIds(response), expected);
+
+    response = scimService.searchRequest("SingletonUsers").filter(filter).
+        parallel().pageSize(4).parallelism(3).ordered(false).usePost(true).
+        invoke(UserResource.class);
+    assertEquals(new HashSet<String>(getIds(response)),
+        new HashSet<String>(expected));
+    assertEquals(response.getResources().size(), 30);
+
+    // A service provider that returns at most 7 results per page and fails
+    // the first request for each window starting at index 15.
+    final Set<String> failed = Collections.synchronizedSet(
+        new HashSet<String>());
+    WebTarget unreliableTarget = target().register(new ClientRequestFilter()
+    {
+      public void filter(final ClientRequestContext requestContext)
+      {
+        URI uri = requestContext.getUri();
+        if (uri.getQuery() != null &&
+            uri.getQuery().contains("startIndex=15&") &&
+            failed.add(uri.toString()))
+        {
+          requestContext.abortWith(Response.status(
+              Response.Status.SERVICE_UNAVAILABLE).build());
+          return;
+        }
+        requestContext.setUri(UriBuilder.fromUri(uri).
+            replaceQueryParam(ApiConstants.QUERY_PARAMETER_PAGE_SIZE, 7).
+            build());
+      }
+    });
+    ScimService unreliableService = new ScimService(unreliableTarget);
+    response = unreliableService.searchRequest("SingletonUsers").
+        filter(filter).parallel().pageSize(10).parallelism(2).
+        invoke(UserResource.class);
+    assertEquals(getIds(response), expected);
+    assertEquals(failed.size(), 1);
+
+    failed.clear();
+    try
+    {
+      unreliableService.searchRequest("SingletonUsers").filter(filter).
+          parallel().pageSize(10).maxRetries(0).invoke(UserResource.class);
+      fail("Expected the window starting at index 15 to fail");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(503));
+    }
+
+    // A throttled window is requested again after the Retry-After delay.
+    final List<Long> throttledNanos =
+        Collections.synchronizedList(new ArrayList<Long>());
+    WebTarget throttledTarget = target().register(new ClientRequestFilter()
+    {
+      public void filter(final ClientRequestContext requestContext)
+      {
+        URI uri = requestContext.getUri();
+        if (uri.getQuery() != null &&
+            uri.getQuery().contains("startIndex=11&"))
+        {
+          throttledNanos.add(System.nanoTime());
+          if (throttledNanos.size() == 1)
+          {
+            requestContext.abortWith(Response.status(429).header(
+                HttpHeaders.RETRY_AFTER, "1").build());
+          }
+        }
+      }
+    });
+    ScimService throttledService = new ScimService(throttledTarget);
+    response = throttledService.searchRequest("SingletonUsers").
+        filter(filter).parallel().pageSize(10).
+        retryPolicy(new RetryPolicy(2, 1, 5000, TimeUnit.MILLISECONDS)).
+        invoke(UserResource.class);
+    assertEquals(getIds(response), expected);
+    assertEquals(throttledNanos.size(), 2);
+    assertTrue(throttledNanos.get(1) - throttledNanos.get(0) >=
+        TimeUnit.SECONDS.toNanos(1));
+
+    // The search fails if the service provider asks to wait longer than the
+    // maximum delay of the retry policy.
+    throttledNanos.clear();
+    try
+    {
+      throttledService.searchRequest("SingletonUsers").filter(filter).
+          parallel().pageSize(10).
+          retryPolicy(new RetryPolicy(2, 1, 500, TimeUnit.MILLISECONDS)).
+          invoke(UserResource.class);
+      fail("Expected the window starting at index 11 to be throttled");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(429));
+    }
+    assertEquals(throttledNanos.size(), 1);
+
+    // The result handler may stop processing early.
+    ListResponseBuilder<UserResource> firstResults =
+        new ListResponseBuilder<UserResource>()
+        {
+          private int count;
+
+          @Override
+          public boolean resource(final UserResource scimResource)
+          {
+            super.resource(scimResource);
+            return ++count < 5;
+          }
+        };
+    scimService.searchRequest("SingletonUsers").filter(filter).parallel().
+        pageSize(2).invoke(firstResults, UserResource.class);
+    assertEquals(getIds(firstResults.build()), expected.subList(0, 5));
+
+    for (String id : expected)
+    {
+      scimService.delete("SingletonUsers", id);
+    }
+  }
+
+  /**
+   * Test retrieving resources by their IDs with coalesced searches.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testRetrieveAll() throws Exception
+  {
+    ScimService scimService = new ScimService(target());
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < 30; i++)
+    {
+      ids.add(scimService.create("SingletonUsers",
+          new UserResource().setUserName("retrieveAllUser" + i)).getId());
+    }
+    List<String> requested = new ArrayList<String>(ids);
+    requested.add(5, "unknown1");
+    requested.add("unknown2");
+    requested.add(ids.get(0));
+
+    RetrieveAllResults<UserResource> results =
+        scimService.retrieveAll("SingletonUsers", requested,
+            UserResource.class);
+    assertEquals(new ArrayList<String>(results.getResources().keySet()), ids);
+    for (Map.Entry<String, UserResource> entry :
+        results.getResources().entrySet())
+    {
+      assertEquals(entry.getValue().getId(), entry.getKey());
+    }
+    assertEquals(new ArrayList<String>(results.getMissingIds()),
+        Arrays.asList("unknown1", "unknown2"));
+
+    // Count the searches and limit the results of each search to 3.
+    final AtomicInteger searches = new AtomicInteger();
+    final AtomicInteger retrieves = new AtomicInteger();
+    WebTarget countingTarget = target().register(new ClientRequestFilter()
+    {
+      public void filter(final ClientRequestContext requestContext)
+      {
+        URI uri = requestContext.getUri();
+        if (uri.getQuery() != null && uri.getQuery().contains("filter="))
+        {
+          searches.incrementAndGet();
+          requestContext.setUri(UriBuilder.fromUri(uri).
+              replaceQueryParam(ApiConstants.QUERY_PARAMETER_PAGE_SIZE, 3).
+              build());
+        }
+        else if (uri.getPath().contains("SingletonUsers/"))
+        {
+          retrieves.incrementAndGet();
+        }
+      }
+    });
+    results = new ScimService(countingTarget).retrieveAllAsync(
+        "SingletonUsers", requested, 300, 3, UserResource.class).get();
+    assertEquals(new ArrayList<String>(results.getResources().keySet()), ids);
+    assertEquals(results.getMissingIds().size(), 2);
+    // The 32 distinct IDs do not fit in a single filter of 300 characters,
+    // and the IDs beyond the first 3 results of each search are retrieved
+    // individually.
+    assertTrue(searches.get() > 1);
+    assertTrue(retrieves.get() > 0);
+
+    assertTrue(scimService.retrieveAll("SingletonUsers",
+        Collections.<String>emptyList(), UserResource.class).
+        getResources().isEmpty());
+
+    for (String id : ids)
+    {
+      scimService.delete("SingletonUsers", id);
+    }
+  }
+
+  /**
+   * Test the client cache of retrieved resources.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testResourceCache() throws Exception
+  {
+    ResourceCache cache = new ResourceCache(2);
+    ScimService scimService = new ScimService(target(), cache);
+    UserResource created = scimService.create("VersionedUsers",
+        new UserResource().setUserName("cachedUser"));
+    assertEquals(cache.size(), 0);
+
+    UserResource retrieved = scimService.retrieve("VersionedUsers",
+        created.getId(), UserResource.class);
+    assertEquals(retrieved, created);
+    assertEquals(cache.getMissCount(), 1);
+    assertEquals(cache.getRevalidationCount(), 0);
+    assertEquals(cache.size(), 1);
+
+    // Searches and whole endpoints are not cached.
+    scimService.searchRequest("SingletonUsers").
+        filter("userName eq \"cachedUser\"").invoke(UserResource.class);
+    scimService.searchRequest("SingletonUsers").invoke(UserResource.class);
+    scimService.getServiceProviderConfig();
+    assertEquals(cache.getMissCount(), 1);
+    assertEquals(cache.size(), 1);
+
+    // Neither is a ListResponse returned for a resource location.
+    ScimService listingService = new ScimService(target().register(
+        new ClientRequestFilter()
+        {
+          public void filter(final ClientRequestContext requestContext)
+          {
+            requestContext.abortWith(Response.ok(
+                "{\"schemas\":[" +
+                    "\"urn:ietf:params:scim:api:messages:2.0:ListResponse\"]," +
+                    "\"totalResults\":0,\"Resources\":[]}",
+                ScimService.MEDIA_TYPE_SCIM_TYPE).
+                tag(new EntityTag("1", true)).build());
+          }
+        }), cache);
+    listingService.retrieve("VersionedUsers", "listed",
+        GenericScimResource.class);
+    assertEquals(cache.getMissCount(), 2);
+    assertEquals(cache.size(), 1);
+
+    // The service provider confirms the cached version is current.
+    assertEquals(scimService.retrieve("VersionedUsers", created.getId(),
+        UserResource.class), created);
+    assertEquals(scimService.retrieveAsync(created).get(), created);
+    assertEquals(cache.getRevalidationCount(), 2);
+    assertEquals(cache.getHitCount(), 2);
+    assertEquals(cache.getMissCount(), 2);
+
+    // Requests with their own condition are not answered from the cache.
+    try
+    {
+      scimService.retrieveRequest("VersionedUsers", created.getId()).
+          ifNoneMatch(created.getMeta().getVersion()).
+          invoke(UserResource.class);
+      fail("Expected NotModifiedException");
+    }
+    catch (NotModifiedException e)
+    {
+      // expected
+    }
+    assertEquals(cache.getHitCount(), 2);
+
+    // Replacing the resource invalidates the cached resource.
+    retrieved.setDisplayName("Cached User");
+    UserResource replaced = scimService.replace(retrieved);
+    assertEquals(cache.size(), 0);
+    retrieved = scimService.retrieve(replaced);
+    assertEquals(retrieved.getDisplayName(), "Cached User");
+    assertEquals(retrieved.getMeta().getVersion(), "W/\"2\"");
+    assertEquals(cache.getMissCount(), 3);
+
+    // A different representation of the resource replaces the cached one.
+    scimService.retrieveRequest("VersionedUsers", created.getId()).
+        attributes("userName").invoke(UserResource.class);
+    assertEquals(cache.getMissCount(), 4);
+    assertEquals(cache.getRevalidationCount(), 2);
+
+    // The least recently used resources are evicted.
+    for (int i = 0; i < 2; i++)
+    {
+      scimService.retrieve(scimService.create("VersionedUsers",
+          new UserResource().setUserName("evictedUser" + i)));
+    }
+    assertEquals(cache.size(), 2);
+
+    scimService.delete(retrieved);
+    try
+    {
+      scimService.retrieve(retrieved);
+      fail("Resource should have been deleted");
+    }
+    catch (ResourceNotFoundException e)
+    {
+      // expected
+    }
+    assertEquals(cache.size(), 2);
+  }
+
+  /**
+   * Test that discovery metadata is cached and shared by concurrent callers.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testDiscoveryCache() throws Exception
+  {
+    final AtomicInteger requests = new AtomicInteger();
+    ScimService scimService = new ScimService(target().register(
+        new ClientRequestFilter()
+        {
+          public void filter(final ClientRequestContext requestContext)
+          {
+            requests.incrementAndGet();
+          }
+        }));
+
+    // Concurrent callers share a single retrieval.
+    List<CompletableFuture<ServiceProviderConfigResource>> futures =
+        new ArrayList<CompletableFuture<ServiceProviderConfigResource>>();
+    for (int i = 0; i < 5; i++)
+    {
+      futures.add(scimService.getServiceProviderConfigAsync());
+    }
+    for (CompletableFuture<ServiceProviderConfigResource> future : futures)
+    {
+      assertEquals(future.get(), serviceProviderConfig);
+    }
+    assertEquals(scimService.getServiceProviderConfig(),
+        serviceProviderConfig);
+    assertEquals(requests.get(), 1);
+
+    // Resource types and schemas in lists are cached by ID and name.
+    assertTrue(contains(scimService.getResourceTypes(), resourceType));
+    assertTrue(contains(scimService.getSchemas(), userSchema));
+    assertEquals(requests.get(), 3);
+    assertEquals(scimService.getResourceType(resourceType.getId()),
+        resourceType);
+    assertEquals(scimService.getResourceType(resourceType.getName()),
+        resourceType);
+    assertEquals(scimService.getSchema(userSchema.getId()), userSchema);
+    assertEquals(scimService.getResourceTypes().getTotalResults(), 3);
+    assertEquals(requests.get(), 3);
+
+    // Invalidated metadata is retrieved again.
+    scimService.invalidateDiscoveryCache();
+    assertEquals(scimService.getSchema(userSchema.getId()), userSchema);
+    assertEquals(scimService.getSchema(userSchema.getId()), userSchema);
+    assertEquals(requests.get(), 4);
+
+    // Expired metadata is retrieved again.
+    scimService.setDiscoveryCacheTtl(0, TimeUnit.MILLISECONDS);
+    scimService.getServiceProviderConfig();
+    scimService.getServiceProviderConfig();
+    assertEquals(requests.get(), 6);
+
+    // Failures are not cached.
+    try
+    {
+      scimService.getSchema("urn:unknown");
+      fail("Expected ResourceNotFoundException");
+    }
+    catch (ResourceNotFoundException e)
+    {
+      // expected
+    }
+  }
+
+  /**
+   * Test that bulk operations are split to respect the limits of the service
+   * provider and that bulkId references across bulk requests are resolved.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testBulk() throws Exception
+  {
+    final List<Integer> payloadSizes = new ArrayList<Integer>();
+    ScimService scimService = new ScimService(target().register(
+        new ClientRequestFilter()
+        {
+          public void filter(final ClientRequestContext requestContext)
+              throws JsonProcessingException
+          {
+            if (requestContext.getEntity() instanceof BulkRequest)
+            {
+              synchronized (payloadSizes)
+              {
+                payloadSizes.add(JsonUtils.getObjectWriter().
+                    writeValueAsBytes(requestContext.getEntity()).length);
+              }
+            }
+          }
+        }));
+
+    List<BulkOperation> operations = new ArrayList<BulkOperation>();
+    for (int i = 0; i < 10; i++)
+    {
+      operations.add(BulkOperation.post("/Users", "user" + i,
+          new UserResource().setUserName("bulkUser" + i)));
+    }
+    ObjectNode group = JsonUtils.getJsonNodeFactory().objectNode();
+    group.put("displayName", "bulkGroup");
+    group.putArray("members").add(JsonUtils.getJsonNodeFactory().
+        objectNode().put("value", "bulkId:user0")).add(
+        JsonUtils.getJsonNodeFactory().objectNode().put(
+            "value", "bulkId:user9"));
+    operations.add(BulkOperation.post("/Groups", "group", group));
+    operations.add(BulkOperation.patch("/Users/bulkId:user1",
+        new PatchRequest(Collections.singletonList(
+            PatchOperation.replace("displayName", "Bulk User"))), null));
+    operations.add(BulkOperation.delete("/Users/bulkId:user2", null));
+    operations.add(BulkOperation.delete("/Users/unknown", null));
+
+    BulkResponse response =
+        scimService.bulkRequest().operations(operations).invoke();
+
+    // The service provider accepts at most 1000 bytes per request.
+    assertTrue(payloadSizes.size() > 1);
+    for (Integer payloadSize : payloadSizes)
+    {
+      assertTrue(payloadSize <= 1000, payloadSizes.toString());
+    }
+
+    // The service provider returns results in the order they completed.
+    assertEquals(response.getOperations().size(), operations.size());
+    Map<String, BulkOperationResult> results =
+        new HashMap<String, BulkOperationResult>();
+    for (BulkOperationResult result : response)
+    {
+      String key = result.getBulkId() != null ? result.getBulkId() :
+          result.getMethod() + " " + result.getStatus();
+      assertNull(results.put(key, result), key);
+    }
+    for (int i = 0; i < 10; i++)
+    {
+      assertEquals(results.get("user" + i).getStatusCode(), 201);
+      assertTrue(results.get("user" + i).isSuccessful());
+    }
+    UserResource user0 = results.get("user0").getResponse(UserResource.class);
+    assertEquals(user0.getUserName(), "bulkUser0");
+    assertEquals(user0.getId(), results.get("user0").getId());
+
+    JsonNode createdGroup = results.get("group").getResponse();
+    assertEquals(createdGroup.path("members").path(0).path("value").
+        textValue(), results.get("user0").getId());
+    assertEquals(createdGroup.path("members").path(1).path("value").
+        textValue(), results.get("user9").getId());
+    assertEquals(results.get("PATCH 200").getLocation(),
+        results.get("user1").getLocation());
+    assertEquals(results.get("DELETE 204").getLocation(),
+        results.get("user2").getLocation());
+    assertFalse(results.get("DELETE 404").isSuccessful());
+    assertEquals(results.get("DELETE 404").getErrorResponse().getStatus(),
+        Integer.valueOf(404));
+
+    // No further operations are processed once failOnErrors is reached.
+    payloadSizes.clear();
+    response = scimService.bulkRequest().
+        operation(BulkOperation.delete("/Users/unknown1", null),
+            BulkOperation.delete("/Users/unknown2", null),
+            BulkOperation.delete("/Users/unknown3", null)).
+        operation(operations.get(0)).
+        maxOperations(2).maxConcurrentRequests(1).failOnErrors(2).invoke();
+    assertEquals(response.getOperations().size(), 2);
+    assertEquals(payloadSizes.size(), 1);
+  }
+
+  /**
+   * Test that the bulk endpoint enforces its limits, orders dependent
+   * operations and processes independent operations concurrently.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testBulkEndpoint() throws Exception
+  {
+    WebTarget bulkTarget = target().register(
+        new JacksonJsonProvider(JsonUtils.createObjectMapper())).
+        path(ApiConstants.BULK_ENDPOINT);
+
+    // The builder has no limits unless they are set explicitly.
+    List<BulkOperation> operations = new ArrayList<BulkOperation>();
+    for (int i = 0; i < 101; i++)
+    {
+      operations.add(BulkOperation.delete("/Users/" + i, null));
+    }
+    try
+    {
+      new BulkRequestBuilder(bulkTarget).operations(operations).invoke();
+      fail("Expected the bulk request to be rejected");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(413));
+    }
+
+    ObjectNode cyclic = JsonUtils.getJsonNodeFactory().objectNode();
+    cyclic.putObject("manager").put("value", "bulkId:cycle2");
+    ObjectNode cyclic2 = JsonUtils.getJsonNodeFactory().objectNode();
+    cyclic2.putObject("manager").put("value", "bulkId:cycle1");
+    BulkResponse response = new BulkRequestBuilder(bulkTarget).operation(
+        BulkOperation.post("/Users", "cycle1", cyclic),
+        BulkOperation.post("/Users", "cycle2", cyclic2),
+        BulkOperation.put("/Users/bulkId:unknown", new UserResource(), null),
+        new BulkOperation(BulkOpType.PUT, "missing", null, "/Users/missing",
+            JsonUtils.valueToNode(new UserResource())),
+        BulkOperation.delete("/Users/bulkId:missing", null),
+        BulkOperation.post("/Barrier", "barrier1", new UserResource()),
+        BulkOperation.post("/Barrier", "barrier2", new UserResource())).
+        invoke();
+
+    assertEquals(response.getOperations().size(), 7);
+    Map<String, BulkOperationResult> results =
+        new HashMap<String, BulkOperationResult>();
+    for (BulkOperationResult result : response)
+    {
+      results.put(result.getBulkId() != null ? result.getBulkId() :
+          result.getMethod().toString(), result);
+    }
+    assertEquals(results.get("cycle1").getStatusCode(), 409);
+    assertEquals(results.get("cycle2").getStatusCode(), 409);
+    assertEquals(results.get("PUT").getStatusCode(), 409);
+    assertEquals(results.get("missing").getStatusCode(), 404);
+    // Operations depending on a failed operation fail as well.
+    assertEquals(results.get("DELETE").getStatusCode(), 409);
+    // The barrier operations only succeed when processed concurrently.
+    assertEquals(results.get("barrier1").getStatusCode(), 201);
+    assertEquals(results.get("barrier2").getStatusCode(), 201);
+  }
+
+  /**
+   * Test that the operation executor limits the operations in flight, orders
+   * operations on the same resource and blocks producers when full.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testOperationExecutor() throws Exception
+  {
+    final List<String> started = Collections.synchronizedList(
+        new ArrayList<String>());
+    final Map<String, CompletableFuture<String>> futures =
+        new HashMap<String, CompletableFuture<String>>();
+    List<ScimOperationExecutor.Operation<String>> operations =
+        new ArrayList<ScimOperationExecutor.Operation<String>>();
+    for (final String name : Arrays.asList("a1", "a2", "b", "c"))
+    {
+      futures.put(name, new CompletableFuture<String>());
+      operations.add(new ScimOperationExecutor.Operation<String>(
+          name.equals("b") ? null : name.substring(0, 1))
+      {
+        @Override
+        protected CompletableFuture<String> execute(
+            final AsyncScimInterface scimInterface)
+        {
+          started.add(name);
+          return futures.get(name);
+        }
+      });
+    }
+
+    ScimOperationExecutor executor =
+        new ScimOperationExecutor(new ScimService(target()), 2, 3);
+    executor.submit(operations.get(0));
+    CompletableFuture<String> a2 = executor.submit(operations.get(1));
+    executor.submit(operations.get(2));
+    // a2 waits for a1 although another operation may be in flight.
+    assertEquals(started, Arrays.asList("a1", "b"));
+    assertEquals(executor.getInFlightCount(), 2);
+    assertEquals(executor.getPendingCount(), 3);
+    assertNull(executor.submit(operations.get(3), 10, TimeUnit.MILLISECONDS));
+
+    futures.get("a1").completeExceptionally(
+        new ResourceNotFoundException("a1"));
+    assertEquals(started, Arrays.asList("a1", "b", "a2"));
+    futures.get("a2").complete("a2");
+    assertEquals(a2.get(), "a2");
+    futures.get("b").complete("b");
+    List<ScimOperationExecutor.Result<?>> results =
+        executor.awaitCompletion();
+    assertEquals(results.size(), 3);
+    assertEquals(executor.getFailures().size(), 1);
+    assertTrue(executor.getFailures().get(0).getException() instanceof
+        ResourceNotFoundException);
+
+    // Mass provisioning against the service provider.
+    ScimService scimService = new ScimService(target());
+    executor = new ScimOperationExecutor(scimService, 3, 5);
+    for (int i = 0; i < 10; i++)
+    {
+      executor.submit(ScimOperationExecutor.Operation.create("SingletonUsers",
+          new UserResource().setUserName("executorUser" + i)));
+    }
+    List<String> ids = new ArrayList<String>();
+    for (ScimOperationExecutor.Result<?> result : executor.awaitCompletion())
+    {
+      assertTrue(result.isSuccessful());
+      ids.add(((UserResource) result.getValue()).getId());
+    }
+    assertEquals(ids.size(), 10);
+
+    for (String id : ids)
+    {
+      for (String title : Arrays.asList("first", "second", "third"))
+      {
+        executor.submit(ScimOperationExecutor.Operation.modify(
+            "SingletonUsers", id, new PatchRequest(Collections.singletonList(
+                PatchOperation.replace("title", TextNode.valueOf(title)))),
+            UserResource.class));
+      }
+    }
+    executor.awaitCompletion();
+    assertTrue(executor.getFailures().isEmpty());
+    for (String id : ids)
+    {
+      assertEquals(scimService.retrieve("SingletonUsers", id,
+          UserResource.class).getTitle(), "third");
+      executor.submit(
+          ScimOperationExecutor.Operation.delete("SingletonUsers", id));
+    }
+    executor.submit(ScimOperationExecutor.Operation.delete(
+        "SingletonUsers", ids.get(0)));
+    assertEquals(executor.awaitCompletion().size(), 51);
+    assertEquals(executor.getFailures().size(), 1);
+    assertTrue(executor.getFailures().get(0).getException() instanceof
+        ResourceNotFoundException);
+  }
+
+  /**
+   * Test that idempotent requests rejected by an overloaded service provider
+   * are retried according to the retry policy.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testRetryPolicy() throws Exception
+  {
+    RetryPolicy retryPolicy = new RetryPolicy(3, 1, 1, TimeUnit.SECONDS);
+    assertEquals(RetryPolicy.parseRetryAfter(" 120 "), Long.valueOf(120000));
+    assertNull(RetryPolicy.parseRetryAfter("soon"));
+    assertNull(RetryPolicy.parseRetryAfter(null));
+    assertEquals(RetryPolicy.parseRetryAfter(
+        "Sun, 06 Nov 1994 08:49:37 GMT"), Long.valueOf(0));
+    assertTrue(retryPolicy.getDelayMillis(0, null) <= 1000);
+    assertTrue(retryPolicy.getDelayMillis(2, 500L) >= 500);
+    assertEquals(retryPolicy.getDelayMillis(0, 2000L), -1);
+    assertEquals(retryPolicy.getDelayMillis(3, null), -1);
+
+    ScimService scimService = new ScimService(target());
+    UserResource user = scimService.create("SingletonUsers",
+        new UserResource().setUserName("retryUser"));
+
+    // Throttles the requested number of requests for users.
+    final AtomicInteger attempts = new AtomicInteger();
+    final AtomicInteger throttled = new AtomicInteger();
+    final AtomicReference<String> retryAfter = new AtomicReference<String>();
+    WebTarget throttledTarget = target().register(new ClientRequestFilter()
+    {
+      public void filter(final ClientRequestContext requestContext)
+      {
+        if (requestContext.getUri().getPath().contains("SingletonUsers"))
+        {
+          attempts.incrementAndGet();
+          if (throttled.getAndDecrement() > 0)
+          {
+            requestContext.abortWith(Response.status(429).header(
+                HttpHeaders.RETRY_AFTER, retryAfter.get()).build());
+          }
+        }
+      }
+    });
+    ScimService throttledService = new ScimService(throttledTarget);
+
+    // Requests are not retried by default.
+    throttled.set(1);
+    try
+    {
+      throttledService.retrieve("SingletonUsers", user.getId(),
+          UserResource.class);
+      fail("Expected the request to be throttled");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(429));
+    }
+    assertEquals(attempts.getAndSet(0), 1);
+
+    throttledService.setRetryPolicy(
+        new RetryPolicy(3, 1, 1000, TimeUnit.MILLISECONDS));
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(10, 1, 20, 0.5);
+    throttledService.setConcurrencyLimiter(limiter);
+    throttled.set(2);
+    retryAfter.set("0");
+    assertEquals(throttledService.retrieve("SingletonUsers", user.getId(),
+        UserResource.class), user);
+    assertEquals(attempts.getAndSet(0), 3);
+    // Each throttled request halved the limit.
+    assertEquals(limiter.getLimit(), 2);
+    assertEquals(limiter.getInFlight(), 0);
+
+    throttled.set(2);
+    assertEquals(throttledService.retrieveAsync("SingletonUsers",
+        user.getId(), UserResource.class).get(), user);
+    assertEquals(attempts.getAndSet(0), 3);
+    assertEquals(limiter.getInFlight(), 0);
+
+    throttled.set(1);
+    assertEquals(throttledService.searchRequest("SingletonUsers").
+        filter("userName eq \"retryUser\"").
+        invokePost(UserResource.class).getTotalResults(), 1);
+    assertEquals(attempts.getAndSet(0), 2);
+
+    // Creations and unconditional modifications are not retried.
+    throttled.set(1);
+    try
+    {
+      throttledService.create("SingletonUsers",
+          new UserResource().setUserName("retryUser2"));
+      fail("Expected the request to be throttled");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(429));
+    }
+    assertEquals(attempts.getAndSet(0), 1);
+    throttled.set(1);
+    try
+    {
+      throttledService.modifyAsync("SingletonUsers", user.getId(),
+          new PatchRequest(Collections.singletonList(PatchOperation.replace(
+              "title", TextNode.valueOf("Retried")))),
+          UserResource.class).get();
+      fail("Expected the request to be throttled");
+    }
+    catch (ExecutionException e)
+    {
+      assertEquals(((ScimException) e.getCause()).getScimError().getStatus(),
+          Integer.valueOf(429));
+    }
+    assertEquals(attempts.getAndSet(0), 1);
+
+    // The service provider asks to wait longer than the maximum delay.
+    throttled.set(1);
+    retryAfter.set("5");
+    try
+    {
+      throttledService.retrieve("SingletonUsers", user.getId(),
+          UserResource.class);
+      fail("Expected the request to be throttled");
+    }
+    catch (ScimException e)
+    {
+      assertEquals(e.getScimError().getStatus(), Integer.valueOf(429));
+    }
+    assertEquals(attempts.getAndSet(0), 1);
+
+    // The retries are exhausted.
+    throttled.set(10);
+    retryAfter.set("0");
+    try
+    {
+      throttledService.retrieveAsync("SingletonUsers", user.getId(),
+          UserResource.class).get();
+      fail("Expected the request to be throttled");
+    }
+    catch (ExecutionException e)
+    {
+      assertEquals(((ScimException) e.getCause()).getScimError().getStatus(),
+          Integer.valueOf(429));
+    }
+    assertEquals(attempts.getAndSet(0), 4);
+    assertEquals(limiter.getLimit(), 1);
+    assertEquals(limiter.getInFlight(), 0);
+
+    throttled.set(1);
+    throttledService.delete("SingletonUsers", user.getId());
+    assertEquals(attempts.getAndSet(0), 2);
+  }
+
+  /**
+   * Test that the concurrency limiter adapts its limit and grants permits
+   * in order.
+   *
+   * @throws Exception if an error occurs.
+   */
+  @Test
+  public void testConcurrencyLimiter() throws Exception
+  {
+    AdaptiveConcurrencyLimiter limiter =
+        new AdaptiveConcurrencyLimiter(2, 1, 3, 0.5);
+    limiter.acquire();
+    limiter.acquire();
+    CompletableFuture<Void> cancelled = limiter.acquireAsync();
+    CompletableFuture<Void> waiting = limiter.acquireAsync();
+    assertFalse(waiting.isDone());
+    assertEquals(limiter.getWaiting(), 2);
+
+    limiter.onDropped();
+    assertEquals(limiter.getLimit(), 1);
+    assertFalse(waiting.isDone());
+    cancelled.cancel(false);
+    limiter.onSuccess();
+    // The limit grows while in use and the cancelled permit is skipped.
+    assertEquals(limiter.getLimit(), 2);
+    assertTrue(waiting.isDone());
+    assertEquals(limiter.getInFlight(), 1);
+    assertEquals(limiter.getWaiting(), 0);
+
+    for (int i = 0; i < 3; i++)
+    {
+      limiter.acquire();
+      limiter.onSuccess();
+    }
+    limiter.onSuccess();
+    assertEquals(limiter.getLimit(), 3);
+    assertEquals(limiter.getInFlight(), 0);
+    // The limit does not grow beyond the maximum or while unused.
+    for (int i = 0; i < 10; i++)
+    {
+      limiter.acquire();
+      limiter.acquire();
+      limiter.onSuccess();
+      limiter.onSuccess();
+    }
+    assertEquals(limiter.getLimit(), 3);
+    for (int i = 0; i < 10; i++)
+    {
+      limiter.acquire();
+      limiter.onDropped();
+    }
+    assertEquals(limiter.getLimit(), 1);
+    limiter.acquire();
+    limiter.onIgnore();
+    assertEquals(limiter.getLimit(), 1);
+    assertEquals(limiter.getInFlight(), 0);
+  }
+
+  /**
+   * Retrieves the IDs of the resources of a list response in order.
+   *
+   * @param response The list response.
+   * @return The IDs of the resources.
+   */
+  private static List<String> getIds(
+      final ListResponse<UserResource> response)
+  {
+    List<String> ids = new ArrayList<String>();
+    for (UserResource user : response.getResources())
+    {
+      ids.add(user.getId());
+    }
+    return ids;
+  }
+
   /**
    * Test delete operation.
    *
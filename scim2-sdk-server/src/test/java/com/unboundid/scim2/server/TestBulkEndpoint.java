@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.messages.BulkOpType;
+import com.unboundid.scim2.common.messages.BulkOperation;
+import com.unboundid.scim2.common.messages.BulkOperationResult;
+import com.unboundid.scim2.common.types.BulkConfig;
+import com.unboundid.scim2.server.resources.AbstractBulkEndpoint;
+
+import javax.ws.rs.core.UriInfo;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test bulk endpoint implementation that keeps created resources in memory.
+ * Operations on paths starting with "/Barrier" only succeed if another such
+ * operation is processed at the same time.
+ */
+public class TestBulkEndpoint extends AbstractBulkEndpoint
+{
+  private final Map<String, ObjectNode> resources =
+      new ConcurrentHashMap<String, ObjectNode>();
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final CyclicBarrier barrier = new CyclicBarrier(2);
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public BulkConfig getBulkConfig() throws ScimException
+  {
+    return TestServiceProviderConfigEndpoint.create().getBulk();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected BulkOperationResult process(final BulkOperation operation,
+                                        final UriInfo uriInfo)
+      throws ScimException
+  {
+    if (operation.getPath().startsWith("/Barrier"))
+    {
+      try
+      {
+        barrier.await(5, TimeUnit.SECONDS);
+      }
+      catch (Exception e)
+      {
+        barrier.reset();
+        throw new ServerErrorException("Not processed concurrently");
+      }
+    }
+
+    String location =
+        uriInfo.getBaseUriBuilder().path(operation.getPath()).build().
+            toString();
+    if (operation.getMethod() == BulkOpType.POST)
+    {
+      ObjectNode resource = operation.getData().deepCopy();
+      String id = String.valueOf(nextId.incrementAndGet());
+      resource.put("id", id);
+      resources.put(operation.getPath() + "/" + id, resource);
+      return new BulkOperationResult(location + "/" + id,
+          operation.getMethod(), operation.getBulkId(), null, 201, resource);
+    }
+
+    ObjectNode resource = resources.get(operation.getPath());
+    if (resource == null)
+    {
+      throw new ResourceNotFoundException(
+          "No resource at " + operation.getPath());
+    }
+    if (operation.getMethod() == BulkOpType.DELETE)
+    {
+      resources.remove(operation.getPath());
+      return new BulkOperationResult(location, operation.getMethod(), null,
+          null, 204, null);
+    }
+    return new BulkOperationResult(location, operation.getMethod(), null,
+        null, 200, resource);
+  }
+}
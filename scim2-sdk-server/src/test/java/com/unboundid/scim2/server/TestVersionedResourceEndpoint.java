@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server;
+
+import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.UserResource;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.unboundid.scim2.common.utils.ApiConstants.MEDIA_TYPE_SCIM;
+
+/**
+ * Test JAX-RS endpoint for resources with versions that supports conditional
+ * retrieval with the If-None-Match header.
+ */
+@Path("/VersionedUsers")
+public class TestVersionedResourceEndpoint
+{
+  private final Map<String, UserResource> users =
+      new ConcurrentHashMap<String, UserResource>();
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * Test SCIM create.
+   *
+   * @param resource The resource to create.
+   * @param uriInfo The UriInfo.
+   * @return The result.
+   */
+  @POST
+  @Consumes({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  public Response create(final UserResource resource,
+                         @Context final UriInfo uriInfo)
+  {
+    resource.setId(String.valueOf(nextId.incrementAndGet()));
+    setVersion(resource, 1, uriInfo);
+    users.put(resource.getId(), resource);
+    return Response.status(Response.Status.CREATED).entity(resource).
+        header(HttpHeaders.ETAG, resource.getMeta().getVersion()).
+        location(resource.getMeta().getLocation()).build();
+  }
+
+  /**
+   * Test SCIM retrieve by ID.
+   *
+   * @param id The ID of the resource to retrieve.
+   * @param headers The request headers.
+   * @return The result or {@code 304 Not Modified} if the If-None-Match
+   * header matches the version of the resource.
+   * @throws ScimException if an error occurs.
+   */
+  @Path("{id}")
+  @GET
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  public Response retrieve(@PathParam("id") final String id,
+                           @Context final HttpHeaders headers)
+      throws ScimException
+  {
+    UserResource found = getUser(id);
+    String version = found.getMeta().getVersion();
+    if (version.equals(headers.getHeaderString(HttpHeaders.IF_NONE_MATCH)))
+    {
+      return Response.notModified().header(HttpHeaders.ETAG, version).build();
+    }
+    return Response.ok(found).header(HttpHeaders.ETAG, version).build();
+  }
+
+  /**
+   * Test SCIM replace.
+   *
+   * @param id the ID of the resource to replace.
+   * @param resource The resource to create.
+   * @param uriInfo The UriInfo.
+   * @return The result.
+   * @throws ScimException if an error occurs.
+   */
+  @Path("{id}")
+  @PUT
+  @Consumes({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  @Produces({MEDIA_TYPE_SCIM, MediaType.APPLICATION_JSON})
+  public Response replace(@PathParam("id") final String id,
+                          final UserResource resource,
+                          @Context final UriInfo uriInfo)
+      throws ScimException
+  {
+    UserResource found = getUser(id);
+    String version = found.getMeta().getVersion();
+    resource.setId(id);
+    setVersion(resource, Integer.parseInt(
+        version.substring(3, version.length() - 1)) + 1, uriInfo);
+    users.put(id, resource);
+    return Response.ok(resource).
+        header(HttpHeaders.ETAG, resource.getMeta().getVersion()).build();
+  }
+
+  /**
+   * Test SCIM delete.
+   *
+   * @param id The ID of the resource to delete.
+   * @throws ScimException if an error occurs.
+   */
+  @Path("{id}")
+  @DELETE
+  public void delete(@PathParam("id") final String id) throws ScimException
+  {
+    getUser(id);
+    users.remove(id);
+  }
+
+  /**
+   * Retrieve a user by ID.
+   *
+   * @param id The ID of the user.
+   * @return The user.
+   * @throws ResourceNotFoundException if there is no user with the ID.
+   */
+  private UserResource getUser(final String id)
+      throws ResourceNotFoundException
+  {
+    UserResource found = users.get(id);
+    if (found == null)
+    {
+      throw new ResourceNotFoundException("No resource with ID " + id);
+    }
+    return found;
+  }
+
+  /**
+   * Set the meta.version and meta.location attributes of a user.
+   *
+   * @param resource The user.
+   * @param version The version number.
+   * @param uriInfo The UriInfo.
+   */
+  private static void setVersion(final UserResource resource,
+                                 final int version, final UriInfo uriInfo)
+  {
+    Meta meta = new Meta();
+    meta.setResourceType("User");
+    meta.setVersion("W/\"" + version + "\"");
+    meta.setLocation(uriInfo.getBaseUriBuilder().path("VersionedUsers").
+        path(resource.getId()).build());
+    resource.setMeta(meta);
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.FilterEvaluator;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for the adaptive filter evaluator.
+ */
+public class AdaptiveFilterEvaluatorTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private List<ObjectNode> users;
+
+  /**
+   * Create a set of users where almost everyone is active and almost no one
+   * is a CFO.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        com.unboundid.scim2.server.TestResourceEndpoint.class);
+
+    users = new ArrayList<ObjectNode>();
+    for (int i = 0; i < 1000; i++)
+    {
+      UserResource user = new UserResource();
+      user.setUserName("user" + i);
+      user.setActive(i % 50 != 0);
+      user.setTitle(i % 100 == 1 ? "CFO" : "Engineer");
+      users.add(JsonUtils.valueToNode(user));
+    }
+  }
+
+  /**
+   * Test that the components of an and filter are reordered so the most
+   * selective component is evaluated first.
+   *
+   * @throws ScimException If an error occurs.
+   */
+  @Test
+  public void testAndReordering() throws ScimException
+  {
+    Filter filter =
+        Filter.fromString("active eq true and title eq \"CFO\"");
+    AdaptiveFilterEvaluator evaluator =
+        new AdaptiveFilterEvaluator(resourceTypeDefinition, 100);
+
+    int matches = evaluate(filter, evaluator);
+    assertEquals(matches, 10);
+
+    assertTrue(evaluator.isOptimized(filter));
+    List<AdaptiveFilterEvaluator.ComponentStatistics> statistics =
+        evaluator.getComponentStatistics(filter);
+    assertEquals(statistics.size(), 2);
+    assertEquals(statistics.get(0).getFilter().toString(),
+        "title eq \"CFO\"");
+    assertEquals(statistics.get(1).getFilter().toString(),
+        "active eq true");
+
+    // The selective component is evaluated for every resource but the other
+    // component only for the sampled resources and the CFOs after that.
+    assertEquals(statistics.get(0).getEvaluations(), 1000);
+    assertEquals(statistics.get(0).getMatches(), 10);
+    assertEquals(statistics.get(1).getEvaluations(), 109);
+    assertTrue(evaluator.describePlan(filter).startsWith(
+        "(title eq \"CFO\" [evaluations=1000, matches=10"));
+  }
+
+  /**
+   * Test that the components of an or filter are reordered so the least
+   * selective component is evaluated first.
+   *
+   * @throws ScimException If an error occurs.
+   */
+  @Test
+  public void testOrReordering() throws ScimException
+  {
+    Filter filter =
+        Filter.fromString("title eq \"CFO\" or active eq true");
+    AdaptiveFilterEvaluator evaluator =
+        new AdaptiveFilterEvaluator(resourceTypeDefinition, 10);
+
+    assertEquals(evaluate(filter, evaluator), 980);
+    assertTrue(evaluator.isOptimized(filter));
+    assertEquals(evaluator.getComponentStatistics(filter).get(0).
+        getFilter().toString(), "active eq true");
+  }
+
+  /**
+   * Test that nested logical filters are sampled and optimized individually.
+   *
+   * @throws ScimException If an error occurs.
+   */
+  @Test
+  public void testNestedFilters() throws ScimException
+  {
+    Filter nested = Filter.fromString("active eq true and title eq \"CFO\"");
+    Filter filter = Filter.or(nested, Filter.fromString("userName eq \"x\""));
+    AdaptiveFilterEvaluator evaluator =
+        new AdaptiveFilterEvaluator(resourceTypeDefinition, 1000);
+
+    assertEquals(evaluate(filter, evaluator), 10);
+    assertTrue(evaluator.isOptimized(filter));
+    assertTrue(evaluator.isOptimized(nested));
+    assertFalse(evaluator.isOptimized(Filter.fromString("userName pr")));
+    assertTrue(evaluator.getComponentStatistics(
+        Filter.fromString("userName pr")).isEmpty());
+  }
+
+  /**
+   * Test that a component that fails on resources where its result is not
+   * needed is not moved ahead of the component that decides those resources.
+   *
+   * @throws ScimException If an error occurs.
+   */
+  @Test
+  public void testFailingComponent() throws ScimException
+  {
+    // The level of contractors is a number and that of employees a boolean,
+    // which can not be compared with gt. There are no contractors among the
+    // sampled resources, so the level component only fails while sampling.
+    List<ObjectNode> resources = new ArrayList<ObjectNode>();
+    for (int i = 0; i < 200; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.put("userName", "user" + i);
+      if (i >= 100 && i % 10 == 0)
+      {
+        node.put("userType", "Contractor");
+        node.put("level", i);
+      }
+      else
+      {
+        node.put("userType", "Employee");
+        node.put("level", true);
+      }
+      resources.add(node);
+    }
+
+    Filter filter =
+        Filter.fromString("userType eq \"Contractor\" and level gt 50");
+    AdaptiveFilterEvaluator evaluator =
+        new AdaptiveFilterEvaluator(resourceTypeDefinition, 20);
+    int matches = 0;
+    for (ObjectNode resource : resources)
+    {
+      boolean matched = filter.visit(evaluator, resource);
+      assertEquals(matched, FilterEvaluator.evaluate(filter, resource));
+      if (matched)
+      {
+        matches++;
+      }
+    }
+    assertEquals(matches, 10);
+
+    assertTrue(evaluator.isOptimized(filter));
+    List<AdaptiveFilterEvaluator.ComponentStatistics> statistics =
+        evaluator.getComponentStatistics(filter);
+    assertEquals(statistics.get(0).getFilter().toString(),
+        "userType eq \"Contractor\"");
+    assertEquals(statistics.get(0).getFailures(), 0);
+    assertEquals(statistics.get(1).getFilter().toString(), "level gt 50");
+    assertEquals(statistics.get(1).getEvaluations(), 10);
+    assertEquals(statistics.get(1).getFailures(), 20);
+  }
+
+  /**
+   * Test adaptive filter evaluation of search results.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSimpleSearchResults() throws Exception
+  {
+    SimpleSearchResults<GenericScimResource> results =
+        new SimpleSearchResults<GenericScimResource>(resourceTypeDefinition,
+            uriInfo("filter=active eq true and title eq \"CFO\""));
+    results.enableAdaptiveFilterEvaluation(10);
+    for (ObjectNode user : users)
+    {
+      results.add(new GenericScimResource(user));
+    }
+
+    AdaptiveFilterEvaluator evaluator = results.getAdaptiveFilterEvaluator();
+    assertTrue(evaluator.isOptimized(results.getFilter()));
+    assertEquals(evaluator.getComponentStatistics(results.getFilter()).get(0).
+        getFilter().toString(), "title eq \"CFO\"");
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    assertEquals(JsonUtils.getObjectReader().readTree(
+        outputStream.toString("UTF-8")).path("totalResults").asInt(), 10);
+
+    try
+    {
+      results.enableAdaptiveFilterEvaluation(10);
+      fail("Expected adaptive evaluation to be rejected after adding " +
+          "resources");
+    }
+    catch (IllegalStateException e)
+    {
+      // Expected.
+    }
+    assertNull(new SimpleSearchResults<GenericScimResource>(
+        resourceTypeDefinition, uriInfo("")).getAdaptiveFilterEvaluator());
+  }
+
+  /**
+   * Create the UriInfo of a search request.
+   *
+   * @param query The query string of the request.
+   * @return The UriInfo of the search request.
+   */
+  private static UriInfo uriInfo(final String query)
+  {
+    final MultivaluedMap<String, String> queryParameters =
+        new MultivaluedHashMap<String, String>();
+    for (String parameter : query.split("&"))
+    {
+      int separator = parameter.indexOf('=');
+      if (separator > 0)
+      {
+        queryParameters.add(parameter.substring(0, separator),
+            parameter.substring(separator + 1));
+      }
+    }
+    return (UriInfo) Proxy.newProxyInstance(
+        UriInfo.class.getClassLoader(), new Class<?>[] { UriInfo.class },
+        new InvocationHandler()
+        {
+          public Object invoke(final Object proxy, final Method method,
+                               final Object[] args)
+          {
+            if (method.getName().equals("getQueryParameters"))
+            {
+              return queryParameters;
+            }
+            if (method.getName().equals("getPathParameters"))
+            {
+              return new MultivaluedHashMap<String, String>();
+            }
+            if (method.getName().equals("getBaseUriBuilder"))
+            {
+              return UriBuilder.fromUri("https://example.com/scim/v2");
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  /**
+   * Evaluate a filter against every user and verify the result against the
+   * regular filter evaluator.
+   *
+   * @param filter The filter to evaluate.
+   * @param evaluator The adaptive filter evaluator.
+   * @return The number of matching users.
+   * @throws ScimException If an error occurs.
+   */
+  private int evaluate(final Filter filter,
+                       final AdaptiveFilterEvaluator evaluator)
+      throws ScimException
+  {
+    int matches = 0;
+    for (ObjectNode user : users)
+    {
+      boolean matched = filter.visit(evaluator, user);
+      assertEquals(matched, FilterEvaluator.evaluate(filter, user));
+      if (matched)
+      {
+        matches++;
+      }
+    }
+    return matches;
+  }
+}
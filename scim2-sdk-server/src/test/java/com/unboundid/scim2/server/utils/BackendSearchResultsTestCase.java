@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.exceptions.ServerErrorException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.filters.FilterType;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.BackendSearchRequest;
+import com.unboundid.scim2.server.BackendSearchResult;
+import com.unboundid.scim2.server.PagingMode;
+import com.unboundid.scim2.server.SearchBackend;
+import com.unboundid.scim2.server.SearchCapabilities;
+import com.unboundid.scim2.server.SearchPlan;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for searches pushed down to a search backend.
+ */
+public class BackendSearchResultsTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private List<UserResource> users;
+
+  /**
+   * Create the users.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+
+    users = new ArrayList<UserResource>();
+    for (int i = 0; i < 30; i++)
+    {
+      UserResource user = new UserResource();
+      user.setId("id" + i);
+      user.setUserName("user" + ((i * 7) % 30));
+      user.setTitle(i % 3 == 0 ? "CFO" : (i % 3 == 1 ? "Engineer" : null));
+      user.setActive(i % 2 == 0);
+      user.setEmails(Collections.singletonList(new Email().
+          setType(i % 4 == 0 ? "work" : "home").
+          setValue("user" + i + "@example.com")));
+      users.add(user);
+    }
+  }
+
+  /**
+   * Retrieves backend search capabilities.
+   *
+   * @return Backend search capabilities.
+   * @throws Exception If an error occurs.
+   */
+  @DataProvider(name = "capabilities")
+  public Object[][] getCapabilities() throws Exception
+  {
+    return new Object[][]
+        {
+            new Object[] { new SearchCapabilities() },
+            new Object[] { new SearchCapabilities().
+                supportAllFilterTypes().
+                supportAllAttributes().
+                supportSortKeys("userName", "title").
+                setPagingMode(PagingMode.OFFSET_AND_LIMIT) },
+            new Object[] { new SearchCapabilities().
+                supportFilterTypes(FilterType.EQUAL, FilterType.AND).
+                supportAttributes("userName", "title").
+                supportSortKeys("title").
+                setPagingMode(PagingMode.LIMIT) },
+            new Object[] { new SearchCapabilities().
+                supportFilterTypes(FilterType.STARTS_WITH, FilterType.OR,
+                    FilterType.COMPLEX_VALUE, FilterType.EQUAL).
+                supportAttributes("emails", "active").
+                setPagingMode(PagingMode.OFFSET_AND_LIMIT) },
+        };
+  }
+
+  /**
+   * Test that the results are the same regardless of what is pushed down to
+   * the backend.
+   *
+   * @param capabilities The backend search capabilities.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "capabilities")
+  public void testPushdownEquivalence(final SearchCapabilities capabilities)
+      throws Exception
+  {
+    String[][] searches =
+        {
+            { null, null, null, null, null },
+            { "title eq \"CFO\"", null, null, null, null },
+            { "title eq \"CFO\" and userName sw \"user1\"", null, null,
+                null, null },
+            { "active eq true or emails[type eq \"work\"]", "userName",
+                "descending", null, null },
+            { "emails[value sw \"user1\"]", null, null, "3", "4" },
+            { "title pr", "title", null, "2", "5" },
+            { null, "userName", null, "28", "10" },
+            { "title eq \"Engineer\"", null, null, null, "3" },
+            { "userName sw \"user2\" and active eq false", "title",
+                "descending", "1", "2" },
+            { "title eq \"CFO\"", "title", null, "40", "0" },
+        };
+
+    InMemorySearchBackend<UserResource> baseline =
+        new InMemorySearchBackend<UserResource>(resourceTypeDefinition,
+            new SearchCapabilities()).putAll(users);
+    InMemorySearchBackend<UserResource> backend =
+        new InMemorySearchBackend<UserResource>(resourceTypeDefinition,
+            capabilities).putAll(users);
+    for (String[] search : searches)
+    {
+      assertEquals(search(backend, search), search(baseline, search),
+          "filter=" + search[0] + ", sortBy=" + search[1]);
+    }
+  }
+
+  /**
+   * Test splitting filters between the backend and the SDK.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testFilterSplitting() throws Exception
+  {
+    SearchCapabilities capabilities = new SearchCapabilities().
+        supportFilterTypes(FilterType.EQUAL, FilterType.AND,
+            FilterType.COMPLEX_VALUE, FilterType.STARTS_WITH).
+        supportAttributes(
+            "urn:ietf:params:scim:schemas:core:2.0:User:userName",
+            "emails.type", "emails.value");
+
+    SearchPlan plan = plan(capabilities,
+        "userName eq \"a\" and title co \"x\"");
+    assertEquals(plan.getBackendRequest().getFilter(),
+        Filter.fromString("userName eq \"a\""));
+    assertEquals(plan.getResidualFilter(), Filter.fromString("title co \"x\""));
+
+    // Or filters are pushed down entirely or not at all.
+    plan = plan(capabilities, "userName eq \"a\" or title eq \"x\"");
+    assertNull(plan.getBackendRequest().getFilter());
+    assertEquals(plan.getResidualFilter(),
+        Filter.fromString("userName eq \"a\" or title eq \"x\""));
+
+    plan = plan(capabilities,
+        "emails[type eq \"work\" and value sw \"a\"] and userName eq \"a\"");
+    assertNull(plan.getResidualFilter());
+
+    plan = SearchPlan.create(resourceTypeDefinition, capabilities,
+        Filter.sw("emails[type eq \"work\"].value", "a"),
+        null, null, null, null);
+    assertNull(plan.getResidualFilter());
+
+    plan = plan(capabilities, "emails[display eq \"work\"]");
+    assertNull(plan.getBackendRequest().getFilter());
+
+    // Without and support only one component is pushed down.
+    plan = plan(new SearchCapabilities().
+        supportFilterTypes(FilterType.EQUAL).supportAllAttributes(),
+        "userName eq \"a\" and title eq \"x\" and title pr");
+    assertEquals(plan.getBackendRequest().getFilter().getFilterType(),
+        FilterType.EQUAL);
+    assertEquals(plan.getResidualFilter().getFilterType(), FilterType.AND);
+    assertEquals(plan.getResidualFilter().getCombinedFilters().size(), 2);
+  }
+
+  /**
+   * Test pushing down sorting and paging.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSortingAndPaging() throws Exception
+  {
+    SearchCapabilities capabilities = new SearchCapabilities().
+        supportAllFilterTypes().
+        supportAttributes("userName").
+        supportSortKeys("userName").
+        setPagingMode(PagingMode.OFFSET_AND_LIMIT);
+
+    SearchPlan plan = SearchPlan.create(resourceTypeDefinition, capabilities,
+        Filter.fromString("userName pr"),
+        Path.fromString("userName"),
+        SortOrder.DESCENDING, 5, 10);
+    assertTrue(plan.isSortPushedDown());
+    assertTrue(plan.isPagingPushedDown());
+    BackendSearchRequest request = plan.getBackendRequest();
+    assertEquals(request.getSortOrder(), SortOrder.DESCENDING);
+    assertEquals(request.getStartIndex(), Integer.valueOf(5));
+    assertEquals(request.getCount(), Integer.valueOf(10));
+
+    // Paging can not be pushed down if there is a residual filter.
+    plan = SearchPlan.create(resourceTypeDefinition, capabilities,
+        Filter.fromString("title pr"),
+        Path.fromString("userName"), null, 5, 10);
+    assertTrue(plan.isSortPushedDown());
+    assertFalse(plan.isPagingPushedDown());
+    assertNull(plan.getBackendRequest().getCount());
+
+    // Or if the sorting is not pushed down.
+    plan = SearchPlan.create(resourceTypeDefinition, capabilities, null,
+        Path.fromString("title"), null, 5, 10);
+    assertFalse(plan.isSortPushedDown());
+    assertFalse(plan.isPagingPushedDown());
+    assertNull(plan.getBackendRequest().getSortBy());
+
+    // A backend that can only limit must return the skipped resources too.
+    capabilities.setPagingMode(PagingMode.LIMIT);
+    plan = SearchPlan.create(resourceTypeDefinition, capabilities, null,
+        null, null, 5, 10);
+    assertTrue(plan.isPagingPushedDown());
+    assertNull(plan.getBackendRequest().getStartIndex());
+    assertEquals(plan.getBackendRequest().getCount(), Integer.valueOf(14));
+  }
+
+  /**
+   * Test that backends must return the total number of results when paging
+   * is pushed down.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testMissingTotalResults() throws Exception
+  {
+    final SearchCapabilities capabilities = new SearchCapabilities().
+        setPagingMode(PagingMode.OFFSET_AND_LIMIT);
+    SearchBackend<UserResource> backend = new SearchBackend<UserResource>()
+    {
+      public SearchCapabilities getSearchCapabilities()
+      {
+        return capabilities;
+      }
+
+      public BackendSearchResult<UserResource> search(
+          final BackendSearchRequest request)
+      {
+        return new BackendSearchResult<UserResource>(users, null);
+      }
+    };
+
+    try
+    {
+      search(backend, new String[] { null, null, null, "1", "10" });
+      fail("Expected ServerErrorException");
+    }
+    catch (ServerErrorException e)
+    {
+      // Expected.
+    }
+    assertEquals(search(backend, new String[] { null, null, null, null, null }).
+        get("totalResults").intValue(), users.size());
+  }
+
+  /**
+   * Create a search plan for a filter.
+   *
+   * @param capabilities The backend search capabilities.
+   * @param filter The filter.
+   * @return The search plan.
+   * @throws ScimException If an error occurs.
+   */
+  private SearchPlan plan(final SearchCapabilities capabilities,
+                          final String filter) throws ScimException
+  {
+    return SearchPlan.create(resourceTypeDefinition, capabilities,
+        Filter.fromString(filter), null, null, null, null);
+  }
+
+  /**
+   * Search a backend and retrieve the list response.
+   *
+   * @param backend The backend to search.
+   * @param search The filter, sortBy, sortOrder, startIndex and count
+   *               parameters.
+   * @return The list response.
+   * @throws Exception If an error occurs.
+   */
+  private JsonNode search(final SearchBackend<UserResource> backend,
+                          final String[] search)
+      throws Exception
+  {
+    String[] names = { "filter", "sortBy", "sortOrder", "startIndex",
+        "count" };
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    for (int i = 0; i < names.length; i++)
+    {
+      if (search[i] != null)
+      {
+        queryParams.putSingle(names[i], search[i]);
+      }
+    }
+    BackendSearchResults<UserResource> results =
+        new BackendSearchResults<UserResource>(resourceTypeDefinition,
+            new ResourcePreparer<ScimResource>(resourceTypeDefinition, null,
+                null, new URI("https://example.com/v2/Users")),
+            queryParams, backend);
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    return JsonUtils.getObjectReader().readTree(outputStream.toString("UTF-8"));
+  }
+}
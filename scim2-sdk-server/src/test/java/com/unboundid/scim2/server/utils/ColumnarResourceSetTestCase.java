@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for the columnar resource set.
+ */
+public class ColumnarResourceSetTestCase
+{
+  private static final String ENTERPRISE =
+      "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User";
+
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private List<GenericScimResource> resources;
+  private ColumnarResourceSet resourceSet;
+
+  /**
+   * Create the resources and the resource set.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+    resources = new ArrayList<GenericScimResource>();
+    for (int i = 0; i < 60; i++)
+    {
+      resources.add(createResource(i));
+    }
+    resourceSet = new ColumnarResourceSet(resourceTypeDefinition);
+    resourceSet.addAll(resources);
+  }
+
+  /**
+   * Retrieves filters that can be evaluated on the columns.
+   *
+   * @return Filters that can be evaluated on the columns.
+   * @throws Exception If an error occurs.
+   */
+  @DataProvider(name = "columnFilters")
+  public Object[][] getColumnFilters() throws Exception
+  {
+    return new Object[][]
+        {
+            new Object[] { "userName eq \"USER14\"" },
+            new Object[] {
+                "urn:ietf:params:scim:schemas:core:2.0:User:userName " +
+                    "eq \"user3\"" },
+            new Object[] { "externalId pr" },
+            new Object[] { "title eq null" },
+            new Object[] { "title ne null" },
+            new Object[] { "nickName ne \"odd\"" },
+            new Object[] { "emails[type eq \"work\" and value sw \"user1\"]" },
+            new Object[] { "emails[not (primary eq true)]" },
+            new Object[] { "emails.value ew \"0@example.com\"" },
+            new Object[] { "emails.type eq \"other\" and emails.primary pr" },
+            new Object[] { "meta.lastModified gt \"2015-01-01T00:00:20Z\"" },
+            new Object[] { "title eq \"CFO\" and active eq true" },
+            new Object[] {
+                "not (active eq true) or userType eq \"contractor\"" },
+            new Object[] { "displayName co \"SMITH\"" },
+            new Object[] { "not (title pr)" },
+            new Object[] { "tags eq \"blue\" or tags[value sw \"re\"]" },
+            new Object[] { "tags pr and not (tags eq \"green\")" },
+            new Object[] { ENTERPRISE + ":employeeNumber le \"3\"" },
+            new Object[] { ENTERPRISE + ":manager.value eq \"id2\"" },
+            new Object[] { ENTERPRISE + ":manager pr" },
+            new Object[] { "name.givenName eq \"x\" or id gt \"id5\"" },
+        };
+  }
+
+  /**
+   * Test that selecting resources on the columns returns the same resources
+   * as evaluating the filter against each resource, without evaluating the
+   * filter against any single resource.
+   *
+   * @param filterString The filter to select with.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "columnFilters")
+  public void testColumnFilters(final String filterString) throws Exception
+  {
+    Filter filter = Filter.fromString(filterString);
+    assertEquals(getIds(resourceSet.search(filter)), scan(filter));
+    assertEquals(resourceSet.getRowEvaluationCount(), 0L);
+  }
+
+  /**
+   * Test filters that are evaluated against reassembled resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testRowFilters() throws Exception
+  {
+    // The filter syntax has no value filters in attribute paths, but filters
+    // may be created with them.
+    Filter filter = Filter.and(
+        Filter.fromString("userType eq \"Employee\""),
+        Filter.ew(Path.root().attribute("emails",
+            Filter.fromString("type eq \"work\"")).attribute("value"),
+            TextNode.valueOf("0@example.com")));
+    assertEquals(getIds(resourceSet.search(filter)), scan(filter));
+    // Only the employees are evaluated one at a time.
+    assertEquals(resourceSet.getRowEvaluationCount(), 48L);
+
+    // Ordering comparisons of boolean values fail, but not if no resource is
+    // evaluated.
+    filter = Filter.fromString("userName eq \"nobody\" and active gt true");
+    assertEquals(resourceSet.select(filter).cardinality(), 0);
+    filter = Filter.fromString("userName eq \"user7\" and active gt true");
+    try
+    {
+      scan(filter);
+      fail("Expected an exception from the filter evaluator");
+    }
+    catch (BadRequestException e)
+    {
+      // Expected.
+    }
+    try
+    {
+      resourceSet.select(filter);
+      fail("Expected an exception from the resource set");
+    }
+    catch (BadRequestException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that resources are reassembled as they were added.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testReassembly() throws Exception
+  {
+    assertEquals(resourceSet.size(), resources.size());
+    for (int i = 0; i < resources.size(); i++)
+    {
+      GenericScimResource resource = resourceSet.get(i);
+      assertEquals(reparse(resource.getObjectNode()),
+          reparse(resources.get(i).getObjectNode()));
+    }
+
+    ObjectNode node = (ObjectNode) JsonUtils.getObjectReader().readTree(
+        "{\"id\":\"odd\",\"empty\":[],\"nested\":[[1,2],[{\"a\":1}],null]," +
+            "\"decimal\":1.50,\"object\":{\"empty\":{}}," +
+            "\"mixed\":[\"a\",{\"b\":true}]}");
+    int row = resourceSet.add(new GenericScimResource(node));
+    assertEquals(reparse(resourceSet.get(row).getObjectNode()),
+        reparse(node));
+    assertEquals(resourceSet.get(row).getObjectNode().path("decimal"),
+        node.path("decimal"));
+    // Attributes missing from earlier resources are missing when reassembled.
+    assertTrue(
+        resourceSet.get(0).getObjectNode().path("mixed").isMissingNode());
+  }
+
+  /**
+   * Test searching through the search backend interface.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBackendSearch() throws Exception
+  {
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle("filter", "nickName eq \"even\"");
+    queryParams.putSingle("startIndex", "3");
+    queryParams.putSingle("count", "4");
+    BackendSearchResults<GenericScimResource> results =
+        new BackendSearchResults<GenericScimResource>(resourceTypeDefinition,
+            new ResourcePreparer<ScimResource>(resourceTypeDefinition, null,
+                null, new URI("https://example.com/v2/Users")),
+            queryParams, resourceSet);
+    assertNull(results.getSearchPlan().getResidualFilter());
+    assertTrue(results.getSearchPlan().isPagingPushedDown());
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    JsonNode response =
+        JsonUtils.getObjectReader().readTree(outputStream.toString("UTF-8"));
+    assertEquals(response.path("totalResults").intValue(), 30);
+    List<String> ids = new ArrayList<String>();
+    for (JsonNode resource : response.path("Resources"))
+    {
+      ids.add(resource.path("id").textValue());
+    }
+    assertEquals(ids, Arrays.asList("id4", "id6", "id8", "id10"));
+  }
+
+  /**
+   * Test that selecting resources on the columns matches evaluating the
+   * filter against each resource.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSelectComparedWithScan() throws Exception
+  {
+    compareSelectWithScan(1000);
+  }
+
+  /**
+   * Time selecting resources on the columns and evaluating the filter
+   * against each resource. This only runs with the benchmarks profile.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test(groups = "benchmark")
+  public void benchmarkSelect() throws Exception
+  {
+    Reporter.log(compareSelectWithScan(50000));
+  }
+
+  /**
+   * Compare selecting resources on the columns with evaluating the filter
+   * against each resource.
+   *
+   * @param count The number of resources.
+   * @return The times taken.
+   * @throws Exception If an error occurs.
+   */
+  private String compareSelectWithScan(final int count) throws Exception
+  {
+    List<ObjectNode> nodes = new ArrayList<ObjectNode>(count);
+    ColumnarResourceSet large = new ColumnarResourceSet(resourceTypeDefinition);
+    for (int i = 0; i < count; i++)
+    {
+      GenericScimResource resource = createResource(i);
+      nodes.add(resource.getObjectNode());
+      large.add(resource);
+    }
+    Filter filter = Filter.fromString(
+        "active eq true and (title eq \"CFO\" or emails[type eq \"work\"]) " +
+            "and meta.lastModified lt \"2015-01-01T10:00:00Z\"");
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceTypeDefinition);
+
+    BitSet expected = new BitSet();
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++)
+    {
+      if (filter.visit(evaluator, nodes.get(i)))
+      {
+        expected.set(i);
+      }
+    }
+    long scanNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    BitSet selection = large.select(filter);
+    long selectNanos = System.nanoTime() - start;
+
+    assertEquals(selection, expected);
+    assertEquals(large.getRowEvaluationCount(), 0L);
+    return String.format(
+        "Selected %d of %d resources: scan %.1f ms, columns %.1f ms",
+        selection.cardinality(), count, scanNanos / 1e6, selectNanos / 1e6);
+  }
+
+  /**
+   * Evaluate a filter against each resource.
+   *
+   * @param filter The filter.
+   * @return The IDs of the matching resources.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  private List<String> scan(final Filter filter) throws ScimException
+  {
+    return getIds(TestUsers.scan(resourceTypeDefinition, filter, resources));
+  }
+
+  /**
+   * Retrieves the IDs of resources.
+   *
+   * @param resources The resources.
+   * @return The IDs of the resources.
+   */
+  private static List<String> getIds(
+      final List<GenericScimResource> resources)
+  {
+    List<String> ids = new ArrayList<String>(resources.size());
+    for (GenericScimResource resource : resources)
+    {
+      ids.add(resource.getId());
+    }
+    return ids;
+  }
+
+  /**
+   * Serialize and parse a JSON node so that nodes created by different
+   * factories can be compared.
+   *
+   * @param node The node.
+   * @return The parsed node.
+   * @throws Exception If an error occurs.
+   */
+  private static JsonNode reparse(final JsonNode node) throws Exception
+  {
+    return JsonUtils.getObjectReader().readTree(
+        JsonUtils.getObjectWriter().writeValueAsString(node));
+  }
+
+  /**
+   * Create a test user with additional attributes that are not in the core
+   * user schema.
+   *
+   * @param i The number of the resource.
+   * @return The resource.
+   */
+  private static GenericScimResource createResource(final int i)
+  {
+    GenericScimResource resource = TestUsers.create(i).asGenericScimResource();
+    ObjectNode node = resource.getObjectNode();
+    if (i % 3 != 2)
+    {
+      node.putArray("tags").add(i % 2 == 0 ? "red" : "blue").
+          add(i % 3 == 0 ? "green" : "grey");
+    }
+    if (i % 6 == 0)
+    {
+      node.putArray("tags");
+    }
+    ObjectNode enterprise = node.putObject(ENTERPRISE);
+    enterprise.put("employeeNumber", String.valueOf(i % 8));
+    if (i % 5 != 4)
+    {
+      enterprise.putObject("manager").put("value", "id" + (i % 5));
+    }
+    return resource;
+  }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ResourceNotFoundException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.PatchOperation;
+import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.SearchCapabilities;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for the indexed resource store.
+ */
+public class IndexedResourceStoreTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private List<UserResource> users;
+  private IndexedResourceStore<UserResource> store;
+  private List<GenericScimResource> groups;
+  private IndexedResourceStore<GenericScimResource> groupStore;
+
+  /**
+   * Create the users, the groups and their stores.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+
+    users = new ArrayList<UserResource>();
+    for (int i = 0; i < 40; i++)
+    {
+      users.add(TestUsers.create(i));
+    }
+
+    store = new IndexedResourceStore<UserResource>(resourceTypeDefinition).
+        addHashIndex("id").
+        addHashIndex("userName").
+        addHashIndex("externalId").
+        addHashIndex("emails.value").
+        addSortedIndex("meta.lastModified").
+        addRangeIndex("meta.lastModified").
+        addSortedIndex("title").
+        addBitmapIndex("userType").
+        addTrigramIndex("displayName").
+        addTrigramIndex("emails.value").
+        addBitmapIndexes();
+    store.putAll(users);
+
+    groups = new ArrayList<GenericScimResource>();
+    for (int i = 0; i < 10; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.put("id", "group" + i);
+      ArrayNode members = node.putArray("members");
+      for (int j = 0; j <= i % 3; j++)
+      {
+        members.addObject().put("value", "id" + (i + j) % 4);
+      }
+      groups.add(new GenericScimResource(node));
+    }
+    groupStore =
+        new IndexedResourceStore<GenericScimResource>(resourceTypeDefinition).
+            addIndex(new MembershipIndex(resourceTypeDefinition));
+    groupStore.putAll(groups);
+  }
+
+  /**
+   * Retrieves filters to search with.
+   *
+   * @return Filters to search with.
+   * @throws Exception If an error occurs.
+   */
+  @DataProvider(name = "filters")
+  public Object[][] getFilters() throws Exception
+  {
+    List<Filter> filters = new ArrayList<Filter>(TestUsers.getFilters());
+    filters.add(Filter.fromString("members[value eq \"id1\"]"));
+    filters.add(Filter.fromString("members[value ne \"id1\"]"));
+    filters.add(Filter.fromString(
+        "members[value ne \"id1\"] and members.value eq \"id2\""));
+    return TestUsers.toParameters(filters);
+  }
+
+  /**
+   * Test that searches return the same resources as evaluating the filter
+   * against every resource.
+   *
+   * @param filter The filter to search with.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "filters")
+  public void testSearchEquivalence(final Filter filter) throws Exception
+  {
+    assertEquals(store.search(filter), scan(filter));
+    assertEquals(groupStore.search(filter),
+        TestUsers.scan(resourceTypeDefinition, filter, groups));
+
+    // Replace and remove some users and check the indexes were maintained.
+    for (int i = 0; i < 40; i += 3)
+    {
+      UserResource user = TestUsers.create((i * 11) % 40);
+      user.setId("id" + i);
+      store.put(user);
+      users.set(i, user);
+    }
+    for (int i = 1; i < 40; i += 5)
+    {
+      assertEquals(store.remove("id" + i).getId(), "id" + i);
+    }
+    List<UserResource> remaining = new ArrayList<UserResource>();
+    for (int i = 0; i < 40; i++)
+    {
+      if (i % 5 != 1)
+      {
+        remaining.add(users.get(i));
+      }
+    }
+    users = remaining;
+    assertEquals(store.size(), users.size());
+    assertEquals(store.search(filter), scan(filter));
+  }
+
+  /**
+   * Test that filters answered by indexes are not evaluated against the
+   * resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testIndexedSearchesDoNotScan() throws Exception
+  {
+    List<UserResource> results = store.search(Filter.fromString(
+        "userName eq \"user3\" and meta.lastModified gt " +
+            "\"2015-01-01T00:00:01Z\""));
+    assertEquals(results.size(), 1);
+    assertEquals(store.getFilterEvaluationCount(), 0);
+
+    results = store.search(Filter.fromString(
+        "emails[value eq \"user8@example.com\"] or externalId eq \"ext12\""));
+    assertEquals(results.size(), 2);
+    assertEquals(store.getFilterEvaluationCount(), 0);
+
+    // Only the candidates from the index are evaluated against the residual.
+    results = store.search(Filter.fromString(
+        "meta.lastModified lt \"2015-01-01T00:00:04Z\" and " +
+            "nickName eq \"even\""));
+    assertEquals(results.size(), 2);
+    assertEquals(store.getFilterEvaluationCount(), 4);
+
+    // Nothing is indexed so every resource is evaluated.
+    store.search(Filter.fromString("nickName eq \"even\""));
+    assertEquals(store.getFilterEvaluationCount(), 44);
+  }
+
+  /**
+   * Test that logical filters over bitmap indexed attributes are answered
+   * with bitmap operations.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBitmapIndexes() throws Exception
+  {
+    Filter filter = Filter.fromString(
+        "active eq true and userType eq \"Employee\" and " +
+            "emails[type eq \"work\"]");
+    List<UserResource> results = store.search(filter);
+    assertEquals(results, scan(filter));
+    assertEquals(results.size(), 8);
+
+    filter = Filter.fromString(
+        "not (active eq true and emails.primary eq true) or " +
+            "(userType eq \"Contractor\" and emails.type pr)");
+    assertEquals(store.search(filter), scan(filter));
+    assertEquals(store.getFilterEvaluationCount(), 0);
+
+    // Bitmaps are maintained when resources are replaced and removed.
+    UserResource user = TestUsers.create(8);
+    user.setActive(false);
+    store.put(user);
+    store.remove("id16");
+    assertEquals(store.search(Filter.fromString(
+        "active eq true and userType eq \"Employee\" and " +
+            "emails[type eq \"work\"]")).size(), 6);
+    assertEquals(store.getFilterEvaluationCount(), 0);
+  }
+
+  /**
+   * Test that substring filters are answered by trigram indexes and that the
+   * indexes are maintained when resources are patched.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testTrigramIndexes() throws Exception
+  {
+    List<UserResource> results =
+        store.search(Filter.fromString("displayName co \"smith\""));
+    assertEquals(results, scan(Filter.fromString("displayName co \"smith\"")));
+    assertEquals(results.size(), 40);
+    assertEquals(store.search(
+        Filter.fromString("displayName sw \"Mr. Smithers\"")).size(), 10);
+    assertEquals(store.search(
+        Filter.fromString("emails.value co \"other6@\"")).size(), 5);
+
+    UserResource patched = store.patch("id2", new PatchRequest(
+        Collections.singletonList(PatchOperation.replace(
+            "displayName", "Agent Smith"))));
+    assertEquals(patched.getDisplayName(), "Agent Smith");
+    assertEquals(store.get("id2"), patched);
+    assertEquals(store.search(
+        Filter.fromString("displayName co \"agent\"")).size(), 1);
+    assertEquals(store.search(
+        Filter.fromString("displayName co \"smith\"")).size(), 40);
+
+    store.patch("id2", new PatchRequest(Collections.singletonList(
+        PatchOperation.remove(Path.fromString("displayName")))));
+    assertTrue(store.search(
+        Filter.fromString("displayName co \"agent\"")).isEmpty());
+    assertEquals(store.search(
+        Filter.fromString("displayName co \"smith\"")).size(), 39);
+    assertEquals(store.getFilterEvaluationCount(), 0);
+
+    try
+    {
+      store.patch("missing", new PatchRequest(Collections.singletonList(
+          PatchOperation.remove(Path.fromString("displayName")))));
+      fail("Expected a ResourceNotFoundException");
+    }
+    catch (ResourceNotFoundException e)
+    {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test that range filters and sorting on numeric attributes use range
+   * indexes and return the same results as evaluating and sorting every
+   * resource.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testRangeIndexes() throws Exception
+  {
+    IndexedResourceStore<GenericScimResource> scores =
+        new IndexedResourceStore<GenericScimResource>(resourceTypeDefinition).
+            addRangeIndex("score");
+    List<GenericScimResource> resources = new ArrayList<GenericScimResource>();
+    for (int i = 0; i < 50; i++)
+    {
+      ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+      node.put("id", "score" + i);
+      if (i % 6 != 0)
+      {
+        node.put("score", (i * 7) % 23 - 5);
+      }
+      resources.add(new GenericScimResource(node));
+    }
+    scores.putAll(resources);
+
+    String[] filters =
+        {
+            "score gt 3", "score ge 3", "score lt -2", "score le 0",
+            "score eq 10", "score gt 3 and score lt 12",
+            "not (score le 4)", "score ge 2.5", "score lt 1.0E1"
+        };
+    for (String filter : filters)
+    {
+      assertEquals(scores.search(Filter.fromString(filter)),
+          TestUsers.scan(resourceTypeDefinition, Filter.fromString(filter),
+              resources), filter);
+    }
+    assertEquals(scores.getFilterEvaluationCount(), 0);
+
+    assertSorted(scores, resources, "ascending");
+    assertSorted(scores, resources, "descending");
+
+    // An index added to a store with resources indexes them all at once.
+    IndexedResourceStore<GenericScimResource> loaded =
+        new IndexedResourceStore<GenericScimResource>(resourceTypeDefinition);
+    for (GenericScimResource resource : resources)
+    {
+      loaded.put(resource);
+    }
+    loaded.addRangeIndex("score");
+    for (String filter : filters)
+    {
+      assertEquals(loaded.search(Filter.fromString(filter)),
+          TestUsers.scan(resourceTypeDefinition, Filter.fromString(filter),
+              resources), filter);
+    }
+    assertEquals(loaded.getFilterEvaluationCount(), 0);
+    assertSorted(loaded, resources, "ascending");
+    assertSorted(loaded, resources, "descending");
+
+    // Mixing floating point and integer values disables the index.
+    ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+    node.put("id", "score50");
+    node.put("score", 3.5d);
+    resources.add(new GenericScimResource(node));
+    scores.put(resources.get(50));
+    for (String filter : filters)
+    {
+      assertEquals(scores.search(Filter.fromString(filter)),
+          TestUsers.scan(resourceTypeDefinition, Filter.fromString(filter),
+              resources), filter);
+    }
+    assertEquals(scores.getFilterEvaluationCount(), 51 * filters.length);
+    assertSorted(scores, resources, "descending");
+
+    // Removing it enables the index again.
+    scores.remove("score50");
+    resources.remove(50);
+    scores.search(Filter.fromString("score gt 3"));
+    assertEquals(scores.getFilterEvaluationCount(), 51 * filters.length);
+  }
+
+  /**
+   * Test adding an index after resources were added and replacing a resource
+   * with a different indexed value.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testIndexMaintenance() throws Exception
+  {
+    store.addHashIndex("nickName");
+    UserResource user = TestUsers.create(5);
+    user.setNickName("Bob");
+    assertEquals(store.put(user).getId(), "id5");
+    assertEquals(store.search(Filter.eq("nickName", "bob")),
+        Arrays.asList(user));
+
+    UserResource renamed = TestUsers.create(5);
+    renamed.setUserName("renamed");
+    store.put(renamed);
+    assertTrue(store.search(Filter.eq("nickName", "bob")).isEmpty());
+    assertTrue(store.search(Filter.eq("userName", "user5")).isEmpty());
+    assertEquals(store.search(Filter.eq("userName", "renamed")),
+        Arrays.asList(renamed));
+    // Replaced resources keep their position.
+    assertEquals(store.search((Filter) null).get(5), renamed);
+
+    assertEquals(store.remove("id5"), renamed);
+    assertNull(store.remove("id5"));
+    assertNull(store.get("id5"));
+    assertTrue(store.search(Filter.eq("userName", "renamed")).isEmpty());
+    assertEquals(store.getFilterEvaluationCount(), 0);
+  }
+
+  /**
+   * Test that removing most resources reclaims their ordinals without
+   * changing the results or the order of the resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testCompaction() throws Exception
+  {
+    Filter[] filters =
+        {
+            Filter.fromString("active eq true"),
+            Filter.fromString("userType eq \"Contractor\" or title pr"),
+            Filter.fromString("meta.lastModified ge \"2015-01-01T00:00:30Z\""),
+            Filter.fromString("displayName co \"smith\" and not (active pr)"),
+            Filter.fromString("emails[value eq \"user33@example.com\"]")
+        };
+
+    // Removing more than half of the users compacts the store.
+    for (int round = 0; round < 3; round++)
+    {
+      for (int i = 0; i < 30; i++)
+      {
+        UserResource user = users.remove(round % 2 == 0 ? 0 : 10);
+        assertEquals(store.remove(user.getId()), user);
+      }
+      for (int i = 0; i < 30; i++)
+      {
+        UserResource user = TestUsers.create(40 + round * 30 + i);
+        store.put(user);
+        users.add(user);
+      }
+      assertEquals(store.search((Filter) null), users);
+      for (Filter filter : filters)
+      {
+        assertEquals(store.search(filter), scan(filter), filter.toString());
+      }
+    }
+
+    store.compact();
+    assertEquals(store.search((Filter) null), users);
+    for (Filter filter : filters)
+    {
+      assertEquals(store.search(filter), scan(filter), filter.toString());
+    }
+    assertEquals(store.get("id99"), users.get(9));
+  }
+
+  /**
+   * Test searching through the search backend interface.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBackendSearch() throws Exception
+  {
+    SearchCapabilities capabilities = store.getSearchCapabilities();
+    assertEquals(capabilities.getSortKeys().size(), 2);
+
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle("filter", "title pr");
+    queryParams.putSingle("sortBy", "meta.lastModified");
+    queryParams.putSingle("sortOrder", "descending");
+    queryParams.putSingle("startIndex", "2");
+    queryParams.putSingle("count", "3");
+    BackendSearchResults<UserResource> results =
+        new BackendSearchResults<UserResource>(resourceTypeDefinition,
+            new ResourcePreparer<ScimResource>(resourceTypeDefinition, null,
+                null, new URI("https://example.com/v2/Users")),
+            queryParams, store);
+    assertTrue(results.getSearchPlan().isSortPushedDown());
+    assertTrue(results.getSearchPlan().isPagingPushedDown());
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    JsonNode response =
+        JsonUtils.getObjectReader().readTree(outputStream.toString("UTF-8"));
+    assertEquals(response.path("totalResults").intValue(), 27);
+    assertEquals(response.path("Resources").size(), 3);
+    assertEquals(response.path("Resources").path(0).path("id").textValue(),
+        "id37");
+    assertEquals(response.path("Resources").path(1).path("id").textValue(),
+        "id36");
+    assertEquals(response.path("Resources").path(2).path("id").textValue(),
+        "id34");
+  }
+
+  /**
+   * Assert that sorting through the search backend interface gives the same
+   * order as sorting with the resource comparator.
+   *
+   * @param scores The store.
+   * @param resources The resources in the store.
+   * @param sortOrder The sort order.
+   * @throws Exception If an error occurs.
+   */
+  private void assertSorted(
+      final IndexedResourceStore<GenericScimResource> scores,
+      final List<GenericScimResource> resources,
+      final String sortOrder) throws Exception
+  {
+    List<GenericScimResource> expected =
+        new ArrayList<GenericScimResource>(resources);
+    Collections.sort(expected, new ResourceComparator<GenericScimResource>(
+        Path.fromString("score"), SortOrder.fromName(sortOrder),
+        resourceTypeDefinition));
+
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle("sortBy", "score");
+    queryParams.putSingle("sortOrder", sortOrder);
+    BackendSearchResults<GenericScimResource> results =
+        new BackendSearchResults<GenericScimResource>(resourceTypeDefinition,
+            new ResourcePreparer<ScimResource>(resourceTypeDefinition, null,
+                null, new URI("https://example.com/v2/Users")),
+            queryParams, scores);
+    assertTrue(results.getSearchPlan().isSortPushedDown());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    JsonNode response =
+        JsonUtils.getObjectReader().readTree(outputStream.toString("UTF-8"));
+
+    List<String> expectedIds = new ArrayList<String>();
+    for (GenericScimResource resource : expected)
+    {
+      expectedIds.add(resource.getId());
+    }
+    List<String> ids = new ArrayList<String>();
+    for (JsonNode resource : response.path("Resources"))
+    {
+      ids.add(resource.path("id").textValue());
+    }
+    assertEquals(ids, expectedIds);
+  }
+
+  /**
+   * Evaluate a filter against every user.
+   *
+   * @param filter The filter.
+   * @return The matching users.
+   * @throws Exception If an error occurs.
+   */
+  private List<UserResource> scan(final Filter filter) throws Exception
+  {
+    return TestUsers.scan(resourceTypeDefinition, filter, users);
+  }
+}
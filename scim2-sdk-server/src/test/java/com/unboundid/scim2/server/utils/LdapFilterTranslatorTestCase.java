@@ -0,0 +1,340 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+/**
+ * Test case for the LDAP filter translator using an in-memory directory
+ * server.
+ */
+public class LdapFilterTranslatorTestCase
+{
+  private static final String BASE_DN = "dc=example,dc=com";
+
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private LdapFilterTranslator translator;
+  private InMemoryDirectoryServer directoryServer;
+  private Map<String, ObjectNode> users;
+
+  /**
+   * Create and populate the directory server.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+
+    SimpleLdapAttributeMapping mapping = new SimpleLdapAttributeMapping().
+        addAttribute("id", "employeeNumber").
+        addAttribute("userName", "uid").
+        addAttribute("displayName", "displayName").
+        addAttribute("title", "title").
+        addAttribute("name.givenName", "givenName").
+        addAttribute("name.familyName", "sn").
+        addAttribute("emails.value", "mail");
+    translator = new LdapFilterTranslator(mapping, resourceTypeDefinition);
+
+    InMemoryDirectoryServerConfig config =
+        new InMemoryDirectoryServerConfig(BASE_DN);
+    directoryServer = new InMemoryDirectoryServer(config);
+    directoryServer.add(new Entry(BASE_DN,
+        new Attribute("objectClass", "top", "domain"),
+        new Attribute("dc", "example")));
+
+    users = new LinkedHashMap<String, ObjectNode>();
+    for (int i = 0; i < 40; i++)
+    {
+      UserResource user = new UserResource();
+      user.setId("id" + i);
+      user.setUserName("User" + i);
+      user.setDisplayName(i == 7 ? "100% (Smith)*" : "Display_" + i);
+      user.setTitle(i % 10 == 0 ? null : (i % 10 == 1 ? "CFO" : "Engineer"));
+      user.setNickName("nick" + i);
+      Name name = new Name().setFamilyName(i % 4 == 0 ? "Jones" : "Smith");
+      if (i % 3 != 0)
+      {
+        name.setGivenName("Given" + (i % 5));
+      }
+      user.setName(name);
+
+      List<Email> emails = new ArrayList<Email>();
+      if (i % 2 == 0)
+      {
+        emails.add(new Email().setType("work").
+            setValue("user" + i + "@example.com"));
+      }
+      if (i % 5 != 0)
+      {
+        emails.add(new Email().setType("home").
+            setValue("user" + i + "@home.org"));
+      }
+      if (!emails.isEmpty())
+      {
+        user.setEmails(emails);
+      }
+      users.put(user.getId(), (ObjectNode) JsonUtils.valueToNode(user));
+
+      Entry entry = new Entry("uid=" + user.getUserName() + "," + BASE_DN);
+      entry.addAttribute("objectClass", "top", "person",
+          "organizationalPerson", "inetOrgPerson");
+      entry.addAttribute("employeeNumber", user.getId());
+      entry.addAttribute("uid", user.getUserName());
+      entry.addAttribute("cn", user.getUserName());
+      entry.addAttribute("displayName", user.getDisplayName());
+      entry.addAttribute("sn", name.getFamilyName());
+      if (user.getTitle() != null)
+      {
+        entry.addAttribute("title", user.getTitle());
+      }
+      if (name.getGivenName() != null)
+      {
+        entry.addAttribute("givenName", name.getGivenName());
+      }
+      for (Email email : emails)
+      {
+        entry.addAttribute("mail", email.getValue());
+      }
+      directoryServer.add(entry);
+    }
+  }
+
+  /**
+   * Shut down the directory server.
+   */
+  @AfterClass
+  public void tearDown()
+  {
+    directoryServer.shutDown(true);
+  }
+
+  /**
+   * Retrieves filters and whether they are expected to be fully translated.
+   *
+   * @return Filters and whether they are expected to be fully translated.
+   */
+  @DataProvider(name = "testFilters")
+  public Object[][] getTestFilters()
+  {
+    return new Object[][]
+        {
+            new Object[] { "userName eq \"USER1\"", true },
+            new Object[] { "userName sw \"user1\"", true },
+            new Object[] { "userName ew \"0\"", true },
+            new Object[] { "userName eq \"User1\" or userName eq \"User2\"",
+                true },
+            new Object[] { "displayName co \"(smith)*\"", true },
+            new Object[] { "displayName co \"y_1\"", true },
+            new Object[] { "title eq \"cfo\"", true },
+            new Object[] { "title ne \"CFO\"", true },
+            new Object[] { "title eq null", true },
+            new Object[] { "title ne null", true },
+            new Object[] { "title pr", true },
+            new Object[] { "not (title co \"F\")", true },
+            new Object[] { "title ge \"Engineer\"", true },
+            new Object[] { "title gt \"CFO\"", true },
+            new Object[] { "title lt \"Engineer\"", true },
+            new Object[] { "title le \"CFO\"", true },
+            new Object[] { "name.givenName eq \"Given1\"", true },
+            new Object[] { "not (name.givenName eq \"Given1\")", true },
+            new Object[] { "name[givenName sw \"given2\" and " +
+                "familyName eq \"smith\"]", true },
+            new Object[] { "name[not (familyName eq \"Smith\")]", true },
+            new Object[] { "emails.value ew \"@home.org\"", true },
+            new Object[] { "emails.value ne \"user2@example.com\"", true },
+            new Object[] { "emails.value eq null", true },
+            new Object[] { "emails[value ew \"@example.com\" or " +
+                "value sw \"user3\"]", true },
+            new Object[] { "emails.value gt \"user3\"", false },
+            new Object[] { "emails[type eq \"work\" and " +
+                "value ew \"@example.com\"]", false },
+            new Object[] { "emails[not (value co \"1\")]", false },
+            new Object[] { "nickName eq \"nick1\"", false },
+            new Object[] { "title eq \"CFO\" and nickName ew \"1\"", false },
+            new Object[] { "title eq \"CFO\" or nickName ew \"1\"", false },
+        };
+  }
+
+  /**
+   * Test that translated filters select the same resources as the filter
+   * evaluator.
+   *
+   * @param filterString The filter.
+   * @param fullyTranslated Whether the filter is expected to be fully
+   *                        translated.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "testFilters")
+  public void testFilter(final String filterString,
+                         final boolean fullyTranslated)
+      throws Exception
+  {
+    Filter filter = Filter.fromString(filterString);
+    LdapQuery query = translator.translate(filter);
+    if (fullyTranslated)
+    {
+      assertNull(query.getResidualFilter(), query.toString());
+      assertNotNull(query.getFilter(), query.toString());
+    }
+    else
+    {
+      assertNotNull(query.getResidualFilter(), query.toString());
+    }
+
+    assertEquals(execute(query), evaluate(filter), query.toString());
+  }
+
+  /**
+   * Test the generated LDAP filter strings.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testFilterStrings() throws Exception
+  {
+    assertEquals(translate("userName eq \"a*b(c)\\\\d\""),
+        "(uid=a\\2ab\\28c\\29\\5cd)");
+    assertEquals(translate("userName co \"*\""), "(uid=*\\2a*)");
+    assertEquals(translate("userName sw \"a\""), "(uid=a*)");
+    assertEquals(translate("userName ew \"a\""), "(uid=*a)");
+    assertEquals(translate("userName co \"\""), "(uid=*)");
+    assertEquals(translate("title pr"), "(title=*)");
+    assertEquals(translate("title ne \"a\""), "(!(title=a))");
+    assertEquals(translate("title eq null"), "(!(title=*))");
+    assertEquals(translate("title gt \"a\""), "(&(title>=a)(!(title=a)))");
+    assertEquals(translate("title le \"a\""), "(title<=a)");
+    assertEquals(translate("title eq \"a\" or not (userName eq \"b\")"),
+        "(|(title=a)(!(uid=b)))");
+    assertEquals(translate("title eq \"a\" and userName eq \"b\""),
+        "(&(title=a)(uid=b))");
+
+    LdapFilterTranslator typedTranslator = new LdapFilterTranslator(
+        new SimpleLdapAttributeMapping().
+            addAttribute("active", "isActive").
+            addAttribute("meta.lastModified", "modifyTimestamp"),
+        resourceTypeDefinition);
+    assertEquals(typedTranslator.translate(
+        Filter.fromString("active eq true")).getFilter(),
+        "(isActive=TRUE)");
+    assertEquals(typedTranslator.translate(Filter.fromString(
+        "meta.lastModified ge \"2026-10-01T12:30:00+02:00\"")).getFilter(),
+        "(modifyTimestamp>=20261001103000.000Z)");
+
+    // Nothing was translated.
+    LdapQuery query = translator.translate(Filter.fromString("nickName pr"));
+    assertNull(query.getFilter());
+    assertEquals(query.getFilterOrMatchAll(), LdapQuery.MATCH_ALL_FILTER);
+  }
+
+  /**
+   * Translate a filter that is expected to be fully translated.
+   *
+   * @param filterString The filter.
+   * @return The LDAP filter.
+   * @throws Exception If an error occurs.
+   */
+  private String translate(final String filterString) throws Exception
+  {
+    LdapQuery query = translator.translate(Filter.fromString(filterString));
+    assertNull(query.getResidualFilter(), query.toString());
+    // Make sure the filter is valid.
+    com.unboundid.ldap.sdk.Filter.create(query.getFilter());
+    return query.getFilter();
+  }
+
+  /**
+   * Execute a translated query and evaluate the residual filter.
+   *
+   * @param query The translated query.
+   * @return The sorted IDs of the matching users.
+   * @throws Exception If an error occurs.
+   */
+  private List<String> execute(final LdapQuery query) throws Exception
+  {
+    SearchResult searchResult = directoryServer.search(BASE_DN,
+        SearchScope.ONE, query.getFilterOrMatchAll(), "employeeNumber");
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceTypeDefinition);
+    List<String> ids = new ArrayList<String>();
+    for (SearchResultEntry entry : searchResult.getSearchEntries())
+    {
+      String id = entry.getAttributeValue("employeeNumber");
+      if (query.getResidualFilter() == null ||
+          query.getResidualFilter().visit(evaluator, users.get(id)))
+      {
+        ids.add(id);
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  /**
+   * Evaluate a filter in memory.
+   *
+   * @param filter The filter to evaluate.
+   * @return The sorted IDs of the matching users.
+   * @throws ScimException If the filter is invalid.
+   */
+  private List<String> evaluate(final Filter filter) throws ScimException
+  {
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceTypeDefinition);
+    List<String> ids = new ArrayList<String>();
+    for (Map.Entry<String, ObjectNode> user : users.entrySet())
+    {
+      if (filter.visit(evaluator, user.getValue()))
+      {
+        ids.add(user.getKey());
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.PatchOperation;
+import com.unboundid.scim2.common.messages.PatchRequest;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import org.testng.Reporter;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test case for the membership index.
+ */
+public class MembershipIndexTestCase
+{
+  private ResourceTypeDefinition resourceType;
+  private MembershipIndex membershipIndex;
+  private IndexedResourceStore<GenericScimResource> store;
+
+  /**
+   * Create an empty group store.
+   */
+  @BeforeMethod
+  public void setUp()
+  {
+    resourceType = new ResourceTypeDefinition.Builder("Group", "/Groups").
+        build();
+    membershipIndex = new MembershipIndex(resourceType);
+    store = new IndexedResourceStore<GenericScimResource>(resourceType).
+        addIndex(membershipIndex);
+  }
+
+  /**
+   * Test member lookups and incremental updates when groups are patched.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testMemberLookups() throws Exception
+  {
+    store.put(createGroup("g1", "u1", "u2"));
+    store.put(createGroup("g2", "u2", "u3"));
+    store.put(createGroup("g3"));
+
+    assertEquals(ids(store.search(
+        Filter.fromString("members[value eq \"u2\"]"))), "g1 g2");
+    assertEquals(ids(store.search(
+        Filter.fromString("members.value eq \"U1\""))), "g1");
+    assertEquals(ids(store.search(Filter.fromString("members.value pr"))),
+        "g1 g2");
+    assertEquals(membershipIndex.getGroups("u3"),
+        Collections.singleton("g2"));
+
+    ArrayNode added = JsonUtils.getJsonNodeFactory().arrayNode();
+    added.addObject().put("value", "u1");
+    store.patch("g3", new PatchRequest(Collections.singletonList(
+        PatchOperation.add("members", added))));
+    store.patch("g1", new PatchRequest(Collections.singletonList(
+        PatchOperation.remove(Path.fromString("members[value eq \"u1\"]")))));
+    assertEquals(ids(store.search(
+        Filter.fromString("members[value eq \"u1\"]"))), "g3");
+    assertEquals(membershipIndex.getGroups("u2"),
+        new HashSet<String>(Arrays.asList("g1", "g2")));
+
+    store.remove("g2");
+    assertEquals(ids(store.search(
+        Filter.fromString("members[value eq \"u2\"]"))), "g1");
+    assertTrue(membershipIndex.getGroups("u3").isEmpty());
+    assertEquals(store.getFilterEvaluationCount(), 0);
+  }
+
+  /**
+   * Test the expansion of nested groups, including cycles.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testTransitiveGroups() throws Exception
+  {
+    store.put(createGroup("engineering", "alice", "platform"));
+    store.put(createGroup("platform", "bob", "sre"));
+    store.put(createGroup("sre", "carol", "engineering"));
+    store.put(createGroup("everyone", "engineering", "dave"));
+
+    assertEquals(membershipIndex.getTransitiveGroups("carol"),
+        new HashSet<String>(Arrays.asList(
+            "sre", "platform", "engineering", "everyone")));
+    assertEquals(membershipIndex.getTransitiveGroups("dave"),
+        Collections.singleton("everyone"));
+    assertEquals(membershipIndex.getTransitiveGroups("alice"),
+        new HashSet<String>(Arrays.asList(
+            "sre", "platform", "engineering", "everyone")));
+    assertTrue(membershipIndex.getTransitiveGroups("nobody").isEmpty());
+
+    // Breaking the cycle invalidates the memoized expansions.
+    store.patch("sre", new PatchRequest(Collections.singletonList(
+        PatchOperation.remove(
+            Path.fromString("members[value eq \"engineering\"]")))));
+    assertEquals(membershipIndex.getTransitiveGroups("carol"),
+        new HashSet<String>(Arrays.asList(
+            "sre", "platform", "engineering", "everyone")));
+    assertEquals(membershipIndex.getTransitiveGroups("alice"),
+        new HashSet<String>(Arrays.asList("engineering", "everyone")));
+  }
+
+  /**
+   * Compare the membership index with evaluating value filters against every
+   * group, and memoized with unmemoized nested group expansion, on a
+   * synthetic group graph.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSyntheticGroupGraph() throws Exception
+  {
+    compareWithSyntheticGroupGraph(200, 2000);
+  }
+
+  /**
+   * Time lookups with the membership index and nested group expansion on a
+   * large synthetic group graph. This only runs with the benchmarks profile.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test(groups = "benchmark")
+  public void benchmarkSyntheticGroupGraph() throws Exception
+  {
+    Reporter.log(compareWithSyntheticGroupGraph(2000, 20000));
+  }
+
+  /**
+   * Compare the membership index with evaluating value filters against every
+   * group, and memoized with unmemoized nested group expansion, on a
+   * synthetic group graph.
+   *
+   * @param groupCount The number of groups.
+   * @param userCount The number of users.
+   * @return The average times of lookups.
+   * @throws Exception If an error occurs.
+   */
+  private String compareWithSyntheticGroupGraph(final int groupCount,
+                                                final int userCount)
+      throws Exception
+  {
+    Random random = new Random(42);
+    List<GenericScimResource> groups = new ArrayList<GenericScimResource>();
+    for (int g = 0; g < groupCount; g++)
+    {
+      List<String> members = new ArrayList<String>();
+      for (int m = 0; m < 50; m++)
+      {
+        members.add("user" + random.nextInt(userCount));
+      }
+      // Nest groups so that each group has a few parent groups.
+      if (g > 0)
+      {
+        members.add("group" + random.nextInt(g));
+      }
+      if (g > 10)
+      {
+        members.add("group" + random.nextInt(g - 10));
+      }
+      groups.add(createGroup("group" + g,
+          members.toArray(new String[members.size()])));
+    }
+    store.putAll(groups);
+
+    List<String> sample = new ArrayList<String>();
+    for (int i = 0; i < 50; i++)
+    {
+      sample.add("user" + random.nextInt(userCount));
+    }
+
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    long scanNanos = 0;
+    long indexNanos = 0;
+    for (String user : sample)
+    {
+      Filter filter = Filter.hasComplexValue("members",
+          Filter.eq("value", user));
+      long start = System.nanoTime();
+      Set<String> scanned = new HashSet<String>();
+      for (GenericScimResource group : groups)
+      {
+        if (filter.visit(evaluator, group.getObjectNode()))
+        {
+          scanned.add(group.getId());
+        }
+      }
+      scanNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Set<String> indexed = new HashSet<String>();
+      for (GenericScimResource group : store.search(filter))
+      {
+        indexed.add(group.getId());
+      }
+      indexNanos += System.nanoTime() - start;
+      assertEquals(indexed, scanned);
+    }
+    assertEquals(store.getFilterEvaluationCount(), 0);
+
+    long unmemoizedNanos = 0;
+    long memoizedNanos = 0;
+    for (String user : sample)
+    {
+      long start = System.nanoTime();
+      Set<String> expected = expand(user);
+      unmemoizedNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Set<String> transitive = membershipIndex.getTransitiveGroups(user);
+      memoizedNanos += System.nanoTime() - start;
+      assertEquals(transitive, expected);
+    }
+
+    return String.format("%d groups: scan %d us, index %d us, " +
+            "nested expansion %d us, memoized %d us per lookup",
+        groupCount, scanNanos / sample.size() / 1000,
+        indexNanos / sample.size() / 1000,
+        unmemoizedNanos / sample.size() / 1000,
+        memoizedNanos / sample.size() / 1000);
+  }
+
+  /**
+   * Expand nested groups without memoization.
+   *
+   * @param member The member.
+   * @return The groups the member is directly or indirectly a member of.
+   */
+  private Set<String> expand(final String member)
+  {
+    Set<String> groups = new HashSet<String>();
+    List<String> pending = new ArrayList<String>();
+    pending.add(member);
+    while (!pending.isEmpty())
+    {
+      for (String group : membershipIndex.getGroups(
+          pending.remove(pending.size() - 1)))
+      {
+        if (groups.add(group))
+        {
+          pending.add(group);
+        }
+      }
+    }
+    return groups;
+  }
+
+  /**
+   * Create a group.
+   *
+   * @param id The ID of the group.
+   * @param members The member values.
+   * @return The group.
+   */
+  private static GenericScimResource createGroup(final String id,
+                                                 final String... members)
+  {
+    ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+    node.put("id", id);
+    node.put("displayName", id);
+    if (members.length > 0)
+    {
+      ArrayNode memberNodes = node.putArray("members");
+      for (String member : members)
+      {
+        memberNodes.addObject().put("value", member);
+      }
+    }
+    return new GenericScimResource(node);
+  }
+
+  /**
+   * Retrieves the IDs of groups separated by spaces.
+   *
+   * @param groups The groups.
+   * @return The IDs of the groups.
+   */
+  private static String ids(final List<GenericScimResource> groups)
+  {
+    StringBuilder builder = new StringBuilder();
+    for (GenericScimResource group : groups)
+    {
+      if (builder.length() > 0)
+      {
+        builder.append(' ');
+      }
+      builder.append(group.getId());
+    }
+    return builder.toString();
+  }
+}
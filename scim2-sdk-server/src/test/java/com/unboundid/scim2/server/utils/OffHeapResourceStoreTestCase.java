@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test case for the off-heap resource store and its binary JSON encoding.
+ */
+public class OffHeapResourceStoreTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private List<UserResource> users;
+  private OffHeapResourceStore<UserResource> store;
+
+  /**
+   * Create the users and the store.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+
+    users = new ArrayList<UserResource>();
+    for (int i = 0; i < 40; i++)
+    {
+      users.add(TestUsers.create(i));
+    }
+
+    // Use small buffers so that resources span several of them.
+    store = new OffHeapResourceStore<UserResource>(resourceTypeDefinition,
+        UserResource.class, 4096);
+    store.putAll(users);
+  }
+
+  /**
+   * Retrieves filters to search with.
+   *
+   * @return Filters to search with.
+   * @throws Exception If an error occurs.
+   */
+  @DataProvider(name = "filters")
+  public Object[][] getFilters() throws Exception
+  {
+    List<Filter> filters = new ArrayList<Filter>(TestUsers.getFilters());
+    filters.add(Filter.fromString(
+        "urn:ietf:params:scim:schemas:core:2.0:User:userName eq \"user3\""));
+    return TestUsers.toParameters(filters);
+  }
+
+  /**
+   * Test that searches return the same resources as evaluating the filter
+   * against the original resources, and only materialize the matches.
+   *
+   * @param filter The filter to search with.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "filters")
+  public void testSearchEquivalence(final Filter filter) throws Exception
+  {
+    List<UserResource> expected =
+        TestUsers.scan(resourceTypeDefinition, filter, users);
+    assertEquals(store.search(filter), expected);
+    assertEquals(store.getMaterializationCount(), expected.size());
+  }
+
+  /**
+   * Test encoding and decoding all kinds of JSON values.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBinaryJson() throws Exception
+  {
+    ObjectNode node = (ObjectNode) JsonUtils.getObjectReader().readTree(
+        "{\"id\":\"\\u00e9t\\u00e9 \\ud83d\\ude00\",\"int\":-7," +
+            "\"long\":12345678901234,\"big\":123456789012345678901234567," +
+            "\"double\":-1.5e-7,\"bool\":true,\"none\":null," +
+            "\"empty\":{},\"list\":[],\"nested\":{\"a\":[1,{\"b\":\"c\"}," +
+            "[false]],\"Mixed\":\"Case\"}}");
+    node.set("decimal", DecimalNode.valueOf(new BigDecimal("10.500")));
+    node.put("float", 2.25f);
+    node.put("binary", new byte[] { 0, -1, 42 });
+
+    BinaryJson.NameTable names = new BinaryJson.NameTable();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+    buffer.position(10);
+    buffer.put(BinaryJson.encode(node, names));
+    ObjectNode decoded = BinaryJson.decodeObject(buffer, 10, names);
+    assertEquals(decoded, node);
+    assertEquals(decoded.path("decimal").decimalValue().scale(), 3);
+    assertEquals(decoded.path("NESTED").path("mixed").textValue(), "Case");
+    // Field names are shared between encodings.
+    assertEquals(names.size(), 16);
+    BinaryJson.encode(node, names);
+    assertEquals(names.size(), 16);
+
+    ObjectNode partial = BinaryJson.decodeObject(buffer, 10, names,
+        new HashSet<String>(Arrays.asList("nested", "bool", "missing")));
+    assertEquals(partial.size(), 2);
+    assertEquals(partial.get("nested"), node.get("nested"));
+    assertEquals(partial.get("bool"), node.get("bool"));
+  }
+
+  /**
+   * Test replacing and removing resources, and reclaiming the unused space.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testReplaceAndCompact() throws Exception
+  {
+    long liveBytes = store.getLiveBytes();
+    assertTrue(store.getAllocatedBytes() >= liveBytes);
+    assertEquals(store.get("id5"), users.get(5));
+    assertNull(store.get("unknown"));
+
+    // Replace every user many times, which triggers compaction.
+    for (int round = 0; round < 10; round++)
+    {
+      for (int i = 0; i < 40; i++)
+      {
+        UserResource user = TestUsers.create(i);
+        user.setNickName("round" + round);
+        assertTrue(store.put(user));
+        users.set(i, user);
+      }
+    }
+    for (int i = 1; i < 40; i += 5)
+    {
+      assertTrue(store.remove("id" + i));
+      assertFalse(store.remove("id" + i));
+    }
+    List<UserResource> remaining = new ArrayList<UserResource>();
+    for (int i = 0; i < 40; i++)
+    {
+      if (i % 5 != 1)
+      {
+        remaining.add(users.get(i));
+      }
+    }
+    assertEquals(store.size(), remaining.size());
+    assertTrue(store.getAllocatedBytes() < 4 * store.getLiveBytes() + 8192);
+    assertEquals(store.search((Filter) null), remaining);
+
+    store.compact();
+    assertEquals(store.search((Filter) null), remaining);
+    assertEquals(store.search(Filter.fromString("nickName eq \"round9\"")),
+        remaining);
+    UserResource added = TestUsers.create(99);
+    assertFalse(store.put(added));
+    remaining.add(added);
+    assertEquals(store.search((Filter) null), remaining);
+  }
+
+  /**
+   * Test storing generic resources with extension attributes.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testGenericResources() throws Exception
+  {
+    OffHeapResourceStore<GenericScimResource> generic =
+        new OffHeapResourceStore<GenericScimResource>(resourceTypeDefinition,
+            GenericScimResource.class);
+    List<GenericScimResource> resources = new ArrayList<GenericScimResource>();
+    for (int i = 0; i < 20; i++)
+    {
+      GenericScimResource resource =
+          TestUsers.create(i).asGenericScimResource();
+      resource.getObjectNode().putObject(
+          "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User").
+          put("employeeNumber", String.valueOf(i % 4));
+      resources.add(resource);
+    }
+    generic.putAll(resources);
+
+    Filter filter = Filter.fromString(
+        "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:" +
+            "employeeNumber eq \"3\" and active eq false");
+    List<GenericScimResource> expected =
+        TestUsers.scan(resourceTypeDefinition, filter, resources);
+    assertEquals(expected.size(), 5);
+    List<String> ids = new ArrayList<String>();
+    for (GenericScimResource resource : generic.search(filter))
+    {
+      assertEquals(resource.getValue(
+          "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User:" +
+              "employeeNumber").textValue(), "3");
+      ids.add(resource.getId());
+    }
+    List<String> expectedIds = new ArrayList<String>();
+    for (GenericScimResource resource : expected)
+    {
+      expectedIds.add(resource.getId());
+    }
+    assertEquals(ids, expectedIds);
+  }
+
+  /**
+   * Test searching through the search backend interface, which sorts the
+   * resources before materializing the requested page.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testBackendSearch() throws Exception
+  {
+    MultivaluedMap<String, String> queryParams =
+        new MultivaluedHashMap<String, String>();
+    queryParams.putSingle("filter", "title pr");
+    queryParams.putSingle("sortBy", "meta.lastModified");
+    queryParams.putSingle("sortOrder", "descending");
+    queryParams.putSingle("startIndex", "2");
+    queryParams.putSingle("count", "3");
+    BackendSearchResults<UserResource> results =
+        new BackendSearchResults<UserResource>(resourceTypeDefinition,
+            new ResourcePreparer<ScimResource>(resourceTypeDefinition, null,
+                null, new URI("https://example.com/v2/Users")),
+            queryParams, store);
+    assertTrue(results.getSearchPlan().isSortPushedDown());
+    assertTrue(results.getSearchPlan().isPagingPushedDown());
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    results.write(outputStream);
+    JsonNode response =
+        JsonUtils.getObjectReader().readTree(outputStream.toString("UTF-8"));
+    assertEquals(response.path("totalResults").intValue(), 27);
+    List<String> ids = new ArrayList<String>();
+    for (JsonNode resource : response.path("Resources"))
+    {
+      ids.add(resource.path("id").textValue());
+    }
+    assertEquals(ids, Arrays.asList("id37", "id36", "id34"));
+    assertEquals(store.getMaterializationCount(), 3);
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.GenericScimResource;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.EnterpriseUserExtension;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.Reporter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for resource snapshots.
+ */
+public class ResourceSnapshotTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private File file;
+
+  /**
+   * Create the snapshot file.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+    file = File.createTempFile("snapshot", ".bin");
+  }
+
+  /**
+   * Delete the snapshot file.
+   */
+  @AfterMethod
+  public void tearDown()
+  {
+    assertTrue(file.delete());
+  }
+
+  /**
+   * Test writing and reading a snapshot.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSnapshot() throws Exception
+  {
+    List<UserResource> users = new ArrayList<UserResource>();
+    ResourceSnapshot.Writer writer =
+        ResourceSnapshot.create(file, resourceTypeDefinition);
+    for (int i = 0; i < 100; i++)
+    {
+      UserResource user = createUser(i);
+      users.add(user);
+      writer.add(user);
+    }
+    writer.close();
+
+    ResourceSnapshot snapshot =
+        ResourceSnapshot.open(file, resourceTypeDefinition);
+    try
+    {
+      assertEquals(snapshot.size(), 100);
+      assertEquals(snapshot.getResourceTypeName(), "User");
+      assertEquals(snapshot.getEndpoint(), "/Users");
+      assertEquals(snapshot.getSchemaUrns(),
+          Arrays.asList("urn:ietf:params:scim:schemas:core:2.0:User"));
+      for (int i = 0; i < users.size(); i++)
+      {
+        UserResource user = users.get(i);
+        assertEquals(snapshot.getId(i), user.getId());
+        assertEquals(snapshot.get(user.getId(), UserResource.class), user);
+        assertEquals(snapshot.getObjectNode(i).path("userName").textValue(),
+            user.getUserName());
+      }
+      assertNull(snapshot.getObjectNode("unknown"));
+      assertNull(snapshot.get("unknown", UserResource.class));
+
+      GenericScimResource generic =
+          snapshot.get("id7", GenericScimResource.class);
+      assertEquals(generic.getObjectNode().path(
+          "urn:ietf:params:scim:schemas:extension:enterprise:2.0:User").
+          path("employeeNumber").textValue(), "7");
+    }
+    finally
+    {
+      snapshot.close();
+    }
+  }
+
+  /**
+   * Test that resources do not span segments.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSegments() throws Exception
+  {
+    List<UserResource> users = new ArrayList<UserResource>();
+    ResourceSnapshot.Writer writer =
+        ResourceSnapshot.create(file, resourceTypeDefinition, 2048);
+    for (int i = 0; i < 50; i++)
+    {
+      UserResource user = createUser(i);
+      users.add(user);
+      writer.add(user);
+    }
+    writer.close();
+    assertTrue(file.length() > 4 * 2048);
+
+    ResourceSnapshot snapshot = ResourceSnapshot.open(file);
+    try
+    {
+      for (UserResource user : users)
+      {
+        assertEquals(snapshot.get(user.getId(), UserResource.class), user);
+      }
+    }
+    finally
+    {
+      snapshot.close();
+    }
+
+    writer = ResourceSnapshot.create(file, resourceTypeDefinition, 64);
+    try
+    {
+      writer.add(createUser(1));
+      fail("A resource larger than a segment was written");
+    }
+    catch (IOException e)
+    {
+      // Expected.
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  /**
+   * Test opening files that are not valid snapshots.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testInvalidSnapshots() throws Exception
+  {
+    ResourceSnapshot.create(file, resourceTypeDefinition).
+        add(createUser(1)).close();
+
+    ResourceTypeDefinition groups = new ResourceTypeDefinition.Builder(
+        "Groups", "Groups").build();
+    assertInvalid(groups, "not Groups resources");
+
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    randomAccessFile.seek(8);
+    randomAccessFile.writeInt(ResourceSnapshot.VERSION + 1);
+    randomAccessFile.close();
+    assertInvalid(resourceTypeDefinition, "Unsupported snapshot version");
+
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    randomAccessFile.seek(8);
+    randomAccessFile.writeInt(ResourceSnapshot.VERSION);
+    randomAccessFile.setLength(randomAccessFile.length() - 4);
+    randomAccessFile.close();
+    assertInvalid(resourceTypeDefinition, "truncated or corrupt");
+
+    randomAccessFile = new RandomAccessFile(file, "rw");
+    randomAccessFile.seek(0);
+    randomAccessFile.writeBytes("{\"id\":");
+    randomAccessFile.close();
+    assertInvalid(resourceTypeDefinition, "not a SCIM resource snapshot");
+  }
+
+  /**
+   * Test that restoring resources from a snapshot gives the same resources as
+   * reloading them from JSON.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testRestoreComparedWithJson() throws Exception
+  {
+    compareRestoreWithJson(500);
+  }
+
+  /**
+   * Time restoring resources from a snapshot and reloading them from JSON.
+   * Restoring from a snapshot only decodes the resources that are retrieved.
+   * This only runs with the benchmarks profile.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test(groups = "benchmark")
+  public void benchmarkRestore() throws Exception
+  {
+    Reporter.log(compareRestoreWithJson(20000));
+  }
+
+  /**
+   * Compare restoring resources from a snapshot with reloading them from
+   * JSON.
+   *
+   * @param resourceCount The number of resources.
+   * @return The times taken.
+   * @throws Exception If an error occurs.
+   */
+  private String compareRestoreWithJson(final int resourceCount)
+      throws Exception
+  {
+    File jsonFile = File.createTempFile("snapshot", ".json");
+    try
+    {
+      ResourceSnapshot.Writer writer =
+          ResourceSnapshot.create(file, resourceTypeDefinition);
+      Writer jsonWriter = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(jsonFile), "UTF-8"));
+      for (int i = 0; i < resourceCount; i++)
+      {
+        UserResource user = createUser(i);
+        writer.add(user);
+        jsonWriter.write(JsonUtils.getObjectWriter().writeValueAsString(user));
+        jsonWriter.write('\n');
+      }
+      writer.close();
+      jsonWriter.close();
+
+      long start = System.nanoTime();
+      Map<String, ObjectNode> reloaded = new HashMap<String, ObjectNode>();
+      ObjectReader reader = JsonUtils.getObjectReader();
+      BufferedReader jsonReader = new BufferedReader(new InputStreamReader(
+          new FileInputStream(jsonFile), "UTF-8"));
+      try
+      {
+        String line;
+        while ((line = jsonReader.readLine()) != null)
+        {
+          ObjectNode node = (ObjectNode) reader.readTree(line);
+          reloaded.put(node.path("id").textValue(), node);
+        }
+      }
+      finally
+      {
+        jsonReader.close();
+      }
+      long jsonNanos = System.nanoTime() - start;
+      assertEquals(reloaded.size(), resourceCount);
+
+      start = System.nanoTime();
+      ResourceSnapshot snapshot = ResourceSnapshot.open(file);
+      long openNanos = System.nanoTime() - start;
+      try
+      {
+        Random random = new Random(37);
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++)
+        {
+          ids.add("id" + random.nextInt(resourceCount));
+        }
+        List<ObjectNode> found = new ArrayList<ObjectNode>(ids.size());
+        start = System.nanoTime();
+        for (String id : ids)
+        {
+          found.add(snapshot.getObjectNode(id));
+        }
+        long lookupNanos = System.nanoTime() - start;
+        for (int i = 0; i < ids.size(); i++)
+        {
+          assertEquals(found.get(i), reloaded.get(ids.get(i)));
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < snapshot.size(); i++)
+        {
+          snapshot.getObjectNode(i);
+        }
+        long decodeNanos = System.nanoTime() - start;
+
+        return String.format("%d resources: JSON reload %d ms (%d " +
+                "bytes), snapshot open %d us (%d bytes), %d us per lookup, " +
+                "full decode %d ms", resourceCount, jsonNanos / 1000000,
+            jsonFile.length(), openNanos / 1000, file.length(),
+            lookupNanos / 1000 / 1000, decodeNanos / 1000000);
+      }
+      finally
+      {
+        snapshot.close();
+      }
+    }
+    finally
+    {
+      assertTrue(jsonFile.delete());
+    }
+  }
+
+  /**
+   * Assert that opening the snapshot file fails.
+   *
+   * @param resourceType The resource type definition to open it with.
+   * @param message Part of the expected error message.
+   * @throws Exception If an error occurs.
+   */
+  private void assertInvalid(final ResourceTypeDefinition resourceType,
+                             final String message)
+      throws Exception
+  {
+    try
+    {
+      ResourceSnapshot.open(file, resourceType).close();
+      fail("Opened an invalid snapshot");
+    }
+    catch (IOException e)
+    {
+      assertTrue(e.getMessage().contains(message), e.getMessage());
+    }
+  }
+
+  /**
+   * Create a user.
+   *
+   * @param i The number of the user.
+   * @return The user.
+   */
+  private static UserResource createUser(final int i)
+  {
+    UserResource user = new UserResource();
+    user.setId("id" + i);
+    user.setUserName("user" + i);
+    user.setName(new Name().setGivenName("Given" + i).
+        setFamilyName("Family" + (i % 100)));
+    user.setActive(i % 2 == 0);
+    user.setTitle(i % 3 == 0 ? "CFO" : "Engineer");
+    user.setEmails(Arrays.asList(
+        new Email().setType("work").setPrimary(true).
+            setValue("user" + i + "@example.com"),
+        new Email().setType("home").setValue("home" + i + "@example.com")));
+    Calendar lastModified = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    lastModified.clear();
+    lastModified.set(2015, Calendar.JANUARY, 1, 0, 0, i % 60);
+    Meta meta = new Meta();
+    meta.setLastModified(lastModified);
+    user.setMeta(meta);
+    user.setExtension(new EnterpriseUserExtension().
+        setEmployeeNumber(String.valueOf(i)));
+    return user;
+  }
+}
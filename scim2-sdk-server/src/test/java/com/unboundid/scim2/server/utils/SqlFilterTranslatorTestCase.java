@@ -0,0 +1,364 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.Path;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.messages.SearchRequest;
+import com.unboundid.scim2.common.messages.SortOrder;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.Name;
+import com.unboundid.scim2.common.types.UserResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Test case for the SQL filter translator using an embedded database.
+ */
+public class SqlFilterTranslatorTestCase
+{
+  private ResourceTypeDefinition resourceTypeDefinition;
+  private SqlFilterTranslator translator;
+  private Connection connection;
+  private Map<String, ObjectNode> users;
+
+  /**
+   * Create and populate the database.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeClass
+  public void setUp() throws Exception
+  {
+    resourceTypeDefinition = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+
+    SimpleSqlColumnMapping mapping = new SimpleSqlColumnMapping().
+        addColumn("id", "u.id").
+        addColumn("userName", "u.user_name").
+        addColumn("displayName", "u.display_name").
+        addColumn("title", "u.title").
+        addColumn("active", "u.active").
+        addColumn("meta.lastModified", "u.last_modified").
+        addColumn("name.givenName", "u.given_name").
+        addValueFilterTemplate("name", "{0}").
+        addValueFilterTemplate("emails", "EXISTS (SELECT 1 FROM " +
+            "user_emails e WHERE e.user_id = u.id AND {0})").
+        addColumn("emails.value", "e.value").
+        addColumn("emails.type", "e.type");
+    translator = new SqlFilterTranslator(mapping, resourceTypeDefinition);
+
+    connection = DriverManager.getConnection("jdbc:h2:mem:scim");
+    Statement statement = connection.createStatement();
+    statement.execute("CREATE TABLE users (id VARCHAR PRIMARY KEY, " +
+        "user_name VARCHAR, display_name VARCHAR, title VARCHAR, " +
+        "active BOOLEAN, last_modified TIMESTAMP, given_name VARCHAR, " +
+        "nick_name VARCHAR)");
+    statement.execute("CREATE TABLE user_emails (user_id VARCHAR, " +
+        "value VARCHAR, type VARCHAR)");
+    statement.close();
+
+    users = new LinkedHashMap<String, ObjectNode>();
+    Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    calendar.clear();
+    calendar.set(2026, Calendar.OCTOBER, 1);
+    PreparedStatement insertUser = connection.prepareStatement(
+        "INSERT INTO users VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+    PreparedStatement insertEmail = connection.prepareStatement(
+        "INSERT INTO user_emails VALUES (?, ?, ?)");
+    for (int i = 0; i < 40; i++)
+    {
+      UserResource user = new UserResource();
+      user.setId("id" + i);
+      user.setUserName("User" + i);
+      user.setDisplayName(i == 7 ? "100% Smith" : "Display_" + i);
+      user.setTitle(i % 10 == 0 ? null : (i % 10 == 1 ? "CFO" : "Engineer"));
+      user.setActive(i % 4 != 0);
+      user.setNickName("nick" + i);
+      if (i % 3 != 0)
+      {
+        user.setName(new Name().setGivenName("Given" + (i % 5)));
+      }
+      Meta meta = new Meta();
+      meta.setLastModified(calendar);
+      user.setMeta(meta);
+
+      List<Email> emails = new ArrayList<Email>();
+      if (i % 2 == 0)
+      {
+        emails.add(new Email().setType("work").
+            setValue("user" + i + "@example.com"));
+      }
+      if (i % 5 != 0)
+      {
+        emails.add(new Email().setType("home").
+            setValue("user" + i + "@home.org"));
+      }
+      if (!emails.isEmpty())
+      {
+        user.setEmails(emails);
+      }
+      users.put(user.getId(), (ObjectNode) JsonUtils.valueToNode(user));
+
+      insertUser.setString(1, user.getId());
+      insertUser.setString(2, user.getUserName());
+      insertUser.setString(3, user.getDisplayName());
+      insertUser.setString(4, user.getTitle());
+      insertUser.setBoolean(5, user.getActive());
+      insertUser.setTimestamp(6, new Timestamp(calendar.getTimeInMillis()));
+      insertUser.setString(7, user.getName() == null ? null :
+          user.getName().getGivenName());
+      insertUser.setString(8, user.getNickName());
+      insertUser.executeUpdate();
+      for (Email email : emails)
+      {
+        insertEmail.setString(1, user.getId());
+        insertEmail.setString(2, email.getValue());
+        insertEmail.setString(3, email.getType());
+        insertEmail.executeUpdate();
+      }
+
+      calendar.add(Calendar.HOUR, 1);
+    }
+    insertUser.close();
+    insertEmail.close();
+  }
+
+  /**
+   * Close the database.
+   *
+   * @throws SQLException If an error occurs.
+   */
+  @AfterClass
+  public void tearDown() throws SQLException
+  {
+    connection.close();
+  }
+
+  /**
+   * Retrieves filters and whether they are expected to be fully translated.
+   *
+   * @return Filters and whether they are expected to be fully translated.
+   */
+  @DataProvider(name = "testFilters")
+  public Object[][] getTestFilters()
+  {
+    return new Object[][]
+        {
+            new Object[] { "userName eq \"USER1\"", true },
+            new Object[] { "userName sw \"user1\"", true },
+            new Object[] { "userName ew \"0\"", true },
+            new Object[] { "displayName co \"0% s\"", true },
+            new Object[] { "displayName co \"y_1\"", true },
+            new Object[] { "displayName co \"y%1\"", true },
+            new Object[] { "title eq \"cfo\"", true },
+            new Object[] { "title ne \"CFO\"", true },
+            new Object[] { "title eq null", true },
+            new Object[] { "title ne null", true },
+            new Object[] { "title pr", true },
+            new Object[] { "not (title co \"F\")", true },
+            new Object[] { "title gt \"D\"", true },
+            new Object[] { "active eq true and title eq \"CFO\"", true },
+            new Object[] { "active eq false or title eq \"CFO\"", true },
+            new Object[] { "active ne true", true },
+            new Object[] { "meta.lastModified gt \"2026-10-02T00:00:00Z\"",
+                true },
+            new Object[] { "meta.lastModified le \"2026-10-01T05:00:00Z\"",
+                true },
+            new Object[] { "name.givenName eq \"Given1\"", true },
+            new Object[] { "name[givenName sw \"given2\"]", true },
+            new Object[] { "not (name.givenName eq \"Given1\")", true },
+            new Object[] { "emails[type eq \"work\" and " +
+                "value ew \"@EXAMPLE.com\"]", true },
+            new Object[] { "emails.value ew \"@home.org\"", true },
+            new Object[] { "emails.type ne \"work\"", true },
+            new Object[] { "emails.type eq null", true },
+            new Object[] { "emails.value pr", true },
+            new Object[] { "nickName eq \"nick1\"", false },
+            new Object[] { "title eq \"CFO\" and nickName ew \"1\"", false },
+            new Object[] { "title eq \"CFO\" or nickName ew \"1\"", false },
+            new Object[] { "emails[type eq \"work\" and display pr]", false },
+            new Object[] { "emails pr and emails.value pr", false },
+        };
+  }
+
+  /**
+   * Test that translated filters select the same resources as the filter
+   * evaluator.
+   *
+   * @param filterString The filter.
+   * @param fullyTranslated Whether the filter is expected to be fully
+   *                        translated.
+   * @throws Exception If an error occurs.
+   */
+  @Test(dataProvider = "testFilters")
+  public void testFilter(final String filterString,
+                         final boolean fullyTranslated)
+      throws Exception
+  {
+    Filter filter = Filter.fromString(filterString);
+    SqlQuery query = translator.translate(filter);
+    if (fullyTranslated)
+    {
+      assertNull(query.getResidualFilter(), query.toString());
+    }
+    else
+    {
+      assertNotNull(query.getResidualFilter(), query.toString());
+    }
+
+    assertEquals(execute(query), evaluate(filter), query.toString());
+  }
+
+  /**
+   * Test translating sorting and paging.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testSortingAndPaging() throws Exception
+  {
+    SqlQuery query = translator.translate(new SearchRequest(null, null,
+        "title pr", "userName", SortOrder.DESCENDING, 3, 4));
+    assertNull(query.getResidualFilter());
+    assertEquals(query.getOffset(), Integer.valueOf(2));
+    assertEquals(query.getLimit(), Integer.valueOf(4));
+    assertEquals(execute(query), Arrays.asList("id7", "id6", "id5", "id4"));
+
+    // Missing values are sorted last when ascending.
+    query = translator.translate(new SearchRequest(null, null,
+        "userName sw \"user1\"", "title", SortOrder.ASCENDING, null, null));
+    List<String> ids = execute(query);
+    assertEquals(ids.size(), 11);
+    assertTrue(ids.get(0).equals("id1") || ids.get(0).equals("id11"));
+    assertEquals(ids.get(ids.size() - 1), "id10");
+
+    // Paging can not be pushed down if there is a residual filter.
+    query = translator.translate(new SearchRequest(null, null,
+        "nickName pr", "title", null, 1, 10));
+    assertNotNull(query.getResidualFilter());
+    assertNotNull(query.getOrderByClause());
+    assertNull(query.getLimit());
+
+    // Or if the sort attribute is not mapped.
+    query = translator.translate(new SearchRequest(null, null,
+        "title pr", "nickName", null, 1, 10));
+    assertNull(query.getOrderByClause());
+    assertNull(query.getLimit());
+
+    // Only case-ignored strings are compared in lower case.
+    SqlFilterTranslator customTranslator = new SqlFilterTranslator(
+        new SimpleSqlColumnMapping().addColumn("userName", "u.user_name").
+            addColumn("loginCount", "u.login_count"),
+        resourceTypeDefinition);
+    assertTrue(customTranslator.translateSortBy(
+        Path.fromString("userName"), null).contains("LOWER(u.user_name)"));
+    assertFalse(customTranslator.translateSortBy(
+        Path.fromString("loginCount"), null).contains("LOWER"));
+  }
+
+  /**
+   * Execute a translated query and evaluate the residual filter.
+   *
+   * @param query The translated query.
+   * @return The IDs of the matching users in the order returned.
+   * @throws SQLException If a database error occurs.
+   * @throws ScimException If the residual filter is invalid.
+   */
+  private List<String> execute(final SqlQuery query)
+      throws SQLException, ScimException
+  {
+    PreparedStatement statement = connection.prepareStatement(
+        query.toSql("SELECT u.id FROM users u"));
+    for (int i = 0; i < query.getParameters().size(); i++)
+    {
+      statement.setObject(i + 1, query.getParameters().get(i));
+    }
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceTypeDefinition);
+    List<String> ids = new ArrayList<String>();
+    ResultSet resultSet = statement.executeQuery();
+    while (resultSet.next())
+    {
+      String id = resultSet.getString(1);
+      if (query.getResidualFilter() == null ||
+          query.getResidualFilter().visit(evaluator, users.get(id)))
+      {
+        ids.add(id);
+      }
+    }
+    statement.close();
+    if (query.getOrderByClause() == null)
+    {
+      Collections.sort(ids);
+    }
+    return ids;
+  }
+
+  /**
+   * Evaluate a filter in memory.
+   *
+   * @param filter The filter to evaluate.
+   * @return The sorted IDs of the matching users.
+   * @throws ScimException If the filter is invalid.
+   */
+  private List<String> evaluate(final Filter filter) throws ScimException
+  {
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceTypeDefinition);
+    List<String> ids = new ArrayList<String>();
+    for (Map.Entry<String, ObjectNode> user : users.entrySet())
+    {
+      if (filter.visit(evaluator, user.getValue()))
+      {
+        ids.add(user.getKey());
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.unboundid.scim2.common.ScimResource;
+import com.unboundid.scim2.common.exceptions.ScimException;
+import com.unboundid.scim2.common.filters.Filter;
+import com.unboundid.scim2.common.types.Email;
+import com.unboundid.scim2.common.types.Meta;
+import com.unboundid.scim2.common.types.UserResource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Users and filters shared by the test cases of the resource stores, and the
+ * reference search that evaluates a filter against every resource.
+ */
+final class TestUsers
+{
+  /**
+   * Prevent instantiation.
+   */
+  private TestUsers()
+  {
+  }
+
+  /**
+   * Create a user. Users vary in their attributes so that filters on them
+   * match different subsets of users, and the users are last modified a
+   * second apart in the order of their numbers.
+   *
+   * @param i The number of the user.
+   * @return The user.
+   */
+  static UserResource create(final int i)
+  {
+    UserResource user = new UserResource();
+    user.setId("id" + i);
+    user.setUserName("user" + i);
+    if (i % 4 == 0)
+    {
+      user.setExternalId("ext" + i);
+    }
+    user.setTitle(i % 3 == 0 ? "CFO" : (i % 3 == 1 ? "Engineer" : null));
+    user.setActive(i % 2 == 0);
+    user.setUserType(i % 5 == 0 ? "Contractor" : "Employee");
+    user.setNickName(i % 2 == 0 ? "even" : "odd");
+    user.setDisplayName((i % 4 < 2 ? "Mr. " : "Ms. ") +
+        (i % 2 == 0 ? "Smithers " : "Doe-Smith ") + i);
+    user.setEmails(Arrays.asList(
+        new Email().setType(i % 4 == 0 ? "work" : "home").setPrimary(i < 10).
+            setValue("user" + i + "@example.com"),
+        new Email().setType("other").setValue("other" + (i % 7) +
+            "@example.com")));
+    Calendar lastModified = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+    lastModified.clear();
+    lastModified.set(2015, Calendar.JANUARY, 1, 0, 0, i);
+    Meta meta = new Meta();
+    meta.setLastModified(lastModified);
+    user.setMeta(meta);
+    return user;
+  }
+
+  /**
+   * Retrieves filters on the attributes of the users.
+   *
+   * @return Filters on the attributes of the users.
+   * @throws ScimException If a filter could not be parsed.
+   */
+  static List<Filter> getFilters() throws ScimException
+  {
+    String[] filters =
+        {
+            "id eq \"id7\"",
+            "userName eq \"USER14\"",
+            "externalId eq \"ext3\"",
+            "externalId pr",
+            "emails.value eq \"user5@example.com\"",
+            "emails[value eq \"user5@example.com\"]",
+            "meta.lastModified gt \"2015-01-01T00:00:20Z\"",
+            "meta.lastModified le \"2015-01-01T00:00:05Z\"",
+            "meta.lastModified ge \"2015-01-01T00:00:10Z\" and " +
+                "meta.lastModified lt \"2015-01-01T00:00:15Z\"",
+            "title sw \"eng\"",
+            "title lt \"D\"",
+            "title eq \"CFO\" and active eq true",
+            "userName eq \"user1\" or userName eq \"user2\"",
+            "userName eq \"user1\" or active eq true",
+            "not (title eq \"CFO\")",
+            "not (title pr)",
+            "active eq false",
+            "emails[type eq \"work\" and value sw \"user1\"]",
+            "(title sw \"E\" or title eq \"CFO\") and " +
+                "emails[type eq \"work\"] and active eq true",
+            "active eq true and userType eq \"Employee\" and " +
+                "emails[type eq \"work\"]",
+            "not (active eq true) or userType eq \"contractor\"",
+            "userType ne \"Employee\" and nickName eq \"even\"",
+            "displayName co \"SMITH\"",
+            "displayName sw \"mr. smi\"",
+            "displayName ew \"1\"",
+            "displayName co \"\"",
+            "emails.value co \"r1\" and displayName co \"doe\"",
+            "emails[value ew \"3@example.com\"]",
+            "emails.value ne \"user5@example.com\"",
+            "emails[value ne \"user5@example.com\"]",
+            "not (emails[value ne \"other2@example.com\"])"
+        };
+    List<Filter> parsed = new ArrayList<Filter>(filters.length);
+    for (String filter : filters)
+    {
+      parsed.add(Filter.fromString(filter));
+    }
+    return parsed;
+  }
+
+  /**
+   * Create the parameters of a data provider that provides one filter to
+   * each invocation of a test.
+   *
+   * @param filters The filters.
+   * @return The parameters of the data provider.
+   */
+  static Object[][] toParameters(final List<Filter> filters)
+  {
+    Object[][] parameters = new Object[filters.size()][];
+    for (int i = 0; i < filters.size(); i++)
+    {
+      parameters[i] = new Object[] { filters.get(i) };
+    }
+    return parameters;
+  }
+
+  /**
+   * Evaluate a filter against every resource, which is what the searches of
+   * the resource stores must be equivalent to.
+   *
+   * @param resourceType The resource type definition of the resources.
+   * @param filter The filter.
+   * @param resources The resources.
+   * @param <R> The type of the resources.
+   * @return The matching resources in their original order.
+   * @throws ScimException If the filter is not valid for matching.
+   */
+  static <R extends ScimResource> List<R> scan(
+      final ResourceTypeDefinition resourceType, final Filter filter,
+      final List<R> resources)
+      throws ScimException
+  {
+    SchemaAwareFilterEvaluator evaluator =
+        new SchemaAwareFilterEvaluator(resourceType);
+    List<R> matches = new ArrayList<R>();
+    for (R resource : resources)
+    {
+      if (filter.visit(evaluator,
+          resource.asGenericScimResource().getObjectNode()))
+      {
+        matches.add(resource);
+      }
+    }
+    return matches;
+  }
+}
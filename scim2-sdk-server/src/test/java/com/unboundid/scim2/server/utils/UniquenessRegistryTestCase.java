@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015-2018 Ping Identity Corporation
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPLv2 only)
+ * or the terms of the GNU Lesser General Public License (LGPLv2.1 only)
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see <http://www.gnu.org/licenses>.
+ */
+
+package com.unboundid.scim2.server.utils;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.unboundid.scim2.common.exceptions.BadRequestException;
+import com.unboundid.scim2.common.types.AttributeDefinition;
+import com.unboundid.scim2.common.types.SchemaResource;
+import com.unboundid.scim2.common.utils.JsonUtils;
+import com.unboundid.scim2.server.TestResourceEndpoint;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+/**
+ * Test case for the uniqueness registry.
+ */
+public class UniquenessRegistryTestCase
+{
+  private ResourceTypeDefinition users;
+  private UniquenessRegistry registry;
+
+  /**
+   * Create the registry.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @BeforeMethod
+  public void setUp() throws Exception
+  {
+    users = ResourceTypeDefinition.fromJaxRsResource(
+        TestResourceEndpoint.class);
+    registry = new UniquenessRegistry();
+  }
+
+  /**
+   * Test reserving values when creating, replacing and deleting resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testReservations() throws Exception
+  {
+    registry.reserve(users, "1", null, user("bjensen")).commit();
+    assertConflict(users, "2", null, user("BJENSEN"));
+
+    // A failed create frees its values.
+    UniquenessRegistry.Reservation reservation =
+        registry.reserve(users, "2", null, user("babs"));
+    reservation.release();
+    registry.reserve(users, "3", null, user("babs")).commit();
+    assertConflict(users, "2", null, user("Babs"));
+
+    // Replacing a resource keeps its own values and frees the old ones once
+    // committed.
+    registry.reserve(users, "1", user("bjensen"), user("bjensen")).commit();
+    reservation = registry.reserve(users, "1", user("bjensen"), user("jensen"));
+    assertConflict(users, "2", null, user("jensen"));
+    assertConflict(users, "2", null, user("bjensen"));
+    reservation.commit();
+    reservation.release();
+    registry.reserve(users, "2", null, user("bjensen")).commit();
+
+    // A failed replace keeps the old values.
+    reservation = registry.reserve(users, "3", user("babs"), user("barbara"));
+    reservation.release();
+    assertConflict(users, "4", null, user("babs"));
+    registry.reserve(users, "4", null, user("barbara")).commit();
+    assertEquals(registry.size(), 4);
+
+    // Deleting a resource frees its values.
+    registry.release(users, "3", user("babs"));
+    registry.reserve(users, "5", null, user("babs")).commit();
+    assertEquals(registry.size(), 4);
+  }
+
+  /**
+   * Test server and global uniqueness across resource types and case exact
+   * attributes.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testScopes() throws Exception
+  {
+    SchemaResource schema = new SchemaResource("urn:test:Device", "Device",
+        null, Arrays.asList(
+        new AttributeDefinition.Builder().setName("userName").
+            setType(AttributeDefinition.Type.STRING).
+            setUniqueness(AttributeDefinition.Uniqueness.SERVER).build(),
+        new AttributeDefinition.Builder().setName("serialNumber").
+            setType(AttributeDefinition.Type.STRING).setCaseExact(true).
+            setUniqueness(AttributeDefinition.Uniqueness.GLOBAL).build()));
+    ResourceTypeDefinition devices =
+        new ResourceTypeDefinition.Builder("Device", "/Devices").
+            setCoreSchema(schema).build();
+    ResourceTypeDefinition sensors =
+        new ResourceTypeDefinition.Builder("Sensor", "/Sensors").
+            setCoreSchema(schema).build();
+
+    // Server uniqueness is per resource type.
+    registry.reserve(users, "1", null, user("shared")).commit();
+    registry.reserve(devices, "1", null, device("shared", "SN1")).commit();
+    registry.reserve(sensors, "1", null, device("shared", "SN2")).commit();
+    assertConflict(devices, "2", null, device("SHARED", "SN3"));
+
+    // Global uniqueness spans resource types and is case exact here.
+    assertConflict(sensors, "2", null, device("other", "SN1"));
+    registry.reserve(sensors, "2", null, device("other", "sn1")).commit();
+  }
+
+  /**
+   * Test that concurrent creates and renames never assign the same value to
+   * two resources.
+   *
+   * @throws Exception If an error occurs.
+   */
+  @Test
+  public void testConcurrentCreates() throws Exception
+  {
+    final int threads = 16;
+    final int operations = 2000;
+    final int names = 300;
+    final ConcurrentMap<String, String> owners =
+        new ConcurrentHashMap<String, String>();
+    final ConcurrentMap<String, String> currentNames =
+        new ConcurrentHashMap<String, String>();
+    final AtomicInteger violations = new AtomicInteger();
+    final AtomicInteger conflicts = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int t = 0; t < threads; t++)
+    {
+      final int thread = t;
+      futures.add(executor.submit(new Runnable()
+      {
+        public void run()
+        {
+          Random random = new Random(thread);
+          try
+          {
+            start.await();
+            for (int i = 0; i < operations; i++)
+            {
+              String id = thread + "-" + (i % 50);
+              String name = "user" + random.nextInt(names);
+              if (random.nextBoolean())
+              {
+                name = name.toUpperCase();
+              }
+              String folded = name.toLowerCase();
+              String currentName = currentNames.get(id);
+              UniquenessRegistry.Reservation reservation;
+              try
+              {
+                reservation = registry.reserve(users, id,
+                    currentName == null ? null : user(currentName),
+                    user(name));
+              }
+              catch (BadRequestException e)
+              {
+                conflicts.incrementAndGet();
+                continue;
+              }
+              try
+              {
+                // Simulate failed writes to the backend.
+                if (random.nextInt(10) == 0)
+                {
+                  continue;
+                }
+                if (!folded.equals(currentName) &&
+                    owners.putIfAbsent(folded, id) != null)
+                {
+                  violations.incrementAndGet();
+                }
+                if (currentName != null && !folded.equals(currentName))
+                {
+                  owners.remove(currentName, id);
+                }
+                currentNames.put(id, folded);
+                reservation.commit();
+              }
+              finally
+              {
+                reservation.release();
+              }
+            }
+          }
+          catch (Exception e)
+          {
+            violations.incrementAndGet();
+          }
+        }
+      }));
+    }
+    start.countDown();
+    for (Future<?> future : futures)
+    {
+      future.get();
+    }
+    executor.shutdown();
+
+    assertEquals(violations.get(), 0);
+    assertEquals(registry.size(), owners.size());
+    if (conflicts.get() == 0)
+    {
+      fail("Expected some conflicting reservations");
+    }
+  }
+
+  /**
+   * Assert that reserving values fails with a uniqueness error.
+   *
+   * @param resourceType The resource type definition.
+   * @param id The ID of the resource.
+   * @param current The current version of the resource.
+   * @param resource The new version of the resource.
+   */
+  private void assertConflict(final ResourceTypeDefinition resourceType,
+                              final String id, final ObjectNode current,
+                              final ObjectNode resource)
+  {
+    try
+    {
+      registry.reserve(resourceType, id, current, resource);
+      fail("Expected a uniqueness error");
+    }
+    catch (BadRequestException e)
+    {
+      assertEquals(e.getScimError().getScimType(),
+          BadRequestException.UNIQUENESS);
+    }
+  }
+
+  /**
+   * Create a user.
+   *
+   * @param userName The user name.
+   * @return The user.
+   */
+  private static ObjectNode user(final String userName)
+  {
+    ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+    node.putArray("schemas").add("urn:ietf:params:scim:schemas:core:2.0:User");
+    node.put("userName", userName);
+    node.put("displayName", "Not unique");
+    return node;
+  }
+
+  /**
+   * Create a device.
+   *
+   * @param userName The user name.
+   * @param serialNumber The serial number.
+   * @return The device.
+   */
+  private static ObjectNode device(final String userName,
+                                   final String serialNumber)
+  {
+    ObjectNode node = JsonUtils.getJsonNodeFactory().objectNode();
+    node.put("userName", userName);
+    node.put("serialNumber", serialNumber);
+    return node;
+  }
+}